@@ -28,22 +28,27 @@
 
 package uk.ac.rdg.resc.edal.dataset.cdm;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ucar.ma2.Array;
-import ucar.ma2.Index;
+import ucar.ma2.IndexIterator;
 import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDataset.Enhance;
 import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
 import uk.ac.rdg.resc.edal.dataset.GridDataSource;
+import uk.ac.rdg.resc.edal.dataset.StridedGridDataSource;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.DoubleArray4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
 
 /**
  * Implementation of {@link GridDataSource} using the Unidata Common Data Model
@@ -52,47 +57,119 @@ import uk.ac.rdg.resc.edal.util.Array4D;
  * @author Guy Griffiths
  * @author Jon
  */
-final class CdmGridDataSource implements GridDataSource {
+final class CdmGridDataSource implements StridedGridDataSource {
     /*
      * Note that this is the CDM GridDataset, not the EDAL one
      */
     private final GridDataset gridDataset;
-    private Map<String, RangesList> rangeListCache = new HashMap<>();
+    /*
+     * These caches may be accessed by concurrent reads (see
+     * DataReadingStrategy.ADAPTIVE_REMOTE)
+     */
+    private Map<String, RangesList> rangeListCache = new ConcurrentHashMap<>();
+    private Map<String, MissingValuePredicate> missingValueCache = new ConcurrentHashMap<>();
 
     /*
      * This is used to synchronize the actual reading. This is necessary because
      * we have the following model:
      * 
-     * There is a single NetcdfDataset object per dataset, which gets cached,
-     * and closed when the cache becomes full. This is because the overhead of
-     * creating a NetcdfDataset is high.
+     * There is a single NetcdfDataset object per dataset, which is held in
+     * the NetcdfDatasetPool, and closed when it has been idle for a while or
+     * the pool becomes full. This is because the overhead of creating a
+     * NetcdfDataset is high.
      * 
      * Each time CdmGridDataset.openGridDataSource() is called, a *new*
-     * CdmGridDataSource is created. We can't keep the individual
-     * CdmGridDataSource objects in memory because it's not predictable as to
-     * when the underlying NetcdfDataset will be closed. The overhead of
-     * creating a new CdmGridDataSource is very low compared to the creation of
-     * a NetcdfDataset.
+     * CdmGridDataSource is created, holding a lease on the pooled dataset
+     * which is released when it is closed. The overhead of creating a new
+     * CdmGridDataSource is very low compared to the creation of a
+     * NetcdfDataset.
      * 
      * When read() is called on separate instances of CdmGridDataSource which
      * refer to the same location, something happens which causes the array
      * indices to be set incorrectly, and we get an
-     * ArrayIndexOutOfBoundsException. We can't synchronize on a non-static
-     * object, because these are all separate instances.
+     * ArrayIndexOutOfBoundsException. This is because the underlying file
+     * handle (and its read buffer) is shared between them.
+     * 
+     * We therefore synchronize on the shared NetcdfFile object, since all
+     * CdmGridDataSources which refer to the same location will wrap the same
+     * (cached) handle. Reads from different datasets can then proceed in
+     * parallel.
      * 
-     * This could also have been solved by removing NetcdfDataset caching. I
-     * think that this would have a bigger effect on the speed, although that
-     * may depend on the use case.
+     * OPeNDAP datasets have no local file handle - each read is a separate
+     * request to the server - so reads from them are not synchronized at all.
+     * This allows the reads for a single map to be made concurrently.
+     * 
+     * If concurrent reads are disabled, all reads are synchronized on the
+     * single static GLOBAL_READ_LOCK, which was the previous behaviour.
+     */
+    private static final Object GLOBAL_READ_LOCK = new Object();
+    private final Object readLock;
+
+    /*
+     * Released when this CdmGridDataSource is closed. May be null.
      */
-    private static Object syncObj = new Object();
+    private final Closeable lease;
 
+    /**
+     * Creates a new {@link CdmGridDataSource} where reads from different
+     * underlying datasets may run concurrently
+     * 
+     * @param gridDataset
+     *            The {@link GridDataset} to read from
+     */
     public CdmGridDataSource(GridDataset gridDataset) {
+        this(gridDataset, true);
+    }
+
+    /**
+     * Creates a new {@link CdmGridDataSource}
+     * 
+     * @param gridDataset
+     *            The {@link GridDataset} to read from
+     * @param concurrentReads
+     *            If <code>true</code>, reads are only synchronized against
+     *            other reads from the same underlying {@link NetcdfFile} (and
+     *            not at all for OPeNDAP datasets). If <code>false</code>, all
+     *            reads within the JVM are serialized.
+     */
+    public CdmGridDataSource(GridDataset gridDataset, boolean concurrentReads) {
+        this(gridDataset, concurrentReads, null);
+    }
+
+    /**
+     * Creates a new {@link CdmGridDataSource} which holds a lease on the
+     * underlying dataset
+     * 
+     * @param gridDataset
+     *            The {@link GridDataset} to read from
+     * @param concurrentReads
+     *            See {@link #CdmGridDataSource(GridDataset, boolean)}
+     * @param lease
+     *            Closed when this {@link CdmGridDataSource} is closed, to allow
+     *            the underlying dataset to be closed once it is no longer in
+     *            use. May be <code>null</code>
+     */
+    CdmGridDataSource(GridDataset gridDataset, boolean concurrentReads, Closeable lease) {
         this.gridDataset = gridDataset;
+        this.lease = lease;
+        NetcdfFile ncFile = gridDataset.getNetcdfFile();
+        if (concurrentReads && ncFile != null) {
+            readLock = "OPeNDAP".equalsIgnoreCase(ncFile.getFileTypeId()) ? null : ncFile;
+        } else {
+            readLock = GLOBAL_READ_LOCK;
+        }
     }
 
     @Override
     public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
             int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+        return read(variableId, tmin, tmax, zmin, zmax, ymin, ymax, 1, xmin, xmax, 1);
+    }
+
+    @Override
+    public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+            int ymin, int ymax, int ystride, int xmin, int xmax, int xstride)
+            throws IOException, DataReadingException {
         /*
          * Get hold of the variable from which we want to read data
          */
@@ -105,15 +182,15 @@ final class CdmGridDataSource implements GridDataSource {
          * PIXEL_BY_PIXEL and SCANLINE strategies.
          * 
          * Therefore we cache it - it doesn't give a huge increase in speed, but
-         * it is noticeable
+         * it is noticeable. Each read takes a copy of the cached object, since
+         * reads may happen concurrently.
          */
-        RangesList rangesList;
-        if (rangeListCache.containsKey(variableId)) {
-            rangesList = rangeListCache.get(variableId);
-        } else {
-            rangesList = new RangesList(gridDatatype);
-            rangeListCache.put(variableId, rangesList);
+        RangesList cachedRangesList = rangeListCache.get(variableId);
+        if (cachedRangesList == null) {
+            cachedRangesList = new RangesList(gridDatatype);
+            rangeListCache.put(variableId, cachedRangesList);
         }
+        RangesList rangesList = new RangesList(cachedRangesList);
 
         /*
          * Set the ranges for t,z,y and x. This can be done without raising
@@ -121,28 +198,27 @@ final class CdmGridDataSource implements GridDataSource {
          */
         rangesList.setTRange(tmin, tmax);
         rangesList.setZRange(zmin, zmax);
-        rangesList.setYRange(ymin, ymax);
-        rangesList.setXRange(xmin, xmax);
+        rangesList.setYRange(ymin, ymax, ystride);
+        rangesList.setXRange(xmin, xmax, xstride);
 
         final Array arr;
         Variable origVar = var.getOriginalVariable();
 
+        /*
+         * If there is an original variable, we read from it to avoid enhancing
+         * data values that we won't use. Otherwise we read from the enhanced
+         * variable.
+         */
+        Variable readVar = origVar == null ? var : origVar;
         try {
             /*
-             * See definition of syncObj for explanation of synchronization
+             * See definition of readLock for explanation of synchronization
              */
-            if (origVar == null) {
-                synchronized (syncObj) {
-                    /* We read from the enhanced variable */
-                    arr = var.read(rangesList.getRanges());
-                }
+            if (readLock == null) {
+                arr = readVar.read(rangesList.getRanges());
             } else {
-                synchronized (syncObj) {
-                    /*
-                     * We read from the original variable to avoid enhancing
-                     * data values that we won't use
-                     */
-                    arr = origVar.read(rangesList.getRanges());
+                synchronized (readLock) {
+                    arr = readVar.read(rangesList.getRanges());
                 }
             }
         } catch (InvalidRangeException ire) {
@@ -173,113 +249,126 @@ final class CdmGridDataSource implements GridDataSource {
             needsEnhance = false;
         }
 
+        Array values = needsEnhance ? var.convertScaleOffsetMissing(arr) : arr;
+
+        MissingValuePredicate missingValues = missingValueCache.get(variableId);
+        if (missingValues == null) {
+            missingValues = new MissingValuePredicate(var);
+            missingValueCache.put(variableId, missingValues);
+        }
+
         /*
-         * Returns a 4D array that wraps the Array
+         * Decode the whole hyperslab into a primitive array in a single pass.
+         * Data which is no wider than a float is stored as floats, so that it
+         * can be passed straight through the map reading path without boxing.
          */
-        int[] shape = new int[] { (tmax - tmin + 1), (zmax - zmin + 1), (ymax - ymin + 1),
-                (xmax - xmin + 1) };
-        WrappedArray wrappedArray = new WrappedArray(var, arr, needsEnhance, shape, rangesList);
-        return wrappedArray;
+        int[] shape = new int[] { (tmax - tmin + 1), (zmax - zmin + 1),
+                (ymax - ymin) / ystride + 1, (xmax - xmin) / xstride + 1 };
+        switch (values.getDataType()) {
+        case BYTE:
+        case UBYTE:
+        case SHORT:
+        case USHORT:
+        case FLOAT:
+            return new FloatDecodedArray(values, shape, rangesList, missingValues);
+        case INT:
+        case UINT:
+        case LONG:
+        case ULONG:
+        case DOUBLE:
+            return new DoubleDecodedArray(values, shape, rangesList, missingValues);
+        default:
+            /*
+             * Non-numeric data. Return an array with all values missing
+             */
+            return new FloatArray4D(shape[0], shape[1], shape[2], shape[3]);
+        }
     }
 
     @Override
     public void close() throws IOException {
         /*
-         * We do not close this DataSource. The CdmGridDatasetFactory keeps a
-         * cache of NetcdfDataset objects and will close them when the cache
-         * becomes full.
+         * We do not close the underlying dataset. It is kept open in the
+         * NetcdfDatasetPool, which will close it once no leases are held on it
+         * and it is idle or the pool is full.
          * 
          * This is a big speed improvement when the same dataset is accessed
          * multiple times in quick succession
          */
-    }
-
-    private static final class WrappedArray extends Array4D<Number> {
-        private VariableDS var;
-        private Array arr;
-        private final int[] shape;
-        private final int xAxisIndex;
-        private final int yAxisIndex;
-        private final int zAxisIndex;
-        private final int tAxisIndex;
-
-        public WrappedArray(VariableDS var, Array arr, boolean needsEnhance, int[] shape,
-                RangesList rangesList) {
-            super(shape[0], shape[1], shape[2], shape[3]);
-            this.var = var;
-            this.shape = shape;
-
-            if (needsEnhance) {
-                this.arr = var.convertScaleOffsetMissing(arr);
-            } else {
-                this.arr = arr;
-            }
-
-            xAxisIndex = rangesList.getXAxisIndex();
-            yAxisIndex = rangesList.getYAxisIndex();
-            zAxisIndex = rangesList.getZAxisIndex();
-            tAxisIndex = rangesList.getTAxisIndex();
+        if (lease != null) {
+            lease.close();
         }
+    }
 
-        @Override
-        public int[] getShape() {
-            return shape;
-        }
+    /**
+     * Steps through the elements of a (physical) CDM {@link Array} in the order
+     * they are returned by its {@link IndexIterator}, and calculates the
+     * corresponding offset in a 4D array with the axes in canonical (t,z,y,x)
+     * order and the x-dimension varying fastest.
+     */
+    private static final class CanonicalOffsetCursor {
+        private final int[] physicalShape;
+        private final int[] strides;
+        private final int[] counter;
+        private int offset = 0;
 
-        @Override
-        public Number get(int... coords) {
+        public CanonicalOffsetCursor(Array arr, int[] shape, RangesList rangesList) {
+            physicalShape = arr.getShape();
+            counter = new int[physicalShape.length];
             /*
-             * The convention is that the x coordinate varies fastest
+             * The stride in the canonical array of each physical axis. Axes
+             * other than t, z, y and x will have a length of 1 and so their
+             * stride is irrelevant.
              */
-            int x = coords[3];
-            int y = coords[2];
-            int z = coords[1];
-            int t = coords[0];
+            strides = new int[physicalShape.length];
+            setStride(rangesList.getXAxisIndex(), 1);
+            setStride(rangesList.getYAxisIndex(), shape[3]);
+            setStride(rangesList.getZAxisIndex(), shape[3] * shape[2]);
+            setStride(rangesList.getTAxisIndex(), shape[3] * shape[2] * shape[1]);
+        }
 
-            /*
-             * Create a new index
-             */
-            Index index = arr.getIndex();
-            /*
-             * Set the index values
-             */
-            if (tAxisIndex >= 0)
-                index.setDim(tAxisIndex, t);
-            if (zAxisIndex >= 0)
-                index.setDim(zAxisIndex, z);
-            if (yAxisIndex >= 0)
-                index.setDim(yAxisIndex, y);
-            if (xAxisIndex >= 0)
-                index.setDim(xAxisIndex, x);
+        private void setStride(int axisIndex, int stride) {
+            if (axisIndex >= 0) {
+                strides[axisIndex] = stride;
+            }
+        }
 
-            Number val = null;
-            switch (arr.getDataType()) {
-            case BYTE:
-                val = arr.getByte(index);
-                break;
-            case DOUBLE:
-                val = arr.getDouble(index);
-                break;
-            case FLOAT:
-                val = arr.getFloat(index);
-                break;
-            case INT:
-                val = arr.getInt(index);
-                break;
-            case LONG:
-                val = arr.getLong(index);
-                break;
-            case SHORT:
-                val = arr.getShort(index);
-                break;
-            default:
-                break;
+        /**
+         * @return The canonical offset of the current element. The cursor is
+         *         then advanced to the next element
+         */
+        public int next() {
+            int current = offset;
+            for (int dim = counter.length - 1; dim >= 0; dim--) {
+                counter[dim]++;
+                offset += strides[dim];
+                if (counter[dim] < physicalShape[dim]) {
+                    break;
+                }
+                offset -= strides[dim] * counter[dim];
+                counter[dim] = 0;
             }
+            return current;
+        }
+    }
 
-            if (isMissing(val)) {
-                return null;
-            } else {
-                return val;
+    /**
+     * An {@link Array4D} holding the data read from a CDM {@link Array} as
+     * <code>float</code>s, with missing values already identified.
+     */
+    private static final class FloatDecodedArray extends FloatArray4D {
+        public FloatDecodedArray(Array arr, int[] shape, RangesList rangesList,
+                MissingValuePredicate missingValues) {
+            super(shape[0], shape[1], shape[2], shape[3]);
+            CanonicalOffsetCursor cursor = new CanonicalOffsetCursor(arr, shape, rangesList);
+            IndexIterator it = arr.getIndexIterator();
+            while (it.hasNext()) {
+                double val = it.getDoubleNext();
+                int offset = cursor.next();
+                if (!missingValues.isMissing(val)) {
+                    data[offset] = (float) val;
+                    missing.clear(offset);
+                }
             }
         }
 
@@ -287,51 +376,32 @@ final class CdmGridDataSource implements GridDataSource {
         public void set(Number val, int... coords) {
             throw new UnsupportedOperationException("Modification not supported.");
         }
+    }
 
-        @Override
-        public long size() {
-            return shape[0] * shape[1] * shape[2] * shape[3];
-        }
-
-        /**
-         * Performs the same checks as {@link VariableDS#isMissing(double)}, but
-         * allows a tolerance of 1e-7 on the maximum and minimum values. This is
-         * because when using aggregations we have no underlying original
-         * variable. In these cases, the valid min/max get automatically
-         * enhanced as doubles, but the value gets enhanced as its underlying
-         * data type. If this is a float, then rounding errors can occur.
-         * 
-         * e.g. the valid max may be 1.0f, but 0.9999999776482582. The valid max
-         * is represented in the double form, but the value is represented in
-         * the floating point form is 1.0, which is greater than the valid max,
-         * even if in the underlying data they are equal.
-         * 
-         * @param val
-         *            The value to check
-         * @return Whether or not this should be considered missing data
-         */
-        private boolean isMissing(Number num) {
-            if (num == null) {
-                return true;
-            } else {
-                double val = num.doubleValue();
-                if (var.hasFillValue() && var.isFillValue(val) || var.hasMissingValue()
-                        && var.isMissingValue(val) || Double.isNaN(val)) {
-                    return true;
-                } else if (var.hasInvalidData()) {
-                    if (var.getValidMax() != -Double.MAX_VALUE) {
-                        if (val > var.getValidMax() && (val - var.getValidMax()) > 1e-7) {
-                            return true;
-                        }
-                    }
-                    if (var.getValidMin() != Double.MAX_VALUE) {
-                        if (val < var.getValidMin() && (var.getValidMin() - val) > 1e-7) {
-                            return true;
-                        }
-                    }
+    /**
+     * An {@link Array4D} holding the data read from a CDM {@link Array} as
+     * <code>double</code>s, with missing values already identified. This is
+     * used for data types which would lose precision as <code>float</code>s.
+     */
+    private static final class DoubleDecodedArray extends DoubleArray4D {
+        public DoubleDecodedArray(Array arr, int[] shape, RangesList rangesList,
+                MissingValuePredicate missingValues) {
+            super(shape[0], shape[1], shape[2], shape[3]);
+            CanonicalOffsetCursor cursor = new CanonicalOffsetCursor(arr, shape, rangesList);
+            IndexIterator it = arr.getIndexIterator();
+            while (it.hasNext()) {
+                double val = it.getDoubleNext();
+                int offset = cursor.next();
+                if (!missingValues.isMissing(val)) {
+                    data[offset] = val;
+                    missing.clear(offset);
                 }
-                return false;
             }
         }
+
+        @Override
+        public void set(Number val, int... coords) {
+            throw new UnsupportedOperationException("Modification not supported.");
+        }
     }
 }
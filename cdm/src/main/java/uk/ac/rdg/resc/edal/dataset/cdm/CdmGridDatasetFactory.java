@@ -30,40 +30,53 @@ package uk.ac.rdg.resc.edal.dataset.cdm;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ucar.nc2.Attribute;
-import ucar.nc2.Dimension;
-import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset.Gridset;
 import ucar.nc2.dt.GridDatatype;
-import ucar.nc2.ncml.NcMLReader;
-import ucar.nc2.units.DateUnit;
 import uk.ac.rdg.resc.edal.dataset.DataReadingStrategy;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
 import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
 import uk.ac.rdg.resc.edal.dataset.GridDataSource;
 import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
+import uk.ac.rdg.resc.edal.dataset.SampledValueRangeEstimator;
+import uk.ac.rdg.resc.edal.dataset.ValueRangeEstimator;
+import uk.ac.rdg.resc.edal.dataset.cdm.MetadataSnapshot.FileFingerprint;
+import uk.ac.rdg.resc.edal.dataset.cdm.MetadataSnapshot.MeanSDComponents;
+import uk.ac.rdg.resc.edal.dataset.cdm.MetadataSnapshot.VectorComponents;
 import uk.ac.rdg.resc.edal.dataset.plugins.MeanSDPlugin;
 import uk.ac.rdg.resc.edal.dataset.plugins.VectorPlugin;
+import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
 import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.grid.TimeAxisImpl;
 import uk.ac.rdg.resc.edal.grid.VerticalAxis;
 import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
 import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.util.Extents;
 import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
 
 /**
@@ -71,57 +84,427 @@ import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
  * data read through the Unidata Common Data Model.
  * 
  * Although multiple instances of this {@link DatasetFactory} can be created,
- * all share a common cache of NetcdfDataset objects to speed up operations
- * where the same dataset is accessed multiple times. To avoid excess file
- * handles being open, this is a LRU cache which closes the datasets when they
- * expire.
+ * all share a common {@link NetcdfDatasetPool} of NetcdfDataset objects to
+ * speed up operations where the same dataset is accessed multiple times.
+ * 
+ * If a working directory has been set, the metadata of each local dataset is
+ * stored in it, together with fingerprints of the dataset's files. If the
+ * files have not changed, the dataset is subsequently created from the stored
+ * metadata without opening any files. The stored metadata includes the value
+ * range of each variable, taken from its attributes or estimated from a sample
+ * of its data, so that it is not re-estimated every time the dataset is
+ * loaded.
  * 
  * @author Guy Griffiths
  * @author Jon
  */
 public final class CdmGridDatasetFactory extends DatasetFactory {
-//    private static final Logger log = LoggerFactory.getLogger(CdmGridDatasetFactory.class);
+    private static final Logger log = LoggerFactory.getLogger(CdmGridDatasetFactory.class);
+
+    /*
+     * The subdirectory of the working directory in which metadata snapshots
+     * are stored
+     */
+    private static final String SNAPSHOT_DIRECTORY = "metadataSnapshots";
+
+    /*
+     * Whether reads from different NetcdfDatasets may happen concurrently. See
+     * CdmGridDataSource for details.
+     */
+    private static volatile boolean concurrentReads = true;
+
+    /*
+     * The most recent metadata of each dataset, by ID
+     */
+    private static final Map<String, MetadataSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /*
+     * Used to estimate the value ranges of variables which do not state them
+     * in their attributes, so that they can be stored with the metadata
+     */
+    private static final ValueRangeEstimator rangeEstimator = new SampledValueRangeEstimator();
+
+    private static final NetcdfDatasetPool.Opener DATASET_OPENER = new NetcdfDatasetPool.Opener() {
+        @Override
+        public NetcdfDataset open(String location) throws IOException {
+            return openAndAggregateDataset(location);
+        }
+    };
+
+    /*
+     * Datasets whose stored metadata is out of date are re-read one at a time,
+     * in the background
+     */
+    private static final ExecutorService rescanner = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "metadata-rescan");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+    private static final Set<String> pendingRescans = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Sets whether data can be read concurrently from different underlying
+     * NetCDF datasets. Reads from the same local file are always serialized,
+     * since they share a file handle, but reads from OPeNDAP datasets are not
+     * synchronized at all. If this is set to <code>false</code>, only a single
+     * read can take place at any one time, regardless of which dataset it is
+     * from.
+     * 
+     * @param concurrentReads
+     *            Whether to allow concurrent reads. Defaults to
+     *            <code>true</code>
+     */
+    public static void setConcurrentReads(boolean concurrentReads) {
+        CdmGridDatasetFactory.concurrentReads = concurrentReads;
+    }
+
+    @Override
+    public GriddedDataset createDataset(String id, String location) throws IOException,
+            EdalException {
+        return createDataset(id, location, (DatasetUpdateListener) null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The dataset is created from its stored metadata if its files have not
+     * changed since it was stored. If files have been added to, removed from
+     * or modified in a glob aggregation, only those files are read and the
+     * stored metadata is updated. Otherwise, if a
+     * {@link DatasetUpdateListener} is supplied, the stored metadata is used
+     * whilst the files are re-read in the background.
+     */
+    @Override
+    public GriddedDataset createDataset(String id, String location,
+            DatasetUpdateListener listener) throws IOException, EdalException {
+        File snapshotFile = getSnapshotFile(id, location);
+        MetadataSnapshot snapshot = getSnapshot(id, location, snapshotFile);
+        if (snapshot != null) {
+            List<FileFingerprint> members = getMembers(location);
+            if (snapshot.isCurrent(members)) {
+                return createDataset(id, location, snapshot);
+            }
+            MetadataSnapshot refreshed = refreshAggregation(snapshot, members);
+            if (refreshed != null) {
+                storeSnapshot(id, refreshed, snapshotFile);
+                return createDataset(id, location, refreshed);
+            }
+            if (listener != null) {
+                scheduleRescan(id, location, snapshotFile, snapshot, listener);
+                return createDataset(id, location, snapshot);
+            }
+        }
+        return scanDataset(id, location, snapshotFile, snapshot);
+    }
+
+    /**
+     * @return The most recent metadata of the given dataset, from memory or
+     *         from the snapshot file, or <code>null</code> if there is none
+     */
+    private static MetadataSnapshot getSnapshot(String id, String location, File snapshotFile) {
+        MetadataSnapshot snapshot = snapshots.get(id);
+        if (snapshot == null && snapshotFile != null && snapshotFile.exists()) {
+            try {
+                snapshot = MetadataSnapshot.read(snapshotFile);
+            } catch (IOException e) {
+                log.warn("Problem reading metadata snapshot " + snapshotFile
+                        + ".  The dataset will be re-read.", e);
+            }
+        }
+        if (snapshot != null && location.equals(snapshot.getLocation())) {
+            return snapshot;
+        }
+        return null;
+    }
+
+    /**
+     * Creates a dataset by reading the metadata from its files, and stores the
+     * metadata
+     * 
+     * @param snapshotFile
+     *            The file to store the metadata in. May be <code>null</code>
+     * @param previous
+     *            The previous metadata of the dataset, or <code>null</code>.
+     *            Files in a glob aggregation which have not changed since this
+     *            are not re-read when finding the time values of the files.
+     */
+    private GriddedDataset scanDataset(String id, String location, File snapshotFile,
+            MetadataSnapshot previous) throws IOException, EdalException {
+        /*
+         * The files are fingerprinted before they are read, so that any
+         * changes made whilst they are being read will be picked up next time.
+         */
+        List<FileFingerprint> members = isRemote(location) ? null : getMembers(location);
+
+        /*
+         * Make sure that we read the current state of the files, rather than
+         * using a previously opened handle (or aggregation). A new glob
+         * aggregation always has a new handle.
+         */
+        GlobAggregation aggregation = null;
+        if (isGlob(location)) {
+            aggregation = GlobAggregation.scan(location,
+                    previous == null ? null : previous.getAggregation());
+        } else {
+            NetcdfDatasetPool.invalidate(location);
+        }
 
-    private static final int DATASET_CACHE_SIZE = 10;
+        MetadataSnapshot snapshot;
+        try (NetcdfDatasetPool.Lease lease = acquireDataset(location, aggregation)) {
+            snapshot = readMetadata(location, lease.getDataset(), lease.getGridDataset());
+        }
+        snapshot.setAggregation(aggregation);
+        if (members != null) {
+            snapshot.setMembers(members, !CdmUtils.isNcmlAggregation(location));
+        }
+        GriddedDataset dataset = createDataset(id, location, snapshot);
+        if (members != null) {
+            estimateValueRanges(dataset, snapshot);
+            storeSnapshot(id, snapshot, snapshotFile);
+        }
+        return dataset;
+    }
 
-    private static Map<String, String> ncmlStringCache = new HashMap<>();
     /**
-     * A LRU cache of {@link NetcdfDataset}s.
+     * Estimates the value ranges of any variables whose attributes do not
+     * give them, and sets them on both the metadata and the dataset
      */
-    private static Map<String, NetcdfDataset> datasetCache = new LinkedHashMap<String, NetcdfDataset>(
-            DATASET_CACHE_SIZE + 1, 1.0f, true) {
-        private static final long serialVersionUID = 1L;
+    private static void estimateValueRanges(GriddedDataset dataset, MetadataSnapshot snapshot) {
+        for (GridVariableMetadata variable : snapshot.getVariables()) {
+            if (variable.getValueRange() == null) {
+                Extent<Float> valueRange = rangeEstimator.estimateValueRange(dataset,
+                        variable.getId());
+                if (valueRange != null) {
+                    variable.setValueRange(valueRange);
+                    dataset.getVariableMetadata(variable.getId()).setValueRange(valueRange);
+                }
+            }
+        }
+    }
 
-        protected boolean removeEldestEntry(Map.Entry<String, NetcdfDataset> eldest) {
+    /**
+     * Updates the metadata of a glob aggregation whose files have changed.
+     * Only files which have been added or modified are read, and the time
+     * axes of the variables are replaced with the time values of the new set
+     * of files.
+     * 
+     * This relies on the horizontal and vertical domains of the files being
+     * the same, which is already required for them to be aggregated.
+     * 
+     * @return The updated metadata, or <code>null</code> if the changes cannot
+     *         be applied in this way - e.g. if the variables in the files have
+     *         changed, or the dataset is not a glob aggregation
+     */
+    private static MetadataSnapshot refreshAggregation(MetadataSnapshot snapshot,
+            List<FileFingerprint> members) {
+        GlobAggregation previous = snapshot.getAggregation();
+        if (previous == null || previous.getTimes() == null) {
+            return null;
+        }
+        GlobAggregation aggregation;
+        try {
+            aggregation = GlobAggregation.scan(snapshot.getLocation(), previous);
+        } catch (IOException | EdalException e) {
+            log.debug("Cannot refresh aggregation " + snapshot.getLocation(), e);
+            return null;
+        }
+        if (!aggregation.getVariableSets().equals(previous.getVariableSets())) {
+            return null;
+        }
+
+        long[] previousTimes = previous.getTimes();
+        long[] times = aggregation.getTimes();
+        MetadataSnapshot refreshed = new MetadataSnapshot(snapshot.getLocation());
+        refreshed.setDataReadingStrategy(snapshot.getDataReadingStrategy());
+        Map<TimeAxis, TimeAxis> tAxes = new IdentityHashMap<>();
+        for (GridVariableMetadata variable : snapshot.getVariables()) {
+            TimeAxis tAxis = variable.getTemporalDomain();
+            if (tAxis != null) {
+                if (!tAxes.containsKey(tAxis)) {
+                    /*
+                     * Only time axes which are along the aggregated dimension
+                     * can be updated
+                     */
+                    List<DateTime> previousTimesteps = tAxis.getCoordinateValues();
+                    if (previousTimesteps.size() != previousTimes.length) {
+                        return null;
+                    }
+                    for (int i = 0; i < previousTimes.length; i++) {
+                        if (previousTimesteps.get(i).getMillis() != previousTimes[i]) {
+                            return null;
+                        }
+                    }
+                    List<DateTime> timesteps = new ArrayList<>(times.length);
+                    for (long time : times) {
+                        timesteps.add(new DateTime(time, tAxis.getChronology()));
+                    }
+                    tAxes.put(tAxis, new TimeAxisImpl(tAxis.getName(), timesteps));
+                }
+                tAxis = tAxes.get(tAxis);
+            }
             /*
-             * If we are going to remove the eldest entry, we also want to call
-             * the close method on it before allowing LinkedHashMap to do the
-             * actual removal
+             * The value range is only an estimate, so there is no need to
+             * re-estimate it for the new files
              */
-            if (super.size() > DATASET_CACHE_SIZE) {
+            GridVariableMetadata refreshedVariable = new GridVariableMetadata(
+                    variable.getParameter(), variable.getHorizontalDomain(),
+                    variable.getVerticalDomain(), tAxis, true);
+            refreshedVariable.setValueRange(variable.getValueRange());
+            refreshed.addVariable(refreshedVariable);
+        }
+        for (VectorComponents vector : snapshot.getVectors()) {
+            refreshed.addVector(vector.xComponentId, vector.yComponentId, vector.commonName,
+                    vector.trueEastNorth);
+        }
+        for (MeanSDComponents meanSD : snapshot.getMeanSDs()) {
+            refreshed.addMeanSD(meanSD.meanId, meanSD.stddevId, meanSD.title);
+        }
+        refreshed.setAggregation(aggregation);
+        refreshed.setMembers(members, true);
+        log.debug("Refreshed aggregation {}: {} time steps, previously {}", snapshot
+                .getLocation(), times.length, previousTimes.length);
+        return refreshed;
+    }
+
+    /**
+     * Re-reads the metadata of a dataset in the background, and passes the
+     * resulting dataset to the listener
+     */
+    private void scheduleRescan(final String id, final String location, final File snapshotFile,
+            final MetadataSnapshot previous, final DatasetUpdateListener listener) {
+        if (!pendingRescans.add(id)) {
+            /*
+             * This dataset is already being re-read
+             */
+            return;
+        }
+        rescanner.execute(new Runnable() {
+            @Override
+            public void run() {
                 try {
-                    CdmUtils.closeDataset(eldest.getValue());
-                } catch (IOException e) {
-                    /*
-                     * If we can't close it, do not remove it...
-                     */
-                    return false;
+                    long start = System.currentTimeMillis();
+                    GriddedDataset dataset = scanDataset(id, location, snapshotFile, previous);
+                    log.debug("Re-read metadata for dataset {} in {}ms", id,
+                            System.currentTimeMillis() - start);
+                    listener.datasetUpdated(dataset);
+                } catch (Exception e) {
+                    log.error("Problem re-reading metadata for dataset " + id, e);
+                } finally {
+                    pendingRescans.remove(id);
                 }
-                return true;
             }
-            return false;
-        };
+        });
+    }
 
-    };
+    /**
+     * @return The file in which the metadata of the given dataset is stored,
+     *         or <code>null</code> if it cannot be stored
+     */
+    private static File getSnapshotFile(String id, String location) {
+        if (workingDir == null || isRemote(location)) {
+            return null;
+        }
+        /*
+         * The hash code distinguishes between IDs which only differ in the
+         * characters which are replaced
+         */
+        String name = id.replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+                + Integer.toHexString(id.hashCode()) + ".metadata";
+        return new File(new File(workingDir, SNAPSHOT_DIRECTORY), name);
+    }
 
-    @Override
-    public GriddedDataset createDataset(String id, String location) throws IOException,
-            EdalException {
-        NetcdfDataset nc = null;
+    /**
+     * @return Fingerprints of the files which the dataset at the given
+     *         location is read from, sorted by path. For NcML aggregations this
+     *         is just the NcML file.
+     */
+    private static List<FileFingerprint> getMembers(String location) {
+        List<File> files;
+        if (CdmUtils.isNcmlAggregation(location)) {
+            files = Collections.singletonList(new File(location));
+        } else {
+            files = CdmUtils.expandGlobExpression(location);
+        }
+        List<FileFingerprint> members = new ArrayList<>(files.size());
+        for (File file : files) {
+            members.add(new FileFingerprint(file));
+        }
+        Collections.sort(members, new Comparator<FileFingerprint>() {
+            @Override
+            public int compare(FileFingerprint f1, FileFingerprint f2) {
+                return f1.getPath().compareTo(f2.getPath());
+            }
+        });
+        return members;
+    }
+
+    /**
+     * Keeps the given metadata as the most recent metadata of a dataset, and
+     * writes it to the snapshot file
+     * 
+     * @param snapshotFile
+     *            The file to store the metadata in. May be <code>null</code>
+     */
+    private static void storeSnapshot(String id, MetadataSnapshot snapshot, File snapshotFile) {
+        MetadataSnapshot previous = snapshots.put(id, snapshot);
+        if (previous != null && previous.getAggregation() != null
+                && previous.getAggregation() != snapshot.getAggregation()) {
+            /*
+             * The previous version of the aggregation will not be opened
+             * again, other than by datasets which are still in use
+             */
+            NetcdfDatasetPool.invalidate(previous.getAggregation().getKey());
+        }
+        if (snapshotFile != null) {
+            writeSnapshot(snapshot, snapshotFile);
+        }
+    }
+
+    private static void writeSnapshot(MetadataSnapshot snapshot, File snapshotFile) {
+        if (!snapshot.isStorable()) {
+            log.debug("The metadata for {} cannot be stored", snapshot.getLocation());
+            snapshotFile.delete();
+            return;
+        }
         /*
-         * Open the dataset, using the cache for NcML aggregations
+         * Write to a temporary file first, so that a partially-written file is
+         * never read
          */
-        nc = openAndAggregateDataset(location);
+        File directory = snapshotFile.getParentFile();
+        File tempFile = null;
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            tempFile = File.createTempFile("metadata", ".tmp", directory);
+            snapshot.write(tempFile);
+            /*
+             * renameTo will not replace an existing file on all platforms
+             */
+            snapshotFile.delete();
+            if (!tempFile.renameTo(snapshotFile)) {
+                throw new IOException("Cannot rename " + tempFile + " to " + snapshotFile);
+            }
+        } catch (IOException e) {
+            log.warn("Problem writing metadata snapshot to " + snapshotFile, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the metadata of a dataset
+     */
+    private static MetadataSnapshot readMetadata(String location, NetcdfDataset nc,
+            ucar.nc2.dt.GridDataset gridDataset) throws IOException, EdalException {
 
         /*-
          * We may in future be able to use forecast model run collection aggregations for
@@ -184,8 +567,8 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
             }
         }
 
-        ucar.nc2.dt.GridDataset gridDataset = CdmUtils.getGridDataset(nc);
-        List<GridVariableMetadata> vars = new ArrayList<GridVariableMetadata>();
+        MetadataSnapshot snapshot = new MetadataSnapshot(location);
+        snapshot.setDataReadingStrategy(CdmUtils.getOptimumDataReadingStrategy(nc));
         /*
          * Store a map of component names. Key is the compound name, value is a
          * 2-element String array with x, y component IDs
@@ -246,7 +629,8 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
                         variable.getUnitsString(), standardName);
                 GridVariableMetadata metadata = new GridVariableMetadata(parameter, hDomain,
                         zDomain, tDomain, true);
-                vars.add(metadata);
+                metadata.setValueRange(getAttributeValueRange(variable));
+                snapshot.addVariable(metadata);
 
                 if (name != null) {
                     /*
@@ -317,14 +701,11 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
             }
         }
 
-        CdmGridDataset cdmGridDataset = new CdmGridDataset(id, location, vars,
-                CdmUtils.getOptimumDataReadingStrategy(nc));
         for (Entry<String, String[]> componentData : xyComponentPairs.entrySet()) {
             String commonName = componentData.getKey();
             String[] comps = componentData.getValue();
             if (comps[0] != null && comps[1] != null) {
-                cdmGridDataset.addVariablePlugin(new VectorPlugin(comps[0], comps[1], commonName,
-                        xyNameToTrueEN.get(commonName)));
+                snapshot.addVector(comps[0], comps[1], commonName, xyNameToTrueEN.get(commonName));
             }
         }
 
@@ -345,41 +726,157 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
                 }
             }
             if (meanId != null && stddevId != null) {
-                MeanSDPlugin meanSDPlugin = new MeanSDPlugin(meanId, stddevId,
-                        parentVarId2Title.get(statsCollectionId));
-                cdmGridDataset.addVariablePlugin(meanSDPlugin);
+                snapshot.addMeanSD(meanId, stddevId, parentVarId2Title.get(statsCollectionId));
             }
         }
 
+        return snapshot;
+    }
+
+    /**
+     * Gets the range of values of a variable from its "actual_range",
+     * "valid_range" or "valid_min"/"valid_max" attributes. The valid range is
+     * given in terms of the packed data, so is unpacked if necessary.
+     * 
+     * @return The range of values, or <code>null</code> if the variable has
+     *         none of these attributes
+     */
+    private static Extent<Float> getAttributeValueRange(VariableDS variable) {
+        Attribute actualRange = variable.findAttributeIgnoreCase("actual_range");
+        if (actualRange != null && actualRange.getLength() == 2) {
+            return getValueRange(actualRange, 0, actualRange, 1, null, null);
+        }
+        Attribute scaleFactor = variable.findAttributeIgnoreCase("scale_factor");
+        Attribute addOffset = variable.findAttributeIgnoreCase("add_offset");
+        Attribute validRange = variable.findAttributeIgnoreCase("valid_range");
+        if (validRange != null && validRange.getLength() == 2) {
+            return getValueRange(validRange, 0, validRange, 1, scaleFactor, addOffset);
+        }
+        Attribute validMin = variable.findAttributeIgnoreCase("valid_min");
+        Attribute validMax = variable.findAttributeIgnoreCase("valid_max");
+        if (validMin != null && validMax != null) {
+            return getValueRange(validMin, 0, validMax, 0, scaleFactor, addOffset);
+        }
+        return null;
+    }
+
+    /*
+     * Creates a value range from numeric attribute values. Integer values are
+     * packed data if the variable has a scale factor or offset (since the
+     * unpacked data would be floating point), so they are unpacked.
+     */
+    private static Extent<Float> getValueRange(Attribute minAttribute, int minIndex,
+            Attribute maxAttribute, int maxIndex, Attribute scaleFactor, Attribute addOffset) {
+        Number minValue = minAttribute.getNumericValue(minIndex);
+        Number maxValue = maxAttribute.getNumericValue(maxIndex);
+        if (minValue == null || maxValue == null) {
+            return null;
+        }
+        double min = minValue.doubleValue();
+        double max = maxValue.doubleValue();
+        if ((scaleFactor != null || addOffset != null)
+                && minAttribute.getDataType().isIntegral()) {
+            double scale = scaleFactor == null || scaleFactor.getNumericValue() == null ? 1.0
+                    : scaleFactor.getNumericValue().doubleValue();
+            double offset = addOffset == null || addOffset.getNumericValue() == null ? 0.0
+                    : addOffset.getNumericValue().doubleValue();
+            min = min * scale + offset;
+            max = max * scale + offset;
+            if (scale < 0) {
+                double temp = min;
+                min = max;
+                max = temp;
+            }
+        }
+        if (Double.isNaN(min) || Double.isNaN(max) || min > max) {
+            return null;
+        }
+        return Extents.newExtent((float) min, (float) max);
+    }
+
+    /**
+     * Creates a dataset from its metadata
+     */
+    private GriddedDataset createDataset(String id, String location, MetadataSnapshot metadata) {
+        /*
+         * The metadata may be used to create more than one dataset, and each
+         * dataset needs its own variables, since they are linked to it
+         */
+        List<GridVariableMetadata> variables = new ArrayList<>();
+        for (GridVariableMetadata variable : metadata.getVariables()) {
+            GridVariableMetadata copy = new GridVariableMetadata(variable.getParameter(),
+                    variable.getHorizontalDomain(), variable.getVerticalDomain(),
+                    variable.getTemporalDomain(), true);
+            copy.setValueRange(variable.getValueRange());
+            variables.add(copy);
+        }
+        String fingerprint = metadata.getMembers() == null ? null : Integer
+                .toHexString(metadata.getMembers().hashCode());
+        CdmGridDataset cdmGridDataset = new CdmGridDataset(id, location, variables,
+                metadata.getAggregation(), fingerprint, metadata.getDataReadingStrategy());
+        for (VectorComponents vector : metadata.getVectors()) {
+            cdmGridDataset.addVariablePlugin(new VectorPlugin(vector.xComponentId,
+                    vector.yComponentId, vector.commonName, vector.trueEastNorth));
+        }
+        for (MeanSDComponents meanSD : metadata.getMeanSDs()) {
+            cdmGridDataset.addVariablePlugin(new MeanSDPlugin(meanSD.meanId, meanSD.stddevId,
+                    meanSD.title));
+        }
         return cdmGridDataset;
     }
 
     private final class CdmGridDataset extends GriddedDataset {
         private final String location;
+        private final GlobAggregation aggregation;
+        /* A fingerprint of all of the files, or null if they are not known */
+        private final String fingerprint;
         private final DataReadingStrategy dataReadingStrategy;
 
         public CdmGridDataset(String id, String location, Collection<GridVariableMetadata> vars,
+                GlobAggregation aggregation, String fingerprint,
                 DataReadingStrategy dataReadingStrategy) {
             super(id, vars);
             this.location = location;
+            this.aggregation = aggregation;
+            this.fingerprint = fingerprint;
             this.dataReadingStrategy = dataReadingStrategy;
         }
 
+        /**
+         * {@inheritDoc}
+         * 
+         * For a glob aggregation, this only depends on the files which hold
+         * data at the given time, so that modifying one file does not affect
+         * data derived from the others. Otherwise, it depends on all of the
+         * files the dataset was read from.
+         */
+        @Override
+        public String getDataFingerprint(DateTime time) {
+            if (aggregation != null && time != null) {
+                String timeFingerprint = aggregation.getFingerprint(time.getMillis());
+                if (timeFingerprint != null) {
+                    return timeFingerprint;
+                }
+            }
+            return fingerprint;
+        }
+
         @Override
         protected GridDataSource openGridDataSource() throws IOException {
-            NetcdfDataset nc;
+            NetcdfDatasetPool.Lease lease;
             try {
-                nc = openAndAggregateDataset(location);
+                lease = acquireDataset(location, aggregation);
             } catch (EdalException e) {
                 throw new IOException("Problem aggregating datasets", e);
             }
-            synchronized (this) {
-                /*
-                 * If the getGridDataset method runs concurrently on the same
-                 * object, we can get a ConcurrentModificationException, so we
-                 * synchronise this action to avoid the issue.
-                 */
-                return new CdmGridDataSource(CdmUtils.getGridDataset(nc));
+            /*
+             * The lease is released when the data source is closed
+             */
+            try {
+                return new CdmGridDataSource(lease.getGridDataset(), concurrentReads, lease);
+            } catch (IOException | RuntimeException e) {
+                lease.close();
+                throw e;
             }
         }
 
@@ -387,18 +884,55 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
         protected DataReadingStrategy getDataReadingStrategy() {
             return dataReadingStrategy;
         }
+
+        @Override
+        protected boolean isRemote() {
+            return CdmGridDatasetFactory.isRemote(location);
+        }
+    }
+
+    /**
+     * Leases the NetCDF dataset at the given location from the
+     * {@link NetcdfDatasetPool}, opening it if necessary. The lease must be
+     * closed when the dataset is no longer needed.
+     * 
+     * @param aggregation
+     *            The {@link GlobAggregation} to open if the location is a glob
+     *            expression, <code>null</code> otherwise
+     */
+    private static NetcdfDatasetPool.Lease acquireDataset(String location,
+            GlobAggregation aggregation) throws IOException, EdalException {
+        if (aggregation != null) {
+            return NetcdfDatasetPool.acquire(aggregation.getKey(), true, aggregation);
+        }
+        return NetcdfDatasetPool.acquire(location, CdmUtils.isNcmlAggregation(location),
+                DATASET_OPENER);
+    }
+
+    /**
+     * @return Whether the given location is a local glob expression (which
+     *         may of course only match a single file)
+     */
+    private static boolean isGlob(String location) {
+        if (CdmUtils.isNcmlAggregation(location) || isRemote(location)) {
+            return false;
+        }
+        return location.indexOf('*') >= 0 || location.indexOf('?') >= 0
+                || location.indexOf('[') >= 0;
+    }
+
+    private static boolean isRemote(String location) {
+        return location.startsWith("dods://") || location.startsWith("http://");
     }
 
     /**
-     * Opens the NetCDF dataset at the given location, using the dataset cache
-     * if {@code location} represents an NcML aggregation. We cannot use the
-     * cache for OPeNDAP or single NetCDF files because the underlying data may
-     * have changed and the NetcdfDataset cache may cache a dataset forever. In
-     * the case of NcML we rely on the fact that server administrators ought to
-     * have set a "recheckEvery" parameter for NcML aggregations that may change
-     * with time. It is desirable to use the dataset cache for NcML aggregations
-     * because they can be time-consuming to assemble and we don't want to do
-     * this every time a map is drawn.
+     * Opens the NetCDF dataset at the given location, aggregating the files
+     * matched by a glob expression if necessary. This does not use the
+     * {@link NetcdfDatasetPool} for the dataset itself - it is called by the
+     * pool when the dataset is not already open.
+     * 
+     * Glob expressions are normally opened through their
+     * {@link GlobAggregation}, which is kept with the metadata of the dataset.
      * 
      * @param location
      *            The location of the data: a local NetCDF file, an NcML
@@ -414,138 +948,17 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
      */
     private static NetcdfDataset openAndAggregateDataset(String location) throws IOException,
             EdalException {
-        if (datasetCache.containsKey(location)) {
-            return datasetCache.get(location);
-        }
-        NetcdfDataset nc;
-        if (location.startsWith("dods://") || location.startsWith("http://")) {
+        if (isRemote(location)) {
             /*
              * We have a remote dataset
              */
-            nc = CdmUtils.openDataset(location);
+            return CdmUtils.openDataset(location);
         } else {
             /*
              * We have a local dataset
              */
-            List<File> files = null;
-            try {
-                files = CdmUtils.expandGlobExpression(location);
-            } catch (NullPointerException e) {
-                System.out.println("NPE processing location: " + location);
-                throw e;
-            }
-            if (files.size() == 0) {
-                throw new EdalException("The location " + location
-                        + " doesn't refer to any existing files.");
-            }
-            if (files.size() == 1) {
-                location = files.get(0).getAbsolutePath();
-                nc = CdmUtils.openDataset(location);
-            } else {
-                /*
-                 * We have multiple files in a glob expression. We write some
-                 * NcML and use the NetCDF aggregation libs to parse this into
-                 * an aggregated dataset.
-                 * 
-                 * If we have already generated the ncML on a previous call,
-                 * just use that.
-                 */
-                String ncmlString;
-                if (ncmlStringCache.containsKey(location)) {
-                    ncmlString = ncmlStringCache.get(location);
-                } else {
-                    /*
-                     * Find the name of the time dimension
-                     */
-                    NetcdfDataset first = openAndAggregateDataset(files.get(0).getAbsolutePath());
-                    String timeDimName = null;
-                    for (Variable var : first.getVariables()) {
-                        if (var.isCoordinateVariable()) {
-                            for (Attribute attr : var.getAttributes()) {
-                                if (attr.getFullName().equalsIgnoreCase("units")
-                                        && attr.getStringValue().contains(" since ")) {
-                                    /*
-                                     * This is the time dimension. Since this is
-                                     * a co-ordinate variable, there is only 1
-                                     * dimension
-                                     */
-                                    Dimension timeDimension = var.getDimension(0);
-                                    timeDimName = timeDimension.getFullName();
-                                }
-                            }
-                        }
-                    }
-                    if (timeDimName == null) {
-                        throw new EdalException(
-                                "Cannot join multiple files without time dimensions");
-                    }
-                    
-                    /*
-                     * Create a Map
-                     */
-                    Map<Long, Map<String,String>> time2vars2filename = new HashMap<>();
-                    for(File file : files) {
-                        NetcdfFile ncFile = null;
-                        try {
-                            ncFile = NetcdfFile.open(file.getAbsolutePath());
-                            Variable timeVar = ncFile.findVariable(timeDimName);
-                            String unitsString = timeVar.findAttribute("units").getStringValue();
-                            String[] unitsParts = unitsString.split(" since ");
-                            long time = new DateUnit(timeVar.read().getDouble(0), unitsParts[0], DateUnit.getStandardOrISO(unitsParts[1])).getDate().getTime();
-                            if(!time2vars2filename.containsKey(time)) {
-                                Map<String, String> vars2filename = new HashMap<>();
-                                time2vars2filename.put(time, vars2filename);
-                            }
-                            List<Variable> variables = ncFile.getVariables();
-                            String varNames = "";
-                            for(Variable v : variables) {
-                                varNames += v.getFullName();
-                            }
-                            time2vars2filename.get(time).put(varNames, file.getAbsolutePath());
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        } finally {
-                            ncFile.close();
-                        }
-                    }
-                    
-                    List<Long> times = new ArrayList<>(time2vars2filename.keySet());
-                    Collections.sort(times);
-
-                    /*
-                     * Now create the NcML string and use it to create an
-                     * aggregated dataset
-                     */
-                    StringBuffer ncmlStringBuffer = new StringBuffer();
-                    ncmlStringBuffer
-                            .append("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2\">");
-                    ncmlStringBuffer.append("<aggregation dimName=\"" + timeDimName
-                            + "\" type=\"joinExisting\">");
-                    for(Long time : times) {
-                        Map<String, String> vars2filename = time2vars2filename.get(time);
-                        if(vars2filename.size() == 1) {
-                            String filename = vars2filename.values().iterator().next();
-                            ncmlStringBuffer.append("<netcdf location=\"" + filename
-                                    + "\"/>");
-                        } else {
-                            ncmlStringBuffer.append("<netcdf><aggregation type=\"union\">");
-                            for(Entry<String,String> entry : vars2filename.entrySet()) {
-                                ncmlStringBuffer.append("<netcdf location=\""+entry.getValue()+"\"/>");
-                            }
-                            ncmlStringBuffer.append("</aggregation></netcdf>");
-                        }
-                    }
-                    ncmlStringBuffer.append("</aggregation>");
-                    ncmlStringBuffer.append("</netcdf>");
-
-                    ncmlString = ncmlStringBuffer.toString();
-                    ncmlStringCache.put(location, ncmlString);
-                }
-                nc = NcMLReader.readNcML(new StringReader(ncmlString), null);
-            }
+            return GlobAggregation.scan(location, null).open(location);
         }
-        datasetCache.put(location, nc);
-        return nc;
     }
 
     /**
@@ -270,6 +270,16 @@ public final class En3DatasetFactory extends DatasetFactory {
                 indexer = (PRTreeFeatureIndexer) in.readObject();
 
                 log.debug("Successfully read spatial index from file");
+                if (indexer.getValueRange(POT_TEMP_PARAMETER.getVariableId()) == null
+                        && indexer.getValueRange(PSAL_PARAMETER.getVariableId()) == null) {
+                    /*
+                     * The index was written before value ranges were stored
+                     * in it. Regenerate it so that value ranges can be
+                     * estimated without reading every profile.
+                     */
+                    log.debug("Spatial index has no value ranges.  It will be regenerated");
+                    readExistingSpatialIndex = false;
+                }
             } catch (ClassNotFoundException | IOException | ClassCastException e) {
                 /*
                  * Problem reading spatial index/domain from file. Set the flag
@@ -362,6 +372,17 @@ public final class En3DatasetFactory extends DatasetFactory {
                 Array lonValues = longitudeVar.read();
                 Array timeValues = timeVar.read();
                 Array depthValues = depthVar.read();
+                /*
+                 * The data values are read so that the value range of each
+                 * profile can be stored in the index
+                 */
+                Map<String, Array> dataValues = new HashMap<>();
+                for (String varId : ALL_PARAMETERS.keySet()) {
+                    Variable dataVar = nc.findVariable(varId);
+                    if (dataVar != null) {
+                        dataValues.put(varId, dataVar.read());
+                    }
+                }
 
                 /*
                  * Loop over all profiles
@@ -439,9 +460,25 @@ public final class En3DatasetFactory extends DatasetFactory {
                      * Store the bounds of this feature to load into the spatial
                      * indexer
                      */
+                    Map<String, Extent<Float>> valueRanges = new HashMap<>();
+                    for (Entry<String, Array> entry : dataValues.entrySet()) {
+                        float min = Float.MAX_VALUE;
+                        float max = -Float.MAX_VALUE;
+                        for (int j = 0; j < depths.size(); j++) {
+                            float value = entry.getValue().getFloat(
+                                    profileNum * nLevels.getLength() + j);
+                            if (!Float.isNaN(value) && value != 99999.0f) {
+                                min = Math.min(min, value);
+                                max = Math.max(max, value);
+                            }
+                        }
+                        if (min <= max) {
+                            valueRanges.put(entry.getKey(), Extents.newExtent(min, max));
+                        }
+                    }
                     featureBounds.add(new FeatureBounds(profileId, horizontalPosition, zExtent,
                             tExtent, CollectionUtils.setOf(POT_TEMP_PARAMETER.getVariableId(),
-                                    PSAL_PARAMETER.getVariableId())));
+                                    PSAL_PARAMETER.getVariableId()), valueRanges));
 
                     /*
                      * Update entire dataset extents
@@ -0,0 +1,482 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.ma2.Array;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ncml.NcMLReader;
+import ucar.nc2.time.Calendar;
+import ucar.nc2.time.CalendarDateUnit;
+import uk.ac.rdg.resc.edal.dataset.cdm.MetadataSnapshot.FileFingerprint;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+/**
+ * An aggregation along the time dimension of the files matched by a glob
+ * expression.
+ * 
+ * The time values and variables of each member file are recorded, together
+ * with a fingerprint of the file. When the aggregation is re-scanned, only
+ * files which are new or have been modified are opened, and the NcML which
+ * is generated for the aggregation includes the time values of each file, so
+ * that NetCDF-Java does not need to open the files to find them either.
+ * 
+ * Instances are immutable. Each has a unique key, which is used to lease the
+ * aggregated dataset from the {@link NetcdfDatasetPool}, so that a dataset
+ * always reads from the version of the aggregation it was created from.
+ */
+final class GlobAggregation implements NetcdfDatasetPool.Opener {
+    private static final Logger log = LoggerFactory.getLogger(GlobAggregation.class);
+
+    private static final AtomicLong versions = new AtomicLong();
+
+    private final String location;
+    /* The name of the time dimension. null if only a single file is matched */
+    private final String timeDimName;
+    /* The members, sorted by path */
+    private final List<Member> members;
+    private final String key;
+    /*
+     * Fingerprints of the members holding the data at each time. Calculated
+     * when first needed.
+     */
+    private volatile Map<Long, String> timeFingerprints = null;
+
+    private GlobAggregation(String location, String timeDimName, List<Member> members) {
+        this.location = location;
+        this.timeDimName = timeDimName;
+        this.members = members;
+        this.key = location + "#" + versions.incrementAndGet();
+    }
+
+    /**
+     * Finds the files matched by a glob expression and reads the time values
+     * and variables of each.
+     * 
+     * @param location
+     *            The glob expression
+     * @param previous
+     *            A previous scan of the same location, or <code>null</code>.
+     *            Members of this which have not changed are not re-read.
+     * @return The new {@link GlobAggregation}
+     * @throws EdalException
+     *             If no readable files are matched, or multiple files are
+     *             matched and they have no time dimension
+     * @throws IOException
+     *             If there is a problem finding the time dimension
+     */
+    static GlobAggregation scan(String location, GlobAggregation previous) throws IOException,
+            EdalException {
+        List<File> files = CdmUtils.expandGlobExpression(location);
+        if (files.size() == 0) {
+            throw new EdalException("The location " + location
+                    + " doesn't refer to any existing files.");
+        }
+        Collections.sort(files);
+
+        String timeDimName = previous == null ? null : previous.timeDimName;
+        if (files.size() > 1 && timeDimName == null) {
+            timeDimName = findTimeDimension(files.get(0));
+            if (timeDimName == null) {
+                throw new EdalException("Cannot join multiple files without time dimensions");
+            }
+        }
+
+        Map<String, Member> previousMembers = new HashMap<>();
+        if (previous != null) {
+            for (Member member : previous.members) {
+                previousMembers.put(member.fingerprint.getPath(), member);
+            }
+        }
+        List<Member> members = new ArrayList<>(files.size());
+        int nRead = 0;
+        for (File file : files) {
+            FileFingerprint fingerprint = new FileFingerprint(file);
+            Member member = previousMembers.get(fingerprint.getPath());
+            if (member == null || !member.fingerprint.equals(fingerprint)
+                    || (timeDimName != null && member.times == null)) {
+                member = readMember(fingerprint, timeDimName);
+                nRead++;
+            }
+            if (member != null) {
+                members.add(member);
+            }
+        }
+        if (members.isEmpty()) {
+            throw new EdalException("None of the files matched by " + location
+                    + " could be read.");
+        }
+        log.debug("Scanned {}: {} files, {} of which were read", location, files.size(), nRead);
+        return new GlobAggregation(location, timeDimName, members);
+    }
+
+    /*
+     * The time dimension is that of the co-ordinate variable whose units are
+     * of the form "X since Y"
+     */
+    private static String findTimeDimension(File file) throws IOException {
+        String timeDimName = null;
+        try (NetcdfFile ncFile = NetcdfFile.open(file.getAbsolutePath())) {
+            for (Variable var : ncFile.getVariables()) {
+                if (var.isCoordinateVariable()) {
+                    for (Attribute attr : var.getAttributes()) {
+                        if (attr.getFullName().equalsIgnoreCase("units")
+                                && attr.getStringValue().contains(" since ")) {
+                            /*
+                             * Since this is a co-ordinate variable, there is
+                             * only 1 dimension
+                             */
+                            timeDimName = var.getDimension(0).getFullName();
+                        }
+                    }
+                }
+            }
+        }
+        return timeDimName;
+    }
+
+    /*
+     * Reads the time values and variable names of a member file. Returns null
+     * if the file cannot be read, in which case it is left out of the
+     * aggregation.
+     */
+    private static Member readMember(FileFingerprint fingerprint, String timeDimName) {
+        if (timeDimName == null) {
+            return new Member(fingerprint, null, null, null, null);
+        }
+        try (NetcdfFile ncFile = NetcdfFile.open(fingerprint.getPath())) {
+            Variable timeVar = ncFile.findVariable(timeDimName);
+            String units = timeVar.findAttribute("units").getStringValue();
+            Attribute calendarAttr = timeVar.findAttribute("calendar");
+            Calendar calendar = calendarAttr == null ? null : Calendar.get(calendarAttr
+                    .getStringValue());
+            CalendarDateUnit dateUnit = CalendarDateUnit.withCalendar(
+                    calendar == null ? Calendar.getDefault() : calendar, units);
+
+            Array timeValues = timeVar.read();
+            int nTimes = (int) timeValues.getSize();
+            if (nTimes == 0) {
+                throw new EdalException("No time values");
+            }
+            double[] coordValues = new double[nTimes];
+            long[] times = new long[nTimes];
+            for (int i = 0; i < nTimes; i++) {
+                coordValues[i] = timeValues.getDouble(i);
+                times[i] = dateUnit.makeCalendarDate(coordValues[i]).getMillis();
+            }
+
+            /*
+             * Files at the same time containing different variables are joined
+             * in a union aggregation
+             */
+            StringBuilder variables = new StringBuilder();
+            for (Variable var : ncFile.getVariables()) {
+                variables.append(var.getFullName());
+            }
+            return new Member(fingerprint, variables.toString(), units, coordValues, times);
+        } catch (Exception e) {
+            log.warn("Problem reading " + fingerprint.getPath()
+                    + ".  It will not be included in the aggregation " + timeDimName, e);
+            return null;
+        }
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return The key under which the aggregated dataset is held in the
+     *         {@link NetcdfDatasetPool}
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The (distinct) combinations of variables found in the member
+     *         files
+     */
+    Set<String> getVariableSets() {
+        Set<String> variableSets = new HashSet<>();
+        for (Member member : members) {
+            variableSets.add(member.variables);
+        }
+        return variableSets;
+    }
+
+    /**
+     * @return The times (in milliseconds, as given by the calendar of the
+     *         files) of the aggregated time dimension, in order, or
+     *         <code>null</code> if there is no time dimension
+     */
+    long[] getTimes() {
+        if (timeDimName == null) {
+            return null;
+        }
+        List<Member> timeMembers = getTimeMembers();
+        int nTimes = 0;
+        for (Member member : timeMembers) {
+            nTimes += member.times.length;
+        }
+        long[] times = new long[nTimes];
+        int i = 0;
+        for (Member member : timeMembers) {
+            System.arraycopy(member.times, 0, times, i, member.times.length);
+            i += member.times.length;
+        }
+        return times;
+    }
+
+    /**
+     * @param time
+     *            A time (in milliseconds, as given by {@link #getTimes()})
+     * @return A fingerprint of the member files which hold the data at the
+     *         given time, or <code>null</code> if no member holds it. This
+     *         changes whenever any of those files is modified.
+     */
+    String getFingerprint(long time) {
+        Map<Long, String> fingerprints = timeFingerprints;
+        if (fingerprints == null) {
+            Map<Long, List<FileFingerprint>> membersAtTimes = new HashMap<>();
+            if (timeDimName != null) {
+                for (Map<String, Member> membersAtTime : getMembersByTime().values()) {
+                    for (Member member : membersAtTime.values()) {
+                        for (long memberTime : member.times) {
+                            List<FileFingerprint> fingerprintsAtTime = membersAtTimes
+                                    .get(memberTime);
+                            if (fingerprintsAtTime == null) {
+                                fingerprintsAtTime = new ArrayList<>();
+                                membersAtTimes.put(memberTime, fingerprintsAtTime);
+                            }
+                            fingerprintsAtTime.add(member.fingerprint);
+                        }
+                    }
+                }
+            }
+            fingerprints = new HashMap<>();
+            for (Entry<Long, List<FileFingerprint>> entry : membersAtTimes.entrySet()) {
+                fingerprints.put(entry.getKey(), Integer.toHexString(entry.getValue().hashCode()));
+            }
+            timeFingerprints = fingerprints;
+        }
+        return fingerprints.get(time);
+    }
+
+    /*
+     * Returns the first member at each time, in time order. Along with the
+     * other members at the same time, these make up the aggregation.
+     */
+    private List<Member> getTimeMembers() {
+        List<Member> timeMembers = new ArrayList<>();
+        for (Map<String, Member> membersAtTime : getMembersByTime().values()) {
+            timeMembers.add(membersAtTime.values().iterator().next());
+        }
+        return timeMembers;
+    }
+
+    /*
+     * Groups the members by their first time and then by their variables. If
+     * more than one file has the same time and variables, the last one is
+     * used.
+     */
+    private TreeMap<Long, Map<String, Member>> getMembersByTime() {
+        TreeMap<Long, Map<String, Member>> membersByTime = new TreeMap<>();
+        for (Member member : members) {
+            Map<String, Member> membersAtTime = membersByTime.get(member.times[0]);
+            if (membersAtTime == null) {
+                membersAtTime = new LinkedHashMap<>();
+                membersByTime.put(member.times[0], membersAtTime);
+            }
+            membersAtTime.put(member.variables, member);
+        }
+        return membersByTime;
+    }
+
+    /**
+     * @return The NcML which defines this aggregation
+     */
+    String getNcml() {
+        /*
+         * The co-ordinate values of each file can only be given in the NcML if
+         * they are all in the same units. Otherwise NetCDF-Java has to read
+         * them from the files.
+         */
+        boolean includeCoordValues = true;
+        for (Member member : members) {
+            if (!member.units.equals(members.get(0).units)) {
+                includeCoordValues = false;
+                break;
+            }
+        }
+
+        StringBuilder ncml = new StringBuilder();
+        ncml.append("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2\">");
+        ncml.append("<aggregation dimName=\"" + escape(timeDimName) + "\" type=\"joinExisting\">");
+        for (Map<String, Member> membersAtTime : getMembersByTime().values()) {
+            Member first = membersAtTime.values().iterator().next();
+            String coords = includeCoordValues ? " ncoords=\"" + first.coordValues.length
+                    + "\" coordValue=\"" + getCoordValues(first) + "\"" : "";
+            if (membersAtTime.size() == 1) {
+                ncml.append("<netcdf location=\"" + escape(first.fingerprint.getPath()) + "\""
+                        + coords + "/>");
+            } else {
+                ncml.append("<netcdf" + coords + "><aggregation type=\"union\">");
+                for (Member member : membersAtTime.values()) {
+                    ncml.append("<netcdf location=\"" + escape(member.fingerprint.getPath())
+                            + "\"/>");
+                }
+                ncml.append("</aggregation></netcdf>");
+            }
+        }
+        ncml.append("</aggregation>");
+        ncml.append("</netcdf>");
+        return ncml.toString();
+    }
+
+    private static String getCoordValues(Member member) {
+        StringBuilder coordValues = new StringBuilder();
+        for (int i = 0; i < member.coordValues.length; i++) {
+            if (i > 0) {
+                coordValues.append(',');
+            }
+            coordValues.append(member.coordValues[i]);
+        }
+        return coordValues.toString();
+    }
+
+    private static String escape(String string) {
+        return string.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;")
+                .replace(">", "&gt;");
+    }
+
+    @Override
+    public NetcdfDataset open(String key) throws IOException {
+        if (members.size() == 1) {
+            return CdmUtils.openDataset(members.get(0).fingerprint.getPath());
+        }
+        return NcMLReader.readNcML(new StringReader(getNcml()), null);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(location);
+        out.writeBoolean(timeDimName != null);
+        if (timeDimName != null) {
+            out.writeUTF(timeDimName);
+        }
+        out.writeInt(members.size());
+        for (Member member : members) {
+            member.fingerprint.write(out);
+            out.writeBoolean(member.times != null);
+            if (member.times != null) {
+                out.writeUTF(member.variables);
+                out.writeUTF(member.units);
+                out.writeInt(member.times.length);
+                for (int i = 0; i < member.times.length; i++) {
+                    out.writeDouble(member.coordValues[i]);
+                    out.writeLong(member.times[i]);
+                }
+            }
+        }
+    }
+
+    static GlobAggregation read(DataInputStream in) throws IOException {
+        String location = in.readUTF();
+        String timeDimName = in.readBoolean() ? in.readUTF() : null;
+        int nMembers = in.readInt();
+        List<Member> members = new ArrayList<>(nMembers);
+        for (int m = 0; m < nMembers; m++) {
+            FileFingerprint fingerprint = FileFingerprint.read(in);
+            if (in.readBoolean()) {
+                String variables = in.readUTF();
+                String units = in.readUTF();
+                int nTimes = in.readInt();
+                double[] coordValues = new double[nTimes];
+                long[] times = new long[nTimes];
+                for (int i = 0; i < nTimes; i++) {
+                    coordValues[i] = in.readDouble();
+                    times[i] = in.readLong();
+                }
+                members.add(new Member(fingerprint, variables, units, coordValues, times));
+            } else if (timeDimName == null) {
+                members.add(new Member(fingerprint, null, null, null, null));
+            } else {
+                throw new IOException("Invalid aggregation of " + location);
+            }
+        }
+        if (members.isEmpty() || (timeDimName == null && members.size() > 1)) {
+            throw new IOException("Invalid aggregation of " + location);
+        }
+        return new GlobAggregation(location, timeDimName, members);
+    }
+
+    /**
+     * A file in the aggregation. If the aggregation has no time dimension,
+     * only the fingerprint is set.
+     */
+    private static final class Member {
+        private final FileFingerprint fingerprint;
+        private final String variables;
+        private final String units;
+        private final double[] coordValues;
+        private final long[] times;
+
+        private Member(FileFingerprint fingerprint, String variables, String units,
+                double[] coordValues, long[] times) {
+            this.fingerprint = fingerprint;
+            this.variables = variables;
+            this.units = units;
+            this.coordValues = coordValues;
+            this.times = times;
+        }
+    }
+}
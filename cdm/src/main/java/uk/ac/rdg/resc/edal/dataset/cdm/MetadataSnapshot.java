@@ -0,0 +1,638 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.chrono.GregorianChronology;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.chrono.JulianChronology;
+
+import uk.ac.rdg.resc.edal.dataset.DataReadingStrategy;
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGridImpl;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularAxis;
+import uk.ac.rdg.resc.edal.grid.RegularAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.grid.TimeAxisImpl;
+import uk.ac.rdg.resc.edal.grid.VerticalAxis;
+import uk.ac.rdg.resc.edal.grid.VerticalAxisImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.position.VerticalCrs;
+import uk.ac.rdg.resc.edal.position.VerticalCrsImpl;
+import uk.ac.rdg.resc.edal.util.Extents;
+import uk.ac.rdg.resc.edal.util.chronologies.AllLeapChronology;
+import uk.ac.rdg.resc.edal.util.chronologies.NoLeapChronology;
+import uk.ac.rdg.resc.edal.util.chronologies.ThreeSixtyDayChronology;
+
+/**
+ * The metadata which {@link CdmGridDatasetFactory} reads from a dataset: its
+ * variables with their domains and value ranges, the components of its
+ * vector and mean/standard deviation variables, fingerprints (path,
+ * modification time and size) of the files it was read from and, for glob
+ * expressions, the {@link GlobAggregation} of those files.
+ * 
+ * This can be written to disk, so that after a restart a dataset can be
+ * created without opening any of its files, provided that the files have not
+ * changed.
+ * 
+ * Only lon-lat regular and rectilinear horizontal grids can be written, since
+ * other grids cannot be reconstructed without the underlying data.
+ */
+final class MetadataSnapshot {
+    private static final int FILE_MAGIC = 0x4d455403;
+
+    private static final byte NO_DOMAIN = 0;
+    private static final byte REGULAR_GRID = 1;
+    private static final byte RECTILINEAR_GRID = 2;
+    private static final byte REGULAR_AXIS = 1;
+    private static final byte IRREGULAR_AXIS = 2;
+
+    /*
+     * The chronologies which CdmUtils.createTimeAxis can produce. These are
+     * stored by their index in this array.
+     */
+    private static final Chronology[] CHRONOLOGIES = new Chronology[] {
+            ISOChronology.getInstanceUTC(), GregorianChronology.getInstanceUTC(),
+            JulianChronology.getInstanceUTC(), NoLeapChronology.getInstanceUTC(),
+            AllLeapChronology.getInstanceUTC(), ThreeSixtyDayChronology.getInstanceUTC() };
+
+    private final String location;
+    private List<FileFingerprint> members = null;
+    private boolean membersComplete = false;
+    private GlobAggregation aggregation = null;
+    private DataReadingStrategy dataReadingStrategy;
+    private final List<GridVariableMetadata> variables = new ArrayList<>();
+    private final List<VectorComponents> vectors = new ArrayList<>();
+    private final List<MeanSDComponents> meanSDs = new ArrayList<>();
+
+    MetadataSnapshot(String location) {
+        this.location = location;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Sets the files which the dataset was read from
+     * 
+     * @param members
+     *            Fingerprints of the files
+     * @param complete
+     *            Whether these are all of the files the dataset depends on. If
+     *            not (e.g. for NcML aggregations, whose member files are not
+     *            known without reading the NcML), the dataset may have changed
+     *            even if these files have not.
+     */
+    public void setMembers(List<FileFingerprint> members, boolean complete) {
+        this.members = members;
+        this.membersComplete = complete;
+    }
+
+    /**
+     * @return Fingerprints of the files which the dataset was read from, or
+     *         <code>null</code> if they are not known (e.g. for remote
+     *         datasets)
+     */
+    public List<FileFingerprint> getMembers() {
+        return members;
+    }
+
+    /**
+     * @param currentMembers
+     *            Fingerprints of the files the dataset currently consists of
+     * @return <code>true</code> if the dataset is known not to have changed
+     *         since this snapshot was taken
+     */
+    public boolean isCurrent(List<FileFingerprint> currentMembers) {
+        return membersComplete && members != null && members.equals(currentMembers);
+    }
+
+    /**
+     * @return The aggregation which the dataset was read from, or
+     *         <code>null</code> if it is not a glob expression
+     */
+    public GlobAggregation getAggregation() {
+        return aggregation;
+    }
+
+    public void setAggregation(GlobAggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
+    public DataReadingStrategy getDataReadingStrategy() {
+        return dataReadingStrategy;
+    }
+
+    public void setDataReadingStrategy(DataReadingStrategy dataReadingStrategy) {
+        this.dataReadingStrategy = dataReadingStrategy;
+    }
+
+    public List<GridVariableMetadata> getVariables() {
+        return variables;
+    }
+
+    public void addVariable(GridVariableMetadata variable) {
+        variables.add(variable);
+    }
+
+    public List<VectorComponents> getVectors() {
+        return vectors;
+    }
+
+    public void addVector(String xComponentId, String yComponentId, String commonName,
+            boolean trueEastNorth) {
+        vectors.add(new VectorComponents(xComponentId, yComponentId, commonName, trueEastNorth));
+    }
+
+    public List<MeanSDComponents> getMeanSDs() {
+        return meanSDs;
+    }
+
+    public void addMeanSD(String meanId, String stddevId, String title) {
+        meanSDs.add(new MeanSDComponents(meanId, stddevId, title));
+    }
+
+    /**
+     * @return Whether this snapshot can be written with {@link #write(File)}
+     */
+    public boolean isStorable() {
+        if (dataReadingStrategy == null || members == null) {
+            return false;
+        }
+        for (GridVariableMetadata variable : variables) {
+            HorizontalGrid hGrid = variable.getHorizontalDomain();
+            if (hGrid.getClass() != RegularGridImpl.class
+                    && hGrid.getClass() != RectilinearGridImpl.class) {
+                return false;
+            }
+            TimeAxis tAxis = variable.getTemporalDomain();
+            if (tAxis != null && getChronologyIndex(tAxis.getChronology()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a snapshot which has previously been written with
+     * {@link #write(File)}
+     * 
+     * @param file
+     *            The file to read
+     * @return The {@link MetadataSnapshot}
+     * @throws IOException
+     *             If the file cannot be read, or is not a valid snapshot
+     */
+    public static MetadataSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException(file + " is not a valid metadata snapshot");
+            }
+            MetadataSnapshot snapshot = new MetadataSnapshot(in.readUTF());
+            snapshot.membersComplete = in.readBoolean();
+            int nMembers = in.readInt();
+            List<FileFingerprint> members = new ArrayList<>(nMembers);
+            for (int i = 0; i < nMembers; i++) {
+                members.add(FileFingerprint.read(in));
+            }
+            snapshot.members = members;
+            if (in.readBoolean()) {
+                snapshot.aggregation = GlobAggregation.read(in);
+            }
+            try {
+                snapshot.dataReadingStrategy = DataReadingStrategy.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " is not a valid metadata snapshot", e);
+            }
+
+            /*
+             * Domains are shared between variables, so they are stored once
+             * each and referred to by index
+             */
+            List<HorizontalGrid> hGrids = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                hGrids.add(readHorizontalGrid(in));
+            }
+            List<VerticalAxis> zAxes = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                zAxes.add(readVerticalAxis(in));
+            }
+            List<TimeAxis> tAxes = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                tAxes.add(readTimeAxis(in));
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                Parameter parameter = new Parameter(in.readUTF(), readString(in),
+                        readString(in), readString(in), readString(in));
+                HorizontalGrid hGrid = hGrids.get(in.readInt());
+                int zIndex = in.readInt();
+                int tIndex = in.readInt();
+                GridVariableMetadata variable = new GridVariableMetadata(parameter, hGrid,
+                        zIndex < 0 ? null : zAxes.get(zIndex), tIndex < 0 ? null : tAxes
+                                .get(tIndex), true);
+                if (in.readBoolean()) {
+                    variable.setValueRange(Extents.newExtent(in.readFloat(), in.readFloat()));
+                }
+                snapshot.variables.add(variable);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                snapshot.addVector(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean());
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                snapshot.addMeanSD(in.readUTF(), in.readUTF(), readString(in));
+            }
+            return snapshot;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(file + " is not a valid metadata snapshot", e);
+        }
+    }
+
+    /**
+     * Writes this snapshot to a file, so that it can be read later with
+     * {@link #read(File)}
+     * 
+     * @param file
+     *            The file to write to
+     * @throws IOException
+     *             If the file cannot be written, or this snapshot is not
+     *             {@link #isStorable() storable}
+     */
+    public void write(File file) throws IOException {
+        if (!isStorable()) {
+            throw new IOException("The metadata for " + location + " cannot be stored");
+        }
+        Map<HorizontalGrid, Integer> hGrids = new IdentityHashMap<>();
+        Map<VerticalAxis, Integer> zAxes = new IdentityHashMap<>();
+        Map<TimeAxis, Integer> tAxes = new IdentityHashMap<>();
+        for (GridVariableMetadata variable : variables) {
+            addDomain(hGrids, variable.getHorizontalDomain());
+            addDomain(zAxes, variable.getVerticalDomain());
+            addDomain(tAxes, variable.getTemporalDomain());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeUTF(location);
+            out.writeBoolean(membersComplete);
+            out.writeInt(members.size());
+            for (FileFingerprint member : members) {
+                member.write(out);
+            }
+            out.writeBoolean(aggregation != null);
+            if (aggregation != null) {
+                aggregation.write(out);
+            }
+            out.writeUTF(dataReadingStrategy.name());
+
+            out.writeInt(hGrids.size());
+            for (HorizontalGrid hGrid : getDomains(hGrids)) {
+                writeHorizontalGrid(out, hGrid);
+            }
+            out.writeInt(zAxes.size());
+            for (VerticalAxis zAxis : getDomains(zAxes)) {
+                writeVerticalAxis(out, zAxis);
+            }
+            out.writeInt(tAxes.size());
+            for (TimeAxis tAxis : getDomains(tAxes)) {
+                writeTimeAxis(out, tAxis);
+            }
+
+            out.writeInt(variables.size());
+            for (GridVariableMetadata variable : variables) {
+                Parameter parameter = variable.getParameter();
+                out.writeUTF(parameter.getVariableId());
+                writeString(out, parameter.getTitle());
+                writeString(out, parameter.getDescription());
+                writeString(out, parameter.getUnits());
+                writeString(out, parameter.getStandardName());
+                out.writeInt(hGrids.get(variable.getHorizontalDomain()));
+                out.writeInt(variable.getVerticalDomain() == null ? -1 : zAxes.get(variable
+                        .getVerticalDomain()));
+                out.writeInt(variable.getTemporalDomain() == null ? -1 : tAxes.get(variable
+                        .getTemporalDomain()));
+                Extent<Float> valueRange = variable.getValueRange();
+                out.writeBoolean(valueRange != null);
+                if (valueRange != null) {
+                    out.writeFloat(valueRange.getLow());
+                    out.writeFloat(valueRange.getHigh());
+                }
+            }
+            out.writeInt(vectors.size());
+            for (VectorComponents vector : vectors) {
+                out.writeUTF(vector.xComponentId);
+                out.writeUTF(vector.yComponentId);
+                out.writeUTF(vector.commonName);
+                out.writeBoolean(vector.trueEastNorth);
+            }
+            out.writeInt(meanSDs.size());
+            for (MeanSDComponents meanSD : meanSDs) {
+                out.writeUTF(meanSD.meanId);
+                out.writeUTF(meanSD.stddevId);
+                writeString(out, meanSD.title);
+            }
+        }
+    }
+
+    private static <T> void addDomain(Map<T, Integer> domains, T domain) {
+        if (domain != null && !domains.containsKey(domain)) {
+            domains.put(domain, domains.size());
+        }
+    }
+
+    /*
+     * Returns the domains in the order of their indices
+     */
+    private static <T> List<T> getDomains(Map<T, Integer> domains) {
+        List<T> ordered = new ArrayList<>(Collections.<T> nCopies(domains.size(), null));
+        for (Map.Entry<T, Integer> entry : domains.entrySet()) {
+            ordered.set(entry.getValue(), entry.getKey());
+        }
+        return ordered;
+    }
+
+    /*
+     * The grids are lon-lat grids created by CdmUtils.createHorizontalGrid, so
+     * the x-axis is always longitude and the CRS is always WGS84
+     */
+    private static void writeHorizontalGrid(DataOutputStream out, HorizontalGrid hGrid)
+            throws IOException {
+        if (hGrid instanceof RegularGridImpl) {
+            out.writeByte(REGULAR_GRID);
+            RegularGridImpl grid = (RegularGridImpl) hGrid;
+            writeAxis(out, grid.getXAxis());
+            writeAxis(out, grid.getYAxis());
+        } else {
+            out.writeByte(RECTILINEAR_GRID);
+            RectilinearGridImpl grid = (RectilinearGridImpl) hGrid;
+            writeAxis(out, grid.getXAxis());
+            writeAxis(out, grid.getYAxis());
+        }
+    }
+
+    private static HorizontalGrid readHorizontalGrid(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        ReferenceableAxis<Double> xAxis = readAxis(in, true);
+        ReferenceableAxis<Double> yAxis = readAxis(in, false);
+        if (type == REGULAR_GRID) {
+            if (!(xAxis instanceof RegularAxis) || !(yAxis instanceof RegularAxis)) {
+                throw new IOException("Invalid regular grid");
+            }
+            return new RegularGridImpl((RegularAxis) xAxis, (RegularAxis) yAxis,
+                    DefaultGeographicCRS.WGS84);
+        } else if (type == RECTILINEAR_GRID) {
+            return new RectilinearGridImpl(xAxis, yAxis, DefaultGeographicCRS.WGS84);
+        } else {
+            throw new IOException("Unknown grid type: " + type);
+        }
+    }
+
+    private static void writeAxis(DataOutputStream out, ReferenceableAxis<Double> axis)
+            throws IOException {
+        out.writeUTF(axis.getName());
+        if (axis instanceof RegularAxis) {
+            out.writeByte(REGULAR_AXIS);
+            out.writeDouble(axis.getCoordinateValue(0));
+            out.writeDouble(((RegularAxis) axis).getCoordinateSpacing());
+            out.writeInt(axis.size());
+        } else {
+            out.writeByte(IRREGULAR_AXIS);
+            writeValues(out, axis.getCoordinateValues());
+        }
+    }
+
+    private static ReferenceableAxis<Double> readAxis(DataInputStream in, boolean isLongitude)
+            throws IOException {
+        String name = in.readUTF();
+        byte type = in.readByte();
+        if (type == REGULAR_AXIS) {
+            return new RegularAxisImpl(name, in.readDouble(), in.readDouble(), in.readInt(),
+                    isLongitude);
+        } else if (type == IRREGULAR_AXIS) {
+            return new ReferenceableAxisImpl(name, readValues(in), isLongitude);
+        } else {
+            throw new IOException("Unknown axis type: " + type);
+        }
+    }
+
+    private static void writeVerticalAxis(DataOutputStream out, VerticalAxis zAxis)
+            throws IOException {
+        VerticalCrs vCrs = zAxis.getVerticalCrs();
+        out.writeUTF(zAxis.getName());
+        writeString(out, vCrs.getUnits());
+        out.writeBoolean(vCrs.isPressure());
+        out.writeBoolean(vCrs.isDimensionless());
+        out.writeBoolean(vCrs.isPositiveUpwards());
+        writeValues(out, zAxis.getCoordinateValues());
+    }
+
+    private static VerticalAxis readVerticalAxis(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        VerticalCrs vCrs = new VerticalCrsImpl(readString(in), in.readBoolean(),
+                in.readBoolean(), in.readBoolean());
+        return new VerticalAxisImpl(name, Collections.unmodifiableList(readValues(in)), vCrs);
+    }
+
+    private static void writeTimeAxis(DataOutputStream out, TimeAxis tAxis) throws IOException {
+        out.writeUTF(tAxis.getName());
+        out.writeByte(getChronologyIndex(tAxis.getChronology()));
+        List<DateTime> times = tAxis.getCoordinateValues();
+        out.writeInt(times.size());
+        for (DateTime time : times) {
+            out.writeLong(time.getMillis());
+        }
+    }
+
+    private static TimeAxis readTimeAxis(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        Chronology chronology = CHRONOLOGIES[in.readByte()];
+        int size = in.readInt();
+        List<DateTime> times = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            times.add(new DateTime(in.readLong(), chronology));
+        }
+        return new TimeAxisImpl(name, times);
+    }
+
+    private static int getChronologyIndex(Chronology chronology) {
+        for (int i = 0; i < CHRONOLOGIES.length; i++) {
+            if (CHRONOLOGIES[i].equals(chronology)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeValues(DataOutputStream out, List<Double> values)
+            throws IOException {
+        out.writeInt(values.size());
+        for (Double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static List<Double> readValues(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<Double> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readDouble());
+        }
+        return values;
+    }
+
+    /*
+     * Metadata strings may be null, which DataOutputStream.writeUTF does not
+     * allow
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Identifies the state of a file by its path, modification time and size
+     */
+    static final class FileFingerprint {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+
+        public FileFingerprint(File file) {
+            this(file.getAbsolutePath(), file.lastModified(), file.length());
+        }
+
+        private FileFingerprint(String path, long lastModified, long length) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(lastModified);
+            out.writeLong(length);
+        }
+
+        static FileFingerprint read(DataInputStream in) throws IOException {
+            return new FileFingerprint(in.readUTF(), in.readLong(), in.readLong());
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = prime * result + (int) (length ^ (length >>> 32));
+            result = prime * result + ((path == null) ? 0 : path.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            FileFingerprint other = (FileFingerprint) obj;
+            if (lastModified != other.lastModified)
+                return false;
+            if (length != other.length)
+                return false;
+            if (path == null) {
+                if (other.path != null)
+                    return false;
+            } else if (!path.equals(other.path))
+                return false;
+            return true;
+        }
+    }
+
+    static final class VectorComponents {
+        final String xComponentId;
+        final String yComponentId;
+        final String commonName;
+        final boolean trueEastNorth;
+
+        private VectorComponents(String xComponentId, String yComponentId, String commonName,
+                boolean trueEastNorth) {
+            this.xComponentId = xComponentId;
+            this.yComponentId = yComponentId;
+            this.commonName = commonName;
+            this.trueEastNorth = trueEastNorth;
+        }
+    }
+
+    static final class MeanSDComponents {
+        final String meanId;
+        final String stddevId;
+        final String title;
+
+        private MeanSDComponents(String meanId, String stddevId, String title) {
+            this.meanId = meanId;
+            this.stddevId = stddevId;
+            this.title = title;
+        }
+    }
+}
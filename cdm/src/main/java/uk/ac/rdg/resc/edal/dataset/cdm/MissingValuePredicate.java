@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import ucar.nc2.dataset.VariableDS;
+
+/**
+ * Decides whether values read from a {@link VariableDS} should be treated as
+ * missing data.
+ * 
+ * This performs the same checks as {@link VariableDS#isMissing(double)}, but
+ * the properties of the variable (whether it has fill values, missing values
+ * and valid ranges) are looked up once on construction rather than for every
+ * value. An instance should therefore be created once per variable and used
+ * for every value read from it.
+ * 
+ * A tolerance of 1e-7 is allowed on the maximum and minimum values. This is
+ * because when using aggregations we have no underlying original variable. In
+ * these cases, the valid min/max get automatically enhanced as doubles, but the
+ * value gets enhanced as its underlying data type. If this is a float, then
+ * rounding errors can occur.
+ * 
+ * e.g. the valid max may be 1.0f, but 0.9999999776482582. The valid max is
+ * represented in the double form, but the value is represented in the floating
+ * point form is 1.0, which is greater than the valid max, even if in the
+ * underlying data they are equal.
+ */
+final class MissingValuePredicate {
+    private static final double VALID_RANGE_TOLERANCE = 1e-7;
+
+    private final VariableDS var;
+    private final boolean hasFillValue;
+    private final boolean hasMissingValue;
+    private final boolean checkValidMax;
+    private final boolean checkValidMin;
+    private final double validMax;
+    private final double validMin;
+
+    public MissingValuePredicate(VariableDS var) {
+        this.var = var;
+        hasFillValue = var.hasFillValue();
+        hasMissingValue = var.hasMissingValue();
+        validMax = var.getValidMax();
+        validMin = var.getValidMin();
+        boolean hasInvalidData = var.hasInvalidData();
+        checkValidMax = hasInvalidData && validMax != -Double.MAX_VALUE;
+        checkValidMin = hasInvalidData && validMin != Double.MAX_VALUE;
+    }
+
+    /**
+     * @param val
+     *            The value to check
+     * @return Whether or not this should be considered missing data
+     */
+    public boolean isMissing(double val) {
+        if (Double.isNaN(val)) {
+            return true;
+        }
+        if (checkValidMax && val > validMax && (val - validMax) > VALID_RANGE_TOLERANCE) {
+            return true;
+        }
+        if (checkValidMin && val < validMin && (validMin - val) > VALID_RANGE_TOLERANCE) {
+            return true;
+        }
+        /*
+         * The comparisons against fill/missing values are left to the variable,
+         * since they take the data type of the variable into account.
+         */
+        return (hasFillValue && var.isFillValue(val))
+                || (hasMissingValue && var.isMissingValue(val));
+    }
+}
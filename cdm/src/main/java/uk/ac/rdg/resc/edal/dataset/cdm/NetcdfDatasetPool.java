@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dt.GridDataset;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+/**
+ * A pool of open {@link NetcdfDataset}s, shared by all
+ * {@link CdmGridDatasetFactory} instances.
+ * 
+ * Each location has at most one open handle. Callers
+ * {@link #acquire(String, boolean, Opener) acquire} a {@link Lease} on the
+ * handle, and must {@link Lease#close() close} it when they have finished
+ * reading. A handle is only ever closed when no leases are held on it, so a
+ * dataset can never be closed underneath a thread which is reading from it.
+ * 
+ * Idle handles are closed when the number of open handles exceeds the limit
+ * for their kind (NcML aggregations and single files have separate limits,
+ * since aggregations are far more expensive to re-open but may hold many
+ * files open), least recently used first, and when they have not been used
+ * for longer than the idle timeout. If every handle is in use the limits may
+ * be exceeded temporarily.
+ * 
+ * Lookups of handles which are already open do not contend with each other,
+ * and threads only wait for each other when they request the same location
+ * while it is being opened.
+ */
+public final class NetcdfDatasetPool {
+    private static final Logger log = LoggerFactory.getLogger(NetcdfDatasetPool.class);
+
+    /** The default maximum number of open single-file handles */
+    public static final int DEFAULT_MAX_FILES = 256;
+    /** The default maximum number of open NcML aggregation handles */
+    public static final int DEFAULT_MAX_AGGREGATIONS = 32;
+    /** The default time after which an unused handle is closed */
+    public static final int DEFAULT_IDLE_MINUTES = 10;
+
+    /*
+     * How often idle handles are looked for
+     */
+    private static final long REAP_INTERVAL_SECONDS = 30;
+
+    private static final ConcurrentMap<String, Handle> handles = new ConcurrentHashMap<>();
+    private static final AtomicInteger openFiles = new AtomicInteger(0);
+    private static final AtomicInteger openAggregations = new AtomicInteger(0);
+
+    private static volatile int maxFiles = DEFAULT_MAX_FILES;
+    private static volatile int maxAggregations = DEFAULT_MAX_AGGREGATIONS;
+    private static volatile long idleMillis = DEFAULT_IDLE_MINUTES * 60 * 1000L;
+
+    private static final AtomicLong opens = new AtomicLong(0);
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong evictions = new AtomicLong(0);
+    private static final AtomicLong waitNanos = new AtomicLong(0);
+
+    /*
+     * Only one thread looks for handles to evict at a time
+     */
+    private static final Object evictionLock = new Object();
+
+    private static final ScheduledExecutorService reaper = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "netcdf-dataset-reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    static {
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle();
+                } catch (RuntimeException e) {
+                    log.warn("Problem closing idle datasets", e);
+                }
+            }
+        }, REAP_INTERVAL_SECONDS, REAP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens a {@link NetcdfDataset} when it is not already in the pool
+     */
+    interface Opener {
+        NetcdfDataset open(String location) throws IOException;
+    }
+
+    private NetcdfDatasetPool() {
+    }
+
+    /**
+     * Sets the maximum number of single files and NcML aggregations which may
+     * be held open when they are not in use. Any excess idle handles are
+     * closed immediately.
+     * 
+     * @param maxFiles
+     *            The maximum number of open single files (including OPeNDAP
+     *            datasets)
+     * @param maxAggregations
+     *            The maximum number of open NcML aggregations (including those
+     *            generated from glob expressions)
+     */
+    public static void setLimits(int maxFiles, int maxAggregations) {
+        NetcdfDatasetPool.maxFiles = Math.max(0, maxFiles);
+        NetcdfDatasetPool.maxAggregations = Math.max(0, maxAggregations);
+        evictExcess(false);
+        evictExcess(true);
+    }
+
+    /**
+     * Sets how long a handle may go unused before it is closed
+     * 
+     * @param idleMinutes
+     *            The idle time, in minutes. If this is zero or negative, idle
+     *            handles are only closed to keep within the limits set by
+     *            {@link #setLimits(int, int)}
+     */
+    public static void setIdleTimeout(int idleMinutes) {
+        idleMillis = idleMinutes * 60 * 1000L;
+    }
+
+    /**
+     * Removes the handle for the given location from the pool, so that the
+     * next request for it opens the dataset again. If the handle is in use, it
+     * is closed once all leases on it have been released.
+     * 
+     * @param location
+     *            The location of the dataset
+     */
+    static void invalidate(String location) {
+        Handle handle = handles.remove(location);
+        if (handle != null) {
+            synchronized (handle) {
+                handle.retired = true;
+            }
+            close(handle, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Closes all handles which are not currently in use
+     */
+    public static void clear() {
+        for (Handle handle : handles.values()) {
+            close(handle, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @return The number of handles which had to be opened
+     */
+    public static long getOpens() {
+        return opens.get();
+    }
+
+    /**
+     * @return The number of leases which were granted on handles which were
+     *         already open
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of handles which have been closed because they were
+     *         idle or the pool was full
+     */
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The total time, in milliseconds, which threads have spent
+     *         waiting for access to the handle they requested, most of which
+     *         is spent waiting for another thread to open it
+     */
+    public static long getWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    /**
+     * @return The number of single files which are currently open
+     */
+    public static int getOpenFiles() {
+        return openFiles.get();
+    }
+
+    /**
+     * @return The number of NcML aggregations which are currently open
+     */
+    public static int getOpenAggregations() {
+        return openAggregations.get();
+    }
+
+    /**
+     * Leases the handle for the given location, opening it if necessary.
+     * 
+     * @param location
+     *            The location of the dataset, used as the key in the pool
+     * @param aggregation
+     *            Whether the location is an NcML aggregation, which determines
+     *            the limit the handle counts towards
+     * @param opener
+     *            Used to open the dataset if it is not already open
+     * @return A {@link Lease} on the open dataset, which must be closed when
+     *         it is no longer needed
+     * @throws IOException
+     *             If the dataset could not be opened
+     */
+    static Lease acquire(String location, boolean aggregation, Opener opener)
+            throws IOException {
+        while (true) {
+            Handle handle = handles.get(location);
+            if (handle == null) {
+                Handle newHandle = new Handle(location, aggregation);
+                handle = handles.putIfAbsent(location, newHandle);
+                if (handle == null) {
+                    handle = newHandle;
+                }
+            }
+            boolean opened = false;
+            long start = System.nanoTime();
+            synchronized (handle) {
+                waitNanos.addAndGet(System.nanoTime() - start);
+                if (handle.closed || handle.retired) {
+                    /*
+                     * This handle was evicted or invalidated after we found
+                     * it. Try again.
+                     */
+                    continue;
+                }
+                if (handle.nc == null) {
+                    try {
+                        handle.nc = opener.open(location);
+                    } catch (IOException | RuntimeException e) {
+                        handle.closed = true;
+                        handles.remove(location, handle);
+                        throw e;
+                    }
+                    opens.incrementAndGet();
+                    getCounter(handle.aggregation).incrementAndGet();
+                    opened = true;
+                } else {
+                    hits.incrementAndGet();
+                }
+                handle.leases++;
+                handle.lastUsed = System.currentTimeMillis();
+            }
+            if (opened) {
+                evictExcess(handle.aggregation);
+            }
+            return new Lease(handle);
+        }
+    }
+
+    private static AtomicInteger getCounter(boolean aggregation) {
+        return aggregation ? openAggregations : openFiles;
+    }
+
+    /**
+     * Closes the least recently used idle handles of the given kind until the
+     * pool is within its limit
+     */
+    private static void evictExcess(boolean aggregation) {
+        AtomicInteger count = getCounter(aggregation);
+        if (count.get() <= (aggregation ? maxAggregations : maxFiles)) {
+            return;
+        }
+        synchronized (evictionLock) {
+            int limit = aggregation ? maxAggregations : maxFiles;
+            List<Handle> idle = new ArrayList<>();
+            for (Handle handle : handles.values()) {
+                if (handle.aggregation == aggregation && handle.nc != null) {
+                    synchronized (handle) {
+                        if (handle.leases == 0 && !handle.closed) {
+                            handle.evictionStamp = handle.lastUsed;
+                            idle.add(handle);
+                        }
+                    }
+                }
+            }
+            Collections.sort(idle, new Comparator<Handle>() {
+                @Override
+                public int compare(Handle h1, Handle h2) {
+                    return Long.compare(h1.evictionStamp, h2.evictionStamp);
+                }
+            });
+            for (Handle handle : idle) {
+                if (count.get() <= limit) {
+                    break;
+                }
+                close(handle, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Closes all handles which have been idle for longer than the idle timeout
+     */
+    private static void evictIdle() {
+        long timeout = idleMillis;
+        if (timeout <= 0) {
+            return;
+        }
+        long idleSince = System.currentTimeMillis() - timeout;
+        for (Handle handle : handles.values()) {
+            if (handle.nc != null) {
+                close(handle, idleSince);
+            }
+        }
+    }
+
+    /**
+     * Closes the given handle if it is not in use and was last used before the
+     * given time
+     */
+    private static void close(Handle handle, long idleSince) {
+        NetcdfDataset nc;
+        synchronized (handle) {
+            if (handle.closed || handle.nc == null || handle.leases > 0
+                    || handle.lastUsed >= idleSince) {
+                return;
+            }
+            handle.closed = true;
+            handles.remove(handle.location, handle);
+            nc = handle.nc;
+        }
+        getCounter(handle.aggregation).decrementAndGet();
+        evictions.incrementAndGet();
+        try {
+            CdmUtils.closeDataset(nc);
+        } catch (IOException e) {
+            log.warn("Problem closing dataset " + handle.location, e);
+        }
+    }
+
+    /**
+     * An open dataset in the pool. All fields except the location and kind are
+     * guarded by the handle itself.
+     */
+    private static final class Handle {
+        private final String location;
+        private final boolean aggregation;
+        /*
+         * Volatile so that eviction can skip handles which are still being
+         * opened without waiting for them
+         */
+        private volatile NetcdfDataset nc = null;
+        private GridDataset gridDataset = null;
+        private int leases = 0;
+        private long lastUsed;
+        private boolean closed = false;
+        /*
+         * Set when the handle has been removed from the pool, but may still be
+         * in use
+         */
+        private boolean retired = false;
+        /*
+         * A copy of lastUsed, which remains fixed while candidates for
+         * eviction are sorted. Guarded by evictionLock.
+         */
+        private long evictionStamp;
+
+        public Handle(String location, boolean aggregation) {
+            this.location = location;
+            this.aggregation = aggregation;
+        }
+    }
+
+    /**
+     * A lease on a handle in the pool. The underlying dataset remains open at
+     * least until the lease is closed.
+     */
+    static final class Lease implements Closeable {
+        private final Handle handle;
+        private boolean released = false;
+
+        private Lease(Handle handle) {
+            this.handle = handle;
+        }
+
+        /**
+         * @return The leased {@link NetcdfDataset}
+         */
+        public NetcdfDataset getDataset() {
+            return handle.nc;
+        }
+
+        /**
+         * @return The {@link GridDataset} wrapping the leased dataset. This is
+         *         created once per handle, since wrapping the same dataset
+         *         from several threads at once is not safe.
+         * @throws IOException
+         *             If the dataset contains no grids
+         */
+        public GridDataset getGridDataset() throws IOException {
+            synchronized (handle) {
+                if (handle.gridDataset == null) {
+                    handle.gridDataset = CdmUtils.getGridDataset(handle.nc);
+                }
+                return handle.gridDataset;
+            }
+        }
+
+        /**
+         * Releases the lease. Subsequent calls have no effect.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            boolean retired;
+            synchronized (handle) {
+                handle.leases--;
+                handle.lastUsed = System.currentTimeMillis();
+                retired = handle.retired;
+            }
+            if (retired) {
+                NetcdfDatasetPool.close(handle, Long.MAX_VALUE);
+            } else {
+                evictExcess(handle.aggregation);
+            }
+        }
+    }
+}
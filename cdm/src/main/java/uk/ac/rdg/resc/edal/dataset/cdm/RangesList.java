@@ -124,26 +124,54 @@ final class RangesList {
                 rank, xAxisIndex, yAxisIndex, zAxisIndex, tAxisIndex });
     }
 
+    /**
+     * Creates a copy of a {@link RangesList}. The copy can be modified without
+     * affecting the original.
+     */
+    public RangesList(RangesList other) {
+        ranges = new ArrayList<Range>(other.ranges);
+        xAxisIndex = other.xAxisIndex;
+        yAxisIndex = other.yAxisIndex;
+        zAxisIndex = other.zAxisIndex;
+        tAxisIndex = other.tAxisIndex;
+    }
+
     public void setXRange(int xmin, int xmax) {
-        setRange(xAxisIndex, xmin, xmax);
+        setRange(xAxisIndex, xmin, xmax, 1);
+    }
+
+    /**
+     * Sets the range of the x axis, reading every <code>xstride</code>-th
+     * point
+     */
+    public void setXRange(int xmin, int xmax, int xstride) {
+        setRange(xAxisIndex, xmin, xmax, xstride);
     }
 
     public void setYRange(int ymin, int ymax) {
-        setRange(yAxisIndex, ymin, ymax);
+        setRange(yAxisIndex, ymin, ymax, 1);
+    }
+
+    /**
+     * Sets the range of the y axis, reading every <code>ystride</code>-th
+     * point
+     */
+    public void setYRange(int ymin, int ymax, int ystride) {
+        setRange(yAxisIndex, ymin, ymax, ystride);
     }
 
     public void setZRange(int zmin, int zmax) {
-        setRange(zAxisIndex, zmin, zmax);
+        setRange(zAxisIndex, zmin, zmax, 1);
     }
 
     public void setTRange(int tmin, int tmax) {
-        setRange(tAxisIndex, tmin, tmax);
+        setRange(tAxisIndex, tmin, tmax, 1);
     }
 
-    private void setRange(int index, int min, int max) {
+    private void setRange(int index, int min, int max, int stride) {
         if (index >= 0 && min >= 0 && max >= 0) {
             try {
-                ranges.set(index, new Range(min, max));
+                ranges.set(index, new Range(min, max, stride));
             } catch (InvalidRangeException ire) {
                 /*
                  * This is a programming error, so is wrapped as a runtime
@@ -134,25 +134,22 @@ public final class CdmUtils {
 
     /**
      * Estimates the optimum {@link DataReadingStrategy} from the given
-     * NetcdfDataset. Essentially, if the data are remote (e.g. OPeNDAP) or
-     * compressed, this will return {@link DataReadingStrategy#BOUNDING_BOX},
-     * which makes a single i/o call, minimizing the overhead. If the data are
-     * local and uncompressed this will return
-     * {@link DataReadingStrategy#SCANLINE}, which reduces the amount of data
-     * read.
+     * NetcdfDataset. Both of the strategies returned choose how to read data
+     * for each individual request, based on how much of the bounding box of
+     * the request is actually needed. If the data are remote (e.g. OPeNDAP) or
+     * compressed, this will return {@link DataReadingStrategy#ADAPTIVE_REMOTE},
+     * which strongly favours making fewer i/o calls. If the data are local and
+     * uncompressed this will return {@link DataReadingStrategy#ADAPTIVE},
+     * which favours reducing the amount of data read.
      * 
      * @param nc
      *            The NetcdfDataset from which data will be read.
      * @return an optimum DataReadingStrategy for reading from the dataset
      */
     public static DataReadingStrategy getOptimumDataReadingStrategy(NetcdfDataset nc) {
-        /*
-         * TODO: also use the size of the grids as a deciding factor: it can be
-         * very slow to read large grids by the BOUNDING_BOX strategy
-         */
         String fileType = nc.getFileTypeId();
-        return "netCDF".equalsIgnoreCase(fileType) || "HDF4".equalsIgnoreCase(fileType) ? DataReadingStrategy.SCANLINE
-                : DataReadingStrategy.BOUNDING_BOX;
+        return "netCDF".equalsIgnoreCase(fileType) || "HDF4".equalsIgnoreCase(fileType) ? DataReadingStrategy.ADAPTIVE
+                : DataReadingStrategy.ADAPTIVE_REMOTE;
     }
 
     /**
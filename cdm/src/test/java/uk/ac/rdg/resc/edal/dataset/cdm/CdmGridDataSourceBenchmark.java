@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+/**
+ * This class is not part of the test suite, but may be run to measure how the
+ * read throughput of {@link CdmGridDataSource} scales with the number of
+ * threads.
+ *
+ * The test dataset is copied into a number of separate files, so that each
+ * thread reads from its own NetCDF dataset. With concurrent reads enabled, the
+ * number of reads per second should scale with the number of threads (up to
+ * the number of available cores / the limit of the disk). With concurrent
+ * reads disabled it should remain roughly constant.
+ *
+ * Usage: CdmGridDataSourceBenchmark [maxThreads] [readsPerThread]
+ */
+public class CdmGridDataSourceBenchmark {
+    private static final String[] VARIABLES = new String[] { "vLon", "vLat", "vDepth", "vTime" };
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime()
+                .availableProcessors();
+        int readsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        File source = new File(CdmGridDataSourceBenchmark.class.getResource(
+                "/rectilinear_test_data.nc").getPath());
+        List<NetcdfDataset> datasets = new ArrayList<>();
+        for (int i = 0; i < maxThreads; i++) {
+            File copy = File.createTempFile("edal-read-benchmark", ".nc");
+            copy.deleteOnExit();
+            copyFile(source, copy);
+            datasets.add(CdmUtils.openDataset(copy.getAbsolutePath()));
+        }
+
+        System.out.println("threads\tconcurrent (reads/s)\tglobal lock (reads/s)");
+        try {
+            for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+                double concurrent = run(datasets, nThreads, readsPerThread, true);
+                double serial = run(datasets, nThreads, readsPerThread, false);
+                System.out.println(String.format("%d\t%.0f\t%.0f", nThreads, concurrent, serial));
+            }
+        } finally {
+            for (NetcdfDataset nc : datasets) {
+                CdmUtils.closeDataset(nc);
+            }
+        }
+    }
+
+    private static double run(List<NetcdfDataset> datasets, int nThreads,
+            final int readsPerThread, boolean concurrentReads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int i = 0; i < nThreads; i++) {
+                final CdmGridDataSource dataSource = new CdmGridDataSource(
+                        CdmUtils.getGridDataset(datasets.get(i)), concurrentReads);
+                tasks.add(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long checksum = 0;
+                        for (int r = 0; r < readsPerThread; r++) {
+                            /*
+                             * Read a single full map (i.e. one t, one z)
+                             */
+                            Array4D<Number> data = dataSource.read(VARIABLES[r
+                                    % VARIABLES.length], r % 10, r % 10, r % 11, r % 11, 0, 18,
+                                    0, 35);
+                            checksum += data.get(0, 0, 9, 17).longValue();
+                        }
+                        return checksum;
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Future<Long> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            return (nThreads * (double) readsPerThread) / (elapsed / 1e9);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void copyFile(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+}
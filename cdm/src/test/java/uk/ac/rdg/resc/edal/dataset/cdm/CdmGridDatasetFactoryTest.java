@@ -35,8 +35,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
@@ -46,15 +48,24 @@ import org.junit.Test;
 
 import uk.ac.rdg.resc.edal.cdm.CreateNetCDF;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
 import uk.ac.rdg.resc.edal.dataset.plugins.VectorPlugin;
+import uk.ac.rdg.resc.edal.domain.TrajectoryDomain;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
 import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
 import uk.ac.rdg.resc.edal.feature.MapFeature;
+import uk.ac.rdg.resc.edal.feature.TrajectoryFeature;
 import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
 import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
 import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.position.GeoPosition;
+import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.position.VerticalCrs;
+import uk.ac.rdg.resc.edal.position.VerticalCrsImpl;
+import uk.ac.rdg.resc.edal.position.VerticalPosition;
+import uk.ac.rdg.resc.edal.util.Array1D;
 import uk.ac.rdg.resc.edal.util.Array2D;
 import uk.ac.rdg.resc.edal.util.GISUtils;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
@@ -175,6 +186,43 @@ public class CdmGridDatasetFactoryTest {
         }
     }
 
+    @Test
+    public void testTrajectoryData() throws DataReadingException, VariableNotFoundException,
+            EdalException {
+        /*
+         * A trajectory which moves diagonally across the grid, whilst moving
+         * through time and depth. Consecutive points share times and depths,
+         * so that they get read together.
+         */
+        VerticalCrs vCrs = new VerticalCrsImpl("m", false, false, false);
+        List<GeoPosition> positions = new ArrayList<>();
+        for (int i = 0; i < ySize; i++) {
+            HorizontalPosition pos = hGrid.getDomainObjects().get(i, i).getCentre();
+            positions.add(new GeoPosition(pos, new VerticalPosition(10.0 * (i / 2), vCrs),
+                    new DateTime(2000, 01, 01 + (i / 4), 00, 00)));
+        }
+        TrajectoryFeature feature = ((GriddedDataset) dataset).extractTrajectoryFeature(null,
+                new TrajectoryDomain(positions));
+
+        Array1D<Number> lonValues = feature.getValues("vLon");
+        Array1D<Number> latValues = feature.getValues("vLat");
+        Array1D<Number> depthValues = feature.getValues("vDepth");
+        Array1D<Number> timeValues = feature.getValues("vTime");
+        Array1D<Number> magValues = feature.getValues("vLon:vLat-mag");
+        for (int i = 0; i < ySize; i++) {
+            float expectedLat = 100f * i / (ySize - 1);
+            float expectedLon = 100f * i / (xSize - 1);
+            float expectedDepth = 10f * (i / 2);
+            float expectedTime = 100 * (i / 4) / 9.0f;
+            double expectedMag = Math.sqrt(expectedLat * expectedLat + expectedLon * expectedLon);
+            assertEquals(expectedLon, lonValues.get(i).doubleValue(), 1e-5);
+            assertEquals(expectedLat, latValues.get(i).doubleValue(), 1e-5);
+            assertEquals(expectedDepth, depthValues.get(i).doubleValue(), 1e-5);
+            assertEquals(expectedTime, timeValues.get(i).doubleValue(), 1e-5);
+            assertEquals(expectedMag, magValues.get(i).doubleValue(), 1e-5);
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testThrowsExceptionForInvalidZ() throws DataReadingException, VariableNotFoundException {
         /*
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.feature.MapFeature;
+import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+
+/**
+ * Tests that a glob aggregation picks up files which are added and removed
+ * between calls to {@link CdmGridDatasetFactory#createDataset(String, String)}
+ */
+public class GlobAggregationTest {
+    private static final DateTime START = new DateTime(2000, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("edal-aggregation-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testFilesAddedAndRemoved() throws IOException, EdalException,
+            InvalidRangeException {
+        writeDay(0);
+        writeDay(1);
+        String location = new File(dir, "*.nc").getAbsolutePath();
+
+        CdmGridDatasetFactory factory = new CdmGridDatasetFactory();
+        assertTimes(factory.createDataset("aggregation-test", location), 0, 1);
+
+        writeDay(2);
+        assertTimes(factory.createDataset("aggregation-test", location), 0, 1, 2);
+
+        new File(dir, "day0.nc").delete();
+        Dataset dataset = factory.createDataset("aggregation-test", location);
+        assertTimes(dataset, 1, 2);
+
+        /*
+         * Data should be read from the current set of files
+         */
+        PlottingDomainParams params = new PlottingDomainParams(2, 2, dataset
+                .getVariableMetadata("v").getHorizontalDomain().getBoundingBox(), null, null,
+                null, null, START.plusDays(2));
+        MapFeature feature = (MapFeature) dataset.extractMapFeatures(null, params).get(0);
+        assertEquals(2.0, feature.getValues("v").get(0, 0).doubleValue(), 1e-6);
+    }
+
+    private static void assertTimes(Dataset dataset, int... days) throws EdalException {
+        TimeAxis tAxis = (TimeAxis) dataset.getVariableMetadata("v").getTemporalDomain();
+        List<DateTime> times = tAxis.getCoordinateValues();
+        assertEquals(days.length, times.size());
+        for (int i = 0; i < days.length; i++) {
+            assertEquals(START.plusDays(days[i]).getMillis(), times.get(i).getMillis());
+        }
+    }
+
+    /*
+     * Writes a file containing a single time step, with all values equal to
+     * the day number
+     */
+    private void writeDay(int day) throws IOException, InvalidRangeException {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                new File(dir, "day" + day + ".nc").getAbsolutePath());
+        try {
+            writer.addDimension(null, "time", 1);
+            writer.addDimension(null, "lat", 2);
+            writer.addDimension(null, "lon", 2);
+            Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+            writer.addVariableAttribute(time, new Attribute("units", "days since 2000-01-01"));
+            Variable lat = writer.addVariable(null, "lat", DataType.FLOAT, "lat");
+            writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+            Variable lon = writer.addVariable(null, "lon", DataType.FLOAT, "lon");
+            writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+            Variable v = writer.addVariable(null, "v", DataType.FLOAT, "time lat lon");
+            writer.create();
+
+            writer.write(time, Array.factory(new double[] { day }));
+            writer.write(lat, Array.factory(new float[] { 0f, 10f }));
+            writer.write(lon, Array.factory(new float[] { 0f, 10f }));
+            writer.write(v, Array.factory(DataType.FLOAT, new int[] { 1, 2, 2 }, new float[] {
+                    day, day, day, day }));
+        } finally {
+            writer.close();
+        }
+    }
+}
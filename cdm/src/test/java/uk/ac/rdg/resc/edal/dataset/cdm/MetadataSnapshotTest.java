@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+
+public class MetadataSnapshotTest {
+    private File workingDir;
+    private String location;
+
+    @Before
+    public void setup() throws IOException {
+        workingDir = Files.createTempDirectory("edal-snapshot-test").toFile();
+        DatasetFactory.setWorkingDirectory(workingDir);
+        location = this.getClass().getResource("/test.nc").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        DatasetFactory.setWorkingDirectory(null);
+        File snapshotDir = new File(workingDir, "metadataSnapshots");
+        File[] files = snapshotDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        snapshotDir.delete();
+        workingDir.delete();
+    }
+
+    @Test
+    public void testDatasetFromSnapshot() throws IOException, EdalException {
+        CdmGridDatasetFactory factory = new CdmGridDatasetFactory();
+        Dataset scanned = factory.createDataset("snapshot-test", location);
+
+        File[] snapshots = new File(workingDir, "metadataSnapshots").listFiles();
+        assertEquals(1, snapshots.length);
+
+        MetadataSnapshot snapshot = MetadataSnapshot.read(snapshots[0]);
+        assertEquals(location, snapshot.getLocation());
+        assertTrue(snapshot.isCurrent(Collections.singletonList(new MetadataSnapshot.FileFingerprint(
+                new File(location)))));
+
+        /*
+         * The second dataset is built from the snapshot, and should have
+         * identical metadata to the one which was read from the file
+         */
+        Dataset restored = factory.createDataset("snapshot-test", location);
+        assertEquals(scanned.getVariableIds(), restored.getVariableIds());
+        for (String varId : scanned.getVariableIds()) {
+            VariableMetadata expected = scanned.getVariableMetadata(varId);
+            VariableMetadata actual = restored.getVariableMetadata(varId);
+            assertEquals(expected.getParameter(), actual.getParameter());
+            assertEquals(expected.getHorizontalDomain(), actual.getHorizontalDomain());
+            assertEquals(expected.getVerticalDomain(), actual.getVerticalDomain());
+            assertEquals(expected.getTemporalDomain(), actual.getTemporalDomain());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+public class NetcdfDatasetPoolTest {
+    private String location;
+    private int nOpened;
+    private NetcdfDatasetPool.Opener opener;
+
+    @Before
+    public void setUp() throws Exception {
+        NetcdfDatasetPool.clear();
+        location = this.getClass().getResource("/rectilinear_test_data.nc").getPath();
+        nOpened = 0;
+        opener = new NetcdfDatasetPool.Opener() {
+            @Override
+            public NetcdfDataset open(String location) throws IOException {
+                nOpened++;
+                return CdmUtils.openDataset(location);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        NetcdfDatasetPool.setLimits(NetcdfDatasetPool.DEFAULT_MAX_FILES,
+                NetcdfDatasetPool.DEFAULT_MAX_AGGREGATIONS);
+        NetcdfDatasetPool.clear();
+    }
+
+    @Test
+    public void testSharedHandle() throws IOException {
+        long hits = NetcdfDatasetPool.getHits();
+        NetcdfDatasetPool.Lease lease1 = NetcdfDatasetPool.acquire(location, false, opener);
+        NetcdfDatasetPool.Lease lease2 = NetcdfDatasetPool.acquire(location, false, opener);
+        assertEquals(1, nOpened);
+        assertEquals(hits + 1, NetcdfDatasetPool.getHits());
+        assertSame(lease1.getDataset(), lease2.getDataset());
+        assertSame(lease1.getGridDataset(), lease2.getGridDataset());
+        lease1.close();
+        lease2.close();
+
+        /*
+         * The handle should remain open for the next request
+         */
+        NetcdfDatasetPool.acquire(location, false, opener).close();
+        assertEquals(1, nOpened);
+        assertEquals(1, NetcdfDatasetPool.getOpenFiles());
+    }
+
+    @Test
+    public void testLeasedHandleNotEvicted() throws IOException {
+        NetcdfDatasetPool.setLimits(0, 0);
+        NetcdfDatasetPool.Lease lease = NetcdfDatasetPool.acquire(location, false, opener);
+        /*
+         * The pool is over its limit, but the handle is in use
+         */
+        assertEquals(1, NetcdfDatasetPool.getOpenFiles());
+        NetcdfDatasetPool.Lease lease2 = NetcdfDatasetPool.acquire(location, false, opener);
+        assertEquals(1, nOpened);
+        lease.close();
+        /*
+         * Closing the same lease twice must not release the other one
+         */
+        lease.close();
+        assertEquals(1, NetcdfDatasetPool.getOpenFiles());
+
+        long evictions = NetcdfDatasetPool.getEvictions();
+        lease2.close();
+        assertEquals(0, NetcdfDatasetPool.getOpenFiles());
+        assertEquals(evictions + 1, NetcdfDatasetPool.getEvictions());
+
+        NetcdfDatasetPool.acquire(location, false, opener).close();
+        assertEquals(2, nOpened);
+    }
+}
@@ -51,6 +51,7 @@ import org.junit.Test;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
 import uk.ac.rdg.resc.edal.dataset.plugins.VectorPlugin;
 import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.domain.MapDomain;
@@ -824,6 +825,36 @@ public class RectilinearGridDatasetTest {
         bboxTest(bbox, xstep, ystep);
     }
 
+    /**
+     * Test to extract features within a {@link BoundingBox} when the data
+     * cannot be read in a single hyperslab
+     * 
+     * @throws DataReadingExcpetion
+     *             If there is a problem reading the underlying data
+     */
+    @Test
+    public void testFeaturesBBoxChunked() throws DataReadingException,
+            UnsupportedOperationException, VariableNotFoundException {
+        double xstep = (rGrid.getXAxis().getCoordinateExtent().getHigh() - rGrid.getXAxis()
+                .getCoordinateExtent().getLow())
+                / xSize;
+        double ystep = (rGrid.getYAxis().getCoordinateExtent().getHigh() - rGrid.getYAxis()
+                .getCoordinateExtent().getLow())
+                / ySize;
+        try {
+            /*
+             * Smaller than a single row of a timeseries/profile read, and
+             * smaller than a single point in time and depth
+             */
+            GriddedDataset.setMaxHyperslabSize(50);
+            bboxTest(new BoundingBoxImpl(-124.89, -20.9, 50.004, 25.0, crs), xstep, ystep);
+            GriddedDataset.setMaxHyperslabSize(5);
+            bboxTest(new BoundingBoxImpl(-134.9, -34.5, 0.8, -31.7, crs), xstep, ystep);
+        } finally {
+            GriddedDataset.setMaxHyperslabSize(16 * 1024 * 1024);
+        }
+    }
+
     /**
      * A helper method is to evaluate returned feature objects based on the
      * given bounding box objects.
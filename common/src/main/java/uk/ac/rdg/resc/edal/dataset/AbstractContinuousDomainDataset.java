@@ -75,6 +75,14 @@ public abstract class AbstractContinuousDomainDataset extends AbstractDataset {
         return featureIndexer.getAllFeatureIds();
     }
 
+    /**
+     * @return The {@link FeatureIndexer} which indexes the features of this
+     *         dataset
+     */
+    protected FeatureIndexer getFeatureIndexer() {
+        return featureIndexer;
+    }
+
     @Override
     public List<? extends DiscreteFeature<?, ?>> extractMapFeatures(Set<String> varIds,
             PlottingDomainParams params) throws DataReadingException {
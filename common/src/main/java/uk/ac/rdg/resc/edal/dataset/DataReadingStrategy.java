@@ -28,16 +28,26 @@
 package uk.ac.rdg.resc.edal.dataset;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.h2.store.DataReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import uk.ac.rdg.resc.edal.dataset.DomainMapper.DomainMapperEntry;
-import uk.ac.rdg.resc.edal.dataset.DomainMapper.Scanline;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.util.Array2D;
 import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
 import uk.ac.rdg.resc.edal.util.ValuesArray2D;
 
 /**
@@ -54,9 +64,10 @@ import uk.ac.rdg.resc.edal.util.ValuesArray2D;
  * 
  * <h3>Strategy 1: read data points one at a time</h3>
  * <p>
- * Read each data point individually by using {@link DomainMapper#iterator()} to
- * iterate over all {@link DomainMapperEntry}s and reading the appropriate
- * indices from {@link DomainMapperEntry#getTargetIndices()}.
+ * Read each data point individually by iterating over the mappings of each
+ * source grid point (see {@link DomainMapper#getSourcePointEnd(int)}) and
+ * copying the value into the target indices given by
+ * {@link DomainMapper#getTargetIndex(int)}.
  * 
  * This minimizes the memory footprint as the minimum amount of data is read
  * from disk. However, in general this method is inefficient as it maximizes the
@@ -90,12 +101,12 @@ import uk.ac.rdg.resc.edal.util.ValuesArray2D;
  * A compromise strategy, which balances memory considerations against the
  * overhead of the low-level data extraction code, works as follows:
  * <ol>
- * <li>Iterate through each row (i.e. each j index) using the
- * {@link DomainMapper#scanlineIterator()} and
- * {@link Scanline#getSourceGridJIndex()}.</li>
+ * <li>Iterate through each row (i.e. each j index) using
+ * {@link DomainMapper#getScanlineEnd(int)} and
+ * {@link DomainMapper#getSourceGridJIndex(int)}.</li>
  * <li>For each j index, extract data from the minimum to the maximum i index in
- * this row (a "scanline") using {@link DomainMapperEntry#getSourceGridIIndex()}
- * for the first and last entries in the row, since entries are sorted by
+ * this row (a "scanline") using {@link DomainMapper#getSourceGridIIndex(int)}
+ * for the first and last mappings in the row, since mappings are sorted by
  * i-index (This assumes that the data are stored with the i dimension varying
  * fastest, meaning that the scanline represents contiguous data in the source
  * files.)</li>
@@ -112,6 +123,19 @@ import uk.ac.rdg.resc.edal.util.ValuesArray2D;
  * </p>
  * <img src="doc-files/pixelmap_scanline.png">
  * 
+ * <h3>Strategy 4: Choose per request</h3>
+ * <p>
+ * The best of the above strategies depends on the request. A zoomed-out view
+ * of a large grid will sample a sparse set of points from a very large
+ * bounding box, whereas a zoomed-in view will use nearly every point within a
+ * small bounding box. The {@link #ADAPTIVE} and {@link #ADAPTIVE_REMOTE}
+ * strategies group the scanlines of each request into bands which are read as
+ * bounding boxes, merging neighbouring scanlines whenever the cost of reading
+ * the unneeded points between them is lower than the (estimated) overhead of a
+ * separate read. The plan chosen for each request can be monitored with
+ * {@link #getReadPlanCount(ReadPlan)}.
+ * </p>
+ * 
  * @author Jon
  * @author Guy Griffiths
  */
@@ -124,32 +148,26 @@ public enum DataReadingStrategy {
      */
     SCANLINE {
         @Override
-        public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
-                int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
-            Array2D<Number> ret = new ValuesArray2D(domainMapper.getTargetYSize(),
-                    domainMapper.getTargetXSize());
-
-            Iterator<Scanline<int[]>> it = domainMapper.scanlineIterator();
-            while (it.hasNext()) {
-                Scanline<int[]> scanline = it.next();
-                List<DomainMapperEntry<int[]>> entries = scanline.getPixelMapEntries();
-
-                int j = scanline.getSourceGridJIndex();
-                int imin = entries.get(0).getSourceGridIIndex();
-                int imax = entries.get(entries.size() - 1).getSourceGridIIndex();
-
-                Array4D<Number> data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex, j, j,
-                        imin, imax);
-
-                for (DomainMapperEntry<int[]> dme : entries) {
-                    List<int[]> targetGridPoints = dme.getTargetIndices();
-                    for (int[] targetPoint : targetGridPoints) {
-                        ret.set(data.get(0, 0, 0, dme.getSourceGridIIndex() - imin), new int[] {
-                                targetPoint[1], targetPoint[0] });
-                    }
-                }
+        void readData(GridDataSource dataSource, String varId, int tIndex, int zIndex,
+                Domain2DMapper domainMapper, Striding striding, Array2D<Number> ret)
+                throws IOException, DataReadingException {
+            int iStride = getIStride(dataSource, domainMapper, striding);
+
+            int numMappings = domainMapper.getNumMappings();
+            int start = 0;
+            while (start < numMappings) {
+                int end = domainMapper.getScanlineEnd(start);
+
+                int j = domainMapper.getSourceGridJIndex(start);
+                int imin = getIIndex(domainMapper, start, iStride);
+                int imax = getIIndex(domainMapper, end - 1, iStride);
+
+                Array4D<Number> data = readRegion(dataSource, varId, tIndex, zIndex, j, j, 1,
+                        imin, imax, iStride);
+
+                copyValues(data, j, 1, imin, iStride, ret, domainMapper, start, end);
+                start = end;
             }
-            return ret;
         }
     },
 
@@ -160,29 +178,24 @@ public enum DataReadingStrategy {
      */
     BOUNDING_BOX {
         @Override
-        public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
-                int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
-            Array2D<Number> ret = new ValuesArray2D(domainMapper.getTargetYSize(),
-                    domainMapper.getTargetXSize());
+        void readData(GridDataSource dataSource, String varId, int tIndex, int zIndex,
+                Domain2DMapper domainMapper, Striding striding, Array2D<Number> ret)
+                throws IOException, DataReadingException {
             if (domainMapper.isEmpty()) {
-                return ret;
+                return;
             }
+            int iStride = getIStride(dataSource, domainMapper, striding);
+            int jStride = getJStride(dataSource, domainMapper, striding);
             int imin = domainMapper.getMinIIndex();
-            int imax = domainMapper.getMaxIIndex();
+            int imax = iStride > 1 ? domainMapper.snapIIndex(domainMapper.getMaxIIndex(),
+                    iStride) : domainMapper.getMaxIIndex();
             int jmin = domainMapper.getMinJIndex();
-            int jmax = domainMapper.getMaxJIndex();
-            Array4D<Number> data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex, jmin,
-                    jmax, imin, imax);
-            for (DomainMapperEntry<int[]> pme : domainMapper) {
-                List<int[]> targetGridPoints = pme.getTargetIndices();
-                Number value = data.get(0, 0, pme.getSourceGridJIndex() - jmin,
-                        pme.getSourceGridIIndex() - imin);
-                for (int[] targetPoint : targetGridPoints) {
-                    ret.set(value, new int[] { targetPoint[1],
-                            targetPoint[0] });
-                }
-            }
-            return ret;
+            int jmax = jStride > 1 ? domainMapper.snapJIndex(domainMapper.getMaxJIndex(),
+                    jStride) : domainMapper.getMaxJIndex();
+            Array4D<Number> data = readRegion(dataSource, varId, tIndex, zIndex, jmin, jmax,
+                    jStride, imin, imax, iStride);
+            copyValues(data, jmin, jStride, imin, iStride, ret, domainMapper, 0,
+                    domainMapper.getNumMappings());
         }
     },
 
@@ -192,24 +205,587 @@ public enum DataReadingStrategy {
      */
     PIXEL_BY_PIXEL {
         @Override
-        public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
-                int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
-            Array2D<Number> ret = new ValuesArray2D(domainMapper.getTargetYSize(),
-                    domainMapper.getTargetXSize());
-            for (DomainMapperEntry<int[]> pme : domainMapper) {
-                Array4D<Number> data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex,
-                        pme.getSourceGridJIndex(), pme.getSourceGridJIndex(),
-                        pme.getSourceGridIIndex(), pme.getSourceGridIIndex());
-                List<int[]> targetGridPoints = pme.getTargetIndices();
-                for (int[] targetPoint : targetGridPoints) {
-                    ret.set(data.get(0, 0, 0, 0), new int[] { targetPoint[1], targetPoint[0] });
-                }
+        void readData(GridDataSource dataSource, String varId, int tIndex, int zIndex,
+                Domain2DMapper domainMapper, Striding striding, Array2D<Number> ret)
+                throws IOException, DataReadingException {
+            int numMappings = domainMapper.getNumMappings();
+            int start = 0;
+            while (start < numMappings) {
+                int end = domainMapper.getSourcePointEnd(start);
+                int i = domainMapper.getSourceGridIIndex(start);
+                int j = domainMapper.getSourceGridJIndex(start);
+                Array4D<Number> data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex, j,
+                        j, i, i);
+                copyValues(data, j, 1, i, 1, ret, domainMapper, start, end);
+                start = end;
             }
-            return ret;
+        }
+    },
+
+    /**
+     * Chooses between the {@link #BOUNDING_BOX bounding-box} and
+     * {@link #SCANLINE scanline} strategies (or a hybrid of the two) for each
+     * request, assuming that the overhead of a single data-reading operation
+     * is low. Recommended for local, uncompressed files.
+     */
+    ADAPTIVE {
+        @Override
+        void readData(GridDataSource dataSource, String varId, int tIndex, int zIndex,
+                Domain2DMapper domainMapper, Striding striding, Array2D<Number> ret)
+                throws IOException, DataReadingException {
+            readBands(ret, dataSource, varId, tIndex, zIndex, domainMapper, striding,
+                    LOCAL_READ_COST, false);
+        }
+    },
+
+    /**
+     * Chooses between the {@link #BOUNDING_BOX bounding-box} and
+     * {@link #SCANLINE scanline} strategies (or a hybrid of the two) for each
+     * request, assuming that the overhead of a single data-reading operation
+     * is high. Where more than one read is required, the reads are made
+     * concurrently (see {@link #setMaxConcurrentReads(int)}). Recommended for
+     * remote or compressed datasets.
+     */
+    ADAPTIVE_REMOTE {
+        @Override
+        void readData(GridDataSource dataSource, String varId, int tIndex, int zIndex,
+                Domain2DMapper domainMapper, Striding striding, Array2D<Number> ret)
+                throws IOException, DataReadingException {
+            readBands(ret, dataSource, varId, tIndex, zIndex, domainMapper, striding,
+                    REMOTE_READ_COST, true);
         }
     };
 
-    abstract public Array2D<Number> readMapData(GridDataSource dataSource, String varId,
-            int tIndex, int zIndex, Domain2DMapper domainMapper) throws IOException,
-            DataReadingException;
+    /**
+     * The plans which can be chosen by the {@link #ADAPTIVE} and
+     * {@link #ADAPTIVE_REMOTE} strategies
+     */
+    public enum ReadPlan {
+        /** All data was read in a single operation */
+        BOUNDING_BOX,
+        /** Each row of data was read separately */
+        SCANLINE,
+        /** Groups of neighbouring rows were read together */
+        HYBRID
+    }
+
+    /*
+     * The strides which may be used when reading data
+     */
+    enum Striding {
+        /*
+         * Read every point in each region read
+         */
+        NONE,
+        /*
+         * Only read every n-th row/column where all of the needed indices lie
+         * exactly on the stride. The values read are exactly those of the
+         * mapped points.
+         */
+        EXACT,
+        /*
+         * Also read every n-th row/column where the needed indices are nearly
+         * evenly spaced, moving each one onto the stride. The values read may
+         * come from a neighbouring point, so this is only suitable for
+         * rendering.
+         */
+        NEAR_REGULAR
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DataReadingStrategy.class);
+
+    /** The default for {@link #setScanlineGapThreshold(int)} */
+    public static final int DEFAULT_SCANLINE_GAP_THRESHOLD = 1;
+    /** The default for {@link #setMaxConcurrentReads(int)} */
+    public static final int DEFAULT_MAX_CONCURRENT_READS = 8;
+
+    /*
+     * The estimated overhead of a single data-reading operation, expressed as
+     * the equivalent number of data points read.
+     */
+    private static final long LOCAL_READ_COST = 4096;
+    private static final long REMOTE_READ_COST = 1 << 20;
+
+    /*
+     * Scanlines separated by this many unneeded rows or fewer are always read
+     * together
+     */
+    private static volatile int scanlineGapThreshold = DEFAULT_SCANLINE_GAP_THRESHOLD;
+
+    /*
+     * Executor for making concurrent reads in the ADAPTIVE_REMOTE strategy.
+     * This is shared between all requests, so that the total number of
+     * concurrent reads is bounded.
+     */
+    private static int maxConcurrentReads = DEFAULT_MAX_CONCURRENT_READS;
+    private static ExecutorService readExecutor = null;
+
+    /*
+     * The number of times each ReadPlan has been chosen
+     */
+    private static final AtomicLongArray planCounts = new AtomicLongArray(
+            ReadPlan.values().length);
+
+    /**
+     * Sets the maximum gap between two scanlines for them to always be read
+     * in a single operation by the {@link #ADAPTIVE} and
+     * {@link #ADAPTIVE_REMOTE} strategies. Scanlines which are further apart
+     * will still be read together if it is estimated to be cheaper to do so.
+     * 
+     * @param rows
+     *            The number of unneeded rows which may lie between two
+     *            scanlines which are read together. Defaults to 1. Must not be
+     *            negative.
+     */
+    public static void setScanlineGapThreshold(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Scanline gap threshold must not be negative");
+        }
+        scanlineGapThreshold = rows;
+    }
+
+    /**
+     * Sets the maximum number of reads which the {@link #ADAPTIVE_REMOTE}
+     * strategy will make concurrently. This limit applies across all requests.
+     * 
+     * @param maxReads
+     *            The maximum number of concurrent reads. Defaults to 8. If this
+     *            is 1 or less, reads will be made in series on the requesting
+     *            thread.
+     */
+    public static synchronized void setMaxConcurrentReads(int maxReads) {
+        maxConcurrentReads = maxReads;
+        if (readExecutor != null) {
+            readExecutor.shutdown();
+            readExecutor = null;
+        }
+    }
+
+    private static synchronized ExecutorService getReadExecutor() {
+        if (maxConcurrentReads <= 1) {
+            return null;
+        }
+        if (readExecutor == null) {
+            readExecutor = Executors.newFixedThreadPool(maxConcurrentReads, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "data-reader-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return readExecutor;
+    }
+
+    /**
+     * @param plan
+     *            The {@link ReadPlan} of interest
+     * @return The number of map reads for which the given plan has been chosen
+     *         by the {@link #ADAPTIVE} or {@link #ADAPTIVE_REMOTE} strategies
+     */
+    public static long getReadPlanCount(ReadPlan plan) {
+        return planCounts.get(plan.ordinal());
+    }
+
+    /**
+     * Reads map data from the given {@link GridDataSource}
+     * 
+     * @param dataSource
+     *            The {@link GridDataSource} to read from
+     * @param varId
+     *            The ID of the variable to read
+     * @param tIndex
+     *            The time index to read at
+     * @param zIndex
+     *            The vertical index to read at
+     * @param domainMapper
+     *            The {@link Domain2DMapper} mapping the source grid onto the
+     *            target grid
+     * @return An {@link Array2D} containing the data on the target grid. This
+     *         will be a {@link FloatArray2D}, so that values can be accessed
+     *         without boxing.
+     * @throws IOException
+     *             If there is a problem reading the underlying data
+     * @throws DataReadingException
+     *             If there is another problem reading the data
+     */
+    public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
+            int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
+        return readMapData(dataSource, varId, tIndex, zIndex, domainMapper, false);
+    }
+
+    /**
+     * Reads map data from the given {@link GridDataSource}, optionally
+     * allowing nearly (but not exactly) evenly spaced rows and columns of the
+     * source grid to be read with a single strided read.
+     * 
+     * @param snapToNearRegularStrides
+     *            If <code>true</code>, and the target grid samples the source
+     *            grid at a non-integer ratio, each source point is moved to
+     *            the nearest point on a regular stride (see
+     *            {@link DomainMapper#getNearRegularIStride()}), so that the
+     *            points can be read in fewer, smaller reads. Values may then
+     *            come from a neighbouring point of the source grid, so this
+     *            should only be set when the data will be plotted.
+     * @see #readMapData(GridDataSource, String, int, int, Domain2DMapper)
+     */
+    public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
+            int zIndex, Domain2DMapper domainMapper, boolean snapToNearRegularStrides)
+            throws IOException, DataReadingException {
+        FloatArray2D ret = new FloatArray2D(domainMapper.getTargetYSize(),
+                domainMapper.getTargetXSize());
+        readData(dataSource, varId, tIndex, zIndex, domainMapper,
+                snapToNearRegularStrides ? Striding.NEAR_REGULAR : Striding.EXACT, ret);
+        return ret;
+    }
+
+    /**
+     * Reads data from the given {@link GridDataSource} in the same way as
+     * {@link #readMapData(GridDataSource, String, int, int, Domain2DMapper)},
+     * but keeps the values exactly as they were read, rather than converting
+     * them to floats. Strided reads are never used, so every value comes from
+     * a read of the region around the points which need it. This should be
+     * used where the values themselves are returned, rather than plotted,
+     * e.g. for collections of points.
+     * 
+     * @return An {@link Array2D} containing the data on the target grid, with
+     *         <code>null</code> values for missing data.
+     * @see #readMapData(GridDataSource, String, int, int, Domain2DMapper)
+     */
+    public Array2D<Number> readPointData(GridDataSource dataSource, String varId, int tIndex,
+            int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
+        ValuesArray2D ret = new ValuesArray2D(domainMapper.getTargetYSize(),
+                domainMapper.getTargetXSize());
+        readData(dataSource, varId, tIndex, zIndex, domainMapper, Striding.NONE, ret);
+        return ret;
+    }
+
+    /**
+     * Reads data from the given {@link GridDataSource} into a target array,
+     * which should start out with all values missing
+     */
+    abstract void readData(GridDataSource dataSource, String varId, int tIndex, int zIndex,
+            Domain2DMapper domainMapper, Striding striding, Array2D<Number> target)
+            throws IOException, DataReadingException;
+
+    /**
+     * Reads map data by grouping scanlines into bands, each of which is read
+     * as a single bounding box. Neighbouring scanlines are merged into the
+     * same band whenever the extra (unneeded) data points this causes to be
+     * read cost less than an additional read operation would.
+     * 
+     * If all scanlines end up in a single band this is equivalent to the
+     * {@link #BOUNDING_BOX} strategy, and if none are merged it is equivalent
+     * to the {@link #SCANLINE} strategy.
+     * 
+     * @param striding
+     *            The strides which may be used to read each band
+     * @param readCost
+     *            The overhead of a single data-reading operation, expressed as
+     *            the equivalent number of data points read
+     * @param concurrent
+     *            Whether to read the bands concurrently. The results are
+     *            still copied into the target array in order, on the calling
+     *            thread.
+     */
+    private static void readBands(Array2D<Number> ret, final GridDataSource dataSource,
+            final String varId, final int tIndex, final int zIndex, Domain2DMapper domainMapper,
+            Striding striding, long readCost, boolean concurrent) throws IOException,
+            DataReadingException {
+        if (domainMapper.isEmpty()) {
+            return;
+        }
+
+        /*
+         * All sizes are calculated in terms of the points which will actually
+         * be read, i.e. taking any strides into account
+         */
+        final int iStride = getIStride(dataSource, domainMapper, striding);
+        final int jStride = getJStride(dataSource, domainMapper, striding);
+
+        /*
+         * Find the first mapping of each scanline. The final element is the
+         * end of the last scanline.
+         */
+        int numMappings = domainMapper.getNumMappings();
+        int numScanlines = 0;
+        for (int m = 0; m < numMappings; m = domainMapper.getScanlineEnd(m)) {
+            numScanlines++;
+        }
+        final int[] scanlineStarts = new int[numScanlines + 1];
+        int scanline = 0;
+        for (int m = 0; m < numMappings; m = domainMapper.getScanlineEnd(m)) {
+            scanlineStarts[scanline++] = m;
+        }
+        scanlineStarts[numScanlines] = numMappings;
+
+        /*
+         * Each band is stored as {first scanline, last scanline, imin, imax}
+         */
+        List<int[]> bands = new ArrayList<>();
+        int[] band = null;
+        long bandSize = 0;
+        long pointsRead = 0;
+        for (int s = 0; s < numScanlines; s++) {
+            int imin = getIIndex(domainMapper, scanlineStarts[s], iStride);
+            int imax = getIIndex(domainMapper, scanlineStarts[s + 1] - 1, iStride);
+            long scanlineSize = (imax - imin) / iStride + 1;
+            if (band != null) {
+                int jmin = getJIndex(domainMapper, scanlineStarts[band[0]], jStride);
+                int jPrevious = getJIndex(domainMapper, scanlineStarts[band[1]], jStride);
+                int j = getJIndex(domainMapper, scanlineStarts[s], jStride);
+                int mergedIMin = Math.min(band[2], imin);
+                int mergedIMax = Math.max(band[3], imax);
+                long mergedSize = (long) ((j - jmin) / jStride + 1)
+                        * ((mergedIMax - mergedIMin) / iStride + 1);
+                int gap = (j - jPrevious) / jStride - 1;
+                if (gap <= scanlineGapThreshold
+                        || mergedSize <= bandSize + scanlineSize + readCost) {
+                    band[1] = s;
+                    band[2] = mergedIMin;
+                    band[3] = mergedIMax;
+                    bandSize = mergedSize;
+                    continue;
+                }
+                pointsRead += bandSize;
+            }
+            band = new int[] { s, s, imin, imax };
+            bands.add(band);
+            bandSize = scanlineSize;
+        }
+        pointsRead += bandSize;
+
+        ReadPlan plan;
+        if (bands.size() == 1) {
+            plan = ReadPlan.BOUNDING_BOX;
+        } else if (bands.size() == numScanlines) {
+            plan = ReadPlan.SCANLINE;
+        } else {
+            plan = ReadPlan.HYBRID;
+        }
+        planCounts.incrementAndGet(plan.ordinal());
+        if (log.isDebugEnabled()) {
+            log.debug("Reading {} using {} plan: {} reads of {} points in total "
+                    + "(bounding box: {}, scanlines: {}, strides: {}x{})", new Object[] { varId,
+                    plan, bands.size(), pointsRead, domainMapper.getBoundingBoxSize(),
+                    numScanlines, iStride, jStride });
+        }
+
+        /*
+         * Now read each band and copy the required values out of it
+         */
+        ExecutorService executor = concurrent && bands.size() > 1 ? getReadExecutor() : null;
+        List<Future<Array4D<Number>>> futures = null;
+        if (executor != null) {
+            futures = new ArrayList<>();
+            for (final int[] readBand : bands) {
+                final int jmin = getJIndex(domainMapper, scanlineStarts[readBand[0]], jStride);
+                final int jmax = getJIndex(domainMapper, scanlineStarts[readBand[1]], jStride);
+                futures.add(executor.submit(new Callable<Array4D<Number>>() {
+                    @Override
+                    public Array4D<Number> call() throws Exception {
+                        return readRegion(dataSource, varId, tIndex, zIndex, jmin, jmax,
+                                jStride, readBand[2], readBand[3], iStride);
+                    }
+                }));
+            }
+        }
+        try {
+            for (int b = 0; b < bands.size(); b++) {
+                int[] readBand = bands.get(b);
+                int jmin = getJIndex(domainMapper, scanlineStarts[readBand[0]], jStride);
+                int jmax = getJIndex(domainMapper, scanlineStarts[readBand[1]], jStride);
+                int imin = readBand[2];
+                int imax = readBand[3];
+                Array4D<Number> data;
+                if (futures != null) {
+                    data = getResult(futures.get(b));
+                } else {
+                    data = readRegion(dataSource, varId, tIndex, zIndex, jmin, jmax, jStride,
+                            imin, imax, iStride);
+                }
+                copyValues(data, jmin, jStride, imin, iStride, ret, domainMapper,
+                        scanlineStarts[readBand[0]], scanlineStarts[readBand[1] + 1]);
+            }
+        } finally {
+            if (futures != null) {
+                /*
+                 * If a read has failed, we don't need the others
+                 */
+                for (Future<Array4D<Number>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the result of a concurrent read, rethrowing any exception it
+     * caused
+     */
+    private static Array4D<Number> getResult(Future<Array4D<Number>> future)
+            throws IOException, DataReadingException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataReadingException("Interrupted whilst reading data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof DataReadingException) {
+                throw (DataReadingException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new DataReadingException("Problem reading data", cause);
+        }
+    }
+
+    /*
+     * The strides to read data with. These will be 1 (i.e. read every point)
+     * unless strides are allowed, the data source supports strided reads and
+     * the DomainMapper only uses regularly (or, if allowed, nearly regularly)
+     * spaced rows/columns of the source grid.
+     */
+    private static int getIStride(GridDataSource dataSource, Domain2DMapper domainMapper,
+            Striding striding) {
+        if (striding == Striding.NONE || !(dataSource instanceof StridedGridDataSource)) {
+            return 1;
+        }
+        return striding == Striding.NEAR_REGULAR ? domainMapper.getNearRegularIStride()
+                : domainMapper.getIStride();
+    }
+
+    private static int getJStride(GridDataSource dataSource, Domain2DMapper domainMapper,
+            Striding striding) {
+        if (striding == Striding.NONE || !(dataSource instanceof StridedGridDataSource)) {
+            return 1;
+        }
+        return striding == Striding.NEAR_REGULAR ? domainMapper.getNearRegularJStride()
+                : domainMapper.getJStride();
+    }
+
+    /*
+     * The source grid indices to read for a mapping. When reading with a
+     * stride, these are snapped onto the stride (see DomainMapper.snapIIndex()).
+     * This leaves them unchanged unless the stride is a near-regular one.
+     */
+    private static int getIIndex(Domain2DMapper domainMapper, int mapping, int iStride) {
+        int i = domainMapper.getSourceGridIIndex(mapping);
+        return iStride > 1 ? domainMapper.snapIIndex(i, iStride) : i;
+    }
+
+    private static int getJIndex(Domain2DMapper domainMapper, int mapping, int jStride) {
+        int j = domainMapper.getSourceGridJIndex(mapping);
+        return jStride > 1 ? domainMapper.snapJIndex(j, jStride) : j;
+    }
+
+    /**
+     * Reads a horizontal region of data at a single time and depth, using a
+     * strided read if necessary.
+     */
+    private static Array4D<Number> readRegion(GridDataSource dataSource, String varId,
+            int tIndex, int zIndex, int jmin, int jmax, int jStride, int imin, int imax,
+            int iStride) throws IOException, DataReadingException {
+        if (iStride > 1 || jStride > 1) {
+            return ((StridedGridDataSource) dataSource).read(varId, tIndex, tIndex, zIndex,
+                    zIndex, jmin, jmax, jStride, imin, imax, iStride);
+        } else {
+            return dataSource.read(varId, tIndex, tIndex, zIndex, zIndex, jmin, jmax, imin, imax);
+        }
+    }
+
+    /**
+     * Copies values from the first t/z level of the data read from the source
+     * into the target points of a range of mappings. Each value is only read
+     * once, however many target points it is copied to. If both the source
+     * data and the target are stored as floats, no objects are created.
+     * 
+     * @param source
+     *            The data read from a {@link GridDataSource}
+     * @param jmin
+     *            The source grid j index of the first row of the source data
+     * @param jStride
+     *            The step in source grid j index between the rows of the
+     *            source data
+     * @param imin
+     *            The source grid i index of the first column of the source
+     *            data
+     * @param iStride
+     *            The step in source grid i index between the columns of the
+     *            source data
+     * @param target
+     *            The {@link Array2D} to write into. Missing values are not
+     *            written, since all values in a new target start out as
+     *            missing. If this is not a {@link FloatArray2D}, the values
+     *            are written as they were read.
+     * @param domainMapper
+     *            The {@link Domain2DMapper} containing the mappings
+     * @param start
+     *            The index of the first mapping to copy
+     * @param end
+     *            The index after the last mapping to copy
+     */
+    private static void copyValues(Array4D<Number> source, int jmin, int jStride, int imin,
+            int iStride, Array2D<Number> target, Domain2DMapper domainMapper, int start, int end) {
+        if (!(target instanceof FloatArray2D)) {
+            copyNumbers(source, jmin, jStride, imin, iStride, target, domainMapper, start, end);
+            return;
+        }
+        FloatArray2D floatTarget = (FloatArray2D) target;
+        FloatArray4D floatSource = source instanceof FloatArray4D ? (FloatArray4D) source : null;
+        int m = start;
+        while (m < end) {
+            int pointEnd = Math.min(domainMapper.getSourcePointEnd(m), end);
+            int y = (getJIndex(domainMapper, m, jStride) - jmin) / jStride;
+            int x = (getIIndex(domainMapper, m, iStride) - imin) / iStride;
+            float value = Float.NaN;
+            boolean missing;
+            if (floatSource != null) {
+                missing = floatSource.isMissing(0, 0, y, x);
+                if (!missing) {
+                    value = floatSource.getFloat(0, 0, y, x);
+                }
+            } else {
+                Number number = source.get(0, 0, y, x);
+                missing = number == null;
+                if (!missing) {
+                    value = number.floatValue();
+                }
+            }
+            if (!missing) {
+                for (int n = m; n < pointEnd; n++) {
+                    floatTarget.setFloat(domainMapper.getTargetYIndex(n),
+                            domainMapper.getTargetXIndex(n), value);
+                }
+            }
+            m = pointEnd;
+        }
+    }
+
+    /*
+     * As copyValues(), but keeps the Numbers read from the source
+     */
+    private static void copyNumbers(Array4D<Number> source, int jmin, int jStride, int imin,
+            int iStride, Array2D<Number> target, Domain2DMapper domainMapper, int start, int end) {
+        int m = start;
+        while (m < end) {
+            int pointEnd = Math.min(domainMapper.getSourcePointEnd(m), end);
+            int y = (getJIndex(domainMapper, m, jStride) - jmin) / jStride;
+            int x = (getIIndex(domainMapper, m, iStride) - imin) / iStride;
+            Number value = source.get(0, 0, y, x);
+            if (value != null) {
+                for (int n = m; n < pointEnd; n++) {
+                    target.set(value, domainMapper.getTargetYIndex(n),
+                            domainMapper.getTargetXIndex(n));
+                }
+            }
+            m = pointEnd;
+        }
+    }
 }
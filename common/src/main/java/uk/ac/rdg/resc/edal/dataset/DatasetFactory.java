@@ -34,6 +34,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.grid.LookUpTableGrid;
 
 /**
  * A factory for {@link Dataset} objects. The intention is that one factory
@@ -67,11 +68,14 @@ public abstract class DatasetFactory {
      * @param workingDir
      *            A default working directory which {@link DatasetFactory}
      *            subclasses can use to store data (e.g. to write spatial
-     *            indices to disk)
+     *            indices to disk). Look-up tables for curvilinear grids are
+     *            stored in the "lookUpTables" subdirectory.
      * 
      */
     public static void setWorkingDirectory(File workingDir) {
         DatasetFactory.workingDir = workingDir;
+        LookUpTableGrid.setStoreDirectory(workingDir == null ? null : new File(workingDir,
+                "lookUpTables"));
     }
 
     /**
@@ -127,4 +131,45 @@ public abstract class DatasetFactory {
      */
     public abstract Dataset createDataset(String id, String location) throws IOException,
             EdalException;
+
+    /**
+     * Returns a Dataset object representing the data at the given location.
+     * 
+     * Subclasses which store the metadata of datasets may override this to
+     * return a {@link Dataset} from stored metadata without first checking
+     * that it is up-to-date (which may be slow). If it turns out that the
+     * dataset has changed, an up-to-date {@link Dataset} is created in the
+     * background and passed to the given listener.
+     * 
+     * The default implementation just calls
+     * {@link #createDataset(String, String)}.
+     * 
+     * @param id
+     *            The ID to assign to this dataset
+     * @param location
+     *            The location of the source data
+     * @param listener
+     *            The {@link DatasetUpdateListener} to receive an up-to-date
+     *            version of the dataset, if the returned one is out of date
+     * @throws EdalException
+     *             If there is a problem creating the dataset
+     */
+    public Dataset createDataset(String id, String location, DatasetUpdateListener listener)
+            throws IOException, EdalException {
+        return createDataset(id, location);
+    }
+
+    /**
+     * Receives {@link Dataset}s which have been re-created in the background
+     * by a {@link DatasetFactory}
+     */
+    public interface DatasetUpdateListener {
+        /**
+         * Called when an up-to-date version of a dataset has been created
+         * 
+         * @param dataset
+         *            The new {@link Dataset}
+         */
+        public void datasetUpdated(Dataset dataset);
+    }
 }
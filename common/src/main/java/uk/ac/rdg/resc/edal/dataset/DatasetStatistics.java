@@ -0,0 +1,622 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+import uk.ac.rdg.resc.edal.geometry.BoundingBox;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGrid;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
+import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.grid.VerticalAxis;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+import uk.ac.rdg.resc.edal.util.GISUtils;
+import uk.ac.rdg.resc.edal.util.SummaryStatistics;
+
+/**
+ * Precomputed statistics of the values of the variables in a
+ * {@link GriddedDataset}. For every horizontal slice (i.e. time and
+ * elevation) of each variable, this holds the {@link SummaryStatistics} of
+ * its values: their count, minimum, maximum, mean and a sketch of their
+ * distribution from which percentiles can be estimated. These can be used to find the range of values
+ * of a variable (e.g. to scale a colour palette automatically) without reading
+ * any data.
+ * 
+ * Statistics are computed in a background thread by {@link #update(boolean)}
+ * and are stored in compact binary files in the "statistics" subdirectory of
+ * the working directory set with
+ * {@link DatasetFactory#setWorkingDirectory(File)}, so that they persist
+ * between restarts. If no working directory has been set, they are only held
+ * in memory.
+ * 
+ * Statistics are identified by the actual time and elevation of each slice,
+ * together with the {@link GriddedDataset#getDataFingerprint(DateTime)
+ * fingerprint} of the data at that time, so that when a dataset is refreshed
+ * only the statistics of new or modified slices need to be computed. For
+ * datasets which cannot detect changes to their data, changes to the values
+ * of existing slices are only picked up if all statistics are recomputed.
+ * 
+ * For variables on rectilinear grids, the minimum and maximum values of each
+ * slice are also held in a {@link StatisticsPyramid} of coarse tiles, so that
+ * the range of values within a particular area can be found with
+ * {@link #getValueRange(String, DateTime, Double, BoundingBox)}.
+ * 
+ * Statistics are only computed for non-derived scalar variables on horizontal
+ * grids.
+ */
+public class DatasetStatistics {
+    private static final Logger log = LoggerFactory.getLogger(DatasetStatistics.class);
+    private static final String STORE_DIRECTORY = "statistics";
+    private static final String FILE_SUFFIX = ".stats";
+    private static final int FILE_MAGIC = 0x53544133;
+
+    /*
+     * The maximum number of values to read in a single operation when
+     * computing statistics
+     */
+    private static final int MAX_BAND_SIZE = 1024 * 1024;
+
+    /*
+     * Statistics are computed one slice at a time, in the background
+     */
+    private static final ExecutorService builder = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "statistics-builder");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private final GriddedDataset dataset;
+    /*
+     * Maps variable IDs to the encoded statistics of each of their slices,
+     * keyed by the time, elevation and data fingerprint of the slice
+     */
+    private final Map<String, Map<String, byte[]>> sliceStatistics = new ConcurrentHashMap<>();
+    /*
+     * The statistics of entire variables, merged from the statistics of their
+     * slices
+     */
+    private final Map<String, SummaryStatistics> variableStatistics = new ConcurrentHashMap<>();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a new {@link DatasetStatistics}. Any statistics previously
+     * stored for the dataset are loaded as they are needed, but no new
+     * statistics are computed until {@link #update(boolean)} is called.
+     * 
+     * @param dataset
+     *            The {@link GriddedDataset} to hold statistics for
+     */
+    public DatasetStatistics(GriddedDataset dataset) {
+        this.dataset = dataset;
+    }
+
+    /**
+     * Schedules the computation of statistics for every slice of every
+     * variable in the dataset. This returns immediately - statistics are
+     * computed in the background, and existing statistics continue to be used
+     * until they are replaced.
+     * 
+     * @param recomputeAll
+     *            If <code>true</code>, the statistics of every slice are
+     *            recomputed. Otherwise, only slices which do not already have
+     *            statistics are computed.
+     */
+    public void update(final boolean recomputeAll) {
+        builder.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String varId : dataset.getVariableIds()) {
+                    if (cancelled) {
+                        return;
+                    }
+                    GridVariableMetadata metadata = getMetadata(varId);
+                    if (metadata == null) {
+                        continue;
+                    }
+                    try {
+                        updateVariable(metadata, recomputeAll);
+                    } catch (Exception e) {
+                        log.warn("Problem computing statistics of " + varId + " in "
+                                + dataset.getId(), e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the computation of statistics. This should be called when the
+     * dataset is no longer used. Statistics which have already been computed
+     * remain available.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Gets the statistics of a single horizontal slice of a variable
+     * 
+     * @param varId
+     *            The ID of the variable
+     * @param time
+     *            The time of the slice. If this is <code>null</code>, the
+     *            time closest to the current time is used.
+     * @param elevation
+     *            The elevation of the slice. If this is <code>null</code>, the
+     *            elevation closest to the surface is used.
+     * @return The {@link SummaryStatistics} of the slice, or <code>null</code>
+     *         if they have not been computed
+     */
+    public SummaryStatistics getSliceStatistics(String varId, DateTime time, Double elevation) {
+        GridVariableMetadata metadata = getMetadata(varId);
+        if (metadata == null) {
+            return null;
+        }
+        int tIndex;
+        int zIndex;
+        try {
+            tIndex = GriddedDataset.getTimeIndex(time, metadata.getTemporalDomain(), varId);
+            zIndex = GriddedDataset.getVerticalIndex(elevation, metadata.getVerticalDomain(),
+                    varId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        byte[] encoded = getSlices(metadata).get(getSliceKey(metadata, tIndex, zIndex));
+        return encoded == null ? null : decodeStatistics(encoded);
+    }
+
+    /**
+     * Finds the range of values of a single horizontal slice of a variable
+     * within a bounding box, from the precomputed tiles of the slice. Since
+     * the tiles generally extend beyond the bounding box, this may be slightly
+     * wider than the true range.
+     * 
+     * @param varId
+     *            The ID of the variable
+     * @param time
+     *            The time of the slice. If this is <code>null</code>, the
+     *            time closest to the current time is used.
+     * @param elevation
+     *            The elevation of the slice. If this is <code>null</code>, the
+     *            elevation closest to the surface is used.
+     * @param bbox
+     *            The {@link BoundingBox} to find the range within
+     * @return The range of values within the bounding box, or
+     *         <code>null</code> if it cannot be found from the tiles (e.g.
+     *         because they have not been computed, or are too coarse for a
+     *         bounding box of this size)
+     */
+    public Extent<Float> getValueRange(String varId, DateTime time, Double elevation,
+            BoundingBox bbox) {
+        GridVariableMetadata metadata = getMetadata(varId);
+        if (metadata == null || !(metadata.getHorizontalDomain() instanceof RectilinearGrid)) {
+            return null;
+        }
+        RectilinearGrid grid = (RectilinearGrid) metadata.getHorizontalDomain();
+        if (!GISUtils.crsMatch(bbox.getCoordinateReferenceSystem(),
+                grid.getCoordinateReferenceSystem())) {
+            return null;
+        }
+        int tIndex;
+        int zIndex;
+        try {
+            tIndex = GriddedDataset.getTimeIndex(time, metadata.getTemporalDomain(), varId);
+            zIndex = GriddedDataset.getVerticalIndex(elevation, metadata.getVerticalDomain(),
+                    varId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        byte[] encoded = getSlices(metadata).get(getSliceKey(metadata, tIndex, zIndex));
+        StatisticsPyramid pyramid = encoded == null ? null : decodePyramid(encoded);
+        if (pyramid == null) {
+            return null;
+        }
+        boolean longitude = GISUtils.isWgs84LonLat(grid.getCoordinateReferenceSystem());
+        return pyramid.getRange(getIndices(grid.getXAxis(), bbox.getMinX(), bbox.getMaxX(),
+                longitude), getIndices(grid.getYAxis(), bbox.getMinY(), bbox.getMaxY(), false));
+    }
+
+    /**
+     * Gets the statistics of all slices of a variable
+     * 
+     * @param varId
+     *            The ID of the variable
+     * @return The {@link SummaryStatistics} of the variable, or
+     *         <code>null</code> if the statistics of some of its slices have
+     *         not been computed
+     */
+    public SummaryStatistics getVariableStatistics(String varId) {
+        SummaryStatistics stats = variableStatistics.get(varId);
+        if (stats != null) {
+            return stats;
+        }
+        GridVariableMetadata metadata = getMetadata(varId);
+        if (metadata == null) {
+            return null;
+        }
+        Map<String, byte[]> slices = getSlices(metadata);
+        stats = new SummaryStatistics();
+        for (String key : getSliceKeys(metadata)) {
+            byte[] encoded = slices.get(key);
+            if (encoded == null) {
+                return null;
+            }
+            stats.merge(decodeStatistics(encoded));
+        }
+        variableStatistics.put(varId, stats);
+        return stats;
+    }
+
+    /*
+     * Computes the statistics of any slices of a variable which need them,
+     * and removes those of slices which are no longer part of the variable
+     */
+    private void updateVariable(GridVariableMetadata metadata, boolean recomputeAll)
+            throws IOException, DataReadingException {
+        String varId = metadata.getId();
+        Map<String, byte[]> slices = getSlices(metadata);
+        Set<String> currentKeys = getSliceKeys(metadata);
+        boolean changed = slices.keySet().retainAll(currentKeys);
+
+        TimeAxis tAxis = metadata.getTemporalDomain();
+        VerticalAxis zAxis = metadata.getVerticalDomain();
+        int tSize = tAxis == null ? 1 : tAxis.size();
+        int zSize = zAxis == null ? 1 : zAxis.size();
+        long start = System.currentTimeMillis();
+        int computed = 0;
+        GridDataSource dataSource = null;
+        try {
+            for (int t = 0; t < tSize && !cancelled; t++) {
+                for (int z = 0; z < zSize && !cancelled; z++) {
+                    String key = getSliceKey(metadata, t, z);
+                    if (!recomputeAll && slices.containsKey(key)) {
+                        continue;
+                    }
+                    if (dataSource == null) {
+                        dataSource = dataset.openGridDataSource();
+                    }
+                    slices.put(key, computeSlice(dataSource, metadata, t, z));
+                    variableStatistics.remove(varId);
+                    computed++;
+                }
+            }
+        } finally {
+            if (dataSource != null) {
+                dataSource.close();
+            }
+            if (changed || computed > 0) {
+                variableStatistics.remove(varId);
+                write(metadata, slices);
+            }
+        }
+        if (computed > 0) {
+            log.debug("Computed statistics of {} slices of {} in {}ms", new Object[] { computed,
+                    varId, System.currentTimeMillis() - start });
+        }
+    }
+
+    /*
+     * Reads a single slice of data, in bands of rows, and computes its
+     * statistics and (for rectilinear grids) its pyramid of tiles. Returns
+     * them encoded.
+     */
+    private static byte[] computeSlice(GridDataSource dataSource,
+            GridVariableMetadata metadata, int tIndex, int zIndex) throws IOException,
+            DataReadingException {
+        HorizontalGrid grid = metadata.getHorizontalDomain();
+        int xSize = grid.getXSize();
+        int ySize = grid.getYSize();
+        int bandHeight = Math.max(1, MAX_BAND_SIZE / xSize);
+        SummaryStatistics stats = new SummaryStatistics();
+        StatisticsPyramid.Builder pyramid = null;
+        if (grid instanceof RectilinearGrid) {
+            pyramid = new StatisticsPyramid.Builder(xSize, ySize);
+        }
+        for (int y0 = 0; y0 < ySize; y0 += bandHeight) {
+            int y1 = Math.min(y0 + bandHeight, ySize) - 1;
+            Array4D<Number> band = dataSource.read(metadata.getId(), tIndex, tIndex, zIndex,
+                    zIndex, y0, y1, 0, xSize - 1);
+            FloatArray4D floatBand = band instanceof FloatArray4D ? (FloatArray4D) band : null;
+            for (int y = 0; y < band.getYSize(); y++) {
+                for (int x = 0; x < band.getXSize(); x++) {
+                    float value;
+                    if (floatBand != null) {
+                        if (floatBand.isMissing(0, 0, y, x)) {
+                            continue;
+                        }
+                        value = floatBand.getFloat(0, 0, y, x);
+                    } else {
+                        Number number = band.get(0, 0, y, x);
+                        if (number == null) {
+                            continue;
+                        }
+                        value = number.floatValue();
+                    }
+                    stats.add(value);
+                    if (pyramid != null) {
+                        pyramid.add(x, y0 + y, value);
+                    }
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            stats.write(out);
+            out.writeBoolean(pyramid != null);
+            if (pyramid != null) {
+                pyramid.build().write(out);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /*
+     * Finds the indices of the points on an axis which lie within a range.
+     * Longitudes are compared modulo 360 degrees.
+     */
+    private static BitSet getIndices(ReferenceableAxis<Double> axis, double min, double max,
+            boolean longitude) {
+        BitSet indices = new BitSet();
+        if (longitude && max - min >= 360.0) {
+            indices.set(0, axis.size());
+            return indices;
+        }
+        for (int i = 0; i < axis.size(); i++) {
+            double value = axis.getCoordinateValue(i);
+            if (longitude) {
+                value = GISUtils.getNextEquivalentLongitude(min, value);
+            }
+            if (value >= min && value <= max) {
+                indices.set(i);
+            }
+        }
+        return indices;
+    }
+
+    /*
+     * Gets the metadata of a variable if statistics can be computed for it,
+     * or null otherwise
+     */
+    private GridVariableMetadata getMetadata(String varId) {
+        if (dataset.isDerivedVariable(varId) != null) {
+            return null;
+        }
+        try {
+            VariableMetadata metadata = dataset.getVariableMetadata(varId);
+            if (metadata instanceof GridVariableMetadata && metadata.isScalar()) {
+                return (GridVariableMetadata) metadata;
+            }
+        } catch (VariableNotFoundException e) {
+            /*
+             * No statistics for a variable which doesn't exist
+             */
+        }
+        return null;
+    }
+
+    /*
+     * Gets the statistics of the slices of a variable, reading them from
+     * file the first time they are needed
+     */
+    private Map<String, byte[]> getSlices(GridVariableMetadata metadata) {
+        Map<String, byte[]> slices = sliceStatistics.get(metadata.getId());
+        if (slices == null) {
+            synchronized (sliceStatistics) {
+                slices = sliceStatistics.get(metadata.getId());
+                if (slices == null) {
+                    slices = read(metadata);
+                    sliceStatistics.put(metadata.getId(), slices);
+                }
+            }
+        }
+        return slices;
+    }
+
+    private Set<String> getSliceKeys(GridVariableMetadata metadata) {
+        TimeAxis tAxis = metadata.getTemporalDomain();
+        VerticalAxis zAxis = metadata.getVerticalDomain();
+        int tSize = tAxis == null ? 1 : tAxis.size();
+        int zSize = zAxis == null ? 1 : zAxis.size();
+        Set<String> keys = new HashSet<>();
+        for (int t = 0; t < tSize; t++) {
+            for (int z = 0; z < zSize; z++) {
+                keys.add(getSliceKey(metadata, t, z));
+            }
+        }
+        return keys;
+    }
+
+    /*
+     * Identifies a slice by its actual time and elevation, so that
+     * statistics remain valid if the axes of a dataset grow, and by the
+     * fingerprint of its data, so that they are recomputed if it is modified
+     */
+    private String getSliceKey(GridVariableMetadata metadata, int tIndex, int zIndex) {
+        TimeAxis tAxis = metadata.getTemporalDomain();
+        VerticalAxis zAxis = metadata.getVerticalDomain();
+        DateTime time = tAxis == null ? null : tAxis.getCoordinateValue(tIndex);
+        String tKey = time == null ? "none" : Long.toString(time.getMillis());
+        String zKey = zAxis == null ? "none" : Long.toHexString(Double.doubleToLongBits(zAxis
+                .getCoordinateValue(zIndex)));
+        String fingerprint = dataset.getDataFingerprint(time);
+        return tKey + "/" + zKey + (fingerprint == null ? "" : "/" + fingerprint);
+    }
+
+    private static SummaryStatistics decodeStatistics(byte[] encoded) {
+        try {
+            return SummaryStatistics.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+        } catch (IOException e) {
+            /*
+             * Can't happen - the statistics were written by computeSlice()
+             */
+            throw new IllegalStateException("Invalid statistics", e);
+        }
+    }
+
+    private static StatisticsPyramid decodePyramid(byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            /*
+             * The pyramid follows the summary statistics
+             */
+            SummaryStatistics.read(in);
+            return in.readBoolean() ? StatisticsPyramid.read(in) : null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid statistics", e);
+        }
+    }
+
+    /*
+     * Reads the stored statistics of a variable. Returns an empty map if
+     * there are none, or they cannot be read.
+     */
+    private Map<String, byte[]> read(GridVariableMetadata metadata) {
+        Map<String, byte[]> slices = new ConcurrentHashMap<>();
+        File file = getStatisticsFile(metadata);
+        if (file == null || !file.exists()) {
+            return slices;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a statistics file");
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String key = in.readUTF();
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                slices.put(key, encoded);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Statistics file " + file + " is corrupt - they will be recomputed", e);
+            slices.clear();
+        }
+        return slices;
+    }
+
+    private void write(GridVariableMetadata metadata, Map<String, byte[]> slices)
+            throws IOException {
+        File file = getStatisticsFile(metadata);
+        if (file == null) {
+            return;
+        }
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        /*
+         * Write to a temporary file first, so that a partially-written file is
+         * never read
+         */
+        File tempFile = File.createTempFile("statistics", ".tmp", directory);
+        try {
+            Map<String, byte[]> snapshot = new ConcurrentHashMap<>(slices);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, byte[]> entry : snapshot.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            /*
+             * renameTo will not replace an existing file on all platforms
+             */
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot move statistics to " + file);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /*
+     * Gets the file which holds the statistics of a variable, or null if
+     * there is no working directory. The name includes a fingerprint of the
+     * horizontal grid, so that statistics are recomputed if it changes.
+     */
+    private File getStatisticsFile(GridVariableMetadata metadata) {
+        if (DatasetFactory.workingDir == null) {
+            return null;
+        }
+        HorizontalGrid grid = metadata.getHorizontalDomain();
+        BoundingBox bbox = grid.getBoundingBox();
+        int fingerprint = Arrays.hashCode(new Object[] { grid.getXSize(), grid.getYSize(),
+                bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY() });
+        File datasetDirectory = new File(new File(DatasetFactory.workingDir, STORE_DIRECTORY),
+                toFilename(dataset.getId()));
+        return new File(datasetDirectory, toFilename(metadata.getId()) + "-"
+                + Integer.toHexString(fingerprint) + FILE_SUFFIX);
+    }
+
+    /*
+     * Converts an ID to something which is safe to use as a filename. The hash
+     * of the original ID is appended to avoid collisions.
+     */
+    private static String toFilename(String id) {
+        return id.replaceAll("[^A-Za-z0-9_.]", "_") + "_" + Integer.toHexString(id.hashCode());
+    }
+}
@@ -29,6 +29,14 @@
 package uk.ac.rdg.resc.edal.dataset;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.geotoolkit.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.opengis.util.FactoryException;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -41,6 +49,7 @@ import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 import uk.ac.rdg.resc.edal.grid.GridCell2D;
 import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.LookUpTableGrid;
 import uk.ac.rdg.resc.edal.grid.RectilinearGrid;
 import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
@@ -103,6 +112,30 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         return targetYSize;
     }
 
+    /**
+     * Gets the x-index in the target grid of a mapping, without creating any
+     * objects
+     * 
+     * @param mapping
+     *            The index of the mapping, between 0 and
+     *            {@link #getNumMappings()} - 1
+     */
+    public int getTargetXIndex(int mapping) {
+        return getTargetIndex(mapping) % targetXSize;
+    }
+
+    /**
+     * Gets the y-index in the target grid of a mapping, without creating any
+     * objects
+     * 
+     * @param mapping
+     *            The index of the mapping, between 0 and
+     *            {@link #getNumMappings()} - 1
+     */
+    public int getTargetYIndex(int mapping) {
+        return getTargetIndex(mapping) / targetXSize;
+    }
+
     /**
      * Initialises a {@link Domain2DMapper} from a source and a target grid.
      * 
@@ -136,15 +169,59 @@ public class Domain2DMapper extends DomainMapper<int[]> {
              */
             ret = forMatchingCrsGrids((RectilinearGrid) sourceGrid, (RectilinearGrid) targetGrid);
         } else {
-            /*
-             * We can't gain efficiency, so we just initialise for general grids
-             */
-            ret = forGeneralGrids(sourceGrid, targetGrid);
+            ret = null;
+            if (sourceGrid instanceof RectilinearGrid && targetGrid instanceof RectilinearGrid) {
+                /*
+                 * If the CRSs differ, but each axis of the target grid
+                 * transforms independently onto an axis of the source grid
+                 * (e.g. Mercator onto lat-lon) we only need to transform the
+                 * axes
+                 */
+                ret = forSeparableGrids((RectilinearGrid) sourceGrid, (RectilinearGrid) targetGrid);
+            }
+            if (ret == null) {
+                /*
+                 * We can't gain efficiency, so we just initialise for general
+                 * grids
+                 */
+                ret = forGeneralGrids(sourceGrid, targetGrid);
+            }
         }
         domainMapperCache.put(new Element(key, ret));
         return ret;
     }
 
+    /**
+     * Initialises a {@link Domain2DMapper} which maps a list of points in the
+     * source grid onto a target "grid" consisting of a single row. This allows
+     * arbitrary collections of points to be read with a
+     * {@link DataReadingStrategy}. The results are not cached.
+     *
+     * @param sourceGrid
+     *            A {@link HorizontalGrid} representing the domain of the source
+     *            data
+     * @param xIndices
+     *            The x-indices in the source grid of each point. The value for
+     *            point n will be found at the target co-ordinates (n, 0).
+     *            Negative values indicate that there is no data for that point.
+     * @param yIndices
+     *            The y-indices in the source grid of each point. Must be the
+     *            same length as xIndices.
+     * @return A {@link Domain2DMapper} performing the mapping
+     */
+    public static Domain2DMapper forPoints(HorizontalGrid sourceGrid, int[] xIndices,
+            int[] yIndices) {
+        if (xIndices.length != yIndices.length) {
+            throw new IllegalArgumentException("Must supply the same number of x- and y-indices");
+        }
+        Domain2DMapper mapper = new Domain2DMapper(sourceGrid, xIndices.length, 1);
+        for (int i = 0; i < xIndices.length; i++) {
+            mapper.put(xIndices[i], yIndices[i], i);
+        }
+        mapper.sortIndices();
+        return mapper;
+    }
+
     /*-
      * Initialise the Domain2DMapper for 2 grids which:
      * 
@@ -194,26 +271,174 @@ public class Domain2DMapper extends DomainMapper<int[]> {
     }
 
     /*
-     * Initialise the Domain2DMapper for general HorizontalGrids
+     * The number of points along each axis of the target grid at which to
+     * check whether a transform is separable
+     */
+    private static final int SEPARABILITY_SAMPLES = 5;
+
+    /*-
+     * Initialise the Domain2DMapper for 2 grids which:
+     * 
+     * a) Are rectilinear
+     * b) Have CRSs such that the x-coordinate in the source CRS depends only on
+     *    the x-coordinate in the target CRS, and the y-coordinate in the source
+     *    CRS depends only on the y-coordinate in the target CRS.
+     * 
+     * This is true for e.g. Mercator, equirectangular and plate carree
+     * projections of lat-lon grids. In this case, only the target axes need to
+     * be transformed, rather than every point of the target grid.
+     * 
+     * Returns null if the grids' CRSs do not have this property.
+     */
+    private static Domain2DMapper forSeparableGrids(RectilinearGrid sourceGrid,
+            RectilinearGrid targetGrid) {
+        CoordinateReferenceSystem sourceCrs = sourceGrid.getCoordinateReferenceSystem();
+        CoordinateReferenceSystem targetCrs = targetGrid.getCoordinateReferenceSystem();
+        if (sourceCrs == null || targetCrs == null) {
+            return null;
+        }
+        MathTransform transform;
+        try {
+            transform = CRS.findMathTransform(targetCrs, sourceCrs, true);
+        } catch (FactoryException e) {
+            return null;
+        }
+        if (transform.getSourceDimensions() != 2 || transform.getTargetDimensions() != 2) {
+            return null;
+        }
+
+        ReferenceableAxis<Double> targetGridXAxis = targetGrid.getXAxis();
+        ReferenceableAxis<Double> targetGridYAxis = targetGrid.getYAxis();
+        int xSize = targetGridXAxis.size();
+        int ySize = targetGridYAxis.size();
+        double x0 = targetGridXAxis.getCoordinateValue(xSize / 2);
+        double y0 = targetGridYAxis.getCoordinateValue(ySize / 2);
+
+        /*
+         * Transform each target x-value along the middle row of the grid, and
+         * each target y-value along the middle column
+         */
+        double[] sourceXs = new double[xSize];
+        double[] sourceYs = new double[ySize];
+        double[] coords = new double[2 * Math.max(xSize, ySize)];
+        for (int i = 0; i < xSize; i++) {
+            coords[2 * i] = targetGridXAxis.getCoordinateValue(i);
+            coords[2 * i + 1] = y0;
+        }
+        try {
+            transform.transform(coords, 0, coords, 0, xSize);
+            for (int i = 0; i < xSize; i++) {
+                sourceXs[i] = coords[2 * i];
+            }
+            for (int j = 0; j < ySize; j++) {
+                coords[2 * j] = x0;
+                coords[2 * j + 1] = targetGridYAxis.getCoordinateValue(j);
+            }
+            transform.transform(coords, 0, coords, 0, ySize);
+            for (int j = 0; j < ySize; j++) {
+                sourceYs[j] = coords[2 * j + 1];
+            }
+
+            /*
+             * Now check that a sample of points across the whole grid
+             * transform to the same values
+             */
+            double[] point = new double[2];
+            for (int sj = 0; sj < SEPARABILITY_SAMPLES; sj++) {
+                int j = (int) ((long) sj * (ySize - 1) / (SEPARABILITY_SAMPLES - 1));
+                for (int si = 0; si < SEPARABILITY_SAMPLES; si++) {
+                    int i = (int) ((long) si * (xSize - 1) / (SEPARABILITY_SAMPLES - 1));
+                    point[0] = targetGridXAxis.getCoordinateValue(i);
+                    point[1] = targetGridYAxis.getCoordinateValue(j);
+                    transform.transform(point, 0, point, 0, 1);
+                    if (!coordinatesMatch(point[0], sourceXs[i])
+                            || !coordinatesMatch(point[1], sourceYs[j])) {
+                        return null;
+                    }
+                }
+            }
+        } catch (TransformException e) {
+            return null;
+        }
+
+        log.debug("Using optimized method for separable transformation between CRSs");
+
+        ReferenceableAxis<Double> sourceGridXAxis = sourceGrid.getXAxis();
+        ReferenceableAxis<Double> sourceGridYAxis = sourceGrid.getYAxis();
+        int[] xIndices = new int[xSize];
+        for (int i = 0; i < xSize; i++) {
+            xIndices[i] = Double.isNaN(sourceXs[i]) ? -1 : sourceGridXAxis
+                    .findIndexOf(sourceXs[i]);
+        }
+
+        Domain2DMapper mapper = new Domain2DMapper(sourceGrid, xSize, ySize);
+        for (int j = 0; j < ySize; j++) {
+            int yIndex = Double.isNaN(sourceYs[j]) ? -1 : sourceGridYAxis.findIndexOf(sourceYs[j]);
+            if (yIndex >= 0) {
+                for (int i = 0; i < xSize; i++) {
+                    mapper.put(xIndices[i], yIndex, mapper.convertCoordsToIndex(i, j));
+                }
+            }
+        }
+
+        mapper.sortIndices();
+        return mapper;
+    }
+
+    /*
+     * Whether two transformed coordinates are the same, allowing for rounding
+     * errors
+     */
+    private static boolean coordinatesMatch(double a, double b) {
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return Double.isNaN(a) && Double.isNaN(b);
+        }
+        return Math.abs(a - b) <= 1e-9 * Math.max(1.0, Math.max(Math.abs(a), Math.abs(b)));
+    }
+
+    /*
+     * Initialise the Domain2DMapper for general HorizontalGrids. Rows of the
+     * target grid are mapped in parallel, and the results merged in order so
+     * that the mapper is identical to one built serially.
      */
     private static Domain2DMapper forGeneralGrids(HorizontalGrid sourceGrid,
             final HorizontalGrid targetGrid) {
         Domain2DMapper mapper = new Domain2DMapper(sourceGrid, targetGrid.getXSize(),
                 targetGrid.getYSize());
+
+        MathTransform transform = null;
+        CoordinateReferenceSystem sourceCrs = sourceGrid.getCoordinateReferenceSystem();
+        CoordinateReferenceSystem targetCrs = targetGrid.getCoordinateReferenceSystem();
+        if (sourceCrs == null) {
+            throw new NullPointerException("Source grid CRS cannot be null");
+        }
+        if (targetCrs != null) {
+            try {
+                transform = CRS.findMathTransform(targetCrs, sourceCrs, true);
+            } catch (FactoryException e) {
+                throw new RuntimeException(e);
+            }
+            if (transform.isIdentity()) {
+                transform = null;
+            }
+        }
+
         /*
          * Find the nearest grid coordinates to all the points in the domain
          */
-        Array<GridCell2D> targetDomainObjects = targetGrid.getDomainObjects();
-        for (int j = 0; j < targetGrid.getYSize(); j++) {
-            for (int i = 0; i < targetGrid.getXSize(); i++) {
-                targetGrid.getDomainObjects().get(j, i).getCentre();
-                HorizontalPosition transformedPosition = GISUtils.transformPosition(
-                        targetDomainObjects.get(j, i).getCentre(),
-                        sourceGrid.getCoordinateReferenceSystem());
-                GridCoordinates2D indices = sourceGrid.findIndexOf(transformedPosition);
-                if (indices != null) {
-                    mapper.put(indices.getX(), indices.getY(), mapper.convertCoordsToIndex(i, j));
-                }
+        int[][] rowIndices = new int[targetGrid.getYSize()][];
+        MapRowsTask task = new MapRowsTask(sourceGrid, targetGrid, transform, rowIndices, 0,
+                targetGrid.getYSize());
+        if (targetGrid.size() < MIN_PARALLEL_TARGET_SIZE) {
+            task.compute();
+        } else {
+            mapperPool.invoke(task);
+        }
+
+        for (int j = 0; j < rowIndices.length; j++) {
+            int[] indices = rowIndices[j];
+            for (int i = 0; i < indices.length / 2; i++) {
+                mapper.put(indices[2 * i], indices[2 * i + 1], mapper.convertCoordsToIndex(i, j));
             }
         }
 
@@ -221,6 +446,168 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         return mapper;
     }
 
+    /*
+     * Target grids smaller than this are mapped on the calling thread
+     */
+    private static final int MIN_PARALLEL_TARGET_SIZE = 16384;
+    /*
+     * Target grids are split into blocks of rows with at least this many
+     * points
+     */
+    private static final int MIN_POINTS_PER_TASK = 4096;
+
+    private static final ForkJoinPool mapperPool = new ForkJoinPool();
+
+    /**
+     * Maps a block of rows of a target grid onto the source grid. The results
+     * for row j are stored in rowIndices[j] as pairs of (i,j) indices in the
+     * source grid, with negative indices where there is no corresponding source
+     * grid point.
+     */
+    private static final class MapRowsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final HorizontalGrid sourceGrid;
+        private final HorizontalGrid targetGrid;
+        private final MathTransform transform;
+        private final int[][] rowIndices;
+        private final int firstRow;
+        private final int lastRow;
+
+        public MapRowsTask(HorizontalGrid sourceGrid, HorizontalGrid targetGrid,
+                MathTransform transform, int[][] rowIndices, int firstRow, int lastRow) {
+            this.sourceGrid = sourceGrid;
+            this.targetGrid = targetGrid;
+            this.transform = transform;
+            this.rowIndices = rowIndices;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            int nRows = lastRow - firstRow;
+            if (nRows > 1 && (long) nRows * targetGrid.getXSize() > MIN_POINTS_PER_TASK) {
+                int middle = firstRow + nRows / 2;
+                invokeAll(new MapRowsTask(sourceGrid, targetGrid, transform, rowIndices,
+                        firstRow, middle), new MapRowsTask(sourceGrid, targetGrid, transform,
+                        rowIndices, middle, lastRow));
+                return;
+            }
+            int xSize = targetGrid.getXSize();
+            double[] coords = new double[2 * xSize];
+            if (sourceGrid instanceof LookUpTableGrid) {
+                mapRowsOntoLookUpTableGrid((LookUpTableGrid) sourceGrid, coords);
+                return;
+            }
+            for (int j = firstRow; j < lastRow; j++) {
+                getRowCentres(j, coords);
+                transformRow(coords);
+                int[] indices = new int[2 * xSize];
+                for (int i = 0; i < xSize; i++) {
+                    GridCoordinates2D gridCoords = null;
+                    if (!Double.isNaN(coords[2 * i]) && !Double.isNaN(coords[2 * i + 1])) {
+                        gridCoords = sourceGrid.findIndexOf(new HorizontalPosition(coords[2 * i],
+                                coords[2 * i + 1], sourceGrid.getCoordinateReferenceSystem()));
+                    }
+                    if (gridCoords != null) {
+                        indices[2 * i] = gridCoords.getX();
+                        indices[2 * i + 1] = gridCoords.getY();
+                    } else {
+                        indices[2 * i] = -1;
+                        indices[2 * i + 1] = -1;
+                    }
+                }
+                rowIndices[j] = indices;
+            }
+        }
+
+        /*
+         * Maps the rows onto a curvilinear source grid, finding all of the
+         * points in each row with a single call. Curvilinear grids are always
+         * in WGS84, so the transformed coordinates can be used directly.
+         */
+        private void mapRowsOntoLookUpTableGrid(LookUpTableGrid lutGrid, double[] coords) {
+            int xSize = targetGrid.getXSize();
+            double[] lons = new double[xSize];
+            double[] lats = new double[xSize];
+            int[] iIndices = new int[xSize];
+            int[] jIndices = new int[xSize];
+            for (int j = firstRow; j < lastRow; j++) {
+                getRowCentres(j, coords);
+                transformRow(coords);
+                for (int i = 0; i < xSize; i++) {
+                    lons[i] = coords[2 * i];
+                    lats[i] = coords[2 * i + 1];
+                }
+                lutGrid.findIndicesOf(lons, lats, iIndices, jIndices);
+                int[] indices = new int[2 * xSize];
+                for (int i = 0; i < xSize; i++) {
+                    indices[2 * i] = iIndices[i];
+                    indices[2 * i + 1] = jIndices[i];
+                }
+                rowIndices[j] = indices;
+            }
+        }
+
+        /*
+         * Gets the centres of a row of the target grid as (x,y) pairs
+         */
+        private void getRowCentres(int j, double[] coords) {
+            int xSize = targetGrid.getXSize();
+            if (targetGrid instanceof RectilinearGrid) {
+                /*
+                 * We can avoid creating the grid cells
+                 */
+                RectilinearGrid rectGrid = (RectilinearGrid) targetGrid;
+                ReferenceableAxis<Double> xAxis = rectGrid.getXAxis();
+                double y = rectGrid.getYAxis().getCoordinateValue(j);
+                for (int i = 0; i < xSize; i++) {
+                    coords[2 * i] = xAxis.getCoordinateValue(i);
+                    coords[2 * i + 1] = y;
+                }
+            } else {
+                Array<GridCell2D> targetDomainObjects = targetGrid.getDomainObjects();
+                for (int i = 0; i < xSize; i++) {
+                    HorizontalPosition centre = targetDomainObjects.get(j, i).getCentre();
+                    coords[2 * i] = centre.getX();
+                    coords[2 * i + 1] = centre.getY();
+                }
+            }
+        }
+
+        /*
+         * Transforms a row of points into the CRS of the source grid in a
+         * single operation. If that fails (e.g. because some of the points lie
+         * outside the area of validity of a projection), the points are
+         * transformed individually, and those which fail are set to NaN.
+         */
+        private void transformRow(double[] coords) {
+            if (transform == null) {
+                return;
+            }
+            int nPoints = coords.length / 2;
+            double[] transformed = new double[coords.length];
+            try {
+                transform.transform(coords, 0, transformed, 0, nPoints);
+                System.arraycopy(transformed, 0, coords, 0, coords.length);
+                return;
+            } catch (TransformException e) {
+                /*
+                 * Fall back to transforming each point
+                 */
+            }
+            for (int i = 0; i < nPoints; i++) {
+                try {
+                    transform.transform(coords, 2 * i, coords, 2 * i, 1);
+                } catch (TransformException e) {
+                    coords[2 * i] = Double.NaN;
+                    coords[2 * i + 1] = Double.NaN;
+                }
+            }
+        }
+    }
+
     /*
      * Cache management
      */
@@ -30,6 +30,8 @@ package uk.ac.rdg.resc.edal.dataset;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -119,6 +121,7 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
     }
 
     private final int sourceGridISize;
+    private final int sourceGridJSize;
 
     private final int targetDomainSize;
 
@@ -131,6 +134,24 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
     private int maxIIndex = -1;
     private int maxJIndex = -1;
 
+    /*
+     * These define the lattice which all of the i and j indices lie on. The
+     * strides are the greatest common divisors of the differences between the
+     * indices and the first index added (0 if all indices are the same).
+     */
+    private int firstIIndex = -1;
+    private int firstJIndex = -1;
+    private int iStride = 0;
+    private int jStride = 0;
+
+    /*
+     * The strides which the indices are nearly, but not necessarily exactly,
+     * evenly spaced at (e.g. every 17th or 18th column). 0 until they are
+     * calculated.
+     */
+    private int nearIStride = 0;
+    private int nearJStride = 0;
+
     protected DomainMapper(HorizontalGrid sourceGrid, long targetDomainSize) {
         if (targetDomainSize > Integer.MAX_VALUE) {
             throw new IllegalArgumentException("Cannot handle target domains"
@@ -145,6 +166,7 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
 
         this.targetDomainSize = (int) targetDomainSize;
         sourceGridISize = sourceGrid.getXSize();
+        sourceGridJSize = sourceGrid.getYSize();
 
         /*
          * Create an estimate of a suitable chunk size. We don't want this to be
@@ -195,88 +217,170 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
     /**
      * Sorts the arrays of source and target indices so that the arrays are in
      * order of increasing source grid index, then increasing target grid index.
-     * Uses an in-place quicksort algorithm adapted from
-     * http://www.vogella.de/articles/JavaAlgorithmsQuicksort/article.html.
      */
     protected void sortIndices() {
-        int numElements = sourceGridIndices.size();
-        /*
-         * Nothing to do if there are only zero or one elements
-         */
-        if (numElements < 2)
-            return;
-        quicksort(0, numElements - 1);
+        sortPairs(sourceGridIndices, targetGridIndices, targetDomainSize);
     }
 
-    private void quicksort(final int low, final int high) {
-        int i = low;
-        int j = high;
+    /*
+     * Arrays smaller than this are sorted with Arrays.sort() rather than a
+     * radix sort
+     */
+    private static final int MIN_RADIX_SORT_SIZE = 1024;
+    /*
+     * The number of bits sorted on in each pass of the radix sort
+     */
+    private static final int RADIX_BITS = 11;
+
+    /**
+     * Sorts a pair of arrays of source and target indices so that they are in
+     * order of increasing source grid index, then increasing target grid index.
+     * 
+     * Each pair is packed into a single long (source index * target domain
+     * size + target index), so that pairs can be sorted as primitives with no
+     * per-comparison allocation. Large arrays are sorted with an LSD radix
+     * sort which only makes as many passes as there are significant bits in
+     * the packed values. If the packed values would overflow a long, pairs
+     * are sorted with a quicksort over two primitive arrays.
+     * 
+     * @param sourceIndices
+     *            The source grid indices
+     * @param targetIndices
+     *            The target grid indices. Must be the same size as
+     *            sourceIndices, and all values must be less than
+     *            targetDomainSize
+     * @param targetDomainSize
+     *            The size of the target domain
+     */
+    static void sortPairs(RArray sourceIndices, RArray targetIndices, long targetDomainSize) {
+        int numElements = sourceIndices.size();
         /*
-         * The elements to be sorted are pairs of longs: the first is the source
-         * grid index, the second is the target grid index.
+         * Nothing to do if there are only zero or one elements
          */
-        final long[] pivot = getPair(low + (high - low) / 2);
-
-        /* Divide into two lists */
-        while (i <= j) {
-            while (comparePairs(getPair(i), pivot) < 0) {
-                i++;
+        if (numElements < 2) {
+            return;
+        }
+        long maxSourceIndex = 0;
+        for (int i = 0; i < numElements; i++) {
+            maxSourceIndex = Math.max(maxSourceIndex, sourceIndices.getLong(i));
+        }
+        long range = Math.max(targetDomainSize, 1);
+
+        if (maxSourceIndex < Long.MAX_VALUE / range) {
+            long[] keys = new long[numElements];
+            long maxKey = 0;
+            for (int i = 0; i < numElements; i++) {
+                keys[i] = sourceIndices.getLong(i) * range + targetIndices.getLong(i);
+                maxKey = Math.max(maxKey, keys[i]);
             }
-            while (comparePairs(getPair(j), pivot) > 0) {
-                j--;
+            if (numElements < MIN_RADIX_SORT_SIZE) {
+                Arrays.sort(keys);
+            } else {
+                radixSort(keys, maxKey);
             }
-            if (i <= j) {
-                exchange(i, j);
-                i++;
-                j--;
+            for (int i = 0; i < numElements; i++) {
+                sourceIndices.set(i, keys[i] / range);
+                targetIndices.set(i, keys[i] % range);
+            }
+        } else {
+            long[] sources = new long[numElements];
+            long[] targets = new long[numElements];
+            for (int i = 0; i < numElements; i++) {
+                sources[i] = sourceIndices.getLong(i);
+                targets[i] = targetIndices.getLong(i);
+            }
+            quicksort(sources, targets, 0, numElements - 1);
+            for (int i = 0; i < numElements; i++) {
+                sourceIndices.set(i, sources[i]);
+                targetIndices.set(i, targets[i]);
             }
-        }
-        /* Recursion */
-        if (low < j) {
-            quicksort(low, j);
-        }
-        if (i < high) {
-            quicksort(i, high);
         }
     }
 
     /*
-     * Gets the pair of [source, target] grid indices at the given index
+     * Sorts an array of non-negative longs, all of which are <= maxKey
      */
-    private long[] getPair(int index) {
-        return new long[] { sourceGridIndices.getLong(index), targetGridIndices.getLong(index) };
-    }
-
-    /**
-     * Returns <0 if pair1 < pair2, 0 if pair1 == pair2, >0 otherwise.
-     * Comparisons are performed first on the source grid index, then on the
-     * target grid index.
-     */
-    private int comparePairs(long[] pair1, long[] pair2) {
-        if (pair1[0] < pair2[0])
-            return -1;
-        if (pair1[0] > pair2[0])
-            return 1;
-        /*
-         * Source grid indices must be equal, so compare target grid indices
-         */
-        if (pair1[1] < pair2[1])
-            return -1;
-        if (pair1[1] > pair2[1])
-            return 1;
-        /*
-         * Both equal
-         */
-        return 0;
+    private static void radixSort(long[] keys, long maxKey) {
+        int bits = 64 - Long.numberOfLeadingZeros(maxKey);
+        int radix = 1 << RADIX_BITS;
+        long mask = radix - 1;
+        int[] counts = new int[radix];
+        long[] from = keys;
+        long[] to = new long[keys.length];
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (long key : from) {
+                counts[(int) ((key >>> shift) & mask)]++;
+            }
+            if (counts[(int) ((from[0] >>> shift) & mask)] == from.length) {
+                /*
+                 * All values have the same digit - this pass would do nothing
+                 */
+                continue;
+            }
+            int total = 0;
+            for (int d = 0; d < radix; d++) {
+                int count = counts[d];
+                counts[d] = total;
+                total += count;
+            }
+            for (long key : from) {
+                to[counts[(int) ((key >>> shift) & mask)]++] = key;
+            }
+            long[] temp = from;
+            from = to;
+            to = temp;
+        }
+        if (from != keys) {
+            System.arraycopy(from, 0, keys, 0, keys.length);
+        }
     }
 
     /*
-     * Exchanges the values in the source and target grid arrays with indices i1
-     * and i2
+     * Sorts pairs of values held in two arrays, first on the values in the
+     * first array and then on those in the second.
      */
-    private void exchange(int i1, int i2) {
-        sourceGridIndices.swapElements(i1, i2);
-        targetGridIndices.swapElements(i1, i2);
+    private static void quicksort(long[] first, long[] second, int low, int high) {
+        while (low < high) {
+            int i = low;
+            int j = high;
+            int mid = low + (high - low) / 2;
+            long pivotFirst = first[mid];
+            long pivotSecond = second[mid];
+
+            /* Divide into two lists */
+            while (i <= j) {
+                while (first[i] < pivotFirst
+                        || (first[i] == pivotFirst && second[i] < pivotSecond)) {
+                    i++;
+                }
+                while (first[j] > pivotFirst
+                        || (first[j] == pivotFirst && second[j] > pivotSecond)) {
+                    j--;
+                }
+                if (i <= j) {
+                    long temp = first[i];
+                    first[i] = first[j];
+                    first[j] = temp;
+                    temp = second[i];
+                    second[i] = second[j];
+                    second[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            /*
+             * Recurse into the smaller partition and loop over the larger one,
+             * to bound the depth of the stack
+             */
+            if (j - low < high - i) {
+                quicksort(first, second, low, j);
+                low = i;
+            } else {
+                quicksort(first, second, i, high);
+                high = j;
+            }
+        }
     }
 
     /**
@@ -310,6 +414,17 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
         if (j > maxJIndex)
             maxJIndex = j;
 
+        /*
+         * Update the sampling lattice
+         */
+        if (firstIIndex < 0) {
+            firstIIndex = i;
+            firstJIndex = j;
+        } else {
+            iStride = gcd(iStride, Math.abs(i - firstIIndex));
+            jStride = gcd(jStride, Math.abs(j - firstJIndex));
+        }
+
         /*
          * Calculate a single integer representing this grid point in the source
          * grid
@@ -367,6 +482,133 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
         return maxJIndex;
     }
 
+    /**
+     * Gets the step between the i indices in this domain mapper. All i indices
+     * are of the form {@link #getMinIIndex()} + n * stride. This will be
+     * greater than 1 when the target domain samples regularly spaced columns
+     * of the source grid, in which case only those columns need to be read.
+     */
+    public int getIStride() {
+        return iStride == 0 ? 1 : iStride;
+    }
+
+    /**
+     * Gets the step between the j indices in this domain mapper. All j indices
+     * are of the form {@link #getMinJIndex()} + n * stride. This will be
+     * greater than 1 when the target domain samples regularly spaced rows of
+     * the source grid, in which case only those rows need to be read.
+     */
+    public int getJStride() {
+        return jStride == 0 ? 1 : jStride;
+    }
+
+    /**
+     * Gets a step which the i indices in this domain mapper are nearly spaced
+     * at. This is at least {@link #getIStride()}, but will also be greater
+     * than 1 when the target domain samples columns of the source grid at a
+     * non-integer ratio (e.g. every 14th or 15th column). Reading with this
+     * stride requires each i index to be moved onto the stride with
+     * {@link #snapIIndex(int, int)}, so the values read are <i>not</i> those
+     * of the mapped points. This should therefore only be used when
+     * rendering.
+     */
+    public int getNearRegularIStride() {
+        if (nearIStride == 0) {
+            nearIStride = Math.max(findNearRegularStride(true), getIStride());
+        }
+        return nearIStride;
+    }
+
+    /**
+     * Gets a step which the j indices in this domain mapper are nearly spaced
+     * at. This is at least {@link #getJStride()}, but will also be greater
+     * than 1 when the target domain samples rows of the source grid at a
+     * non-integer ratio. Reading with this stride requires each j index to be
+     * moved onto the stride with {@link #snapJIndex(int, int)}, so the values
+     * read are <i>not</i> those of the mapped points. This should therefore
+     * only be used when rendering.
+     */
+    public int getNearRegularJStride() {
+        if (nearJStride == 0) {
+            nearJStride = Math.max(findNearRegularStride(false), getJStride());
+        }
+        return nearJStride;
+    }
+
+    /**
+     * Finds the source grid column to use for an i index when reading with the
+     * given stride. All such columns are of the form {@link #getMinIIndex()} +
+     * n * stride. When reading with {@link #getIStride()} this is always the
+     * index itself. When reading with {@link #getNearRegularIStride()}, it is
+     * the nearest column on the stride, which is at most half a stride away
+     * (or less than a whole stride at the edge of the source grid).
+     */
+    public int snapIIndex(int i, int stride) {
+        return snap(i, minIIndex, sourceGridISize - 1, stride);
+    }
+
+    /**
+     * Finds the source grid row to use for a j index when reading with the
+     * given stride. All such rows are of the form {@link #getMinJIndex()} + n *
+     * stride. When reading with {@link #getJStride()} this is always the index
+     * itself. When reading with {@link #getNearRegularJStride()}, it is the
+     * nearest row on the stride, which is at most half a stride away (or less
+     * than a whole stride at the edge of the source grid).
+     */
+    public int snapJIndex(int j, int stride) {
+        return snap(j, minJIndex, sourceGridJSize - 1, stride);
+    }
+
+    private static int snap(int index, int min, int max, int stride) {
+        int snapped = min + (int) Math.round((index - min) / (double) stride) * stride;
+        return snapped > max ? snapped - stride : snapped;
+    }
+
+    /*
+     * Finds the stride for indices which are nearly regularly spaced, e.g.
+     * when a target grid samples a source grid at a non-integer ratio. The
+     * stride is the smallest gap between the distinct indices, provided that
+     * no gap is twice as large. Snapping each index to the nearest multiple of
+     * this stride then moves it by no more than half of the gap to its
+     * neighbours, so that it stays within the area sampled by its target
+     * point.
+     * 
+     * Returns 1 if the indices are not nearly regular.
+     */
+    private int findNearRegularStride(boolean iAxis) {
+        int min = iAxis ? minIIndex : minJIndex;
+        int max = iAxis ? maxIIndex : maxJIndex;
+        if (max <= min) {
+            return 1;
+        }
+        BitSet used = new BitSet(max - min + 1);
+        int numMappings = getNumMappings();
+        for (int m = 0; m < numMappings; m++) {
+            used.set((iAxis ? getSourceGridIIndex(m) : getSourceGridJIndex(m)) - min);
+        }
+        int minGap = Integer.MAX_VALUE;
+        int maxGap = 0;
+        int previous = 0;
+        for (int index = used.nextSetBit(1); index >= 0; index = used.nextSetBit(index + 1)) {
+            minGap = Math.min(minGap, index - previous);
+            maxGap = Math.max(maxGap, index - previous);
+            previous = index;
+        }
+        if (minGap >= 2 && maxGap < 2 * minGap) {
+            return minGap;
+        }
+        return 1;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = b;
+            b = a % b;
+            a = t;
+        }
+        return a;
+    }
+
     /**
      * <p>
      * Gets the number of unique i-j pairs in this pixel map. When combined with
@@ -399,7 +641,117 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
      * @return the size of the i-j bounding box that encompasses all data.
      */
     public long getBoundingBoxSize() {
-        return (maxIIndex - minIIndex + 1) * (maxJIndex - minJIndex + 1);
+        return (long) (maxIIndex - minIIndex + 1) * (maxJIndex - minJIndex + 1);
+    }
+
+    /*-
+     * Primitive access to the mappings.
+     * 
+     * The iterators below create several objects for every source grid point.
+     * These methods give direct access to the individual mappings from a
+     * source grid point to a target index, so that callers can iterate over
+     * them without creating any objects:
+     * 
+     * for (int m = 0; m < mapper.getNumMappings(); m = mapper.getScanlineEnd(m)) {
+     *     int j = mapper.getSourceGridJIndex(m);
+     *     for (int n = m; n < mapper.getScanlineEnd(m); n++) {
+     *         ... mapper.getSourceGridIIndex(n), mapper.getTargetIndex(n) ...
+     *     }
+     * }
+     * 
+     * Mappings are sorted by source grid index (i.e. by j index, then by i
+     * index), and then by target index.
+     */
+
+    /**
+     * @return The total number of mappings from a source grid point to a
+     *         target index. This will be larger than the number of unique
+     *         source grid points if any of them map to more than one target
+     *         index.
+     */
+    public int getNumMappings() {
+        return sourceGridIndices.size();
+    }
+
+    /**
+     * @param mapping
+     *            The index of the mapping, between 0 and
+     *            {@link #getNumMappings()} - 1
+     * @return The i index in the source grid of the given mapping
+     */
+    public int getSourceGridIIndex(int mapping) {
+        return (int) (sourceGridIndices.getLong(mapping) % sourceGridISize);
+    }
+
+    /**
+     * @param mapping
+     *            The index of the mapping, between 0 and
+     *            {@link #getNumMappings()} - 1
+     * @return The j index in the source grid of the given mapping
+     */
+    public int getSourceGridJIndex(int mapping) {
+        return (int) (sourceGridIndices.getLong(mapping) / sourceGridISize);
+    }
+
+    /**
+     * @param mapping
+     *            The index of the mapping, between 0 and
+     *            {@link #getNumMappings()} - 1
+     * @return The index in the target domain of the given mapping
+     */
+    public int getTargetIndex(int mapping) {
+        return targetGridIndices.getInt(mapping);
+    }
+
+    /**
+     * Finds the end of the run of mappings which share a source grid point
+     * 
+     * @param mapping
+     *            The index of the first mapping in the run
+     * @return The index of the first mapping after the given one which has a
+     *         different source grid point (or {@link #getNumMappings()})
+     */
+    public int getSourcePointEnd(int mapping) {
+        return findFirstMapping(sourceGridIndices.getLong(mapping) + 1, mapping + 1);
+    }
+
+    /**
+     * Finds the end of the run of mappings which share a source grid j index
+     * (i.e. a scanline)
+     * 
+     * @param mapping
+     *            The index of the first mapping in the scanline
+     * @return The index of the first mapping after the given one which has a
+     *         different source grid j index (or {@link #getNumMappings()})
+     */
+    public int getScanlineEnd(int mapping) {
+        long nextScanlineStart = (sourceGridIndices.getLong(mapping) / sourceGridISize + 1)
+                * sourceGridISize;
+        return findFirstMapping(nextScanlineStart, mapping + 1);
+    }
+
+    /*
+     * Finds the first mapping at or after "from" whose source grid index is at
+     * least the given value
+     */
+    private int findFirstMapping(long sourceGridIndex, int from) {
+        int low = from;
+        int high = sourceGridIndices.size();
+        /*
+         * Runs are usually short, so check the next mapping before searching
+         */
+        if (low >= high || sourceGridIndices.getLong(low) >= sourceGridIndex) {
+            return low;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sourceGridIndices.getLong(mid) < sourceGridIndex) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     /**
@@ -30,17 +30,21 @@ package uk.ac.rdg.resc.edal.dataset;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.joda.time.DateTime;
 
 import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
 import uk.ac.rdg.resc.edal.feature.PointSeriesFeature;
 import uk.ac.rdg.resc.edal.feature.ProfileFeature;
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.position.VerticalPosition;
+import uk.ac.rdg.resc.edal.util.Array;
 import uk.ac.rdg.resc.edal.util.Extents;
 
 /**
@@ -75,6 +79,18 @@ public interface FeatureIndexer extends Serializable {
      */
     public Set<String> getAllFeatureIds();
 
+    /**
+     * Gets the range of values of a variable over all indexed features. This
+     * is only available if the {@link FeatureBounds} of the features included
+     * their value ranges.
+     * 
+     * @param variableId
+     *            The ID of the variable
+     * @return The range of values of the variable, or <code>null</code> if
+     *         this is not known
+     */
+    public Extent<Float> getValueRange(String variableId);
+
     /**
      * Adds features to this indexer. Features are defined in terms of
      * {@link FeatureBounds} objects which define the spatial boundaries of
@@ -95,10 +111,25 @@ public interface FeatureIndexer extends Serializable {
         Extent<Double> verticalExtent;
         Extent<Long> timeExtent;
         Collection<String> variableIds;
+        Map<String, Extent<Float>> valueRanges;
 
         public FeatureBounds(String id, HorizontalPosition horizontalPosition,
                 Extent<Double> verticalExtent, Extent<DateTime> timeExtent,
                 Collection<String> variableIds) {
+            this(id, horizontalPosition, verticalExtent, timeExtent, variableIds, null);
+        }
+
+        /**
+         * @param valueRanges
+         *            The ranges of the values of the feature's variables, keyed
+         *            by variable ID. These are combined by the
+         *            {@link FeatureIndexer} so that the range of each variable
+         *            over the whole dataset is known without reading any
+         *            features. May be <code>null</code>.
+         */
+        public FeatureBounds(String id, HorizontalPosition horizontalPosition,
+                Extent<Double> verticalExtent, Extent<DateTime> timeExtent,
+                Collection<String> variableIds, Map<String, Extent<Float>> valueRanges) {
             super();
             /*
              * We need at least an ID and a horizontal position.
@@ -125,6 +156,7 @@ public interface FeatureIndexer extends Serializable {
                 this.timeExtent = Extents.newExtent(-Long.MAX_VALUE, Long.MAX_VALUE);
             }
             this.variableIds = variableIds;
+            this.valueRanges = valueRanges;
         }
 
         /**
@@ -135,7 +167,7 @@ public interface FeatureIndexer extends Serializable {
         public static FeatureBounds fromProfileFeature(ProfileFeature feature) {
             return new FeatureBounds(feature.getId(), feature.getHorizontalPosition(), feature
                     .getDomain().getCoordinateExtent(), Extents.newExtent(feature.getTime(),
-                    feature.getTime()), feature.getParameterIds());
+                    feature.getTime()), feature.getParameterIds(), getValueRanges(feature));
         }
 
         /**
@@ -153,7 +185,39 @@ public interface FeatureIndexer extends Serializable {
                 zExtent = Extents.newExtent(zPos.getZ(), zPos.getZ());
             }
             return new FeatureBounds(feature.getId(), feature.getHorizontalPosition(), zExtent,
-                    feature.getDomain().getCoordinateExtent(), feature.getParameterIds());
+                    feature.getDomain().getCoordinateExtent(), feature.getParameterIds(),
+                    getValueRanges(feature));
+        }
+
+        /**
+         * Finds the ranges of the values of all variables in a feature
+         * 
+         * @param feature
+         *            The feature to find the value ranges of
+         * @return A {@link Map} of variable ID to the range of its
+         *         (non-missing) values. Variables with no values are not
+         *         included.
+         */
+        public static Map<String, Extent<Float>> getValueRanges(DiscreteFeature<?, ?> feature) {
+            Map<String, Extent<Float>> valueRanges = new HashMap<>();
+            for (String varId : feature.getParameterIds()) {
+                Array<Number> values = feature.getValues(varId);
+                if (values == null) {
+                    continue;
+                }
+                float min = Float.MAX_VALUE;
+                float max = -Float.MAX_VALUE;
+                for (Number value : values) {
+                    if (value != null && !Double.isNaN(value.doubleValue())) {
+                        min = Math.min(min, value.floatValue());
+                        max = Math.max(max, value.floatValue());
+                    }
+                }
+                if (min <= max) {
+                    valueRanges.put(varId, Extents.newExtent(min, max));
+                }
+            }
+            return valueRanges;
         }
     }
 }
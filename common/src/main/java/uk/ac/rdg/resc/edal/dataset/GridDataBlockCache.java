@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheConfiguration.TransactionalMode;
+import net.sf.ehcache.config.MemoryUnit;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.DoubleArray4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * An in-memory cache of decoded blocks of gridded data, shared between all
+ * {@link GridDataSource}s.
+ * 
+ * A new {@link GridDataSource} is opened for every request made to a
+ * {@link GriddedDataset}, so any data it reads is discarded once the request
+ * has completed. When serving tiled maps, neighbouring tiles will generally
+ * need to read (and decode) overlapping parts of the same data. This cache
+ * stores horizontal blocks of {@value #BLOCK_SIZE}x{@value #BLOCK_SIZE} points
+ * of a single variable at a single time and depth, so that they can be reused
+ * by subsequent requests.
+ * 
+ * The cache is limited by the amount of memory it uses, and evicts the least
+ * recently used blocks when it is full. It is disabled by default, and can be
+ * enabled with {@link #setCacheSize(int)}. When a dataset is refreshed, any
+ * blocks cached for it should be removed with {@link #invalidate(String)}.
+ * 
+ * Remote datasets (see {@link GriddedDataset#isRemote()}, e.g. OPeNDAP) are
+ * not cached, since padding each read out to whole blocks would multiply the
+ * amount of data transferred.
+ */
+public class GridDataBlockCache {
+    private static final Logger log = LoggerFactory.getLogger(GridDataBlockCache.class);
+    private static final String CACHE_NAME = "gridDataBlockCache";
+
+    /**
+     * The size (in both the x- and y-directions) of the blocks in which data is
+     * read and cached
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    private static volatile Cache blockCache = null;
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+    private static final AtomicLong serials = new AtomicLong(0);
+
+    /**
+     * Sets the maximum amount of memory which the cache may use. Any data
+     * currently cached will be discarded.
+     * 
+     * @param sizeMB
+     *            The maximum size of the cache, in megabytes. If this is
+     *            zero or negative, the cache will be disabled.
+     */
+    public static synchronized void setCacheSize(int sizeMB) {
+        if (blockCache != null
+                && sizeMB == blockCache.getCacheConfiguration().getMaxBytesLocalHeap()
+                        / (1024 * 1024)) {
+            /*
+             * We are not changing anything about the cache.
+             */
+            return;
+        }
+
+        if (Domain2DMapper.cacheManager.cacheExists(CACHE_NAME)) {
+            Domain2DMapper.cacheManager.removeCache(CACHE_NAME);
+        }
+
+        if (sizeMB > 0) {
+            CacheConfiguration config = new CacheConfiguration(CACHE_NAME, 0).eternal(true)
+                    .maxBytesLocalHeap(sizeMB, MemoryUnit.MEGABYTES)
+                    .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
+                    .persistence(new PersistenceConfiguration().strategy(Strategy.NONE))
+                    .transactionalMode(TransactionalMode.OFF);
+            Cache cache = new Cache(config);
+            Domain2DMapper.cacheManager.addCache(cache);
+            blockCache = cache;
+            log.debug("Grid data block cache enabled with a size of {}MB", sizeMB);
+        } else {
+            blockCache = null;
+        }
+    }
+
+    /**
+     * @return Whether the cache is currently enabled
+     */
+    public static boolean isEnabled() {
+        return blockCache != null;
+    }
+
+    /**
+     * Removes all cached data for the given dataset. This should be called
+     * whenever the dataset is refreshed.
+     * 
+     * @param datasetId
+     *            The ID of the dataset whose data should be removed
+     */
+    public static void invalidate(String datasetId) {
+        Cache cache = blockCache;
+        if (cache == null || datasetId == null) {
+            return;
+        }
+        for (Object key : cache.getKeys()) {
+            if (key instanceof BlockKey && datasetId.equals(((BlockKey) key).datasetId)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached data
+     */
+    public static void clear() {
+        Cache cache = blockCache;
+        if (cache != null) {
+            cache.removeAll();
+        }
+    }
+
+    /**
+     * @return The number of blocks which have been found in the cache
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of blocks which were not found in the cache and had
+     *         to be read from a {@link GridDataSource}
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return A number which uniquely identifies a {@link GriddedDataset}
+     *         instance. This ensures that data read from a dataset is not
+     *         returned for a refreshed version of it with the same ID.
+     */
+    static long nextDatasetSerial() {
+        return serials.incrementAndGet();
+    }
+
+    /**
+     * Wraps a {@link GridDataSource} so that horizontal reads go through the
+     * cache. If the cache is disabled, or the dataset is remote, the source is
+     * returned unchanged.
+     * 
+     * @param source
+     *            The {@link GridDataSource} to read data from
+     * @param dataset
+     *            The {@link GriddedDataset} which the data source belongs to
+     * @param datasetSerial
+     *            The serial number of the dataset, from
+     *            {@link #nextDatasetSerial()}
+     * @return A {@link GridDataSource} which uses the cache
+     */
+    static GridDataSource wrap(GridDataSource source, GriddedDataset dataset, long datasetSerial) {
+        Cache cache = blockCache;
+        if (cache == null || dataset.isRemote()) {
+            return source;
+        }
+        return new CachingGridDataSource(source, dataset, datasetSerial, cache);
+    }
+
+    private static final class CachingGridDataSource implements StridedGridDataSource {
+        private final GridDataSource source;
+        private final GriddedDataset dataset;
+        private final long datasetSerial;
+        private final Cache cache;
+
+        public CachingGridDataSource(GridDataSource source, GriddedDataset dataset,
+                long datasetSerial, Cache cache) {
+            this.source = source;
+            this.dataset = dataset;
+            this.datasetSerial = datasetSerial;
+            this.cache = cache;
+        }
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+            HorizontalGrid grid = getHorizontalGrid(variableId);
+            if (grid == null || tmin != tmax || zmin != zmax || xmin < 0 || ymin < 0
+                    || xmax >= grid.getXSize() || ymax >= grid.getYSize()) {
+                /*
+                 * Only single-level horizontal reads are cached. Anything else
+                 * (e.g. timeseries or profiles) is read directly.
+                 */
+                return source.read(variableId, tmin, tmax, zmin, zmax, ymin, ymax, xmin, xmax);
+            }
+
+            /*
+             * Get all of the blocks which the requested region covers
+             */
+            int minBlockJ = ymin / BLOCK_SIZE;
+            int maxBlockJ = ymax / BLOCK_SIZE;
+            int minBlockI = xmin / BLOCK_SIZE;
+            int maxBlockI = xmax / BLOCK_SIZE;
+            List<Array4D<Number>> blocks = new ArrayList<>();
+            boolean allFloat = true;
+            for (int blockJ = minBlockJ; blockJ <= maxBlockJ; blockJ++) {
+                for (int blockI = minBlockI; blockI <= maxBlockI; blockI++) {
+                    Array4D<Number> block = getBlock(variableId, tmin, zmin, blockJ, blockI,
+                            grid);
+                    allFloat &= block instanceof FloatArray4D;
+                    blocks.add(block);
+                }
+            }
+
+            /*
+             * Now copy the requested region out of the blocks
+             */
+            int xSize = xmax - xmin + 1;
+            int ySize = ymax - ymin + 1;
+            FloatArray4D floatRet = null;
+            DoubleArray4D doubleRet = null;
+            if (allFloat) {
+                floatRet = new FloatArray4D(1, 1, ySize, xSize);
+            } else {
+                doubleRet = new DoubleArray4D(1, 1, ySize, xSize);
+            }
+            int blockIndex = 0;
+            for (int blockJ = minBlockJ; blockJ <= maxBlockJ; blockJ++) {
+                for (int blockI = minBlockI; blockI <= maxBlockI; blockI++) {
+                    Array4D<Number> block = blocks.get(blockIndex++);
+                    int yOffset = blockJ * BLOCK_SIZE;
+                    int xOffset = blockI * BLOCK_SIZE;
+                    int yStart = Math.max(ymin, yOffset);
+                    int yEnd = Math.min(ymax, yOffset + BLOCK_SIZE - 1);
+                    int xStart = Math.max(xmin, xOffset);
+                    int xEnd = Math.min(xmax, xOffset + BLOCK_SIZE - 1);
+                    for (int y = yStart; y <= yEnd; y++) {
+                        for (int x = xStart; x <= xEnd; x++) {
+                            if (floatRet != null) {
+                                FloatArray4D floatBlock = (FloatArray4D) block;
+                                if (!floatBlock.isMissing(0, 0, y - yOffset, x - xOffset)) {
+                                    floatRet.setFloat(0, 0, y - ymin, x - xmin,
+                                            floatBlock.getFloat(0, 0, y - yOffset, x - xOffset));
+                                }
+                            } else {
+                                Number value = block.get(0, 0, y - yOffset, x - xOffset);
+                                if (value != null) {
+                                    doubleRet.setDouble(0, 0, y - ymin, x - xmin,
+                                            value.doubleValue());
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return floatRet != null ? floatRet : doubleRet;
+        }
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int ystride, int xmin, int xmax, int xstride)
+                throws IOException, DataReadingException {
+            if (source instanceof StridedGridDataSource) {
+                /*
+                 * Strided reads are sparse, so would make poor use of the
+                 * (full-resolution) cached blocks. Read them directly.
+                 */
+                return ((StridedGridDataSource) source).read(variableId, tmin, tmax, zmin, zmax,
+                        ymin, ymax, ystride, xmin, xmax, xstride);
+            }
+            /*
+             * Read the full region (using the cache) and subsample it
+             */
+            Array4D<Number> data = read(variableId, tmin, tmax, zmin, zmax, ymin, ymax, xmin,
+                    xmax);
+            int tSize = tmax - tmin + 1;
+            int zSize = zmax - zmin + 1;
+            int ySize = (ymax - ymin) / ystride + 1;
+            int xSize = (xmax - xmin) / xstride + 1;
+            Array4D<Number> ret;
+            if (data instanceof FloatArray4D) {
+                ret = new FloatArray4D(tSize, zSize, ySize, xSize);
+            } else {
+                ret = new DoubleArray4D(tSize, zSize, ySize, xSize);
+            }
+            for (int t = 0; t < tSize; t++) {
+                for (int z = 0; z < zSize; z++) {
+                    for (int y = 0; y < ySize; y++) {
+                        for (int x = 0; x < xSize; x++) {
+                            Number value = data.get(t, z, y * ystride, x * xstride);
+                            if (value != null) {
+                                ret.set(value, t, z, y, x);
+                            }
+                        }
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private HorizontalGrid getHorizontalGrid(String variableId) {
+            try {
+                VariableMetadata metadata = dataset.getVariableMetadata(variableId);
+                if (metadata instanceof GridVariableMetadata) {
+                    return ((GridVariableMetadata) metadata).getHorizontalDomain();
+                }
+            } catch (VariableNotFoundException e) {
+                /*
+                 * The underlying data source will deal with this
+                 */
+            }
+            return null;
+        }
+
+        private Array4D<Number> getBlock(String variableId, int t, int z, int blockJ,
+                int blockI, HorizontalGrid grid) throws IOException, DataReadingException {
+            BlockKey key = new BlockKey(dataset.getId(), datasetSerial, variableId, t, z, blockJ,
+                    blockI);
+            Element element = cache.get(key);
+            if (element != null && element.getObjectValue() != null) {
+                hits.incrementAndGet();
+                @SuppressWarnings("unchecked")
+                Array4D<Number> block = (Array4D<Number>) element.getObjectValue();
+                return block;
+            }
+            misses.incrementAndGet();
+
+            int ymin = blockJ * BLOCK_SIZE;
+            int ymax = Math.min(ymin + BLOCK_SIZE, grid.getYSize()) - 1;
+            int xmin = blockI * BLOCK_SIZE;
+            int xmax = Math.min(xmin + BLOCK_SIZE, grid.getXSize()) - 1;
+            Array4D<Number> block = source.read(variableId, t, t, z, z, ymin, ymax, xmin, xmax);
+            if (!(block instanceof FloatArray4D) && !(block instanceof DoubleArray4D)) {
+                /*
+                 * We don't know how this Array4D stores its data (it may just
+                 * be a view onto some other resource), so copy it into an
+                 * array we can safely keep hold of
+                 */
+                DoubleArray4D copy = new DoubleArray4D(1, 1, ymax - ymin + 1, xmax - xmin + 1);
+                for (int y = 0; y <= ymax - ymin; y++) {
+                    for (int x = 0; x <= xmax - xmin; x++) {
+                        Number value = block.get(0, 0, y, x);
+                        if (value != null) {
+                            copy.setDouble(0, 0, y, x, value.doubleValue());
+                        }
+                    }
+                }
+                block = copy;
+            }
+            cache.put(new Element(key, block));
+            return block;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    private static final class BlockKey {
+        private final String datasetId;
+        private final long datasetSerial;
+        private final String variableId;
+        private final int t;
+        private final int z;
+        private final int blockJ;
+        private final int blockI;
+
+        public BlockKey(String datasetId, long datasetSerial, String variableId, int t, int z,
+                int blockJ, int blockI) {
+            this.datasetId = datasetId;
+            this.datasetSerial = datasetSerial;
+            this.variableId = variableId;
+            this.t = t;
+            this.z = z;
+            this.blockJ = blockJ;
+            this.blockI = blockI;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + blockI;
+            result = prime * result + blockJ;
+            result = prime * result + ((datasetId == null) ? 0 : datasetId.hashCode());
+            result = prime * result + (int) (datasetSerial ^ (datasetSerial >>> 32));
+            result = prime * result + t;
+            result = prime * result + ((variableId == null) ? 0 : variableId.hashCode());
+            result = prime * result + z;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            BlockKey other = (BlockKey) obj;
+            if (blockI != other.blockI)
+                return false;
+            if (blockJ != other.blockJ)
+                return false;
+            if (datasetSerial != other.datasetSerial)
+                return false;
+            if (t != other.t)
+                return false;
+            if (z != other.z)
+                return false;
+            if (datasetId == null) {
+                if (other.datasetId != null)
+                    return false;
+            } else if (!datasetId.equals(other.datasetId))
+                return false;
+            if (variableId == null) {
+                if (other.variableId != null)
+                    return false;
+            } else if (!variableId.equals(other.variableId))
+                return false;
+            return true;
+        }
+    }
+}
@@ -31,6 +31,7 @@ package uk.ac.rdg.resc.edal.dataset;
 import java.io.IOException;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -104,10 +105,113 @@ public abstract class GriddedDataset extends AbstractDataset {
     private static final String NO_Z_AXIS_CODE = "NO_Z_AXIS";
     private static final String NO_T_AXIS_CODE = "NO_T_AXIS";
 
+    /**
+     * The default value of {@link #setMaxHyperslabSize(long)}
+     */
+    public static final long DEFAULT_MAX_HYPERSLAB_SIZE = 16 * 1024 * 1024;
+
+    /*
+     * The maximum number of values to read in a single operation when
+     * extracting timeseries and profiles
+     */
+    private static volatile long maxHyperslabSize = DEFAULT_MAX_HYPERSLAB_SIZE;
+
+    /*
+     * Identifies data from this instance in the GridDataBlockCache
+     */
+    private final long blockCacheSerial = GridDataBlockCache.nextDatasetSerial();
+
+    /*
+     * Reduced-resolution versions of the data, used for zoomed-out maps
+     */
+    private OverviewPyramid overviews = null;
+
+    /*
+     * Precomputed statistics of the values of each variable
+     */
+    private DatasetStatistics statistics = null;
+
     public GriddedDataset(String id, Collection<GridVariableMetadata> vars) {
         super(id, vars);
     }
 
+    /**
+     * Sets the maximum number of values which will be read in a single
+     * operation when extracting timeseries and profiles. Timeseries and
+     * profiles are read from a single hyperslab covering all of the requested
+     * locations where possible, falling back to several smaller reads if that
+     * hyperslab would be larger than this.
+     * 
+     * @param maxValues
+     *            The maximum number of values. Defaults to
+     *            {@link #DEFAULT_MAX_HYPERSLAB_SIZE}.
+     */
+    public static void setMaxHyperslabSize(long maxValues) {
+        if (maxValues < 1) {
+            throw new IllegalArgumentException("Maximum hyperslab size must be positive");
+        }
+        maxHyperslabSize = maxValues;
+    }
+
+    /**
+     * Sets the {@link OverviewPyramid} used to read maps covering large areas
+     * of this dataset at reduced resolution
+     * 
+     * @param overviews
+     *            The {@link OverviewPyramid} to use, or <code>null</code> to
+     *            always read full-resolution data
+     */
+    public void setOverviewPyramid(OverviewPyramid overviews) {
+        this.overviews = overviews;
+    }
+
+    /**
+     * @return The {@link OverviewPyramid} used by this dataset, or
+     *         <code>null</code> if there is none
+     */
+    public OverviewPyramid getOverviewPyramid() {
+        return overviews;
+    }
+
+    /**
+     * Gets a fingerprint of the underlying data at a given time, such as the
+     * sizes and modification times of the files which hold it. Overviews
+     * (and other data derived from this dataset which is stored between
+     * requests) include this in their keys, so that they are regenerated when
+     * the underlying data is modified.
+     *
+     * This implementation returns <code>null</code>. Subclasses which can
+     * detect changes to their data should override it.
+     *
+     * @param time
+     *            The time of interest, or <code>null</code> for data which
+     *            has no time axis
+     * @return The fingerprint, or <code>null</code> if it is not known
+     */
+    public String getDataFingerprint(DateTime time) {
+        return null;
+    }
+
+    /**
+     * Sets the {@link DatasetStatistics} which hold precomputed statistics of
+     * the values of this dataset's variables
+     * 
+     * @param statistics
+     *            The {@link DatasetStatistics} to use, or <code>null</code> if
+     *            there are none
+     */
+    public void setStatistics(DatasetStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return The {@link DatasetStatistics} of this dataset, or
+     *         <code>null</code> if there are none
+     */
+    public DatasetStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public Class<GridFeature> getFeatureType(String variableId) {
         /*
@@ -300,6 +404,32 @@ public abstract class GriddedDataset extends AbstractDataset {
     @Override
     public final List<MapFeature> extractMapFeatures(Set<String> varIds, PlottingDomainParams params)
             throws DataReadingException, VariableNotFoundException {
+        return extractMapFeatures(varIds, params, false);
+    }
+
+    /**
+     * Extracts map features in the same way as
+     * {@link #extractMapFeatures(Set, PlottingDomainParams)}, but only for
+     * plotting. The values of non-derived variables are held as floats, and
+     * may be read from nearby points of the source grid where this allows
+     * them to be read more efficiently (see
+     * {@link DataReadingStrategy#readMapData(GridDataSource, String, int, int, Domain2DMapper, boolean)}
+     * ). They should not be returned to users as data values.
+     * 
+     * @param varIds
+     *            The IDs of the variables to extract. If <code>null</code>,
+     *            all variables will be extracted
+     * @param params
+     *            The {@link PlottingDomainParams} defining the map to extract
+     * @return A {@link List} containing a single {@link MapFeature}
+     */
+    public final List<MapFeature> extractMapFeaturesForPlotting(Set<String> varIds,
+            PlottingDomainParams params) throws DataReadingException, VariableNotFoundException {
+        return extractMapFeatures(varIds, params, true);
+    }
+
+    private List<MapFeature> extractMapFeatures(Set<String> varIds, PlottingDomainParams params,
+            boolean forPlotting) throws DataReadingException, VariableNotFoundException {
         /*
          * If the user has passed in null for the variable IDs, they want all
          * variables returned
@@ -323,9 +453,11 @@ public abstract class GriddedDataset extends AbstractDataset {
         GridDataSource dataSource = null;
         try {
             /*
-             * Open the source of data
+             * Open the source of data. Map reads go through the block cache
+             * (if enabled), since neighbouring map tiles will generally read
+             * overlapping regions of data
              */
-            dataSource = openGridDataSource();
+            dataSource = GridDataBlockCache.wrap(openGridDataSource(), this, blockCacheSerial);
 
             Map<String, Array2D<Number>> values = new HashMap<String, Array2D<Number>>();
 
@@ -357,7 +489,8 @@ public abstract class GriddedDataset extends AbstractDataset {
                 /*
                  * Do the actual data reading
                  */
-                Array2D<Number> data = readHorizontalData(varId, targetGrid, zPos, time, dataSource);
+                Array2D<Number> data = readHorizontalData(varId, targetGrid, zPos, time,
+                        dataSource, forPlotting);
 
                 values.put(varId, data);
             }
@@ -437,6 +570,9 @@ public abstract class GriddedDataset extends AbstractDataset {
      *            The time to read at
      * @param dataSource
      *            The {@link GridDataSource} to read data from
+     * @param forPlotting
+     *            Whether the data is only to be plotted, in which case it can
+     *            be read as floats, and from nearby points of the source grid
      * @return
      * @throws IOException
      *             If there is a problem opening the {@link GridDataSource}
@@ -445,11 +581,12 @@ public abstract class GriddedDataset extends AbstractDataset {
      * @throws VariableNotFoundException
      */
     private Array2D<Number> readHorizontalData(String varId, final HorizontalGrid targetGrid,
-            Double zPos, DateTime time, GridDataSource dataSource) throws IOException,
-            DataReadingException, VariableNotFoundException {
+            Double zPos, DateTime time, GridDataSource dataSource, boolean forPlotting)
+            throws IOException, DataReadingException, VariableNotFoundException {
         VariablePlugin plugin = isDerivedVariable(varId);
         if (plugin == null) {
-            return readUnderlyingHorizontalData(varId, targetGrid, zPos, time, dataSource);
+            return readUnderlyingHorizontalData(varId, targetGrid, zPos, time, dataSource,
+                    forPlotting);
         } else {
             @SuppressWarnings("unchecked")
             Array2D<Number>[] pluginSourceData = new Array2D[plugin.usesVariables().length];
@@ -464,7 +601,7 @@ public abstract class GriddedDataset extends AbstractDataset {
             for (int i = 0; i < pluginSourceData.length; i++) {
                 String pluginSourceVarId = plugin.usesVariables()[i];
                 pluginSourceData[i] = readHorizontalData(pluginSourceVarId, targetGrid, zPos, time,
-                        dataSource);
+                        dataSource, forPlotting);
                 pluginSourceMetadata[i] = getVariableMetadata(pluginSourceVarId);
             }
 
@@ -496,6 +633,9 @@ public abstract class GriddedDataset extends AbstractDataset {
      *            The time to read at
      * @param dataSource
      *            The {@link GridDataSource} to read data from
+     * @param forPlotting
+     *            Whether the data is only to be plotted, in which case it can
+     *            be read as floats, and from nearby points of the source grid
      * @return
      * @throws IOException
      *             If there is a problem opening the {@link GridDataSource}
@@ -504,8 +644,8 @@ public abstract class GriddedDataset extends AbstractDataset {
      * @throws VariableNotFoundException
      */
     private Array2D<Number> readUnderlyingHorizontalData(String varId, HorizontalGrid targetGrid,
-            Double zPos, DateTime time, GridDataSource dataSource) throws IOException,
-            DataReadingException, VariableNotFoundException {
+            Double zPos, DateTime time, GridDataSource dataSource, boolean forPlotting)
+            throws IOException, DataReadingException, VariableNotFoundException {
         /*
          * This cast will always work, because we only ever call this method for
          * non-derived variables - i.e. those whose metadata was provided in the
@@ -537,14 +677,35 @@ public abstract class GriddedDataset extends AbstractDataset {
         Domain2DMapper domainMapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
 
         /*
-         * Now use the appropriate DataReadingStrategy to read data
+         * If the map is of a lower resolution than the data, it can be read
+         * from the overviews. These may hold averaged values, so they are
+         * only used for plotting.
+         */
+        if (forPlotting && overviews != null) {
+            Array2D<Number> data = overviews.readMapData(metadata, tIndex, zIndex, targetGrid,
+                    domainMapper);
+            if (data != null) {
+                return data;
+            }
+        }
+
+        /*
+         * Now use the appropriate DataReadingStrategy to read data. Values
+         * which will be returned, rather than plotted, are kept exactly as
+         * they were read.
          */
-        Array2D<Number> data = getDataReadingStrategy().readMapData(dataSource, varId, tIndex,
-                zIndex, domainMapper);
+        Array2D<Number> data;
+        if (forPlotting) {
+            data = getDataReadingStrategy().readMapData(dataSource, varId, tIndex, zIndex,
+                    domainMapper, true);
+        } else {
+            data = getDataReadingStrategy().readPointData(dataSource, varId, tIndex, zIndex,
+                    domainMapper);
+        }
         return data;
     }
 
-    private static int getTimeIndex(DateTime time, TimeAxis tAxis, String varId) {
+    static int getTimeIndex(DateTime time, TimeAxis tAxis, String varId) {
         int tIndex = 0;
         if (tAxis != null) {
             if (time == null) {
@@ -559,7 +720,7 @@ public abstract class GriddedDataset extends AbstractDataset {
         return tIndex;
     }
 
-    private static int getVerticalIndex(Double zPos, VerticalAxis zAxis, String varId) {
+    static int getVerticalIndex(Double zPos, VerticalAxis zAxis, String varId) {
         int zIndex = 0;
         if (zAxis != null) {
             if (zPos == null) {
@@ -1094,18 +1255,19 @@ public abstract class GriddedDataset extends AbstractDataset {
         }
 
         /*
-         * Now read the data for each unique profile location.
+         * Find the grid indices of each unique profile location.
          */
-        Map<ProfileLocation, Array1D<Number>> ret = new HashMap<ProfileLocation, Array1D<Number>>();
+        int maxLocations = horizontalPositions.size() * times.size();
+        final List<ProfileLocation> locations = new ArrayList<>(maxLocations);
+        int[] xIndices = new int[maxLocations];
+        int[] yIndices = new int[maxLocations];
+        final int[] tIndices = new int[maxLocations];
         for (HorizontalPosition hPos : horizontalPositions) {
+            GridCoordinates2D hIndices = hDomain.findIndexOf(hPos);
+            if (hIndices == null) {
+                continue;
+            }
             for (DateTime time : times) {
-                ProfileLocation location = new ProfileLocation(hPos, time);
-
-                GridCoordinates2D hIndices = hDomain.findIndexOf(hPos);
-
-                int xIndex = hIndices.getX();
-                int yIndex = hIndices.getY();
-
                 /*
                  * We only want times which exactly match
                  */
@@ -1117,49 +1279,106 @@ public abstract class GriddedDataset extends AbstractDataset {
                     continue;
                 }
 
-                /*
-                 * Now read the z-limits
-                 */
-                if (variableZAxis == null) {
-                    throw new IllegalArgumentException("The variable " + varId
-                            + " has no vertical axis, so a vertical profile cannot be read.");
-                }
-                if (!variableZAxis.getVerticalCrs().equals(zAxis.getVerticalCrs())) {
-                    throw new IllegalArgumentException("The vertical CRS of the variable " + varId
-                            + " must match that of the domain you are trying to read.");
-                }
-                int zMin;
-                int zMax;
-                if (zAxis.isAscending()) {
-                    zMin = variableZAxis.findIndexOf(zAxis.getExtent().getLow());
-                    zMax = variableZAxis.findIndexOf(zAxis.getExtent().getHigh());
-                } else {
-                    zMin = variableZAxis.findIndexOf(zAxis.getExtent().getHigh());
-                    zMax = variableZAxis.findIndexOf(zAxis.getExtent().getLow());
-                }
+                int location = locations.size();
+                locations.add(new ProfileLocation(hPos, time));
+                xIndices[location] = hIndices.getX();
+                yIndices[location] = hIndices.getY();
+                tIndices[location] = tIndex;
+            }
+        }
 
-                /*
-                 * Read the data and move it to a 1D Array
-                 */
-                Array4D<Number> data4d = dataSource.read(varId, tIndex, tIndex, zMin, zMax, yIndex,
-                        yIndex, xIndex, xIndex);
-                int zSize = zAxis.size();
-                Array1D<Number> data = new ValuesArray1D(zSize);
-
-                for (int i = 0; i < zSize; i++) {
-                    Double zVal = zAxis.getCoordinateValue(i);
-                    int zIndex = variableZAxis.findIndexOf(zVal);
-                    if (zIndex < 0) {
-                        throw new IllegalArgumentException("The z-axis for the variable " + varId
-                                + " does not contain the position " + zVal
-                                + " which was requested.");
-                    }
-                    data.set(data4d.get(new int[] { 0, zIndex - zMin, 0, 0 }), new int[] { i });
-                }
+        final Map<ProfileLocation, Array1D<Number>> ret = new HashMap<ProfileLocation, Array1D<Number>>();
+        if (locations.isEmpty()) {
+            return ret;
+        }
+
+        /*
+         * Now find the z-limits
+         */
+        if (variableZAxis == null) {
+            throw new IllegalArgumentException("The variable " + varId
+                    + " has no vertical axis, so a vertical profile cannot be read.");
+        }
+        if (!variableZAxis.getVerticalCrs().equals(zAxis.getVerticalCrs())) {
+            throw new IllegalArgumentException("The vertical CRS of the variable " + varId
+                    + " must match that of the domain you are trying to read.");
+        }
+        int zMin;
+        int zMax;
+        if (zAxis.isAscending()) {
+            zMin = variableZAxis.findIndexOf(zAxis.getExtent().getLow());
+            zMax = variableZAxis.findIndexOf(zAxis.getExtent().getHigh());
+        } else {
+            zMin = variableZAxis.findIndexOf(zAxis.getExtent().getHigh());
+            zMax = variableZAxis.findIndexOf(zAxis.getExtent().getLow());
+        }
+
+        /*
+         * Find where each requested z-value will be in the data we read
+         */
+        final int zSize = zAxis.size();
+        final int[] zOffsets = new int[zSize];
+        for (int i = 0; i < zSize; i++) {
+            Double zVal = zAxis.getCoordinateValue(i);
+            int zIndex = variableZAxis.findIndexOf(zVal);
+            if (zIndex < 0) {
+                throw new IllegalArgumentException("The z-axis for the variable " + varId
+                        + " does not contain the position " + zVal + " which was requested.");
+            }
+            zOffsets[i] = zIndex - zMin;
+        }
 
-                ret.put(location, data);
+        /*
+         * Split the requested times into runs of t-indices to read together.
+         * Reading the unrequested t-indices between two requested ones is
+         * wasted effort, so we start a new run wherever the gap between them
+         * is larger than the number of t-indices already in the current run.
+         */
+        int[] distinctTIndices = Arrays.copyOf(tIndices, locations.size());
+        Arrays.sort(distinctTIndices);
+        List<int[]> tRuns = new ArrayList<>();
+        int runStart = distinctTIndices[0];
+        int runEnd = runStart;
+        for (int tIndex : distinctTIndices) {
+            if (tIndex - runEnd - 1 > runEnd - runStart + 1) {
+                tRuns.add(new int[] { runStart, runEnd });
+                runStart = tIndex;
+            }
+            runEnd = tIndex;
+        }
+        tRuns.add(new int[] { runStart, runEnd });
 
+        /*
+         * Read the data for each run and move each profile to a 1D Array
+         */
+        for (int[] tRun : tRuns) {
+            final int tOrigin = tRun[0];
+            int nInRun = 0;
+            final int[] runLocations = new int[locations.size()];
+            int[] runXIndices = new int[locations.size()];
+            int[] runYIndices = new int[locations.size()];
+            for (int location = 0; location < locations.size(); location++) {
+                if (tIndices[location] >= tRun[0] && tIndices[location] <= tRun[1]) {
+                    runLocations[nInRun] = location;
+                    runXIndices[nInRun] = xIndices[location];
+                    runYIndices[nInRun] = yIndices[location];
+                    nInRun++;
+                }
             }
+            readHyperslabs(varId, tRun[0], tRun[1], zMin, zMax,
+                    Arrays.copyOf(runXIndices, nInRun), Arrays.copyOf(runYIndices, nInRun),
+                    dataSource, new HyperslabVisitor() {
+                        @Override
+                        public void visit(int point, Array4D<Number> data, int y, int x) {
+                            int location = runLocations[point];
+                            int t = tIndices[location] - tOrigin;
+                            Array1D<Number> values = new ValuesArray1D(zSize);
+                            for (int i = 0; i < zSize; i++) {
+                                values.set(data.get(t, zOffsets[i], y, x), i);
+                            }
+                            ret.put(locations.get(location), values);
+                        }
+                    });
         }
 
         return ret;
@@ -1698,22 +1917,21 @@ public abstract class GriddedDataset extends AbstractDataset {
         }
 
         /*
-         * Now read the data for each unique profile location.
+         * Find the grid indices of each unique point series location.
          */
-        Map<PointSeriesLocation, Array1D<Number>> ret = new HashMap<PointSeriesLocation, Array1D<Number>>();
+        int maxLocations = horizontalPositions.size() * zVals.size();
+        final List<PointSeriesLocation> locations = new ArrayList<>(maxLocations);
+        int[] xIndices = new int[maxLocations];
+        int[] yIndices = new int[maxLocations];
+        final int[] zIndices = new int[maxLocations];
+        int zMin = Integer.MAX_VALUE;
+        int zMax = -1;
         for (HorizontalPosition hPos : horizontalPositions) {
+            GridCoordinates2D hIndices = hDomain.findIndexOf(hPos);
+            if (hIndices == null) {
+                continue;
+            }
             for (Double zVal : zVals) {
-                VerticalPosition zPos = null;
-                if (zVal != null) {
-                    zPos = new VerticalPosition(zVal, zAxis.getVerticalCrs());
-                }
-                PointSeriesLocation location = new PointSeriesLocation(hPos, zPos);
-
-                GridCoordinates2D hIndices = hDomain.findIndexOf(hPos);
-
-                int xIndex = hIndices.getX();
-                int yIndex = hIndices.getY();
-
                 /*
                  * We only want co-ordinate values which match exactly
                  */
@@ -1725,47 +1943,204 @@ public abstract class GriddedDataset extends AbstractDataset {
                     continue;
                 }
 
-                /*
-                 * Now read the t-limits
-                 */
-                if (variableTAxis == null) {
-                    throw new IllegalArgumentException("The variable " + varId
-                            + " has no time axis, so a timeseries cannot be read.");
-                }
-                if (!variableTAxis.getChronology().equals(tAxis.getChronology())) {
-                    throw new IllegalArgumentException("The Chronology of the variable " + varId
-                            + " must match that of the domain you are trying to read.");
+                VerticalPosition zPos = null;
+                if (zVal != null) {
+                    zPos = new VerticalPosition(zVal, zAxis.getVerticalCrs());
                 }
-                int tMin = variableTAxis.findIndexOf(tAxis.getExtent().getLow());
-                int tMax = variableTAxis.findIndexOf(tAxis.getExtent().getHigh());
+                int location = locations.size();
+                locations.add(new PointSeriesLocation(hPos, zPos));
+                xIndices[location] = hIndices.getX();
+                yIndices[location] = hIndices.getY();
+                zIndices[location] = zIndex;
+                zMin = Math.min(zMin, zIndex);
+                zMax = Math.max(zMax, zIndex);
+            }
+        }
 
-                /*
-                 * Read the data and move it to a 1D Array
-                 */
-                Array4D<Number> data4d = dataSource.read(varId, tMin, tMax, zIndex, zIndex, yIndex,
-                        yIndex, xIndex, xIndex);
-                int tSize = tAxis.size();
-                Array1D<Number> data = new ValuesArray1D(tSize);
-
-                for (int i = 0; i < tSize; i++) {
-                    DateTime time = tAxis.getCoordinateValue(i);
-                    int tIndex = variableTAxis.findIndexOf(time);
-                    if (tIndex < 0) {
-                        throw new IllegalArgumentException("The time-axis for the variable "
-                                + varId + " does not contain the time " + time
-                                + " which was requested.");
-                    }
-                    data.set(data4d.get(new int[] { tIndex - tMin, 0, 0, 0 }), new int[] { i });
-                }
+        final Map<PointSeriesLocation, Array1D<Number>> ret = new HashMap<PointSeriesLocation, Array1D<Number>>();
+        if (locations.isEmpty()) {
+            return ret;
+        }
 
-                ret.put(location, data);
+        /*
+         * Now find the t-limits
+         */
+        if (variableTAxis == null) {
+            throw new IllegalArgumentException("The variable " + varId
+                    + " has no time axis, so a timeseries cannot be read.");
+        }
+        if (!variableTAxis.getChronology().equals(tAxis.getChronology())) {
+            throw new IllegalArgumentException("The Chronology of the variable " + varId
+                    + " must match that of the domain you are trying to read.");
+        }
+        int tMin = variableTAxis.findIndexOf(tAxis.getExtent().getLow());
+        int tMax = variableTAxis.findIndexOf(tAxis.getExtent().getHigh());
 
+        /*
+         * Find where each requested time will be in the data we read
+         */
+        final int tSize = tAxis.size();
+        final int[] tOffsets = new int[tSize];
+        for (int i = 0; i < tSize; i++) {
+            DateTime time = tAxis.getCoordinateValue(i);
+            int tIndex = variableTAxis.findIndexOf(time);
+            if (tIndex < 0) {
+                throw new IllegalArgumentException("The time-axis for the variable " + varId
+                        + " does not contain the time " + time + " which was requested.");
             }
+            tOffsets[i] = tIndex - tMin;
         }
 
+        /*
+         * Read the data and move each timeseries to a 1D Array
+         */
+        final int zOrigin = zMin;
+        readHyperslabs(varId, tMin, tMax, zMin, zMax, Arrays.copyOf(xIndices, locations.size()),
+                Arrays.copyOf(yIndices, locations.size()), dataSource, new HyperslabVisitor() {
+                    @Override
+                    public void visit(int location, Array4D<Number> data, int y, int x) {
+                        int z = zIndices[location] - zOrigin;
+                        Array1D<Number> values = new ValuesArray1D(tSize);
+                        for (int i = 0; i < tSize; i++) {
+                            values.set(data.get(tOffsets[i], z, y, x), i);
+                        }
+                        ret.put(locations.get(location), values);
+                    }
+                });
+
         return ret;
     }
 
+    /**
+     * Receives data read by
+     * {@link GriddedDataset#readHyperslabs(String, int, int, int, int, int[], int[], GridDataSource, HyperslabVisitor)}
+     */
+    private interface HyperslabVisitor {
+        /**
+         * Called once for each requested horizontal grid point
+         * 
+         * @param point
+         *            The index of the point in the arrays of x- and y-indices
+         * @param data
+         *            A hyperslab of data containing the point, covering the
+         *            full requested ranges of t- and z-indices
+         * @param y
+         *            The y-index of the point within the hyperslab
+         * @param x
+         *            The x-index of the point within the hyperslab
+         */
+        public void visit(int point, Array4D<Number> data, int y, int x);
+    }
+
+    /**
+     * Reads data at a number of horizontal grid points over a range of t- and
+     * z-indices. Rather than reading each point separately, the bounding box
+     * of all of the points is read as a single 4D hyperslab. If that would
+     * contain more than {@link #setMaxHyperslabSize(long)} values, the
+     * bounding box is split into tiles of rows (or of parts of rows), and only
+     * those tiles which contain at least one of the points are read, one at a
+     * time.
+     * 
+     * @param varId
+     *            The ID of the variable to read
+     * @param tMin
+     *            The first t-index to read
+     * @param tMax
+     *            The last t-index to read
+     * @param zMin
+     *            The first z-index to read
+     * @param zMax
+     *            The last z-index to read
+     * @param xIndices
+     *            The x-indices of the points to read
+     * @param yIndices
+     *            The y-indices of the points to read
+     * @param dataSource
+     *            The {@link GridDataSource} to read from
+     * @param visitor
+     *            The {@link HyperslabVisitor} to pass each point to, along with
+     *            the data which contains it
+     */
+    private static void readHyperslabs(String varId, int tMin, int tMax, int zMin, int zMax,
+            int[] xIndices, int[] yIndices, GridDataSource dataSource, HyperslabVisitor visitor)
+            throws IOException, DataReadingException {
+        if (xIndices.length == 0) {
+            return;
+        }
+        int xMin = Integer.MAX_VALUE;
+        int xMax = -1;
+        int yMin = Integer.MAX_VALUE;
+        int yMax = -1;
+        for (int i = 0; i < xIndices.length; i++) {
+            xMin = Math.min(xMin, xIndices[i]);
+            xMax = Math.max(xMax, xIndices[i]);
+            yMin = Math.min(yMin, yIndices[i]);
+            yMax = Math.max(yMax, yIndices[i]);
+        }
+
+        /*
+         * Choose the size of the tiles to read
+         */
+        long tzSize = (long) (tMax - tMin + 1) * (zMax - zMin + 1);
+        int width = xMax - xMin + 1;
+        int height = yMax - yMin + 1;
+        int tileWidth = width;
+        int tileHeight = height;
+        if (tzSize * width * height > maxHyperslabSize) {
+            long rows = maxHyperslabSize / (tzSize * width);
+            if (rows >= 1) {
+                tileHeight = (int) rows;
+            } else {
+                /*
+                 * A single row is too large. We can't split the t- or z-ranges
+                 * because every point needs all of them, so a single point is
+                 * the smallest possible tile
+                 */
+                tileHeight = 1;
+                tileWidth = (int) Math.max(1, maxHyperslabSize / tzSize);
+            }
+        }
+        int nXTiles = (width + tileWidth - 1) / tileWidth;
+
+        /*
+         * Group the points by tile
+         */
+        Map<Integer, List<Integer>> tiles = new LinkedHashMap<>();
+        for (int i = 0; i < xIndices.length; i++) {
+            int tile = ((yIndices[i] - yMin) / tileHeight) * nXTiles + (xIndices[i] - xMin)
+                    / tileWidth;
+            List<Integer> pointsInTile = tiles.get(tile);
+            if (pointsInTile == null) {
+                pointsInTile = new ArrayList<>();
+                tiles.put(tile, pointsInTile);
+            }
+            pointsInTile.add(i);
+        }
+        log.debug("Reading {} points of {} in {} hyperslab(s)", new Object[] { xIndices.length,
+                varId, tiles.size() });
+
+        /*
+         * Now read the bounding box of the points in each tile
+         */
+        for (List<Integer> pointsInTile : tiles.values()) {
+            int tileXMin = Integer.MAX_VALUE;
+            int tileXMax = -1;
+            int tileYMin = Integer.MAX_VALUE;
+            int tileYMax = -1;
+            for (int point : pointsInTile) {
+                tileXMin = Math.min(tileXMin, xIndices[point]);
+                tileXMax = Math.max(tileXMax, xIndices[point]);
+                tileYMin = Math.min(tileYMin, yIndices[point]);
+                tileYMax = Math.max(tileYMax, yIndices[point]);
+            }
+            Array4D<Number> data = dataSource.read(varId, tMin, tMax, zMin, zMax, tileYMin,
+                    tileYMax, tileXMin, tileXMax);
+            for (int point : pointsInTile) {
+                visitor.visit(point, data, yIndices[point] - tileYMin, xIndices[point] - tileXMin);
+            }
+        }
+    }
+
     /**
      * Extracts a {@link PointCollectionFeature} containing data from the given
      * variable IDs
@@ -1944,17 +2319,7 @@ public abstract class GriddedDataset extends AbstractDataset {
                 }
 
                 values.put(derivedVarId, plugin.generateArray1D(derivedVarId,
-                        new Array1D<HorizontalPosition>(positions.size()) {
-                            @Override
-                            public HorizontalPosition get(int... coords) {
-                                return positions.get(coords[0]).getHorizontalPosition();
-                            }
-
-                            @Override
-                            public void set(HorizontalPosition value, int... coords) {
-                                throw new UnsupportedOperationException("This array is immutable");
-                            }
-                        }, pluginSourceData));
+                        getHorizontalPositions(positions), pluginSourceData));
                 parameters.put(derivedVarId, getVariableMetadata(derivedVarId).getParameter());
             }
 
@@ -1986,7 +2351,10 @@ public abstract class GriddedDataset extends AbstractDataset {
         GridDataSource gridDataSource = null;
         try {
             gridDataSource = openGridDataSource();
-            return readPointData(variableId, position, zVal, time, gridDataSource);
+            GeoPosition geoPosition = new GeoPosition(position, zVal == null ? null
+                    : new VerticalPosition(zVal, null), time);
+            return readMultiplePointData(variableId, Collections.singletonList(geoPosition),
+                    gridDataSource).get(0);
         } catch (IOException e) {
             throw new DataReadingException("Problem reading data", e);
         } finally {
@@ -2000,73 +2368,138 @@ public abstract class GriddedDataset extends AbstractDataset {
         }
     }
 
+    /**
+     * Reads the values of a variable at a number of positions. Rather than
+     * reading each point individually, the grid indices of all positions are
+     * found first. The positions are then grouped by their time and depth
+     * indices, and each group is read using the {@link DataReadingStrategy} of
+     * this dataset, so that (for example) a transect crossing a few hundred
+     * grid cells results in a handful of reads rather than one read per point.
+     * 
+     * @param variableId
+     *            The ID of the variable to read. This may be a derived
+     *            variable.
+     * @param positions
+     *            The positions to read data at
+     * @param dataSource
+     *            The {@link GridDataSource} to read from
+     * @return An {@link Array1D} containing the values at each position, with
+     *         <code>null</code> values for positions outside of the domain
+     *         of the variable.
+     */
     private final Array1D<Number> readMultiplePointData(String variableId,
             List<GeoPosition> positions, GridDataSource dataSource) throws DataReadingException,
             VariableNotFoundException {
-        Array1D<Number> data = new ValuesArray1D(positions.size());
-        for (int i = 0; i < positions.size(); i++) {
-            GeoPosition position = positions.get(i);
-            Double z = null;
-            if (position.getVerticalPosition() != null) {
-                z = position.getVerticalPosition().getZ();
-            }
-            Number value = readPointData(variableId, position.getHorizontalPosition(), z,
-                    position.getTime(), dataSource);
-            data.set(value, i);
-        }
-        return data;
-    }
-
-    private Number readPointData(String variableId, HorizontalPosition position, Double zVal,
-            DateTime time, GridDataSource gridDataSource) throws DataReadingException,
-            VariableNotFoundException {
         VariablePlugin plugin = isDerivedVariable(variableId);
         if (plugin != null) {
             /*
              * We have a derived variable - read all of the required variables
-             * first.
+             * for all positions first. By recursing this method, we safely
+             * cover the cases where derived variables are derived from other
+             * derived variables
              */
             String[] baseVariables = plugin.usesVariables();
-            Number[] baseValues = new Number[baseVariables.length];
-
+            @SuppressWarnings("unchecked")
+            Array1D<Number>[] baseValues = new Array1D[baseVariables.length];
             for (int i = 0; i < baseVariables.length; i++) {
-                /*
-                 * Read all of the required base variables. By recursing this
-                 * method, we safely cover the cases where derived variables are
-                 * derived from other derived variables
-                 */
-                baseValues[i] = readSinglePoint(baseVariables[i], position, zVal, time);
+                baseValues[i] = readMultiplePointData(baseVariables[i], positions, dataSource);
             }
+            return plugin.generateArray1D(variableId, getHorizontalPositions(positions),
+                    baseValues);
+        }
 
-            return plugin.getValue(variableId, position, baseValues);
-        } else {
-            try {
-                /*
-                 * We have a non-derived variable
-                 */
+        /*
+         * We have a non-derived variable
+         * 
+         * This cast is OK, since this is only called for non-derived variables
+         */
+        GridVariableMetadata variableMetadata = (GridVariableMetadata) getVariableMetadata(variableId);
+        HorizontalGrid horizontalDomain = variableMetadata.getHorizontalDomain();
+        VerticalAxis verticalDomain = variableMetadata.getVerticalDomain();
+        TimeAxis temporalDomain = variableMetadata.getTemporalDomain();
+
+        /*
+         * Find the grid indices of all of the positions, grouping them by
+         * their time and vertical indices
+         */
+        int[] xIndices = new int[positions.size()];
+        int[] yIndices = new int[positions.size()];
+        Map<Long, List<Integer>> tzGroups = new LinkedHashMap<>();
+        for (int i = 0; i < positions.size(); i++) {
+            GeoPosition position = positions.get(i);
+            GridCoordinates2D xy = horizontalDomain.findIndexOf(position.getHorizontalPosition());
+            if (xy == null) {
                 /*
-                 * This cast is OK, since this is only called for non-derived
-                 * variables
+                 * No data for this point - the value will remain null
                  */
-                GridVariableMetadata variableMetadata = (GridVariableMetadata) getVariableMetadata(variableId);
-                GridCoordinates2D xy = variableMetadata.getHorizontalDomain().findIndexOf(position);
-                if (xy == null) {
-                    return null;
-                }
-
-                VerticalAxis verticalDomain = variableMetadata.getVerticalDomain();
-                int z = getVerticalIndex(zVal, verticalDomain, variableId);
+                continue;
+            }
+            xIndices[i] = xy.getX();
+            yIndices[i] = xy.getY();
 
-                TimeAxis temporalDomain = variableMetadata.getTemporalDomain();
-                int t = getTimeIndex(time, temporalDomain, variableId);
+            Double zVal = null;
+            if (position.getVerticalPosition() != null) {
+                zVal = position.getVerticalPosition().getZ();
+            }
+            int z = getVerticalIndex(zVal, verticalDomain, variableId);
+            int t = getTimeIndex(position.getTime(), temporalDomain, variableId);
+
+            Long tzKey = ((long) t << 32) | z;
+            List<Integer> group = tzGroups.get(tzKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                tzGroups.put(tzKey, group);
+            }
+            group.add(i);
+        }
 
-                Array4D<Number> readData = gridDataSource.read(variableId, t, t, z, z, xy.getY(),
-                        xy.getY(), xy.getX(), xy.getX());
-                return readData.get(0, 0, 0, 0);
-            } catch (IOException e) {
-                throw new DataReadingException("Problem reading data", e);
+        /*
+         * Now read each group of points in one go, and put the values back in
+         * their original positions
+         */
+        Array1D<Number> data = new ValuesArray1D(positions.size());
+        try {
+            for (Entry<Long, List<Integer>> tzGroup : tzGroups.entrySet()) {
+                int t = (int) (tzGroup.getKey() >>> 32);
+                int z = (int) (tzGroup.getKey() & 0xFFFFFFFFL);
+                List<Integer> group = tzGroup.getValue();
+
+                int[] groupXIndices = new int[group.size()];
+                int[] groupYIndices = new int[group.size()];
+                for (int i = 0; i < group.size(); i++) {
+                    groupXIndices[i] = xIndices[group.get(i)];
+                    groupYIndices[i] = yIndices[group.get(i)];
+                }
+                Domain2DMapper domainMapper = Domain2DMapper.forPoints(horizontalDomain,
+                        groupXIndices, groupYIndices);
+                Array2D<Number> groupValues = getDataReadingStrategy().readPointData(dataSource,
+                        variableId, t, z, domainMapper);
+                for (int i = 0; i < group.size(); i++) {
+                    data.set(groupValues.get(0, i), group.get(i));
+                }
             }
+        } catch (IOException e) {
+            throw new DataReadingException("Problem reading data", e);
         }
+        return data;
+    }
+
+    /*
+     * Gets a view of the horizontal components of a list of GeoPositions
+     */
+    private static Array1D<HorizontalPosition> getHorizontalPositions(
+            final List<GeoPosition> positions) {
+        return new Array1D<HorizontalPosition>(positions.size()) {
+            @Override
+            public HorizontalPosition get(int... coords) {
+                return positions.get(coords[0]).getHorizontalPosition();
+            }
+
+            @Override
+            public void set(HorizontalPosition value, int... coords) {
+                throw new UnsupportedOperationException("This array is immutable");
+            }
+        };
     }
 
     @Override
@@ -2077,4 +2510,15 @@ public abstract class GriddedDataset extends AbstractDataset {
     protected abstract GridDataSource openGridDataSource() throws IOException;
 
     protected abstract DataReadingStrategy getDataReadingStrategy();
+
+    /**
+     * @return Whether the data of this dataset are read from a remote server
+     *         (e.g. OPeNDAP). Reads from remote datasets are not cached by the
+     *         {@link GridDataBlockCache}, since padding them out to whole
+     *         blocks would multiply the amount of data transferred. By
+     *         default, datasets are assumed to be local.
+     */
+    protected boolean isRemote() {
+        return false;
+    }
 }
@@ -0,0 +1,862 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGridImpl;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularAxis;
+import uk.ac.rdg.resc.edal.grid.RegularAxisImpl;
+import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.grid.VerticalAxis;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+import uk.ac.rdg.resc.edal.util.GISUtils;
+
+/**
+ * A store of reduced-resolution versions ("overviews") of the horizontal
+ * slices of the variables in a {@link GriddedDataset}.
+ * 
+ * When a map covering a large part of a high-resolution grid is requested,
+ * only a small fraction of the grid points are actually used, but reading
+ * them still involves touching the full-resolution data. An
+ * {@link OverviewPyramid} holds 2x, 4x, 8x... reduced versions of each
+ * (variable, time, depth) slice, and a {@link GriddedDataset} with a pyramid
+ * will read from the coarsest level which still has at least the resolution
+ * of the requested map.
+ * 
+ * Overviews are generated in a background thread, either the first time a
+ * reduced-resolution map of a slice is requested (that request is served from
+ * the full-resolution data) or ahead of time using {@link #precompute()}. They
+ * are stored as single-precision floats in memory-mapped files in the
+ * "overviews" subdirectory of the working directory set with
+ * {@link DatasetFactory#setWorkingDirectory(File)}, so they persist between
+ * restarts. If no working directory has been set, overviews are not used.
+ * Overviews of data which has been modified since they were generated (as
+ * detected by {@link GriddedDataset#getDataFingerprint(DateTime)})
+ * are not used, and are regenerated.
+ * 
+ * The total size of all overview files is limited (see
+ * {@link #setDiskBudget(long)}), and the least recently used files are deleted
+ * when this is exceeded.
+ * 
+ * Overviews are only generated for variables on {@link RectilinearGrid}s.
+ */
+public class OverviewPyramid {
+    private static final Logger log = LoggerFactory.getLogger(OverviewPyramid.class);
+    private static final String STORE_DIRECTORY = "overviews";
+    private static final String FILE_SUFFIX = ".ovr";
+    private static final int MAX_MAPPED_SLICES = 64;
+
+    /*
+     * The maximum number of values to read in a single operation when
+     * generating overviews
+     */
+    private static final int MAX_BAND_SIZE = 1024 * 1024;
+
+    /**
+     * The method used to reduce the resolution of the data
+     */
+    public enum Method {
+        /**
+         * Each point of an overview level is a single point of the original
+         * data. This is fast to generate and gives the same values as reading
+         * the original data at the points of the coarser grid.
+         */
+        DECIMATE,
+        /**
+         * Each point of an overview level is the mean of the non-missing
+         * values in the corresponding block of the original data
+         */
+        AVERAGE
+    }
+
+    /*
+     * The maximum total size of all overview files
+     */
+    private static long diskBudget = 1024L * 1024 * 1024;
+
+    /*
+     * All overview files in the store, in order of last access, with their
+     * sizes. Access to this, storeSize and indexedDirectory is synchronised on
+     * storeIndex
+     */
+    private static final LinkedHashMap<File, Long> storeIndex = new LinkedHashMap<>(16, 0.75f,
+            true);
+    private static long storeSize = 0;
+    private static File indexedDirectory = null;
+
+    /*
+     * Memory maps of recently used overview files
+     */
+    private static final Map<File, FloatBuffer> mappedSlices = Collections
+            .synchronizedMap(new LinkedHashMap<File, FloatBuffer>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Entry<File, FloatBuffer> eldest) {
+                    return size() > MAX_MAPPED_SLICES;
+                }
+            });
+
+    /*
+     * Overviews are generated one at a time, in the background
+     */
+    private static final ExecutorService builder = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "overview-builder");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+    private static final Set<File> pendingBuilds = Collections
+            .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    private final GriddedDataset dataset;
+    private final int levels;
+    private final Method method;
+    /*
+     * Maps variable IDs to the grids of each overview level
+     */
+    private final Map<String, RectilinearGrid[]> overviewGrids = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link OverviewPyramid}. This will not be used until it is
+     * set on the dataset with
+     * {@link GriddedDataset#setOverviewPyramid(OverviewPyramid)}
+     * 
+     * @param dataset
+     *            The {@link GriddedDataset} to generate overviews of
+     * @param levels
+     *            The number of overview levels. Level n is reduced by a factor
+     *            of 2<sup>n</sup> in each direction.
+     * @param method
+     *            The {@link Method} used to reduce the resolution of the data
+     */
+    public OverviewPyramid(GriddedDataset dataset, int levels, Method method) {
+        if (levels < 1 || levels > 16) {
+            throw new IllegalArgumentException("Number of overview levels must be between 1 and 16");
+        }
+        this.dataset = dataset;
+        this.levels = levels;
+        this.method = method;
+    }
+
+    /**
+     * Sets the maximum amount of disk space which may be used by the
+     * overviews of all datasets. When this is exceeded, the least recently
+     * used overviews are deleted.
+     * 
+     * @param sizeMB
+     *            The maximum size, in megabytes. If this is zero or negative,
+     *            no overviews will be generated.
+     */
+    public static void setDiskBudget(long sizeMB) {
+        synchronized (storeIndex) {
+            diskBudget = Math.max(0, sizeMB) * 1024 * 1024;
+            evict(null);
+        }
+    }
+
+    /**
+     * @return The total size of all overviews currently stored, in bytes
+     */
+    public static long getStoreSize() {
+        synchronized (storeIndex) {
+            return storeSize;
+        }
+    }
+
+    /**
+     * @return The number of overview levels in this pyramid
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return The {@link Method} used to generate overviews
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Schedules the generation of overviews for every time and depth of all of
+     * the variables in the dataset which do not already have them. This
+     * returns immediately - the overviews are generated in the background.
+     */
+    public void precompute() {
+        if (getDatasetDirectory() == null) {
+            log.warn("No working directory has been set, so overviews of {} cannot be generated",
+                    dataset.getId());
+            return;
+        }
+        for (String varId : dataset.getVariableIds()) {
+            GridVariableMetadata metadata = getOverviewableMetadata(varId);
+            if (metadata == null) {
+                continue;
+            }
+            TimeAxis tAxis = metadata.getTemporalDomain();
+            VerticalAxis zAxis = metadata.getVerticalDomain();
+            int tSize = tAxis == null ? 1 : tAxis.size();
+            int zSize = zAxis == null ? 1 : zAxis.size();
+            for (int t = 0; t < tSize; t++) {
+                for (int z = 0; z < zSize; z++) {
+                    File sliceFile = getSliceFile(metadata, t, z);
+                    if (!sliceFile.exists()) {
+                        scheduleBuild(metadata, t, z, sliceFile);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a map of data from the overviews, if a suitable overview exists
+     * 
+     * @param metadata
+     *            The {@link GridVariableMetadata} of the variable to read
+     * @param tIndex
+     *            The time index to read
+     * @param zIndex
+     *            The vertical index to read
+     * @param targetGrid
+     *            The {@link HorizontalGrid} to read data onto
+     * @param domainMapper
+     *            The {@link Domain2DMapper} which maps the full-resolution
+     *            grid onto the target grid. This is used to decide which
+     *            overview level to use.
+     * @return The data, or <code>null</code> if the full-resolution data
+     *         should be read instead
+     */
+    Array2D<Number> readMapData(GridVariableMetadata metadata, int tIndex, int zIndex,
+            HorizontalGrid targetGrid, Domain2DMapper domainMapper) throws IOException,
+            DataReadingException {
+        if (!(metadata.getHorizontalDomain() instanceof RectilinearGrid)) {
+            return null;
+        }
+        int level = chooseLevel(domainMapper, levels);
+        if (level == 0) {
+            return null;
+        }
+        File sliceFile = getSliceFile(metadata, tIndex, zIndex);
+        if (sliceFile == null) {
+            return null;
+        }
+        RectilinearGrid sourceGrid = (RectilinearGrid) metadata.getHorizontalDomain();
+        int[] offsets = getLevelOffsets(sourceGrid.getXSize(), sourceGrid.getYSize());
+        FloatBuffer slice = mapSlice(sliceFile, offsets[levels]);
+        if (slice == null) {
+            scheduleBuild(metadata, tIndex, zIndex, sliceFile);
+            return null;
+        }
+
+        RectilinearGrid overviewGrid = getOverviewGrids(metadata)[level - 1];
+        log.debug("Reading {} from overview level {}", metadata.getId(), level);
+        return DataReadingStrategy.SCANLINE.readMapData(new OverviewDataSource(slice,
+                offsets[level - 1], overviewGrid.getXSize()), metadata.getId(), 0, 0,
+                Domain2DMapper.forGrid(overviewGrid, targetGrid));
+    }
+
+    /**
+     * Chooses the overview level to read a map from.
+     * 
+     * The spacing of the source grid points used by the map is estimated as
+     * the median distance (in grid points) between neighbouring columns and
+     * rows which it uses. The median is used so that maps which cross the
+     * edges of a global grid are handled correctly. The level chosen is the
+     * coarsest one whose spacing is no larger than this, so that the map is
+     * never read at a lower resolution than it is displayed at.
+     * 
+     * @param domainMapper
+     *            The {@link Domain2DMapper} which maps the full-resolution
+     *            grid onto the target grid
+     * @param maxLevel
+     *            The maximum level available
+     * @return The level to read from. 0 indicates the full-resolution data.
+     */
+    static int chooseLevel(Domain2DMapper domainMapper, int maxLevel) {
+        if (domainMapper.isEmpty()) {
+            return 0;
+        }
+        List<Integer> iGaps = new ArrayList<>();
+        List<Integer> jGaps = new ArrayList<>();
+        int lastJ = -1;
+        int numMappings = domainMapper.getNumMappings();
+        for (int m = 0; m < numMappings; m = domainMapper.getScanlineEnd(m)) {
+            int j = domainMapper.getSourceGridJIndex(m);
+            if (lastJ >= 0) {
+                jGaps.add(j - lastJ);
+            }
+            lastJ = j;
+            int lastI = -1;
+            int scanlineEnd = domainMapper.getScanlineEnd(m);
+            for (int n = m; n < scanlineEnd; n = domainMapper.getSourcePointEnd(n)) {
+                int i = domainMapper.getSourceGridIIndex(n);
+                if (lastI >= 0) {
+                    iGaps.add(i - lastI);
+                }
+                lastI = i;
+            }
+        }
+        if (iGaps.isEmpty() || jGaps.isEmpty()) {
+            /*
+             * A single row or column - no point in using an overview
+             */
+            return 0;
+        }
+        int spacing = Math.min(median(iGaps), median(jGaps));
+        int level = 0;
+        while (level < maxLevel && (1 << (level + 1)) <= spacing) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int median(List<Integer> values) {
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+
+    /*
+     * Gets the metadata of a variable if overviews can be generated for it, or
+     * null otherwise
+     */
+    private GridVariableMetadata getOverviewableMetadata(String varId) {
+        if (dataset.isDerivedVariable(varId) != null) {
+            return null;
+        }
+        try {
+            VariableMetadata metadata = dataset.getVariableMetadata(varId);
+            if (metadata instanceof GridVariableMetadata && metadata.isScalar()
+                    && ((GridVariableMetadata) metadata).getHorizontalDomain() instanceof RectilinearGrid) {
+                return (GridVariableMetadata) metadata;
+            }
+        } catch (VariableNotFoundException e) {
+            /*
+             * Can't happen - we've got the ID from the dataset
+             */
+        }
+        return null;
+    }
+
+    /**
+     * Gets the offsets (in floats) of each level within an overview file. The
+     * final element is the total size of the file.
+     */
+    private int[] getLevelOffsets(int xSize, int ySize) {
+        int[] offsets = new int[levels + 1];
+        long offset = 0;
+        for (int level = 1; level <= levels; level++) {
+            offsets[level - 1] = (int) offset;
+            int factor = 1 << level;
+            offset += (long) ((xSize + factor - 1) / factor) * ((ySize + factor - 1) / factor);
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Grid is too large to generate overviews for");
+        }
+        offsets[levels] = (int) offset;
+        return offsets;
+    }
+
+    /*
+     * Gets the grids of each overview level of a variable
+     */
+    private RectilinearGrid[] getOverviewGrids(GridVariableMetadata metadata) {
+        RectilinearGrid[] grids = overviewGrids.get(metadata.getId());
+        if (grids == null) {
+            RectilinearGrid sourceGrid = (RectilinearGrid) metadata.getHorizontalDomain();
+            boolean isLongitude = GISUtils.isWgs84LonLat(sourceGrid.getCoordinateReferenceSystem());
+            grids = new RectilinearGrid[levels];
+            for (int level = 1; level <= levels; level++) {
+                int factor = 1 << level;
+                grids[level - 1] = new RectilinearGridImpl(getOverviewAxis(
+                        sourceGrid.getXAxis(), factor, isLongitude), getOverviewAxis(
+                        sourceGrid.getYAxis(), factor, false),
+                        sourceGrid.getCoordinateReferenceSystem());
+            }
+            overviewGrids.put(metadata.getId(), grids);
+        }
+        return grids;
+    }
+
+    /*
+     * Gets the axis of an overview level. For decimated data, this contains
+     * every nth point of the original axis. For averaged data, each point is
+     * the mean of the n points of the original axis which it represents.
+     */
+    private ReferenceableAxis<Double> getOverviewAxis(ReferenceableAxis<Double> axis, int factor,
+            boolean isLongitude) {
+        int size = (axis.size() + factor - 1) / factor;
+        if (axis instanceof RegularAxis && (method == Method.DECIMATE || axis.size() % factor == 0)) {
+            double spacing = ((RegularAxis) axis).getCoordinateSpacing();
+            double firstValue = axis.getCoordinateValue(0);
+            if (method == Method.AVERAGE) {
+                firstValue += spacing * (factor - 1) / 2.0;
+            }
+            return new RegularAxisImpl(axis.getName(), firstValue, spacing * factor, size,
+                    isLongitude);
+        }
+        List<Double> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (method == Method.DECIMATE) {
+                values.add(axis.getCoordinateValue(i * factor));
+            } else {
+                int end = Math.min((i + 1) * factor, axis.size());
+                double sum = 0.0;
+                for (int j = i * factor; j < end; j++) {
+                    sum += axis.getCoordinateValue(j);
+                }
+                values.add(sum / (end - i * factor));
+            }
+        }
+        return new ReferenceableAxisImpl(axis.getName(), values, isLongitude);
+    }
+
+    /*
+     * Gets the directory in which to store the overviews of this dataset, or
+     * null if there is no working directory
+     */
+    private File getDatasetDirectory() {
+        File storeDirectory = getStoreDirectory();
+        if (storeDirectory == null) {
+            return null;
+        }
+        return new File(storeDirectory, toFilename(dataset.getId()));
+    }
+
+    /*
+     * Gets the file which holds the overviews of a single slice of data. The
+     * name includes the actual time and depth values, so that overviews remain
+     * valid if the axes of a dataset grow, and a fingerprint of the grid, the
+     * pyramid settings and the underlying data (see
+     * GriddedDataset.getDataFingerprint()), so that overviews are regenerated
+     * if any of these change. Overviews with an out-of-date name are no longer
+     * used, and are eventually evicted.
+     */
+    File getSliceFile(GridVariableMetadata metadata, int tIndex, int zIndex) {
+        File datasetDirectory = getDatasetDirectory();
+        if (datasetDirectory == null) {
+            return null;
+        }
+        TimeAxis tAxis = metadata.getTemporalDomain();
+        VerticalAxis zAxis = metadata.getVerticalDomain();
+        DateTime time = tAxis == null ? null : tAxis.getCoordinateValue(tIndex);
+        RectilinearGrid grid = (RectilinearGrid) metadata.getHorizontalDomain();
+        int fingerprint = Arrays.hashCode(new Object[] { grid.getXSize(), grid.getYSize(),
+                grid.getXAxis().getCoordinateValue(0),
+                grid.getXAxis().getCoordinateValue(grid.getXSize() - 1),
+                grid.getYAxis().getCoordinateValue(0),
+                grid.getYAxis().getCoordinateValue(grid.getYSize() - 1), levels, method.name(),
+                dataset.getDataFingerprint(time) });
+        String tKey = time == null ? "none" : Long.toString(time.getMillis());
+        String zKey = zAxis == null ? "none" : Long.toHexString(Double.doubleToLongBits(zAxis
+                .getCoordinateValue(zIndex)));
+        return new File(datasetDirectory, toFilename(metadata.getId()) + "-"
+                + Integer.toHexString(fingerprint) + "-" + tKey + "-" + zKey + FILE_SUFFIX);
+    }
+
+    /*
+     * Converts an ID to something which is safe to use as a filename. The hash
+     * of the original ID is appended to avoid collisions.
+     */
+    private static String toFilename(String id) {
+        return id.replaceAll("[^A-Za-z0-9_.]", "_") + "_" + Integer.toHexString(id.hashCode());
+    }
+
+    private void scheduleBuild(final GridVariableMetadata metadata, final int tIndex,
+            final int zIndex, final File sliceFile) {
+        synchronized (storeIndex) {
+            if (diskBudget <= 0) {
+                return;
+            }
+        }
+        if (!pendingBuilds.add(sliceFile)) {
+            return;
+        }
+        builder.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!sliceFile.exists()) {
+                        build(metadata, tIndex, zIndex, sliceFile);
+                    }
+                } catch (Exception e) {
+                    log.warn("Problem generating overviews of " + metadata.getId() + " in "
+                            + dataset.getId(), e);
+                } finally {
+                    pendingBuilds.remove(sliceFile);
+                }
+            }
+        });
+    }
+
+    /*
+     * Generates the overview file for a single slice of data. The data are
+     * read in bands of rows, and all levels are generated from a single pass
+     * through the data. Bands are at most the height of one point of the
+     * coarsest level, but are limited to MAX_BAND_SIZE values, so the points
+     * of coarser levels may span several bands. Their sums are accumulated
+     * until their last row has been read.
+     */
+    private void build(GridVariableMetadata metadata, int tIndex, int zIndex, File sliceFile)
+            throws IOException, DataReadingException {
+        RectilinearGrid grid = (RectilinearGrid) metadata.getHorizontalDomain();
+        String varId = metadata.getId();
+        int xSize = grid.getXSize();
+        int ySize = grid.getYSize();
+        int[] offsets = getLevelOffsets(xSize, ySize);
+        long fileSize = 4L * offsets[levels];
+        synchronized (storeIndex) {
+            if (fileSize > diskBudget) {
+                log.debug("Overviews of {} are larger than the disk budget", varId);
+                return;
+            }
+        }
+
+        File directory = sliceFile.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        long start = System.currentTimeMillis();
+        File tempFile = File.createTempFile("building", ".tmp", directory);
+        try {
+            GridDataSource dataSource = dataset.openGridDataSource();
+            try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+                    FileChannel channel = file.getChannel()) {
+                MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, fileSize);
+                FloatBuffer out = buffer.asFloatBuffer();
+                int bandHeight = Math.min(1 << levels,
+                        Integer.highestOneBit(Math.max(1, MAX_BAND_SIZE / xSize)));
+                double[][] sums = new double[levels + 1][];
+                int[][] counts = new int[levels + 1][];
+                for (int level = 1; level <= levels; level++) {
+                    int levelXSize = (xSize + (1 << level) - 1) >> level;
+                    sums[level] = new double[levelXSize];
+                    counts[level] = new int[levelXSize];
+                }
+                for (int y0 = 0; y0 < ySize; y0 += bandHeight) {
+                    int y1 = Math.min(y0 + bandHeight, ySize) - 1;
+                    Array4D<Number> band = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex,
+                            y0, y1, 0, xSize - 1);
+                    for (int level = 1; level <= levels; level++) {
+                        int factor = 1 << level;
+                        int levelXSize = sums[level].length;
+                        for (int row = y0 / factor; row * factor <= y1; row++) {
+                            int rowStart = row * factor;
+                            int rowEnd = Math.min(rowStart + factor, ySize);
+                            if (method == Method.DECIMATE) {
+                                if (rowStart >= y0) {
+                                    for (int col = 0; col < levelXSize; col++) {
+                                        out.put(offsets[level - 1] + row * levelXSize + col,
+                                                getValue(band, rowStart - y0, col * factor));
+                                    }
+                                }
+                                continue;
+                            }
+                            int yStart = Math.max(rowStart, y0) - y0;
+                            int yEnd = Math.min(rowEnd - 1, y1) - y0 + 1;
+                            for (int col = 0; col < levelXSize; col++) {
+                                int xStart = col * factor;
+                                addValues(band, yStart, yEnd, xStart,
+                                        Math.min(xStart + factor, xSize), sums[level],
+                                        counts[level], col);
+                            }
+                            if (rowEnd - 1 <= y1) {
+                                /*
+                                 * The last row of this point has been read
+                                 */
+                                for (int col = 0; col < levelXSize; col++) {
+                                    int count = counts[level][col];
+                                    out.put(offsets[level - 1] + row * levelXSize + col,
+                                            count == 0 ? Float.NaN
+                                                    : (float) (sums[level][col] / count));
+                                    sums[level][col] = 0.0;
+                                    counts[level][col] = 0;
+                                }
+                            }
+                        }
+                    }
+                }
+                buffer.force();
+            } finally {
+                dataSource.close();
+            }
+            if (!tempFile.renameTo(sliceFile)) {
+                throw new IOException("Cannot move overviews to " + sliceFile);
+            }
+        } finally {
+            tempFile.delete();
+        }
+        log.debug("Generated overviews of {} (t={}, z={}) in {}ms", new Object[] { varId, tIndex,
+                zIndex, System.currentTimeMillis() - start });
+
+        synchronized (storeIndex) {
+            if (storeIndex.put(sliceFile, fileSize) == null) {
+                storeSize += fileSize;
+            }
+            evict(sliceFile);
+        }
+    }
+
+    /*
+     * Gets a single value from the first t/z level of some data, using NaN for
+     * missing values
+     */
+    private static float getValue(Array4D<Number> data, int y, int x) {
+        if (data instanceof FloatArray4D) {
+            FloatArray4D floatData = (FloatArray4D) data;
+            return floatData.isMissing(0, 0, y, x) ? Float.NaN : floatData.getFloat(0, 0, y, x);
+        }
+        Number value = data.get(0, 0, y, x);
+        return value == null ? Float.NaN : value.floatValue();
+    }
+
+    /*
+     * Adds the non-missing values in a block of data to the sum and count of
+     * a point of an overview level
+     */
+    private static void addValues(Array4D<Number> data, int yStart, int yEnd, int xStart,
+            int xEnd, double[] sums, int[] counts, int index) {
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = xStart; x < xEnd; x++) {
+                float value = getValue(data, y, x);
+                if (!Float.isNaN(value)) {
+                    sums[index] += value;
+                    counts[index]++;
+                }
+            }
+        }
+    }
+
+    /*
+     * Gets a memory map of an overview file, or null if it doesn't exist (or
+     * is not the expected size)
+     */
+    private static FloatBuffer mapSlice(File sliceFile, int expectedSize) throws IOException {
+        FloatBuffer slice = mappedSlices.get(sliceFile);
+        if (slice != null) {
+            touch(sliceFile);
+            return slice;
+        }
+        if (!sliceFile.exists()) {
+            return null;
+        }
+        if (sliceFile.length() != 4L * expectedSize) {
+            log.warn("Overview file {} is corrupt - deleting it", sliceFile);
+            remove(sliceFile);
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(sliceFile, "r");
+                FileChannel channel = file.getChannel()) {
+            /*
+             * The mapping remains valid after the channel is closed
+             */
+            slice = channel.map(MapMode.READ_ONLY, 0, channel.size()).asFloatBuffer();
+        }
+        mappedSlices.put(sliceFile, slice);
+        sliceFile.setLastModified(System.currentTimeMillis());
+        touch(sliceFile);
+        return slice;
+    }
+
+    /*
+     * Gets the directory holding all overviews, building the index of its
+     * contents if necessary. Returns null if no working directory is set.
+     */
+    private static File getStoreDirectory() {
+        if (DatasetFactory.workingDir == null) {
+            return null;
+        }
+        File storeDirectory = new File(DatasetFactory.workingDir, STORE_DIRECTORY);
+        synchronized (storeIndex) {
+            if (!storeDirectory.equals(indexedDirectory)) {
+                indexStore(storeDirectory);
+            }
+        }
+        return storeDirectory;
+    }
+
+    /*
+     * Finds all existing overview files, in order of last use. Must be called
+     * whilst synchronised on storeIndex.
+     */
+    private static void indexStore(File storeDirectory) {
+        storeIndex.clear();
+        storeSize = 0;
+        indexedDirectory = storeDirectory;
+        List<File> files = new ArrayList<>();
+        File[] datasetDirectories = storeDirectory.listFiles();
+        if (datasetDirectories != null) {
+            for (File datasetDirectory : datasetDirectories) {
+                File[] datasetFiles = datasetDirectory.listFiles(new FileFilter() {
+                    @Override
+                    public boolean accept(File file) {
+                        return file.isFile();
+                    }
+                });
+                if (datasetFiles == null) {
+                    continue;
+                }
+                for (File file : datasetFiles) {
+                    if (file.getName().endsWith(FILE_SUFFIX)) {
+                        files.add(file);
+                    } else {
+                        /*
+                         * Left over from an interrupted build
+                         */
+                        file.delete();
+                    }
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            storeIndex.put(file, file.length());
+            storeSize += file.length();
+        }
+        log.debug("Found {} overview files using {} bytes", files.size(), storeSize);
+        evict(null);
+    }
+
+    private static void touch(File sliceFile) {
+        synchronized (storeIndex) {
+            storeIndex.get(sliceFile);
+        }
+    }
+
+    private static void remove(File sliceFile) {
+        synchronized (storeIndex) {
+            Long size = storeIndex.remove(sliceFile);
+            if (size != null) {
+                storeSize -= size;
+            }
+        }
+        mappedSlices.remove(sliceFile);
+        sliceFile.delete();
+    }
+
+    /*
+     * Deletes the least recently used overview files until the store is within
+     * its budget. Must be called whilst synchronised on storeIndex.
+     */
+    private static void evict(File keep) {
+        Iterator<Entry<File, Long>> it = storeIndex.entrySet().iterator();
+        while (storeSize > diskBudget && it.hasNext()) {
+            Entry<File, Long> entry = it.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            storeSize -= entry.getValue();
+            mappedSlices.remove(entry.getKey());
+            entry.getKey().delete();
+            log.debug("Evicted overview file {}", entry.getKey());
+        }
+    }
+
+    /**
+     * A {@link GridDataSource} which reads a single level of a memory-mapped
+     * overview file
+     */
+    private static class OverviewDataSource implements GridDataSource {
+        private final FloatBuffer slice;
+        private final int offset;
+        private final int xSize;
+
+        public OverviewDataSource(FloatBuffer slice, int offset, int xSize) {
+            this.slice = slice;
+            this.offset = offset;
+            this.xSize = xSize;
+        }
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) {
+            FloatArray4D ret = new FloatArray4D(1, 1, ymax - ymin + 1, xmax - xmin + 1);
+            for (int y = ymin; y <= ymax; y++) {
+                int rowOffset = offset + y * xSize;
+                for (int x = xmin; x <= xmax; x++) {
+                    float value = slice.get(rowOffset + x);
+                    if (!Float.isNaN(value)) {
+                        ret.setFloat(0, 0, y - ymin, x - xmin, value);
+                    }
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
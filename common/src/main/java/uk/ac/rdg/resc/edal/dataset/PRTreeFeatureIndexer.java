@@ -30,8 +30,11 @@ package uk.ac.rdg.resc.edal.dataset;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
@@ -46,6 +49,7 @@ import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
 import uk.ac.rdg.resc.edal.geometry.BoundingBoxImpl;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.util.Extents;
 import uk.ac.rdg.resc.edal.util.GISUtils;
 
 /**
@@ -63,16 +67,38 @@ public class PRTreeFeatureIndexer implements FeatureIndexer,
     private static final long serialVersionUID = 1L;
     private PRTree<FeatureBounds> prTree;
     private Set<String> featureIds;
+    /*
+     * The ranges of values of each variable over all features. This will be
+     * null for indexers which were serialised before it was added.
+     */
+    private Map<String, Extent<Float>> valueRanges;
 
     public PRTreeFeatureIndexer() {
         prTree = new PRTree<FeatureBounds>(this, 2);
         featureIds = new HashSet<>();
+        valueRanges = new HashMap<>();
     }
 
     @Override
     public void addFeatures(final List<FeatureBounds> features) {
+        if (valueRanges == null) {
+            valueRanges = new HashMap<>();
+        }
         for (FeatureBounds feature : features) {
             featureIds.add(feature.id);
+            if (feature.valueRanges != null) {
+                for (Entry<String, Extent<Float>> entry : feature.valueRanges.entrySet()) {
+                    Extent<Float> range = valueRanges.get(entry.getKey());
+                    if (range != null) {
+                        range = Extents.newExtent(
+                                Math.min(range.getLow(), entry.getValue().getLow()),
+                                Math.max(range.getHigh(), entry.getValue().getHigh()));
+                    } else {
+                        range = entry.getValue();
+                    }
+                    valueRanges.put(entry.getKey(), range);
+                }
+            }
 
             /*
              * Transform to WGS84 if required
@@ -211,6 +237,14 @@ public class PRTreeFeatureIndexer implements FeatureIndexer,
         return featureIds;
     }
 
+    @Override
+    public Extent<Float> getValueRange(String variableId) {
+        if (valueRanges == null) {
+            return null;
+        }
+        return valueRanges.get(variableId);
+    }
+
     @Override
     public int getDimensions() {
         return 4;
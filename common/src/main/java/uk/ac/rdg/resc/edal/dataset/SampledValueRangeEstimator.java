@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.CollectionUtils;
+import uk.ac.rdg.resc.edal.util.Extents;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+
+/**
+ * The default {@link ValueRangeEstimator}. This uses the cheapest available
+ * source of information about a variable, in order:
+ * 
+ * <ul>
+ * <li>The value range recorded in the {@link VariableMetadata} (e.g. from
+ * the attributes of the underlying data, or a previous estimate)</li>
+ * <li>For an {@link AbstractContinuousDomainDataset}, the value range
+ * recorded in its {@link FeatureIndexer}. No features are read, since that
+ * would mean reading every feature in the dataset - if the indexer has no
+ * value range, no estimate is made.</li>
+ * <li>For non-derived variables of a {@link GriddedDataset}, a sample of
+ * points taken at regular intervals from up to {@link #MAX_SLICES} horizontal
+ * slices of the grid, spread across the time and vertical axes</li>
+ * <li>Otherwise, a low-resolution map of the variable at the latest time and
+ * lowest elevation</li>
+ * </ul>
+ */
+public class SampledValueRangeEstimator implements ValueRangeEstimator {
+    private static final Logger log = LoggerFactory.getLogger(SampledValueRangeEstimator.class);
+
+    /**
+     * The maximum number of points sampled in each horizontal direction
+     */
+    public static final int SAMPLE_SIZE = 100;
+
+    /**
+     * The maximum number of horizontal slices of a grid which are sampled
+     */
+    public static final int MAX_SLICES = 3;
+
+    @Override
+    public Extent<Float> estimateValueRange(Dataset dataset, String varId) {
+        VariableMetadata metadata;
+        try {
+            metadata = dataset.getVariableMetadata(varId);
+        } catch (VariableNotFoundException e) {
+            return null;
+        }
+        if (metadata.getValueRange() != null) {
+            return metadata.getValueRange();
+        }
+        try {
+            if (dataset instanceof AbstractContinuousDomainDataset) {
+                return ((AbstractContinuousDomainDataset) dataset).getFeatureIndexer()
+                        .getValueRange(varId);
+            }
+            if (dataset instanceof GriddedDataset && metadata instanceof GridVariableMetadata
+                    && ((GriddedDataset) dataset).isDerivedVariable(varId) == null) {
+                return sampleGrid((GriddedDataset) dataset, (GridVariableMetadata) metadata);
+            }
+            return sampleMap(dataset, metadata);
+        } catch (IOException | DataReadingException | VariableNotFoundException e) {
+            log.error("Problem reading data whilst estimating the value range of " + varId, e);
+            return null;
+        }
+    }
+
+    /*
+     * Reads regularly-spaced points from a few horizontal slices of a
+     * variable. The slices run diagonally through the time and vertical axes,
+     * starting with the latest time and first elevation, so that both are
+     * sampled without reading every combination.
+     */
+    private static Extent<Float> sampleGrid(GriddedDataset dataset, GridVariableMetadata metadata)
+            throws IOException, DataReadingException {
+        String varId = metadata.getId();
+        HorizontalGrid grid = metadata.getHorizontalDomain();
+        int xSize = grid.getXSize();
+        int ySize = grid.getYSize();
+        int xStride = (xSize + SAMPLE_SIZE - 1) / SAMPLE_SIZE;
+        int yStride = (ySize + SAMPLE_SIZE - 1) / SAMPLE_SIZE;
+        int tSize = metadata.getTemporalDomain() == null ? 1 : metadata.getTemporalDomain()
+                .size();
+        int zSize = metadata.getVerticalDomain() == null ? 1 : metadata.getVerticalDomain()
+                .size();
+
+        float[] range = new float[] { Float.MAX_VALUE, -Float.MAX_VALUE };
+        Set<Long> sampledSlices = new HashSet<>();
+        GridDataSource dataSource = dataset.openGridDataSource();
+        try {
+            for (int i = 0; i < MAX_SLICES; i++) {
+                int tIndex = (tSize - 1) - i * (tSize - 1) / (MAX_SLICES - 1);
+                int zIndex = i * (zSize - 1) / (MAX_SLICES - 1);
+                if (!sampledSlices.add((long) tIndex * zSize + zIndex)) {
+                    continue;
+                }
+                if (dataSource instanceof StridedGridDataSource) {
+                    Array4D<Number> data = ((StridedGridDataSource) dataSource).read(varId,
+                            tIndex, tIndex, zIndex, zIndex, 0, ySize - 1, yStride, 0, xSize - 1,
+                            xStride);
+                    includeValues(data, 1, range);
+                } else {
+                    for (int y = 0; y < ySize; y += yStride) {
+                        Array4D<Number> row = dataSource.read(varId, tIndex, tIndex, zIndex,
+                                zIndex, y, y, 0, xSize - 1);
+                        includeValues(row, xStride, range);
+                    }
+                }
+            }
+        } finally {
+            dataSource.close();
+        }
+        if (range[0] > range[1]) {
+            return null;
+        }
+        return Extents.newExtent(range[0], range[1]);
+    }
+
+    /*
+     * Expands a range to include every xStride-th non-missing value in each
+     * row of some data
+     */
+    private static void includeValues(Array4D<Number> data, int xStride, float[] range) {
+        FloatArray4D floatData = data instanceof FloatArray4D ? (FloatArray4D) data : null;
+        for (int y = 0; y < data.getYSize(); y++) {
+            for (int x = 0; x < data.getXSize(); x += xStride) {
+                float value;
+                if (floatData != null) {
+                    if (floatData.isMissing(0, 0, y, x)) {
+                        continue;
+                    }
+                    value = floatData.getFloat(0, 0, y, x);
+                } else {
+                    Number number = data.get(0, 0, y, x);
+                    if (number == null) {
+                        continue;
+                    }
+                    value = number.floatValue();
+                }
+                if (!Float.isNaN(value)) {
+                    range[0] = Math.min(range[0], value);
+                    range[1] = Math.max(range[1], value);
+                }
+            }
+        }
+    }
+
+    /*
+     * Extracts a low-resolution map of a variable at the latest time and
+     * lowest elevation, and finds the range of its values
+     */
+    private static Extent<Float> sampleMap(Dataset dataset, VariableMetadata metadata)
+            throws DataReadingException, VariableNotFoundException {
+        Double zPos = null;
+        Extent<Double> zExtent = null;
+        if (metadata.getVerticalDomain() != null) {
+            zPos = metadata.getVerticalDomain().getExtent().getLow();
+            zExtent = metadata.getVerticalDomain().getExtent();
+        }
+        DateTime time = null;
+        Extent<DateTime> tExtent = null;
+        if (metadata.getTemporalDomain() != null) {
+            time = metadata.getTemporalDomain().getExtent().getHigh();
+            tExtent = metadata.getTemporalDomain().getExtent();
+        }
+        PlottingDomainParams params = new PlottingDomainParams(SAMPLE_SIZE, SAMPLE_SIZE,
+                metadata.getHorizontalDomain().getBoundingBox(), zExtent, tExtent, null, zPos,
+                time);
+        /*
+         * The range is only used for plotting, so gridded data can be read in
+         * the same way as for plotting a map
+         */
+        List<? extends DiscreteFeature<?, ?>> features;
+        if (dataset instanceof GriddedDataset) {
+            features = ((GriddedDataset) dataset).extractMapFeaturesForPlotting(
+                    CollectionUtils.setOf(metadata.getId()), params);
+        } else {
+            features = dataset.extractMapFeatures(CollectionUtils.setOf(metadata.getId()), params);
+        }
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (DiscreteFeature<?, ?> feature : features) {
+            Array<Number> values = feature.getValues(metadata.getId());
+            if (values != null) {
+                for (Number value : values) {
+                    if (value != null && !Double.isNaN(value.doubleValue())) {
+                        min = Math.min(min, value.floatValue());
+                        max = Math.max(max, value.floatValue());
+                    }
+                }
+            }
+        }
+        if (min > max) {
+            return null;
+        }
+        return Extents.newExtent(min, max);
+    }
+}
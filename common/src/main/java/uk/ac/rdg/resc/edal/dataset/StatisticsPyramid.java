@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.util.Extents;
+
+/**
+ * The minimum and maximum values of a single horizontal slice of a variable,
+ * in coarse tiles at several levels of detail. At the finest level, the slice
+ * is divided into at most {@link #MAX_TILES} x {@link #MAX_TILES} tiles, and
+ * each coarser level combines 2x2 tiles of the level below, up to a single
+ * tile covering the whole slice.
+ * 
+ * This allows the range of values within any area of the slice to be found by
+ * combining the ranges of a small number of tiles, rather than by reading
+ * data. Since tiles generally extend beyond the area of interest, the range
+ * found is a slight overestimate of the true range.
+ */
+final class StatisticsPyramid {
+    /**
+     * The maximum number of tiles along each side of the finest level
+     */
+    static final int MAX_TILES = 32;
+
+    /*
+     * The maximum ratio of the number of grid cells covered by the tiles used
+     * to the number of grid cells actually requested. Above this, the
+     * tiles are too coarse to give a useful estimate.
+     */
+    private static final double MAX_COVERAGE = 2.0;
+
+    private final int xSize;
+    private final int ySize;
+    private final int tileWidth;
+    private final int tileHeight;
+    /*
+     * The minimum and maximum value of each tile, at each level. Tiles with
+     * no data have a minimum greater than their maximum.
+     */
+    private final float[][] mins;
+    private final float[][] maxs;
+
+    private StatisticsPyramid(int xSize, int ySize, int tileWidth, int tileHeight, float[] mins,
+            float[] maxs) {
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+
+        int levels = 1;
+        while (numTiles(xSize, tileWidth, levels - 1) > 1
+                || numTiles(ySize, tileHeight, levels - 1) > 1) {
+            levels++;
+        }
+        this.mins = new float[levels][];
+        this.maxs = new float[levels][];
+        this.mins[0] = mins;
+        this.maxs[0] = maxs;
+        for (int level = 1; level < levels; level++) {
+            int nx = numTiles(xSize, tileWidth, level);
+            int ny = numTiles(ySize, tileHeight, level);
+            int finerNx = numTiles(xSize, tileWidth, level - 1);
+            int finerNy = numTiles(ySize, tileHeight, level - 1);
+            this.mins[level] = new float[nx * ny];
+            this.maxs[level] = new float[nx * ny];
+            Arrays.fill(this.mins[level], Float.MAX_VALUE);
+            Arrays.fill(this.maxs[level], -Float.MAX_VALUE);
+            for (int j = 0; j < finerNy; j++) {
+                for (int i = 0; i < finerNx; i++) {
+                    int finer = j * finerNx + i;
+                    int coarser = (j / 2) * nx + i / 2;
+                    this.mins[level][coarser] = Math.min(this.mins[level][coarser],
+                            this.mins[level - 1][finer]);
+                    this.maxs[level][coarser] = Math.max(this.maxs[level][coarser],
+                            this.maxs[level - 1][finer]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the range of values in an area of the slice
+     * 
+     * @param columns
+     *            The x-indices of the grid cells in the area
+     * @param rows
+     *            The y-indices of the grid cells in the area
+     * @return The range of values in the tiles which cover the area, or
+     *         <code>null</code> if the area contains no data or is too small
+     *         for the tiles to give a useful estimate
+     */
+    Extent<Float> getRange(BitSet columns, BitSet rows) {
+        long requestedCells = (long) columns.cardinality() * rows.cardinality();
+        if (requestedCells == 0) {
+            return null;
+        }
+        /*
+         * Use the coarsest level whose tiles closely cover the area. This
+         * keeps the number of tiles to combine small.
+         */
+        for (int level = mins.length - 1; level >= 0; level--) {
+            int width = tileWidth << level;
+            int height = tileHeight << level;
+            BitSet tileColumns = toTiles(columns, width);
+            BitSet tileRows = toTiles(rows, height);
+            long coveredCells = (long) coveredCells(tileColumns, width, xSize)
+                    * coveredCells(tileRows, height, ySize);
+            if (coveredCells > MAX_COVERAGE * requestedCells) {
+                continue;
+            }
+            int nx = numTiles(xSize, tileWidth, level);
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int j = tileRows.nextSetBit(0); j >= 0; j = tileRows.nextSetBit(j + 1)) {
+                for (int i = tileColumns.nextSetBit(0); i >= 0; i = tileColumns
+                        .nextSetBit(i + 1)) {
+                    min = Math.min(min, mins[level][j * nx + i]);
+                    max = Math.max(max, maxs[level][j * nx + i]);
+                }
+            }
+            if (min > max) {
+                /*
+                 * No data in this area
+                 */
+                return null;
+            }
+            return Extents.newExtent(min, max);
+        }
+        return null;
+    }
+
+    private static BitSet toTiles(BitSet indices, int tileSize) {
+        BitSet tiles = new BitSet();
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            tiles.set(i / tileSize);
+        }
+        return tiles;
+    }
+
+    private static int coveredCells(BitSet tiles, int tileSize, int size) {
+        int cells = 0;
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            cells += Math.min(tileSize, size - i * tileSize);
+        }
+        return cells;
+    }
+
+    private static int numTiles(int size, int tileSize, int level) {
+        int levelTileSize = tileSize << level;
+        return (size + levelTileSize - 1) / levelTileSize;
+    }
+
+    /**
+     * Writes the finest level of this pyramid. The coarser levels are
+     * recreated when it is read.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(xSize);
+        out.writeInt(ySize);
+        out.writeInt(tileWidth);
+        out.writeInt(tileHeight);
+        for (int i = 0; i < mins[0].length; i++) {
+            out.writeFloat(mins[0][i]);
+            out.writeFloat(maxs[0][i]);
+        }
+    }
+
+    static StatisticsPyramid read(DataInput in) throws IOException {
+        int xSize = in.readInt();
+        int ySize = in.readInt();
+        int tileWidth = in.readInt();
+        int tileHeight = in.readInt();
+        if (xSize <= 0 || ySize <= 0 || tileWidth <= 0 || tileHeight <= 0) {
+            throw new IOException("Invalid statistics pyramid");
+        }
+        int nTiles = numTiles(xSize, tileWidth, 0) * numTiles(ySize, tileHeight, 0);
+        float[] mins = new float[nTiles];
+        float[] maxs = new float[nTiles];
+        for (int i = 0; i < nTiles; i++) {
+            mins[i] = in.readFloat();
+            maxs[i] = in.readFloat();
+        }
+        return new StatisticsPyramid(xSize, ySize, tileWidth, tileHeight, mins, maxs);
+    }
+
+    /**
+     * Accumulates the values of a slice into the tiles of a
+     * {@link StatisticsPyramid}
+     */
+    static final class Builder {
+        private final int xSize;
+        private final int ySize;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int nx;
+        private final float[] mins;
+        private final float[] maxs;
+
+        Builder(int xSize, int ySize) {
+            this.xSize = xSize;
+            this.ySize = ySize;
+            tileWidth = (xSize + MAX_TILES - 1) / MAX_TILES;
+            tileHeight = (ySize + MAX_TILES - 1) / MAX_TILES;
+            nx = numTiles(xSize, tileWidth, 0);
+            int nTiles = nx * numTiles(ySize, tileHeight, 0);
+            mins = new float[nTiles];
+            maxs = new float[nTiles];
+            Arrays.fill(mins, Float.MAX_VALUE);
+            Arrays.fill(maxs, -Float.MAX_VALUE);
+        }
+
+        /**
+         * Adds a value at the given grid cell. NaN and infinite values are
+         * ignored.
+         */
+        void add(int x, int y, float value) {
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                return;
+            }
+            int tile = (y / tileHeight) * nx + x / tileWidth;
+            mins[tile] = Math.min(mins[tile], value);
+            maxs[tile] = Math.max(maxs[tile], value);
+        }
+
+        StatisticsPyramid build() {
+            return new StatisticsPyramid(xSize, ySize, tileWidth, tileHeight, mins.clone(),
+                    maxs.clone());
+        }
+    }
+}
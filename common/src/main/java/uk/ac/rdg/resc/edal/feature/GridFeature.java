@@ -156,8 +156,8 @@ public class GridFeature extends AbstractDiscreteFeature<GeoPosition, GridCell4D
             };
             Array2D<Number> readMapData;
             try {
-                readMapData = dataReadingStrategy.readMapData(dataSource, varId, tIndex, zIndex,
-                        mapper);
+                readMapData = dataReadingStrategy.readPointData(dataSource, varId, tIndex,
+                        zIndex, mapper);
             } catch (IOException e) {
                 throw new DataReadingException("Problem reading data", e);
             }
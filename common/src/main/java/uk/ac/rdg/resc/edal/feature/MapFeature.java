@@ -76,6 +76,10 @@ import uk.ac.rdg.resc.edal.util.Array2D;
  * extracting onto a grid which defines an image - i.e. each {@link GridCell2D}
  * in the domain will map exactly onto a single pixel.
  * 
+ * Values read from gridded datasets for plotting are stored as
+ * {@link uk.ac.rdg.resc.edal.util.FloatArray2D}s, which plotting routines can
+ * access without boxing each value.
+ * 
  * @author Guy
  */
 public class MapFeature extends AbstractDiscreteFeature<HorizontalPosition, GridCell2D> {
@@ -27,18 +27,21 @@
  *******************************************************************************/
 package uk.ac.rdg.resc.edal.grid;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.CurvilinearCellIndex;
 import uk.ac.rdg.resc.edal.util.CurvilinearCoords;
 import uk.ac.rdg.resc.edal.util.GISUtils;
-import uk.ac.rdg.resc.edal.util.CurvilinearCoords.Cell;
 import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
 import uk.ac.rdg.resc.edal.util.LookUpTable;
 
@@ -56,18 +59,28 @@ import uk.ac.rdg.resc.edal.util.LookUpTable;
  * @author Jon Blower
  */
 public final class LookUpTableGrid extends AbstractCurvilinearGrid {
+    private static final Logger log = LoggerFactory.getLogger(LookUpTableGrid.class);
+
     /**
      * In-memory cache of LookUpTableGrid objects to save expensive
-     * re-generation of same object
-     * 
-     * @todo The CurvilinearGrid objects can be very big. Really we only need to
-     *       key on the arrays of lon and lat: all other quantities can be
-     *       calculated from these. This means that we could make other large
-     *       objects available for garbage collection.
+     * re-generation of same object, in order of last use. The total
+     * (approximate) size of the cached objects is limited to maxCacheSize.
+     * Access to this, cacheSize and maxCacheSize is synchronised on CACHE.
+     */
+    private static final LinkedHashMap<CurvilinearCoords, LookUpTableGrid> CACHE = new LinkedHashMap<CurvilinearCoords, LookUpTableGrid>(
+            16, 0.75f, true);
+    private static long cacheSize = 0L;
+    private static long maxCacheSize = 256L * 1024 * 1024;
+
+    /**
+     * The directory in which look-up tables are stored, so that they do not
+     * need to be regenerated after a restart. If this is null, look-up tables
+     * are only held in memory.
      */
-    private static final Map<CurvilinearCoords, LookUpTableGrid> CACHE = new HashMap<CurvilinearCoords, LookUpTableGrid>();
+    private static File storeDirectory = null;
 
     private final LookUpTable lut;
+    private final CurvilinearCellIndex index;
 
     /**
      * The passed-in coordSys must have 2D horizontal coordinate axes.
@@ -75,29 +88,133 @@ public final class LookUpTableGrid extends AbstractCurvilinearGrid {
     public static LookUpTableGrid generate(Array2D<Number> lonVals, Array2D<Number> latVals) {
         CurvilinearCoords curvCoords = new CurvilinearCoords(lonVals, latVals);
 
-        /*
-         * We calculate the required resolution of the look-up tables. We want
-         * this to be around 3 times the resolution of the grid.
-         */
-        double minLutResolution = Math.sqrt(curvCoords.getMeanCellArea()) / 3.0;
-
         synchronized (CACHE) {
             LookUpTableGrid lutGrid = CACHE.get(curvCoords);
             if (lutGrid == null) {
-                /* Create a look-up table for this coord sys */
-                LookUpTable lut = new LookUpTable(curvCoords, minLutResolution);
+                /* Read or create a look-up table for this coord sys */
+                LookUpTable lut = getLookUpTable(curvCoords);
                 /* Create the LookUpTableGrid */
                 lutGrid = new LookUpTableGrid(curvCoords, lut);
                 /* Now put this in the cache */
                 CACHE.put(curvCoords, lutGrid);
+                cacheSize += getApproximateSize(lutGrid);
+                evict(lutGrid);
             }
             return lutGrid;
         }
     }
 
+    /**
+     * Gets a look-up table for the given coordinates, reading it from the
+     * store directory if it is available, and generating it (and writing it
+     * to the store directory) otherwise.
+     */
+    private static LookUpTable getLookUpTable(CurvilinearCoords curvCoords) {
+        File lutFile = null;
+        if (storeDirectory != null) {
+            lutFile = new File(storeDirectory, curvCoords.getFingerprint() + ".lut");
+            if (lutFile.exists()) {
+                try {
+                    return LookUpTable.read(lutFile);
+                } catch (IOException e) {
+                    log.warn("Problem reading look-up table from " + lutFile
+                            + ".  It will be regenerated.", e);
+                }
+            }
+        }
+
+        /*
+         * We calculate the required resolution of the look-up tables. We want
+         * this to be around 3 times the resolution of the grid.
+         */
+        double minLutResolution = Math.sqrt(curvCoords.getMeanCellArea()) / 3.0;
+        long start = System.currentTimeMillis();
+        LookUpTable lut = new LookUpTable(curvCoords, minLutResolution);
+        log.debug("Generated {}x{} look-up table for {}x{} grid in {}ms", new Object[] {
+                lut.getNumLonPoints(), lut.getNumLatPoints(), curvCoords.getNi(),
+                curvCoords.getNj(), System.currentTimeMillis() - start });
+
+        if (lutFile != null) {
+            /*
+             * Write to a temporary file first, so that a partially-written
+             * file is never read
+             */
+            File tempFile = null;
+            try {
+                if (!storeDirectory.exists() && !storeDirectory.mkdirs()) {
+                    throw new IOException("Cannot create directory " + storeDirectory);
+                }
+                tempFile = File.createTempFile("lut", ".tmp", storeDirectory);
+                lut.write(tempFile);
+                if (!tempFile.renameTo(lutFile)) {
+                    throw new IOException("Cannot rename " + tempFile + " to " + lutFile);
+                }
+            } catch (IOException e) {
+                log.warn("Problem writing look-up table to " + lutFile, e);
+            } finally {
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+            }
+        }
+        return lut;
+    }
+
+    private static long getApproximateSize(LookUpTableGrid lutGrid) {
+        return lutGrid.curvCoords.getApproximateSize() + lutGrid.lut.getHeapSize();
+    }
+
+    /*
+     * Removes the least recently used grids from the cache until it is within
+     * its size limit. The most recently added grid is always kept. Must be
+     * called whilst synchronised on CACHE.
+     */
+    private static void evict(LookUpTableGrid keep) {
+        Iterator<Entry<CurvilinearCoords, LookUpTableGrid>> it = CACHE.entrySet().iterator();
+        while (cacheSize > maxCacheSize && it.hasNext()) {
+            LookUpTableGrid lutGrid = it.next().getValue();
+            if (lutGrid != keep) {
+                it.remove();
+                cacheSize -= getApproximateSize(lutGrid);
+            }
+        }
+    }
+
     public static void clearCache() {
         synchronized (CACHE) {
             CACHE.clear();
+            cacheSize = 0L;
+        }
+    }
+
+    /**
+     * Sets the directory in which look-up tables are stored. Look-up tables
+     * are expensive to generate for large grids, so storing them allows them
+     * to be reused after a restart. Files in this directory are named after a
+     * fingerprint of the grid's coordinates, so it can be shared between
+     * datasets.
+     * 
+     * @param directory
+     *            The directory to use, or <code>null</code> to hold look-up
+     *            tables only in memory
+     */
+    public static void setStoreDirectory(File directory) {
+        synchronized (CACHE) {
+            storeDirectory = directory;
+        }
+    }
+
+    /**
+     * Sets the maximum amount of memory used to cache {@link LookUpTableGrid}s
+     * 
+     * @param megabytes
+     *            The (approximate) maximum size of the cache in megabytes.
+     *            Defaults to 256.
+     */
+    public static void setCacheSize(long megabytes) {
+        synchronized (CACHE) {
+            maxCacheSize = megabytes * 1024 * 1024;
+            evict(null);
         }
     }
 
@@ -105,6 +222,7 @@ public final class LookUpTableGrid extends AbstractCurvilinearGrid {
     private LookUpTableGrid(CurvilinearCoords curvGrid, LookUpTable lut) {
         super(curvGrid);
         this.lut = lut;
+        index = new CurvilinearCellIndex(curvGrid, lut);
     }
 
     @Override
@@ -112,74 +230,43 @@ public final class LookUpTableGrid extends AbstractCurvilinearGrid {
         if(!GISUtils.isWgs84LonLat(position.getCoordinateReferenceSystem())) {
             position = GISUtils.transformPosition(position, DefaultGeographicCRS.WGS84);
         }
-        double x = position.getX();
-        double y = position.getY();
-        /*
-         * Find the "first guess" at the containing cell according to the
-         * look-up table
-         */
-        int[] lutCoords = lut.getGridCoordinates(x, y);
-        /* Return null if the latLonPoint does not match a valid grid point */
-        if (lutCoords == null)
+        int cell = index.findCell(position.getX(), position.getY());
+        if (cell < 0) {
             return null;
-        /*
-         * Check that this cell really contains this point, if not, check the
-         * neighbours
-         */
-        Cell cell = curvCoords.getCell(lutCoords[0], lutCoords[1]);
-        if (cell.contains(x, y)) {
-            return new GridCoordinates2D(lutCoords[0], lutCoords[1]);
-        }
-
-        /*
-         * We do a gradient-descent method to find the true nearest neighbour We
-         * store the grid coordinates that we have already examined.
-         */
-        Set<Cell> examined = new HashSet<Cell>();
-        examined.add(cell);
-        /*
-         * Find the Euclidean distance from the cell centre to the target
-         * position
-         */
-        double shortestDistanceSq = cell.findDistanceSq(x, y);
-
-        boolean found = true;
-        /* Prevent the search going on forever */
-        int maxIterations = 100;
-        for (int i = 0; found && i < maxIterations; i++) {
-            found = false;
-            for (Cell neighbour : cell.getNeighbours()) {
-                if (!examined.contains(neighbour)) {
-                    double distanceSq = neighbour.findDistanceSq(x, y);
-                    if (distanceSq < shortestDistanceSq) {
-                        cell = neighbour;
-                        shortestDistanceSq = distanceSq;
-                        found = true;
-                    }
-                    examined.add(neighbour);
-                }
-            }
         }
+        return new GridCoordinates2D(cell % index.getNi(), cell / index.getNi());
+    }
 
-        /*
-         * We now have the nearest neighbour, but sometimes the position is
-         * actually contained within one of the cell's neighbours
-         */
-        if (cell.contains(x, y)) {
-            return new GridCoordinates2D(cell.getI(), cell.getJ());
-        }
-        for (Cell neighbour : cell.getNeighbours()) {
-            if (neighbour.contains(x, y)) {
-                return new GridCoordinates2D(neighbour.getI(), neighbour.getJ());
+    /**
+     * Finds the grid indices of many longitude-latitude points at once. This
+     * gives the same results as calling {@link #findIndexOf(HorizontalPosition)}
+     * for each point, but does not create any objects, so is much faster for
+     * large numbers of points. It may be called concurrently from several
+     * threads.
+     * 
+     * @param x
+     *            The longitudes of the points, in WGS84
+     * @param y
+     *            The latitudes of the points, in WGS84
+     * @param outI
+     *            An array which will be filled with the i indices of the
+     *            points, or -1 for points which are not within this grid
+     * @param outJ
+     *            An array which will be filled with the j indices of the
+     *            points, or -1 for points which are not within this grid
+     */
+    public void findIndicesOf(double[] x, double[] y, int[] outI, int[] outJ) {
+        int ni = index.getNi();
+        for (int n = 0; n < x.length; n++) {
+            int cell = index.findCell(x[n], y[n]);
+            if (cell < 0) {
+                outI[n] = -1;
+                outJ[n] = -1;
+            } else {
+                outI[n] = cell % ni;
+                outJ[n] = cell / ni;
             }
         }
-
-        /*
-         * TODO The point is probably on the edge between grid cells and failing
-         * the contains() checks. This is probably OK in the middle of a grid,
-         * but we might need to be careful at the edges
-         */
-        return new GridCoordinates2D(cell.getI(), cell.getJ());
     }
 
     @Override
@@ -36,6 +36,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.domain.HorizontalDomain;
 import uk.ac.rdg.resc.edal.domain.TemporalDomain;
 import uk.ac.rdg.resc.edal.domain.VerticalDomain;
@@ -58,6 +59,7 @@ public class VariableMetadata {
     private VariableMetadata parent;
     private Set<VariableMetadata> children;
     private boolean scalar;
+    private Extent<Float> valueRange = null;
 
     private Map<String, Object> variableProperties = new HashMap<>();
 
@@ -296,6 +298,26 @@ public class VariableMetadata {
         return scalar;
     }
 
+    /**
+     * @return The range of values which this variable is known to take (e.g.
+     *         from the metadata of the underlying data, or from a previous
+     *         estimate), or <code>null</code> if this is not known. This is
+     *         only an indication - values outside this range may still occur.
+     */
+    public Extent<Float> getValueRange() {
+        return valueRange;
+    }
+
+    /**
+     * Sets the range of values which this variable is known to take
+     * 
+     * @param valueRange
+     *            The range of values, or <code>null</code> if it is not known
+     */
+    public void setValueRange(Extent<Float> valueRange) {
+        this.valueRange = valueRange;
+    }
+
     /**
      * @return A {@link Map} of arbitrary properties which this variable has
      *         associated with it. This can be used to record any additional
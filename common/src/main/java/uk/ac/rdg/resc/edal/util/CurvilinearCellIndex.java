@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+/**
+ * An index for finding the cells of a {@link CurvilinearCoords} grid which
+ * contain given longitude-latitude points. A {@link LookUpTable} gives a first
+ * guess at the containing cell, which is then refined by searching the
+ * neighbouring cells.
+ * 
+ * The geometry of the cells is tested using the primitive methods of
+ * {@link CurvilinearCoords}, so finding a cell does not create any objects.
+ * Cells may be found concurrently from any number of threads.
+ */
+public final class CurvilinearCellIndex {
+    /* Prevent the search going on forever */
+    private static final int MAX_ITERATIONS = 100;
+
+    /*
+     * The offsets of the neighbours of a cell: first those which share an
+     * edge, then those which share a corner
+     */
+    private static final int[] NEIGHBOUR_DI = new int[] { -1, 0, 1, 0, -1, 1, 1, -1 };
+    private static final int[] NEIGHBOUR_DJ = new int[] { 0, -1, 0, 1, -1, -1, 1, 1 };
+
+    private final CurvilinearCoords curvCoords;
+    private final int ni;
+    private final int nj;
+    private final LookUpTable lut;
+
+    /**
+     * Creates an index of the cells in a grid
+     * 
+     * @param curvCoords
+     *            The {@link CurvilinearCoords} defining the grid
+     * @param lut
+     *            A {@link LookUpTable} for the grid
+     */
+    public CurvilinearCellIndex(CurvilinearCoords curvCoords, LookUpTable lut) {
+        this.curvCoords = curvCoords;
+        ni = curvCoords.getNi();
+        nj = curvCoords.getNj();
+        this.lut = lut;
+    }
+
+    /**
+     * Finds the cell which contains the given longitude-latitude point. If no
+     * cell contains it (e.g. because the point is on the boundary between
+     * cells) the cell whose centre is nearest to the point in the region given
+     * by the {@link LookUpTable} is returned.
+     * 
+     * @param longitude
+     *            The longitude of the point of interest
+     * @param latitude
+     *            The latitude of the point of interest
+     * @return The index of the cell, i + j * ni, or -1 if the point is not
+     *         within the grid
+     */
+    public int findCell(double longitude, double latitude) {
+        /*
+         * Find the "first guess" at the containing cell according to the
+         * look-up table
+         */
+        int lutIndex = lut.getLutIndex(longitude, latitude);
+        if (lutIndex < 0) {
+            return -1;
+        }
+        int i = lut.getIIndex(lutIndex);
+        int j = lut.getJIndex(lutIndex);
+        /* Return -1 if the point does not match a valid grid point */
+        if (i < 0 || j < 0) {
+            return -1;
+        }
+        /*
+         * Check that this cell really contains this point, if not, check the
+         * neighbours
+         */
+        if (curvCoords.contains(i, j, longitude, latitude)) {
+            return i + j * ni;
+        }
+
+        /*
+         * We do a gradient-descent method to find the true nearest neighbour.
+         * Since the distance decreases with each step, no cell can be visited
+         * twice.
+         */
+        double shortestDistanceSq = curvCoords.findDistanceSq(i, j, longitude, latitude);
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            int nearestI = -1;
+            int nearestJ = -1;
+            for (int n = 0; n < NEIGHBOUR_DI.length; n++) {
+                int neighbourI = i + NEIGHBOUR_DI[n];
+                int neighbourJ = j + NEIGHBOUR_DJ[n];
+                if (isValid(neighbourI, neighbourJ)) {
+                    double distanceSq = curvCoords.findDistanceSq(neighbourI, neighbourJ,
+                            longitude, latitude);
+                    if (distanceSq < shortestDistanceSq) {
+                        nearestI = neighbourI;
+                        nearestJ = neighbourJ;
+                        shortestDistanceSq = distanceSq;
+                    }
+                }
+            }
+            if (nearestI < 0) {
+                break;
+            }
+            i = nearestI;
+            j = nearestJ;
+        }
+
+        /*
+         * We now have the nearest neighbour, but sometimes the position is
+         * actually contained within one of the cell's neighbours
+         */
+        if (curvCoords.contains(i, j, longitude, latitude)) {
+            return i + j * ni;
+        }
+        for (int n = 0; n < NEIGHBOUR_DI.length; n++) {
+            int neighbourI = i + NEIGHBOUR_DI[n];
+            int neighbourJ = j + NEIGHBOUR_DJ[n];
+            if (isValid(neighbourI, neighbourJ)
+                    && curvCoords.contains(neighbourI, neighbourJ, longitude, latitude)) {
+                return neighbourI + neighbourJ * ni;
+            }
+        }
+
+        /*
+         * The point is probably on the edge between grid cells and failing the
+         * contains() checks.
+         */
+        return i + j * ni;
+    }
+
+    /**
+     * @return The number of cells in the i direction of the grid
+     */
+    public int getNi() {
+        return ni;
+    }
+
+    private boolean isValid(int i, int j) {
+        return i >= 0 && j >= 0 && i < ni && j < nj;
+    }
+}
@@ -30,6 +30,9 @@ package uk.ac.rdg.resc.edal.util;
 
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -58,6 +61,10 @@ public final class CurvilinearCoords {
     /** The number of grid cells in the j direction */
     private final int nj;
 
+    /* The offsets of the corners of a cell, in order around the cell */
+    private static final int[] CORNER_OFFSETS_I = new int[] { 0, 1, 1, 0 };
+    private static final int[] CORNER_OFFSETS_J = new int[] { 0, 0, 1, 1 };
+
     /**
      * The longitudes of the centres of the grid cells, flattened to a 1D array
      * of size ni*nj
@@ -69,12 +76,26 @@ public final class CurvilinearCoords {
      */
     private final float[] latitudes;
 
-    /** The longitudes of the corners of the grid cells */
-    private final Array2D<Number> cornerLons;
-    /** The latitudes of the corners of the grid cells */
-    private final Array2D<Number> cornerLats;
+    /**
+     * The longitudes of the corners of the grid cells, flattened to a 1D array
+     * of size (ni+1)*(nj+1)
+     */
+    private final double[] cornerLons;
+    /**
+     * The latitudes of the corners of the grid cells, flattened to a 1D array
+     * of size (ni+1)*(nj+1)
+     */
+    private final double[] cornerLats;
+    /**
+     * Whether each cell crosses the anti-meridian, i.e. whether the longitudes
+     * of any of its corners must be shifted by 360 degrees to be close to its
+     * centre. Flattened to a 1D array of size ni*nj.
+     */
+    private final boolean[] wraps;
     /** The lon-lat bounding box of the grid */
     private final BoundingBox lonLatBbox;
+    /** A digest of the coordinates, calculated when first needed */
+    private String fingerprint = null;
 
     public CurvilinearCoords(Array2D<Number> lonVals, Array2D<Number> latVals) {
         /* Sanity check */
@@ -128,13 +149,27 @@ public final class CurvilinearCoords {
         /* Calculate the corners of the grid cells */
         cornerLons = makeCorners(longitudes, true);
         cornerLats = makeCorners(latitudes, false);
+
+        /* Find the cells which cross the anti-meridian */
+        wraps = new boolean[ni * nj];
+        for (int j = 0; j < nj; j++) {
+            for (int i = 0; i < ni; i++) {
+                double centreLon = longitudes[getIndex(i, j)];
+                for (int corner = 0; corner < 4; corner++) {
+                    if (Math.abs(cornerLons[getCornerIndex(i, j, corner)] - centreLon) > 180.0) {
+                        wraps[getIndex(i, j)] = true;
+                    }
+                }
+            }
+        }
     }
 
     /**
      * Adapted from previous ncWMS
      */
-    private Array2D<Number> makeCorners(float[] midpoints, boolean isLongitude) {
-        Array2D<Number> edges = new ValuesArray2D(nj + 1, ni + 1);
+    private double[] makeCorners(float[] midpoints, boolean isLongitude) {
+        int rowLength = ni + 1;
+        double[] edges = new double[rowLength * (nj + 1)];
 
         for (int j = 0; j < nj - 1; j++) {
             for (int i = 0; i < ni - 1; i++) {
@@ -157,26 +192,19 @@ public final class CurvilinearCoords {
                     midpoint4 = GISUtils.getNearestEquivalentLongitude(midpoint1, midpoint4);
                 }
                 double xval = (midpoint1 + midpoint2 + midpoint3 + midpoint4) / 4.0;
-                edges.set(xval, j + 1, i + 1);
+                edges[(j + 1) * rowLength + i + 1] = xval;
             }
             /* Extrapolate to exterior points */
-            double val = edges.get(j + 1, 1).doubleValue()
-                    - (edges.get(j + 1, 2).doubleValue() - edges.get(j + 1, 1).doubleValue());
-            edges.set(val, j + 1, 0);
-            val = edges.get(j + 1, ni - 1).doubleValue()
-                    + (edges.get(j + 1, ni - 1).doubleValue() - edges.get(j + 1, ni - 2)
-                            .doubleValue());
-            edges.set(val, j + 1, ni);
+            int row = (j + 1) * rowLength;
+            edges[row] = edges[row + 1] - (edges[row + 2] - edges[row + 1]);
+            edges[row + ni] = edges[row + ni - 1] + (edges[row + ni - 1] - edges[row + ni - 2]);
         }
 
         /* Extrapolate to the first and last row */
         for (int x = 0; x < ni + 1; x++) {
-            double val = edges.get(1, x).doubleValue()
-                    - (edges.get(2, x).doubleValue() - edges.get(1, x).doubleValue());
-            edges.set(val, 0, x);
-            val = edges.get(nj - 1, x).doubleValue()
-                    + (edges.get(nj - 1, x).doubleValue() - edges.get(nj - 2, x).doubleValue());
-            edges.set(val, nj, x);
+            edges[x] = edges[rowLength + x] - (edges[2 * rowLength + x] - edges[rowLength + x]);
+            edges[nj * rowLength + x] = edges[(nj - 1) * rowLength + x]
+                    + (edges[(nj - 1) * rowLength + x] - edges[(nj - 2) * rowLength + x]);
         }
 
         return edges;
@@ -200,33 +228,113 @@ public final class CurvilinearCoords {
     }
 
     /**
-     * Gets the location of the four corners of the cell at indices i, j.
+     * Gets the index in the arrays of corner coordinates of one of the corners
+     * of the cell at indices i, j. The corners are numbered from 0 to 3 in
+     * order around the cell, starting at [i, j].
+     */
+    private int getCornerIndex(int i, int j, int corner) {
+        return (j + CORNER_OFFSETS_J[corner]) * (ni + 1) + i + CORNER_OFFSETS_I[corner];
+    }
+
+    /**
+     * Gets the longitude of one of the corners of the cell with the given
+     * index, harmonised with the centre of the cell.
+     */
+    private double getCornerLon(int index, int cornerIndex) {
+        if (wraps[index]) {
+            return GISUtils.getNearestEquivalentLongitude(longitudes[index],
+                    cornerLons[cornerIndex]);
+        }
+        return cornerLons[cornerIndex];
+    }
+
+    /**
+     * Gets the location of the four corners of the cell at indices i, j,
+     * without creating any objects. As with {@link Cell#getCorners()}, the
+     * longitudes will be as close as possible to the centre of the cell, and
+     * may be NaN.
      * 
+     * @param coords
+     *            An array of (at least) length 8, which will be filled with
+     *            the (longitude, latitude) pairs of the corners, in order
+     *            around the cell
      * @throws ArrayIndexOutOfBoundsException
      *             if i and j combine to give a point outside the grid.
      */
-    private List<LonLatPosition> getCorners(int i, int j) {
-        List<LonLatPosition> corners = new ArrayList<LonLatPosition>(4);
-        corners.add(getCorner(i, j));
-        corners.add(getCorner(i + 1, j));
-        corners.add(getCorner(i + 1, j + 1));
-        corners.add(getCorner(i, j + 1));
-        return corners;
+    public void getCorners(int i, int j, double[] coords) {
+        int index = getIndex(i, j);
+        for (int corner = 0; corner < 4; corner++) {
+            int cornerIndex = getCornerIndex(i, j, corner);
+            coords[2 * corner] = getCornerLon(index, cornerIndex);
+            coords[2 * corner + 1] = cornerLats[cornerIndex];
+        }
     }
 
     /**
-     * Gets the coordinates of the corner with the given indices <i>in the
-     * arrays of corner coordinates</i> (not in the arrays of midpoints).
+     * Gets the longitude of the midpoint of the cell at indices i, j. This is
+     * the same as <code>getMidpoint(i, j).getLongitude()</code>, but does not
+     * create any objects.
      */
-    private LonLatPosition getCorner(int cornerI, int cornerJ) {
-        return new LonLatPosition(cornerLons.get(cornerJ, cornerI).doubleValue(), cornerLats.get(
-                cornerJ, cornerI).doubleValue());
+    public double getMidpointLongitude(int i, int j) {
+        return longitudes[getIndex(i, j)];
     }
 
     /**
-     * Gets the [i,j]th cell in this grid.
-     * 
-     * TODO cache or precompute the cells?
+     * Returns true if the boundary of the cell at indices i, j contains the
+     * given longitude-latitude point. This is the same as
+     * {@link Cell#contains(double, double)}, but does not create any objects.
+     */
+    public boolean contains(int i, int j, double lon, double lat) {
+        int index = getIndex(i, j);
+        double centreLon = longitudes[index];
+        if (Math.abs(lon - centreLon) > 180.0) {
+            lon = GISUtils.getNearestEquivalentLongitude(centreLon, lon);
+        }
+        /*
+         * Count the edges which cross the line extending from the point in the
+         * positive x direction, using the non-zero winding rule. Cells
+         * represented by NaNs contain no points, since all comparisons with
+         * NaN fail.
+         */
+        int winding = 0;
+        int cornerIndex = getCornerIndex(i, j, 3);
+        double x0 = getCornerLon(index, cornerIndex);
+        double y0 = cornerLats[cornerIndex];
+        for (int corner = 0; corner < 4; corner++) {
+            cornerIndex = getCornerIndex(i, j, corner);
+            double x1 = getCornerLon(index, cornerIndex);
+            double y1 = cornerLats[cornerIndex];
+            if (y0 <= lat && lat < y1) {
+                if (lon < x0 + (lat - y0) * (x1 - x0) / (y1 - y0)) {
+                    winding++;
+                }
+            } else if (y1 <= lat && lat < y0) {
+                if (lon < x0 + (lat - y0) * (x1 - x0) / (y1 - y0)) {
+                    winding--;
+                }
+            }
+            x0 = x1;
+            y0 = y1;
+        }
+        return winding != 0;
+    }
+
+    /**
+     * Finds the square of the distance between the centre of the cell at
+     * indices i, j and the given longitude-latitude point. This is the same as
+     * {@link Cell#findDistanceSq(double, double)}, but does not create any
+     * objects.
+     */
+    public double findDistanceSq(int i, int j, double lon, double lat) {
+        int index = getIndex(i, j);
+        double dx = lon - longitudes[index];
+        double dy = lat - latitudes[index];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Gets the [i,j]th cell in this grid. Cells are lightweight views of the
+     * precomputed coordinates of this grid, so are not cached.
      * 
      * @throws IllegalArgumentException
      *             if i,j is not a valid cell in this grid.
@@ -261,6 +369,58 @@ public final class CurvilinearCoords {
         return lonLatBbox;
     }
 
+    /**
+     * @return The approximate amount of heap memory used by this object, in
+     *         bytes
+     */
+    public long getApproximateSize() {
+        /*
+         * Centres are stored as floats, corners as doubles, plus a flag for
+         * each cell
+         */
+        return 9L * ni * nj + 16L * (ni + 1) * (nj + 1);
+    }
+
+    /**
+     * Gets a fingerprint of the coordinates of this grid. Grids with the same
+     * fingerprint have (with overwhelming probability) the same coordinates,
+     * so this can be used to identify data derived from the grid, e.g. a
+     * {@link LookUpTable} stored on disk.
+     * 
+     * @return A hexadecimal SHA-1 digest of the size and coordinates of this
+     *         grid
+     */
+    public synchronized String getFingerprint() {
+        if (fingerprint == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                ByteBuffer buffer = ByteBuffer.allocate(8192);
+                buffer.putInt(ni).putInt(nj);
+                for (float[] values : new float[][] { longitudes, latitudes }) {
+                    for (float value : values) {
+                        if (buffer.remaining() < 4) {
+                            digest.update(buffer.array(), 0, buffer.position());
+                            buffer.clear();
+                        }
+                        buffer.putFloat(value);
+                    }
+                }
+                digest.update(buffer.array(), 0, buffer.position());
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    hex.append(String.format("%02x", b));
+                }
+                fingerprint = hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                /*
+                 * All Java implementations must support SHA-1
+                 */
+                throw new IllegalStateException(e);
+            }
+        }
+        return fingerprint;
+    }
+
     @Override
     public int hashCode() {
         int hashCode = 17;
@@ -309,38 +469,48 @@ public final class CurvilinearCoords {
     }
 
     /**
-     * Returns the area of the quadrilateral defined by the given four vertices.
-     * Uses Bretschneider's Formula,
+     * Returns the area of the quadrilateral defined by the given four vertices,
+     * given as (x,y) pairs. Uses Bretschneider's Formula,
      * http://mathworld.wolfram.com/BretschneidersFormula.html
      */
-    private static double getArea(Point2D p1, Point2D p2, Point2D p3, Point2D p4) {
+    private static double getArea(double[] coords) {
         /* The squares of the side lengths */
-        double a2 = p1.distanceSq(p2);
-        double b2 = p2.distanceSq(p3);
-        double c2 = p3.distanceSq(p4);
-        double d2 = p4.distanceSq(p1);
+        double a2 = distanceSq(coords, 0, 1);
+        double b2 = distanceSq(coords, 1, 2);
+        double c2 = distanceSq(coords, 2, 3);
+        double d2 = distanceSq(coords, 3, 0);
         /* The squares of the diagonal lengths */
-        double f2 = p1.distanceSq(p3);
-        double g2 = p2.distanceSq(p4);
+        double f2 = distanceSq(coords, 0, 2);
+        double g2 = distanceSq(coords, 1, 3);
         /* Calculate an intermediate term */
         double term = b2 + d2 - a2 - c2;
         /* Calculate and return the area */
         return Math.sqrt(4 * f2 * g2 - term * term) / 4.0;
     }
 
+    private static double distanceSq(double[] coords, int p1, int p2) {
+        double dx = coords[2 * p1] - coords[2 * p2];
+        double dy = coords[2 * p1 + 1] - coords[2 * p2 + 1];
+        return dx * dx + dy * dy;
+    }
+
     /**
      * Gets the mean area of the cells in this grid, in square degrees.
      */
     public double getMeanCellArea() {
         double sumArea = 0.0;
         int nans = 0;
-        for (Cell cell : getCells()) {
-            double cellArea = cell.getArea();
-            /* Cell areas can be NaN - see Javadoc for Cell.getArea() */
-            if (Double.isNaN(cellArea)) {
-                nans++;
-            } else {
-                sumArea += cellArea;
+        double[] coords = new double[8];
+        for (int j = 0; j < nj; j++) {
+            for (int i = 0; i < ni; i++) {
+                getCorners(i, j, coords);
+                double cellArea = getArea(coords);
+                /* Cell areas can be NaN - see Javadoc for Cell.getArea() */
+                if (Double.isNaN(cellArea)) {
+                    nans++;
+                } else {
+                    sumArea += cellArea;
+                }
             }
         }
         return sumArea / (size() - nans);
@@ -399,12 +569,11 @@ public final class CurvilinearCoords {
          * </p>
          */
         public List<Point2D> getCorners() {
-            List<LonLatPosition> corners = CurvilinearCoords.this.getCorners(i, j);
-            List<Point2D> cornerPoints = new ArrayList<Point2D>(corners.size());
-            for (LonLatPosition corner : corners) {
-                Point2D cornerPoint = new Point2D.Double(
-                        harmonizeWithCentre(corner.getLongitude()), corner.getLatitude());
-                cornerPoints.add(cornerPoint);
+            double[] coords = new double[8];
+            CurvilinearCoords.this.getCorners(i, j, coords);
+            List<Point2D> cornerPoints = new ArrayList<Point2D>(4);
+            for (int corner = 0; corner < 4; corner++) {
+                cornerPoints.add(new Point2D.Double(coords[2 * corner], coords[2 * corner + 1]));
             }
             return cornerPoints;
         }
@@ -476,9 +645,9 @@ public final class CurvilinearCoords {
          * </p>
          */
         public double getArea() {
-            List<Point2D> corners = this.getCorners();
-            return CurvilinearCoords.getArea(corners.get(0), corners.get(1), corners.get(2),
-                    corners.get(3));
+            double[] coords = new double[8];
+            CurvilinearCoords.this.getCorners(i, j, coords);
+            return CurvilinearCoords.getArea(coords);
         }
 
         /**
@@ -532,30 +701,16 @@ public final class CurvilinearCoords {
          * the given LonLatPosition
          */
         public double findDistanceSq(double lon, double lat) {
-            LonLatPosition centre = this.getCentre();
-            double dx = lon - centre.getLongitude();
-            double dy = lat - centre.getLatitude();
-            return dx * dx + dy * dy;
+            return CurvilinearCoords.this.findDistanceSq(i, j, lon, lat);
         }
 
         /**
          * Returns true if this cell's {@link #getBoundaryPath() boundary}
-         * contains the given longitude-latitude point.
-         * 
-         * TODO what happens if this cell is represented by NaNs?
+         * contains the given longitude-latitude point. Cells represented by
+         * NaNs contain no points.
          */
         public boolean contains(double lon, double lat) {
-            lon = harmonizeWithCentre(lon);
-            Path2D path = getBoundaryPath();
-            return path.contains(lon, lat);
-        }
-
-        /**
-         * Harmonizes the given longitude (in the range [-180:180]) with the
-         * centre of this cell.
-         */
-        private double harmonizeWithCentre(double lon) {
-            return GISUtils.getNearestEquivalentLongitude(getCentre().getLongitude(), lon);
+            return CurvilinearCoords.this.contains(i, j, lon, lat);
         }
 
         @Override
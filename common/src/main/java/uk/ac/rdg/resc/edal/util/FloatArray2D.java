@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import java.util.BitSet;
+
+/**
+ * Implementation of an {@link Array2D} which stores its values as primitive
+ * <code>float</code>s, with missing values recorded in a {@link BitSet}. This
+ * avoids creating a boxed object for every value, and so should be used where
+ * large amounts of data are read (e.g. for map data).
+ * 
+ * Values can be accessed either through the standard {@link Array2D} methods
+ * (in which case missing values are returned as <code>null</code>) or through
+ * the primitive methods {@link #getFloat(int, int)},
+ * {@link #setFloat(int, int, float)}, {@link #isMissing(int, int)} and
+ * {@link #setMissing(int, int)}, which do not require any object creation.
+ * 
+ * Note that <code>NaN</code> is a valid value in this array (as for
+ * {@link ValuesArray2D}), and is distinct from a missing value.
+ * 
+ * All values are initially missing.
+ */
+public class FloatArray2D extends Array2D<Number> {
+    private final float[] data;
+    private final BitSet missing;
+    private final int xSize;
+    private final int ySize;
+    /*
+     * Whether this is a view of another FloatArray2D with the y-axis flipped.
+     */
+    private final boolean flipY;
+
+    public FloatArray2D(int ySize, int xSize) {
+        super(ySize, xSize);
+        if ((long) xSize * ySize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot create a FloatArray2D with more than "
+                    + Integer.MAX_VALUE + " elements");
+        }
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.flipY = false;
+
+        data = new float[xSize * ySize];
+        missing = new BitSet(data.length);
+        missing.set(0, data.length);
+    }
+
+    private FloatArray2D(FloatArray2D source) {
+        super(source.ySize, source.xSize);
+        this.xSize = source.xSize;
+        this.ySize = source.ySize;
+        this.flipY = !source.flipY;
+        this.data = source.data;
+        this.missing = source.missing;
+    }
+
+    /**
+     * @return A view of this {@link FloatArray2D} with the y-axis reversed.
+     *         The returned array shares its storage with this one, so changes
+     *         to either will be reflected in both.
+     */
+    public FloatArray2D flipY() {
+        return new FloatArray2D(this);
+    }
+
+    private int index(int y, int x) {
+        if (x < 0 || x >= xSize || y < 0 || y >= ySize) {
+            throw new ArrayIndexOutOfBoundsException("Co-ordinates (" + y + ", " + x
+                    + ") out of bounds for an Array of size (" + ySize + ", " + xSize + ")");
+        }
+        return (flipY ? ySize - y - 1 : y) * xSize + x;
+    }
+
+    /**
+     * Gets the value at the given co-ordinates as a primitive. Missing values
+     * are returned as <code>NaN</code>, so {@link #isMissing(int, int)} should
+     * be used to distinguish between them if necessary.
+     * 
+     * @param y
+     *            The y co-ordinate
+     * @param x
+     *            The x co-ordinate
+     * @return The value
+     */
+    public float getFloat(int y, int x) {
+        int index = index(y, x);
+        return missing.get(index) ? Float.NaN : data[index];
+    }
+
+    /**
+     * Sets the value at the given co-ordinates
+     * 
+     * @param y
+     *            The y co-ordinate
+     * @param x
+     *            The x co-ordinate
+     * @param value
+     *            The value to set
+     */
+    public void setFloat(int y, int x, float value) {
+        int index = index(y, x);
+        data[index] = value;
+        missing.clear(index);
+    }
+
+    /**
+     * @param y
+     *            The y co-ordinate
+     * @param x
+     *            The x co-ordinate
+     * @return Whether the value at the given co-ordinates is missing
+     */
+    public boolean isMissing(int y, int x) {
+        return missing.get(index(y, x));
+    }
+
+    /**
+     * Marks the value at the given co-ordinates as missing
+     * 
+     * @param y
+     *            The y co-ordinate
+     * @param x
+     *            The x co-ordinate
+     */
+    public void setMissing(int y, int x) {
+        missing.set(index(y, x));
+    }
+
+    @Override
+    public Number get(int... coords) {
+        if (coords.length != 2) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 2)");
+        }
+        int index = index(coords[Y_IND], coords[X_IND]);
+        if (missing.get(index)) {
+            return null;
+        }
+        return data[index];
+    }
+
+    @Override
+    public void set(Number value, int... coords) {
+        if (coords.length != 2) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 2)");
+        }
+        if (value == null) {
+            setMissing(coords[Y_IND], coords[X_IND]);
+        } else {
+            setFloat(coords[Y_IND], coords[X_IND], value.floatValue());
+        }
+    }
+}
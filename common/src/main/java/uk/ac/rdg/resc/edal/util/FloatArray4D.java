@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import java.util.BitSet;
+
+/**
+ * Implementation of an {@link Array4D} which stores its values as primitive
+ * <code>float</code>s, with missing values recorded in a {@link BitSet}.
+ * 
+ * The primitive methods {@link #getFloat(int, int, int, int)} and
+ * {@link #isMissing(int, int, int, int)} allow data to be transferred out of
+ * this array without creating a boxed object for each value.
+ * 
+ * All values are initially missing.
+ */
+public class FloatArray4D extends Array4D<Number> {
+    protected final float[] data;
+    protected final BitSet missing;
+
+    private final int xSize;
+    private final int ySize;
+    private final int zSize;
+    private final int tSize;
+
+    public FloatArray4D(int tSize, int zSize, int ySize, int xSize) {
+        super(tSize, zSize, ySize, xSize);
+        if ((long) tSize * zSize * ySize * xSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot create a FloatArray4D with more than "
+                    + Integer.MAX_VALUE + " elements");
+        }
+        this.tSize = tSize;
+        this.zSize = zSize;
+        this.ySize = ySize;
+        this.xSize = xSize;
+
+        data = new float[tSize * zSize * ySize * xSize];
+        missing = new BitSet(data.length);
+        missing.set(0, data.length);
+    }
+
+    /**
+     * Calculates the index in the underlying storage. The x-dimension varies
+     * fastest.
+     */
+    protected final int index(int t, int z, int y, int x) {
+        if (x < 0 || x >= xSize || y < 0 || y >= ySize || z < 0 || z >= zSize || t < 0
+                || t >= tSize) {
+            throw new ArrayIndexOutOfBoundsException("Co-ordinates (" + t + ", " + z + ", " + y
+                    + ", " + x + ") out of bounds for an Array of size (" + tSize + ", " + zSize
+                    + ", " + ySize + ", " + xSize + ")");
+        }
+        return ((t * zSize + z) * ySize + y) * xSize + x;
+    }
+
+    /**
+     * Gets the value at the given co-ordinates as a primitive. Missing values
+     * are returned as <code>NaN</code>, so
+     * {@link #isMissing(int, int, int, int)} should be used to distinguish
+     * between them if necessary.
+     */
+    public float getFloat(int t, int z, int y, int x) {
+        int index = index(t, z, y, x);
+        return missing.get(index) ? Float.NaN : data[index];
+    }
+
+    /**
+     * @return Whether the value at the given co-ordinates is missing
+     */
+    public boolean isMissing(int t, int z, int y, int x) {
+        return missing.get(index(t, z, y, x));
+    }
+
+    /**
+     * Sets the value at the given co-ordinates
+     */
+    public void setFloat(int t, int z, int y, int x, float value) {
+        int index = index(t, z, y, x);
+        data[index] = value;
+        missing.clear(index);
+    }
+
+    /**
+     * Marks the value at the given co-ordinates as missing
+     */
+    public void setMissing(int t, int z, int y, int x) {
+        missing.set(index(t, z, y, x));
+    }
+
+    @Override
+    public Number get(int... coords) {
+        if (coords.length != 4) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 4)");
+        }
+        int index = index(coords[T_IND], coords[Z_IND], coords[Y_IND], coords[X_IND]);
+        if (missing.get(index)) {
+            return null;
+        }
+        return data[index];
+    }
+
+    @Override
+    public void set(Number value, int... coords) {
+        if (coords.length != 4) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 4)");
+        }
+        if (value == null) {
+            setMissing(coords[T_IND], coords[Z_IND], coords[Y_IND], coords[X_IND]);
+        } else {
+            setFloat(coords[T_IND], coords[Z_IND], coords[Y_IND], coords[X_IND],
+                    value.floatValue());
+        }
+    }
+}
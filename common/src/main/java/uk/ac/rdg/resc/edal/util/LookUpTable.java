@@ -28,19 +28,26 @@
 
 package uk.ac.rdg.resc.edal.util;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Path2D;
-import java.awt.geom.Point2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.DataBuffer;
-import java.awt.image.DirectColorModel;
-import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
-import uk.ac.rdg.resc.edal.util.CurvilinearCoords.Cell;
 
 /**
  * An object that provides an approximate means for mapping from
@@ -53,13 +60,16 @@ import uk.ac.rdg.resc.edal.util.CurvilinearCoords.Cell;
 public final class LookUpTable {
     /*
      * The contents of the look-up table: i.e. the i and j indices of each
-     * lon-lat point in the LUT. These are flattened from a 2D to a 1D array. We
-     * store these as shorts to save disk space. The LUT would need to be
-     * extremely large before we would have to worry about overflows. Each array
-     * has the size nLon * nLat
+     * lon-lat point in the LUT. These are flattened from a 2D to a 1D array.
+     * Each array has the size nLon * nLat. We store these as unsigned shorts
+     * (in a ShortBuffer) to save memory and disk space, unless the grid has
+     * too many points along one of its axes, in which case they are stored as
+     * ints (in an IntBuffer). When a LUT is read from disk, these are
+     * memory-mapped from the file.
      */
-    private DataBuffer iIndices;
-    private DataBuffer jIndices;
+    private final Buffer iIndices;
+    private final Buffer jIndices;
+    private final boolean wideIndices;
 
     private final int nLon;
     private final int nLat;
@@ -67,21 +77,32 @@ public final class LookUpTable {
     // Converts from lat-lon coordinates to index space in the LUT.
     private final AffineTransform transform = new AffineTransform();
 
-    /**
-     * A {@link DirectColorModel} that holds data as unsigned shorts, ignoring
-     * the red and alpha components. (int value = green &lt;&lt; 8 | blue)
+    /** This value in a look-up table of shorts means "missing value" */
+    private static final short MISSING_SHORT = (short) 0xffff;
+    /** This value in a look-up table of ints means "missing value" */
+    private static final int MISSING_INT = -1;
+
+    /** This is the maximum index that can be stored in a look-up table of shorts */
+    private static final int MAX_SHORT_INDEX = 65534;
+
+    /*
+     * The look-up tables are split into bands of this many rows, which are
+     * rasterised in parallel
      */
-    private static final ColorModel COLOR_MODEL = new DirectColorModel(16, 0x00000000, 0x0000ff00,
-            0x000000ff, 0x00000000);
+    private static final int BAND_HEIGHT = 64;
 
-    /** This value in the look-up table means "missing value" */
-    private static final int MISSING_VALUE = 65535;
+    private static final ForkJoinPool lutPool = new ForkJoinPool();
 
-    /** This is the maximum index that can be stored in the LUT */
-    private static final int MAX_INDEX = 65534;
+    /** Identifies look-up table files, and the version of their format */
+    private static final int FILE_MAGIC = 0x4c555402;
+    /**
+     * The size of a look-up table file header: magic number, nLon, nLat, the
+     * number of bytes per index and the 6 elements of the transform
+     */
+    private static final int FILE_HEADER_SIZE = 4 * 4 + 6 * 8;
 
     /**
-     * Creates an empty look-up table (with all indices set to -1).
+     * Creates a look-up table for the given {@link CurvilinearCoords}.
      * 
      * @param curvCoords
      *            The {@link CurvilinearCoords} which this LUT will approximate
@@ -89,6 +110,23 @@ public final class LookUpTable {
      *            The minimum resolution of the LUT in degrees
      */
     public LookUpTable(CurvilinearCoords curvCoords, double minResolution) {
+        this(curvCoords, minResolution, curvCoords.getNi() - 1 > MAX_SHORT_INDEX
+                || curvCoords.getNj() - 1 > MAX_SHORT_INDEX);
+    }
+
+    /**
+     * Creates a look-up table for the given {@link CurvilinearCoords}, storing
+     * the indices as either shorts or ints.
+     * 
+     * @param curvCoords
+     *            The {@link CurvilinearCoords} which this LUT will approximate
+     * @param minResolution
+     *            The minimum resolution of the LUT in degrees
+     * @param wideIndices
+     *            Whether to store the indices as ints. This must be true if
+     *            either axis of the grid has more than 65535 points.
+     */
+    LookUpTable(CurvilinearCoords curvCoords, double minResolution, boolean wideIndices) {
         BoundingBox bbox = curvCoords.getBoundingBox();
 
         double lonDiff = bbox.getMaxX() - bbox.getMinX();
@@ -119,79 +157,409 @@ public final class LookUpTable {
         transform.translate(-bbox.getMinX(), -bbox.getMinY());
 
         /* Populate the look-up tables */
-        makeLuts(curvCoords);
+        this.wideIndices = wideIndices;
+        IndexRaster raster = makeLuts(curvCoords);
+        iIndices = raster.getIIndices();
+        jIndices = raster.getJIndices();
     }
 
     /**
-     * Generates the data for the look-up tables
+     * Generates the data for the look-up tables.
+     * 
+     * Each cell of the grid is scan-converted into the LUT, setting the i and
+     * j indices of all of the LUT points whose centres lie within it. The LUT
+     * is split into bands of rows, which are rasterised in parallel. Within
+     * each band the cells are painted in order (with the i direction varying
+     * fastest), so where cells overlap the result is the same as if the whole
+     * LUT had been painted on a single thread.
      */
-    private void makeLuts(CurvilinearCoords curvCoords) {
+    private IndexRaster makeLuts(final CurvilinearCoords curvCoords) {
+        final int ni = curvCoords.getNi();
+        final int nj = curvCoords.getNj();
+        int nCells = ni * nj;
+
         /*
-         * Create BufferedImages on which we will paint the i and j indices of
-         * cells
+         * First find the range of rows of the LUT which each cell covers.
+         * Shifting a cell by 360 degrees does not change this.
          */
-        BufferedImage iIm = createBufferedImage();
-        BufferedImage jIm = createBufferedImage();
-
-        /* Get graphics contexts onto which we'll paint */
-        Graphics2D ig2d = iIm.createGraphics();
-        Graphics2D jg2d = jIm.createGraphics();
+        final int[] firstRows = new int[nCells];
+        final int[] lastRows = new int[nCells];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        int cellRowsPerTask = Math.max(1, nj / (4 * lutPool.getParallelism()));
+        for (int jStart = 0; jStart < nj; jStart += cellRowsPerTask) {
+            final int firstJ = jStart;
+            final int lastJ = Math.min(nj, jStart + cellRowsPerTask);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    double[] lonLats = new double[8];
+                    double[] coords = new double[8];
+                    for (int j = firstJ; j < lastJ; j++) {
+                        for (int i = 0; i < ni; i++) {
+                            int cell = i + j * ni;
+                            curvCoords.getCorners(i, j, lonLats);
+                            transform.transform(lonLats, 0, coords, 0, 4);
+                            double minY = Math.min(Math.min(coords[1], coords[3]),
+                                    Math.min(coords[5], coords[7]));
+                            double maxY = Math.max(Math.max(coords[1], coords[3]),
+                                    Math.max(coords[5], coords[7]));
+                            if (Double.isNaN(minY) || Double.isNaN(maxY)
+                                    || Double.isNaN(coords[0] + coords[2] + coords[4] + coords[6])) {
+                                /*
+                                 * Cells represented by NaNs cannot be painted
+                                 */
+                                firstRows[cell] = 0;
+                                lastRows[cell] = -1;
+                            } else {
+                                firstRows[cell] = (int) Math.max(0.0, Math.ceil(minY));
+                                lastRows[cell] = (int) Math.min(nLat - 1.0, Math.ceil(maxY) - 1.0);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
 
-        /* Apply a transform so that we can paint in lat-lon coordinates */
-        ig2d.setTransform(transform);
-        jg2d.setTransform(transform);
+        /*
+         * Now make a list of the cells which cover each band, in order
+         */
+        int nBands = (nLat + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        final int[] bandStarts = new int[nBands + 1];
+        for (int cell = 0; cell < nCells; cell++) {
+            if (firstRows[cell] <= lastRows[cell]) {
+                for (int band = firstRows[cell] / BAND_HEIGHT; band <= lastRows[cell]
+                        / BAND_HEIGHT; band++) {
+                    bandStarts[band + 1]++;
+                }
+            }
+        }
+        for (int band = 0; band < nBands; band++) {
+            bandStarts[band + 1] += bandStarts[band];
+        }
+        final int[] bandCells = new int[bandStarts[nBands]];
+        int[] bandEnds = Arrays.copyOf(bandStarts, nBands);
+        for (int cell = 0; cell < nCells; cell++) {
+            if (firstRows[cell] <= lastRows[cell]) {
+                for (int band = firstRows[cell] / BAND_HEIGHT; band <= lastRows[cell]
+                        / BAND_HEIGHT; band++) {
+                    bandCells[bandEnds[band]++] = cell;
+                }
+            }
+        }
 
         /*
-         * Populate the BufferedImages using the information from the
-         * curvilinear grid Iterate over all the cells in the grid, painting the
-         * i and j indices of the cell onto the BufferedImage
+         * Finally paint the cells into each band
          */
-        for (Cell cell : curvCoords.getCells()) {
-            /* Get a Path representing the boundary of the cell */
-            Path2D path = cell.getBoundaryPath();
-            /*
-             * Paint the path onto the BufferedImages as polygons Use the i and
-             * j indices of the cell as the colours
-             */
-            if (cell.getI() > MAX_INDEX || cell.getJ() > MAX_INDEX) {
-                /* Very unlikely to happen! */
-                throw new IllegalStateException("Can't store indices greater than " + MAX_INDEX);
+        final IndexRaster raster = new IndexRaster(nLon, nLat, wideIndices);
+        tasks.clear();
+        for (int band = 0; band < nBands; band++) {
+            final int firstRow = band * BAND_HEIGHT;
+            final int lastRow = Math.min(nLat, firstRow + BAND_HEIGHT) - 1;
+            final int start = bandStarts[band];
+            final int end = bandStarts[band + 1];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    double[] lonLats = new double[8];
+                    double[] coords = new double[8];
+                    double[] crossings = new double[4];
+                    int[] windings = new int[4];
+                    for (int n = start; n < end; n++) {
+                        int i = bandCells[n] % ni;
+                        int j = bandCells[n] / ni;
+                        curvCoords.getCorners(i, j, lonLats);
+                        transform.transform(lonLats, 0, coords, 0, 4);
+                        raster.fillPolygon(coords, i, j, firstRow, lastRow, crossings, windings);
+
+                        /*
+                         * We paint a second copy of the cell, shifted by 360
+                         * degrees, to handle the anti-meridian
+                         */
+                        double shiftLon = curvCoords.getMidpointLongitude(i, j) > 0.0 ? -360.0
+                                : 360.0;
+                        for (int k = 0; k < 8; k += 2) {
+                            lonLats[k] += shiftLon;
+                        }
+                        transform.transform(lonLats, 0, coords, 0, 4);
+                        raster.fillPolygon(coords, i, j, firstRow, lastRow, crossings, windings);
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        return raster;
+    }
+
+    /**
+     * Runs the given tasks on the shared pool, waiting for them all to
+     * complete
+     */
+    private static void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> result : lutPool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst generating look-up table", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Problem generating look-up table", e.getCause());
+        }
+    }
+
+    /**
+     * The i and j indices of a look-up table which is being generated, stored
+     * as either unsigned shorts or ints. Different rows may be painted
+     * concurrently by different threads.
+     */
+    private static final class IndexRaster {
+        private final int width;
+        private final short[] iShorts;
+        private final short[] jShorts;
+        private final int[] iInts;
+        private final int[] jInts;
+
+        public IndexRaster(int width, int height, boolean wide) {
+            this.width = width;
+            int size = width * height;
+            if (wide) {
+                iShorts = null;
+                jShorts = null;
+                iInts = new int[size];
+                jInts = new int[size];
+                Arrays.fill(iInts, MISSING_INT);
+                Arrays.fill(jInts, MISSING_INT);
+            } else {
+                iShorts = new short[size];
+                jShorts = new short[size];
+                iInts = null;
+                jInts = null;
+                Arrays.fill(iShorts, MISSING_SHORT);
+                Arrays.fill(jShorts, MISSING_SHORT);
             }
-            ig2d.setPaint(new Color(cell.getI()));
-            jg2d.setPaint(new Color(cell.getJ()));
-            ig2d.fill(path);
-            jg2d.fill(path);
+        }
+
+        /**
+         * Scan-converts a polygon into rows firstRow to lastRow (inclusive) of
+         * this raster, setting the indices of every point whose centre lies
+         * within it. As with Java2D, the non-zero winding rule is used to
+         * decide which points are within the polygon.
+         * 
+         * @param coords
+         *            The vertices of the polygon in LUT index space, as
+         *            (x,y) pairs
+         * @param crossings
+         *            Working space for the x coordinates where the edges
+         *            cross a row. Must be at least as long as the number of
+         *            vertices.
+         * @param windings
+         *            Working space for the directions of the crossing edges.
+         *            Must be at least as long as the number of vertices.
+         */
+        public void fillPolygon(double[] coords, int i, int j, int firstRow, int lastRow,
+                double[] crossings, int[] windings) {
+            int nVertices = coords.length / 2;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int k = 1; k < coords.length; k += 2) {
+                minY = Math.min(minY, coords[k]);
+                maxY = Math.max(maxY, coords[k]);
+            }
+            int startRow = (int) Math.max(firstRow, Math.ceil(minY));
+            int endRow = (int) Math.min(lastRow, Math.ceil(maxY) - 1.0);
+            for (int row = startRow; row <= endRow; row++) {
+                /*
+                 * Find where the edges cross this row, sorted by x. Each edge
+                 * includes its lower end but not its upper end, so that
+                 * vertices are only counted once.
+                 */
+                int nCrossings = 0;
+                for (int k = 0; k < nVertices; k++) {
+                    int next = (k + 1) % nVertices;
+                    double x0 = coords[2 * k];
+                    double y0 = coords[2 * k + 1];
+                    double x1 = coords[2 * next];
+                    double y1 = coords[2 * next + 1];
+                    int winding;
+                    if (y0 <= row && row < y1) {
+                        winding = 1;
+                    } else if (y1 <= row && row < y0) {
+                        winding = -1;
+                    } else {
+                        continue;
+                    }
+                    double x = x0 + (row - y0) * (x1 - x0) / (y1 - y0);
+                    int n = nCrossings++;
+                    while (n > 0 && crossings[n - 1] > x) {
+                        crossings[n] = crossings[n - 1];
+                        windings[n] = windings[n - 1];
+                        n--;
+                    }
+                    crossings[n] = x;
+                    windings[n] = winding;
+                }
 
+                /*
+                 * Fill the points between crossings where the winding number
+                 * is non-zero
+                 */
+                int winding = 0;
+                for (int n = 0; n < nCrossings - 1; n++) {
+                    winding += windings[n];
+                    if (winding != 0) {
+                        int startX = (int) Math.max(0.0, Math.ceil(crossings[n]));
+                        int endX = (int) Math.min(width, Math.ceil(crossings[n + 1]));
+                        if (startX < endX) {
+                            fill(row * width + startX, row * width + endX, i, j);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void fill(int from, int to, int i, int j) {
+            if (iInts != null) {
+                Arrays.fill(iInts, from, to, i);
+                Arrays.fill(jInts, from, to, j);
+            } else {
+                Arrays.fill(iShorts, from, to, (short) i);
+                Arrays.fill(jShorts, from, to, (short) j);
+            }
+        }
+
+        public Buffer getIIndices() {
+            return iInts != null ? IntBuffer.wrap(iInts) : ShortBuffer.wrap(iShorts);
+        }
+
+        public Buffer getJIndices() {
+            return jInts != null ? IntBuffer.wrap(jInts) : ShortBuffer.wrap(jShorts);
+        }
+    }
+
+    /**
+     * Creates a look-up table from existing data
+     */
+    private LookUpTable(int nLon, int nLat, double[] transformMatrix, boolean wideIndices,
+            Buffer iIndices, Buffer jIndices) {
+        this.nLon = nLon;
+        this.nLat = nLat;
+        transform.setTransform(new AffineTransform(transformMatrix));
+        this.wideIndices = wideIndices;
+        this.iIndices = iIndices;
+        this.jIndices = jIndices;
+    }
+
+    /**
+     * Reads a look-up table which has previously been written with
+     * {@link #write(File)}. The indices are memory-mapped rather than read
+     * into the heap, so this is fast and does not use much memory even for
+     * very large look-up tables.
+     * 
+     * @param file
+     *            The file to read
+     * @return The {@link LookUpTable}
+     * @throws IOException
+     *             If the file cannot be read, or is not a valid look-up table
+     */
+    public static LookUpTable read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
             /*
-             * We paint a second copy of the cell, shifted by 360 degrees, to
-             * handle the anti-meridian
+             * The mapping remains valid after the channel is closed
              */
-            double shiftLon = cell.getCentre().getLongitude() > 0.0 ? -360.0 : 360.0;
-            path.transform(AffineTransform.getTranslateInstance(shiftLon, 0.0));
-            ig2d.fill(path);
-            jg2d.fill(path);
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < FILE_HEADER_SIZE || buffer.getInt(0) != FILE_MAGIC) {
+                throw new IOException(file + " is not a valid look-up table");
+            }
+            int nLon = buffer.getInt(4);
+            int nLat = buffer.getInt(8);
+            int bytesPerIndex = buffer.getInt(12);
+            double[] transformMatrix = new double[6];
+            for (int i = 0; i < 6; i++) {
+                transformMatrix[i] = buffer.getDouble(16 + 8 * i);
+            }
+            long size = (long) nLon * nLat;
+            if (nLon <= 0 || nLat <= 0 || (bytesPerIndex != 2 && bytesPerIndex != 4)
+                    || buffer.capacity() != FILE_HEADER_SIZE + 2 * bytesPerIndex * size) {
+                throw new IOException(file + " is not a valid look-up table");
+            }
+            buffer.position(FILE_HEADER_SIZE);
+            buffer.limit((int) (FILE_HEADER_SIZE + bytesPerIndex * size));
+            ByteBuffer iBytes = buffer.slice();
+            buffer.limit(buffer.capacity());
+            buffer.position((int) (FILE_HEADER_SIZE + bytesPerIndex * size));
+            ByteBuffer jBytes = buffer.slice();
+            if (bytesPerIndex == 4) {
+                return new LookUpTable(nLon, nLat, transformMatrix, true, iBytes.asIntBuffer(),
+                        jBytes.asIntBuffer());
+            } else {
+                return new LookUpTable(nLon, nLat, transformMatrix, false,
+                        iBytes.asShortBuffer(), jBytes.asShortBuffer());
+            }
         }
-
-        /* We only need to store the data buffers, not the whole BufferedImages */
-        iIndices = iIm.getRaster().getDataBuffer();
-        jIndices = jIm.getRaster().getDataBuffer();
     }
 
     /**
-     * Creates and returns a new {@link BufferedImage} that stores pixel data as
-     * unsigned shorts. Initializes all pixel values to {@link #MISSING_VALUE}.
+     * Writes this look-up table to a file, so that it can be read later with
+     * {@link #read(File)}
      * 
-     * @return
+     * @param file
+     *            The file to write to
+     * @throws IOException
+     *             If the file cannot be written
      */
-    private BufferedImage createBufferedImage() {
-        WritableRaster raster = COLOR_MODEL.createCompatibleWritableRaster(nLon, nLat);
-        BufferedImage im = new BufferedImage(COLOR_MODEL, raster, true, null);
-        for (int y = 0; y < im.getHeight(); y++) {
-            for (int x = 0; x < im.getWidth(); x++) {
-                im.setRGB(x, y, MISSING_VALUE);
+    public void write(File file) throws IOException {
+        long size = (long) nLon * nLat;
+        int bytesPerIndex = wideIndices ? 4 : 2;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, FILE_HEADER_SIZE + 2
+                    * bytesPerIndex * size);
+            buffer.putInt(FILE_MAGIC);
+            buffer.putInt(nLon);
+            buffer.putInt(nLat);
+            buffer.putInt(bytesPerIndex);
+            double[] transformMatrix = new double[6];
+            transform.getMatrix(transformMatrix);
+            for (double element : transformMatrix) {
+                buffer.putDouble(element);
+            }
+            ByteBuffer indices = buffer.slice();
+            if (wideIndices) {
+                indices.asIntBuffer().put(((IntBuffer) iIndices).duplicate())
+                        .put(((IntBuffer) jIndices).duplicate());
+            } else {
+                indices.asShortBuffer().put(((ShortBuffer) iIndices).duplicate())
+                        .put(((ShortBuffer) jIndices).duplicate());
             }
+            buffer.force();
         }
-        return im;
+    }
+
+    /**
+     * @return The approximate amount of heap memory used by this look-up
+     *         table, in bytes. This is 0 for look-up tables which have been
+     *         memory-mapped from disk.
+     */
+    public long getHeapSize() {
+        return iIndices.isDirect() ? 0 : (wideIndices ? 8L : 4L) * nLon * nLat;
+    }
+
+    /**
+     * @return The grid index stored at the given position of the given
+     *         indices, or -1 if it is missing
+     */
+    private int getIndex(Buffer indices, int index) {
+        if (wideIndices) {
+            return ((IntBuffer) indices).get(index);
+        }
+        short value = ((ShortBuffer) indices).get(index);
+        return value == MISSING_SHORT ? MISSING_INT : value & 0xffff;
     }
 
     /**
@@ -209,28 +577,73 @@ public final class LookUpTable {
      *         domain of this LUT.
      */
     public int[] getGridCoordinates(double longitude, double latitude) {
-        /* Convert from longitude-latitude to index space in this LUT */
-        Point2D indexPoint = transform.transform(new Point2D.Double(longitude, latitude), null);
-        int iLon = (int) Math.round(indexPoint.getX());
-        int iLat = (int) Math.round(indexPoint.getY());
-
-        if (iLon < 0 || iLat < 0 || iLon >= nLon || iLat >= nLat) {
+        int lutIndex = getLutIndex(longitude, latitude);
+        if (lutIndex < 0) {
             return null;
         }
-
-        /* Find the index within the LUT */
-        int index = iLon + (iLat * nLon);
         /* Extract the i and j indices of the nearest grid point */
-        int iIndex = iIndices.getElem(index);
-        int jIndex = jIndices.getElem(index);
+        int iIndex = getIIndex(lutIndex);
+        int jIndex = getJIndex(lutIndex);
 
         /* Check for missing values */
-        if (iIndex == MISSING_VALUE || jIndex == MISSING_VALUE) {
+        if (iIndex < 0 || jIndex < 0) {
             return null;
         }
         return new int[] { iIndex, jIndex };
     }
 
+    /**
+     * Finds the nearest point in this look-up table to the given
+     * longitude-latitude point. Together with {@link #getIIndex(int)} and
+     * {@link #getJIndex(int)}, this gives the same result as
+     * {@link #getGridCoordinates(double, double)} without creating any
+     * objects.
+     * 
+     * @param longitude
+     *            The longitude of the point of interest
+     * @param latitude
+     *            The latitude of the point of interest
+     * @return The index of the nearest point within this look-up table, or -1
+     *         if the given longitude-latitude point is not in the domain of
+     *         this LUT.
+     */
+    public int getLutIndex(double longitude, double latitude) {
+        /* Convert from longitude-latitude to index space in this LUT */
+        double x = transform.getScaleX() * longitude + transform.getShearX() * latitude
+                + transform.getTranslateX();
+        double y = transform.getShearY() * longitude + transform.getScaleY() * latitude
+                + transform.getTranslateY();
+        /* NaNs will fail these tests */
+        if (!(x >= -0.5 && y >= -0.5 && x < nLon - 0.5 && y < nLat - 0.5)) {
+            return -1;
+        }
+        int iLon = (int) Math.round(x);
+        int iLat = (int) Math.round(y);
+        return iLon + (iLat * nLon);
+    }
+
+    /**
+     * @param lutIndex
+     *            An index within this look-up table, as returned by
+     *            {@link #getLutIndex(double, double)}
+     * @return The i index of the grid cell at this point of the LUT, or -1 if
+     *         there is none
+     */
+    public int getIIndex(int lutIndex) {
+        return getIndex(iIndices, lutIndex);
+    }
+
+    /**
+     * @param lutIndex
+     *            An index within this look-up table, as returned by
+     *            {@link #getLutIndex(double, double)}
+     * @return The j index of the grid cell at this point of the LUT, or -1 if
+     *         there is none
+     */
+    public int getJIndex(int lutIndex) {
+        return getIndex(jIndices, lutIndex);
+    }
+
     /**
      * Gets the number of points in this look-up table along its longitude axis
      */
@@ -249,8 +662,10 @@ public final class LookUpTable {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((iIndices == null) ? 0 : iIndices.hashCode());
-        result = prime * result + ((jIndices == null) ? 0 : jIndices.hashCode());
+        /*
+         * The contents of the indices are not included, since hashing them
+         * would be very expensive for large tables
+         */
         result = prime * result + nLat;
         result = prime * result + nLon;
         result = prime * result + ((transform == null) ? 0 : transform.hashCode());
@@ -266,30 +681,18 @@ public final class LookUpTable {
         if (getClass() != obj.getClass())
             return false;
         LookUpTable other = (LookUpTable) obj;
-        if (iIndices == null) {
-            if (other.iIndices != null)
-                return false;
-        } else {
-            for (int i = 0; i < iIndices.getSize(); i++) {
-                if (iIndices.getElem(i) != other.iIndices.getElem(i)) {
-                    return false;
-                }
-            }
-        }
-        if (jIndices == null) {
-            if (other.jIndices != null)
-                return false;
-        } else {
-            for (int i = 0; i < jIndices.getSize(); i++) {
-                if (jIndices.getElem(i) != other.jIndices.getElem(i)) {
-                    return false;
-                }
-            }
-        }
         if (nLat != other.nLat)
             return false;
         if (nLon != other.nLon)
             return false;
+        if (wideIndices != other.wideIndices)
+            return false;
+        for (int i = 0; i < nLon * nLat; i++) {
+            if (getIndex(iIndices, i) != other.getIndex(other.iIndices, i)
+                    || getIndex(jIndices, i) != other.getIndex(other.jIndices, i)) {
+                return false;
+            }
+        }
         if (transform == null) {
             if (other.transform != null)
                 return false;
@@ -150,6 +150,29 @@ public abstract class RArray {
         this.size++;
     }
 
+    /**
+     * Replaces an existing element of the array
+     * 
+     * @param index
+     *            The index of the element to replace
+     * @param i
+     *            The new value of the element
+     * @throws ArrayIndexOutOfBoundsException
+     *             if {@code index >= size()}
+     * @throws ArithmeticException
+     *             if {@code i} is too large or small to be stored in the
+     *             underlying storage array
+     */
+    public final void set(int index, long i) {
+        if (index < 0 || index >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (i < this.getMinValue() || i > this.getMaxValue()) {
+            throw new ArithmeticException(i + " cannot be stored in this array");
+        }
+        this.setElement(index, i);
+    }
+
     public final int size() {
         return this.size;
     }
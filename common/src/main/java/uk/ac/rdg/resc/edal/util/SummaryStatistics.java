@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+
+/**
+ * Summary statistics of a set of values, which can be built up one value at a
+ * time and merged with other {@link SummaryStatistics}. These record the
+ * exact count, minimum, maximum and mean of the values, and a sketch of their
+ * distribution from which percentiles can be estimated.
+ * 
+ * The sketch is a hierarchy of compactors, as in the KLL sketch of Karnin,
+ * Lang and Liberty. Each level holds a sample of the values, in which each
+ * value stands for 2<sup>level</sup> of the original values. When a level
+ * becomes full, it is sorted and every other value is promoted to the next
+ * level. The error of an estimated percentile is therefore bounded in terms
+ * of rank rather than value: it is typically well under 1% of the count,
+ * however the values are distributed, and is not affected by outliers. Until
+ * the first level fills, the percentiles are exact.
+ * 
+ * This class is not thread-safe.
+ */
+public final class SummaryStatistics {
+    /**
+     * The number of values held by the top level of the sketch. The total
+     * number of values held is roughly three times this.
+     */
+    public static final int SKETCH_SIZE = 200;
+
+    /* The smallest number of values which a level can hold */
+    private static final int MIN_LEVEL_SIZE = 8;
+
+    private long count = 0;
+    private double sum = 0.0;
+    private float min = Float.MAX_VALUE;
+    private float max = -Float.MAX_VALUE;
+
+    /*
+     * levels[h] holds sizes[h] values, each of which stands for 2^h of the
+     * original values. compactions[h] alternates between compactions of a
+     * level, so that the odd- and even-ranked values are promoted in turn.
+     */
+    private float[][] levels = new float[0][];
+    private int[] sizes = new int[0];
+    private int[] capacities = new int[0];
+    private boolean[] compactions = new boolean[0];
+    /* The total number of values held, and the total capacity of the levels */
+    private int retained = 0;
+    private int capacity = 0;
+
+    /**
+     * Adds a value to these statistics. NaN and infinite values are ignored.
+     * 
+     * @param value
+     *            The value to add
+     */
+    public void add(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return;
+        }
+        if (levels.length == 0) {
+            addLevel();
+        }
+        addToLevel(0, value);
+        compress();
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all of the values summarised by another {@link SummaryStatistics}
+     * to these. The sketches are combined level by level, so percentiles of
+     * the merged statistics have the same accuracy as if the values had all
+     * been added to the same {@link SummaryStatistics}.
+     * 
+     * @param other
+     *            The {@link SummaryStatistics} to merge
+     */
+    public void merge(SummaryStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                addToLevel(h, other.levels[h][i]);
+            }
+        }
+        compress();
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return The number of values which have been added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The smallest value, or NaN if no values have been added
+     */
+    public float getMin() {
+        return count == 0 ? Float.NaN : min;
+    }
+
+    /**
+     * @return The largest value, or NaN if no values have been added
+     */
+    public float getMax() {
+        return count == 0 ? Float.NaN : max;
+    }
+
+    /**
+     * @return The mean of the values, or NaN if no values have been added
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Estimates a percentile of the values from the sketch
+     * 
+     * @param percentile
+     *            The percentile to estimate, between 0 and 100
+     * @return The estimated value, which will always be one of the values
+     *         which were added. NaN if no values have been added.
+     */
+    public float getPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return Float.NaN;
+        }
+        if (percentile == 0.0) {
+            return min;
+        } else if (percentile == 100.0) {
+            return max;
+        }
+        /*
+         * Sort the retained values together with their levels, by packing
+         * them into longs whose order is the same as that of the values
+         */
+        int n = 0;
+        for (int size : sizes) {
+            n += size;
+        }
+        long[] packed = new long[n];
+        n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                packed[n++] = ((long) sortableBits(levels[h][i]) << 32) | h;
+            }
+        }
+        Arrays.sort(packed);
+
+        double target = count * percentile / 100.0;
+        long cumulative = 0;
+        for (long entry : packed) {
+            cumulative += 1L << (int) (entry & 0xFFFFFFFFL);
+            if (cumulative >= target) {
+                return unsortableBits((int) (entry >> 32));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param lowPercentile
+     *            The lower percentile, between 0 and 100
+     * @param highPercentile
+     *            The upper percentile, between 0 and 100
+     * @return The range between the estimated percentiles, or
+     *         <code>null</code> if no values have been added
+     */
+    public Extent<Float> getPercentileRange(double lowPercentile, double highPercentile) {
+        if (count == 0) {
+            return null;
+        }
+        return Extents.newExtent(getPercentile(lowPercentile),
+                Math.max(getPercentile(lowPercentile), getPercentile(highPercentile)));
+    }
+
+    /*
+     * Maps the bits of a float to an int with the same ordering, and back
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+    }
+
+    private static float unsortableBits(int bits) {
+        return Float.intBitsToFloat(bits < 0 ? bits ^ 0x7FFFFFFF : bits);
+    }
+
+    /*
+     * Adds a new top level. The number of values which each level can hold
+     * decreases geometrically below the top level.
+     */
+    private void addLevel() {
+        int h = levels.length;
+        levels = Arrays.copyOf(levels, h + 1);
+        sizes = Arrays.copyOf(sizes, h + 1);
+        compactions = Arrays.copyOf(compactions, h + 1);
+        levels[h] = new float[MIN_LEVEL_SIZE];
+        capacities = new int[h + 1];
+        capacity = 0;
+        for (int level = 0; level <= h; level++) {
+            capacities[level] = Math.max(MIN_LEVEL_SIZE,
+                    (int) Math.ceil(SKETCH_SIZE * Math.pow(2.0 / 3.0, h - level)));
+            capacity += capacities[level];
+        }
+    }
+
+    private void addToLevel(int level, float value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], 2 * sizes[level]);
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    /*
+     * Whilst more values are held than the total capacity of the levels,
+     * compacts the lowest level which is full. Levels may exceed their own
+     * capacities until then, which keeps as many values as possible.
+     */
+    private void compress() {
+        while (retained >= capacity) {
+            int h = 0;
+            while (sizes[h] < capacities[h]) {
+                h++;
+            }
+            compact(h);
+        }
+    }
+
+    /*
+     * Sorts a level and promotes every other value to the next level. If the
+     * level holds an odd number of values, the last one added stays where it
+     * is.
+     */
+    private void compact(int level) {
+        if (level == levels.length - 1) {
+            addLevel();
+        }
+        float[] values = levels[level];
+        int n = sizes[level];
+        int pairs = n & ~1;
+        Arrays.sort(values, 0, pairs);
+        int offset = compactions[level] ? 1 : 0;
+        compactions[level] = !compactions[level];
+        for (int i = offset; i < pairs; i += 2) {
+            addToLevel(level + 1, values[i]);
+        }
+        values[0] = values[n - 1];
+        sizes[level] = n - pairs;
+        retained -= pairs;
+    }
+
+    /**
+     * Writes these statistics in a compact binary form
+     * 
+     * @param out
+     *            The {@link DataOutput} to write to
+     * @throws IOException
+     *             If there is a problem writing the data
+     */
+    public void write(DataOutput out) throws IOException {
+        writeVarLong(out, count);
+        if (count == 0) {
+            return;
+        }
+        out.writeDouble(sum);
+        out.writeFloat(min);
+        out.writeFloat(max);
+        writeVarLong(out, levels.length);
+        for (int h = 0; h < levels.length; h++) {
+            writeVarLong(out, sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                out.writeFloat(levels[h][i]);
+            }
+        }
+    }
+
+    /**
+     * Reads statistics written by {@link #write(DataOutput)}
+     * 
+     * @param in
+     *            The {@link DataInput} to read from
+     * @return The {@link SummaryStatistics} which were read
+     * @throws IOException
+     *             If there is a problem reading the data
+     */
+    public static SummaryStatistics read(DataInput in) throws IOException {
+        SummaryStatistics stats = new SummaryStatistics();
+        stats.count = readVarLong(in);
+        if (stats.count == 0) {
+            return stats;
+        }
+        stats.sum = in.readDouble();
+        stats.min = in.readFloat();
+        stats.max = in.readFloat();
+        long nLevels = readVarLong(in);
+        if (nLevels > 64) {
+            throw new IOException("Invalid number of levels: " + nLevels);
+        }
+        for (int h = 0; h < nLevels; h++) {
+            stats.addLevel();
+            for (long i = readVarLong(in); i > 0; i--) {
+                stats.addToLevel(h, in.readFloat());
+            }
+        }
+        return stats;
+    }
+
+    /*
+     * Most counts and sizes are small, so they are written 7 bits at a time,
+     * with the top bit of each byte set if more bytes follow
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable-length integer");
+    }
+}
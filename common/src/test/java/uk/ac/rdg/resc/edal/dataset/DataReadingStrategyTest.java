@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.dataset.DataReadingStrategy.ReadPlan;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGridImpl;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * Test class for {@link DataReadingStrategy}. Checks that the adaptive
+ * strategies read the same data as the fixed ones, and that they choose a
+ * sensible plan.
+ */
+public class DataReadingStrategyTest {
+    private static final int X_SIZE = 3600;
+    private static final int Y_SIZE = 1800;
+
+    private HorizontalGrid sourceGrid;
+    private CountingGridDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        sourceGrid = new RegularGridImpl(-180, -90, 180, 90, DefaultGeographicCRS.WGS84, X_SIZE,
+                Y_SIZE);
+        dataSource = new CountingGridDataSource();
+    }
+
+    @Test
+    public void testZoomedIn() throws Exception {
+        HorizontalGrid targetGrid = new RegularGridImpl(10, 10, 20, 20,
+                DefaultGeographicCRS.WGS84, 64, 64);
+        assertPlan(DataReadingStrategy.ADAPTIVE, targetGrid, ReadPlan.BOUNDING_BOX);
+        assertEquals(1, dataSource.reads);
+        assertPlan(DataReadingStrategy.ADAPTIVE_REMOTE, targetGrid, ReadPlan.BOUNDING_BOX);
+    }
+
+    @Test
+    public void testZoomedOut() throws Exception {
+        HorizontalGrid targetGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 36, 18);
+        /*
+         * Rows are far apart, so it is cheaper to read them individually
+         * locally, but not remotely
+         */
+        assertPlan(DataReadingStrategy.ADAPTIVE, targetGrid, ReadPlan.SCANLINE);
+        assertEquals(18, dataSource.reads);
+        assertPlan(DataReadingStrategy.ADAPTIVE_REMOTE, targetGrid, ReadPlan.BOUNDING_BOX);
+    }
+
+    @Test
+    public void testHybrid() throws Exception {
+        /*
+         * Two groups of neighbouring rows, a long way apart
+         */
+        HorizontalGrid targetGrid = new RectilinearGridImpl(new RegularAxisImpl("x", 0.05, 0.1,
+                100, true), new ReferenceableAxisImpl("y", Arrays.asList(0.05, 0.15, 0.25, 0.35,
+                60.05, 60.15, 60.25), false), DefaultGeographicCRS.WGS84);
+        assertPlan(DataReadingStrategy.ADAPTIVE, targetGrid, ReadPlan.HYBRID);
+        assertEquals(2, dataSource.reads);
+    }
+
+    @Test
+    public void testStridedRead() throws Exception {
+        /*
+         * Every 10th row and column of a 1-degree grid
+         */
+        HorizontalGrid coarseGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 360, 180);
+        HorizontalGrid targetGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 36, 18);
+        Domain2DMapper mapper = Domain2DMapper.forGrid(coarseGrid, targetGrid);
+        assertEquals(10, mapper.getIStride());
+        assertEquals(10, mapper.getJStride());
+
+        Array2D<Number> expected = DataReadingStrategy.PIXEL_BY_PIXEL.readMapData(
+                new CountingGridDataSource(), "var", 0, 0, mapper);
+        for (DataReadingStrategy strategy : new DataReadingStrategy[] {
+                DataReadingStrategy.BOUNDING_BOX, DataReadingStrategy.SCANLINE,
+                DataReadingStrategy.ADAPTIVE, DataReadingStrategy.ADAPTIVE_REMOTE }) {
+            StridedCountingGridDataSource stridedSource = new StridedCountingGridDataSource();
+            Array2D<Number> data = strategy.readMapData(stridedSource, "var", 0, 0, mapper);
+            /*
+             * Only the points which are needed should have been read
+             */
+            assertEquals(36 * 18, stridedSource.points);
+            for (int j = 0; j < targetGrid.getYSize(); j++) {
+                for (int i = 0; i < targetGrid.getXSize(); i++) {
+                    assertEquals(expected.get(j, i), data.get(j, i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearlyRegularRead() throws Exception {
+        /*
+         * 3600 / 256 = 14.06..., so the target samples every 14th or 15th row
+         * and column of the source grid. This is not an exact stride, so the
+         * values read should be exactly those of the mapped points.
+         */
+        HorizontalGrid targetGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 256, 128);
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
+        assertEquals(1, mapper.getIStride());
+        assertEquals(1, mapper.getJStride());
+
+        Array2D<Number> expected = DataReadingStrategy.PIXEL_BY_PIXEL.readMapData(
+                new CountingGridDataSource(), "var", 0, 0, mapper);
+        for (DataReadingStrategy strategy : new DataReadingStrategy[] {
+                DataReadingStrategy.BOUNDING_BOX, DataReadingStrategy.SCANLINE,
+                DataReadingStrategy.ADAPTIVE, DataReadingStrategy.ADAPTIVE_REMOTE }) {
+            Array2D<Number> data = strategy.readMapData(new StridedCountingGridDataSource(),
+                    "var", 0, 0, mapper);
+            Array2D<Number> pointData = strategy.readPointData(
+                    new StridedCountingGridDataSource(), "var", 0, 0, mapper);
+            for (int j = 0; j < targetGrid.getYSize(); j++) {
+                for (int i = 0; i < targetGrid.getXSize(); i++) {
+                    assertEquals(expected.get(j, i), data.get(j, i));
+                    assertEquals(expected.get(j, i).floatValue(), pointData.get(j, i)
+                            .floatValue(), 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearlyRegularStridedRead() throws Exception {
+        /*
+         * As above, but allowing the near-regular stride to be used for
+         * rendering
+         */
+        HorizontalGrid targetGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 256, 128);
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
+        int iStride = mapper.getNearRegularIStride();
+        int jStride = mapper.getNearRegularJStride();
+        assertEquals(14, iStride);
+        assertEquals(14, jStride);
+
+        Array2D<Number> expected = DataReadingStrategy.PIXEL_BY_PIXEL.readMapData(
+                new CountingGridDataSource(), "var", 0, 0, mapper);
+        for (DataReadingStrategy strategy : new DataReadingStrategy[] {
+                DataReadingStrategy.BOUNDING_BOX, DataReadingStrategy.SCANLINE,
+                DataReadingStrategy.ADAPTIVE, DataReadingStrategy.ADAPTIVE_REMOTE }) {
+            StridedCountingGridDataSource stridedSource = new StridedCountingGridDataSource();
+            Array2D<Number> data = strategy.readMapData(stridedSource, "var", 0, 0, mapper,
+                    true);
+            assertTrue(stridedSource.points <= 258 * 130);
+            for (int j = 0; j < targetGrid.getYSize(); j++) {
+                for (int i = 0; i < targetGrid.getXSize(); i++) {
+                    /*
+                     * Each value should come from a point on the stride, no
+                     * more than half a stride from the exact point
+                     */
+                    int exact = expected.get(j, i).intValue();
+                    int value = data.get(j, i).intValue();
+                    int x = value % X_SIZE;
+                    int y = value / X_SIZE;
+                    assertEquals(0, (x - mapper.getMinIIndex()) % iStride);
+                    assertEquals(0, (y - mapper.getMinJIndex()) % jStride);
+                    assertTrue(2 * Math.abs(x - exact % X_SIZE) <= iStride);
+                    assertTrue(2 * Math.abs(y - exact / X_SIZE) <= jStride);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRemoteReads() throws Exception {
+        /*
+         * Three full-width rows which are too far apart to be read together
+         */
+        HorizontalGrid targetGrid = new RectilinearGridImpl(new RegularAxisImpl("x", -179.95,
+                0.1, X_SIZE, true), new ReferenceableAxisImpl("y", Arrays.asList(-80.05, 0.05,
+                80.05), false), DefaultGeographicCRS.WGS84);
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
+        Array2D<Number> expected = DataReadingStrategy.SCANLINE.readMapData(
+                new CountingGridDataSource(), "var", 0, 0, mapper);
+
+        SlowGridDataSource slowSource = new SlowGridDataSource();
+        long before = DataReadingStrategy.getReadPlanCount(ReadPlan.SCANLINE);
+        Array2D<Number> data = DataReadingStrategy.ADAPTIVE_REMOTE.readMapData(slowSource, "var",
+                0, 0, mapper);
+        assertEquals(before + 1, DataReadingStrategy.getReadPlanCount(ReadPlan.SCANLINE));
+        assertTrue(slowSource.maxConcurrentReads.get() > 1);
+        for (int j = 0; j < targetGrid.getYSize(); j++) {
+            for (int i = 0; i < targetGrid.getXSize(); i++) {
+                assertEquals(expected.get(j, i), data.get(j, i));
+            }
+        }
+    }
+
+    private void assertPlan(DataReadingStrategy strategy, HorizontalGrid targetGrid,
+            ReadPlan expectedPlan) throws IOException, DataReadingException {
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
+        Array2D<Number> expected = DataReadingStrategy.PIXEL_BY_PIXEL.readMapData(
+                new CountingGridDataSource(), "var", 0, 0, mapper);
+
+        long before = DataReadingStrategy.getReadPlanCount(expectedPlan);
+        dataSource.reads = 0;
+        Array2D<Number> data = strategy.readMapData(dataSource, "var", 0, 0, mapper);
+        assertEquals(before + 1, DataReadingStrategy.getReadPlanCount(expectedPlan));
+
+        for (int j = 0; j < targetGrid.getYSize(); j++) {
+            for (int i = 0; i < targetGrid.getXSize(); i++) {
+                assertEquals(expected.get(j, i), data.get(j, i));
+            }
+        }
+    }
+
+    /**
+     * A {@link GridDataSource} where the value at each point is determined by
+     * its indices, and which counts the number of reads made
+     */
+    private static class CountingGridDataSource implements GridDataSource {
+        protected int reads = 0;
+        protected int points = 0;
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+            return read(ymin, ymax, 1, xmin, xmax, 1);
+        }
+
+        protected Array4D<Number> read(int ymin, int ymax, int ystride, int xmin, int xmax,
+                int xstride) {
+            reads++;
+            FloatArray4D ret = new FloatArray4D(1, 1, (ymax - ymin) / ystride + 1, (xmax - xmin)
+                    / xstride + 1);
+            for (int y = ymin; y <= ymax; y += ystride) {
+                for (int x = xmin; x <= xmax; x += xstride) {
+                    ret.setFloat(0, 0, (y - ymin) / ystride, (x - xmin) / xstride, y * X_SIZE + x);
+                    points++;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    /**
+     * A {@link GridDataSource} which takes a while to read data, and records
+     * how many reads are happening at once
+     */
+    private static class SlowGridDataSource extends CountingGridDataSource {
+        private final AtomicInteger currentReads = new AtomicInteger(0);
+        private final AtomicInteger maxConcurrentReads = new AtomicInteger(0);
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+            int current = currentReads.incrementAndGet();
+            synchronized (maxConcurrentReads) {
+                maxConcurrentReads.set(Math.max(current, maxConcurrentReads.get()));
+            }
+            try {
+                Thread.sleep(200);
+                synchronized (this) {
+                    return read(ymin, ymax, 1, xmin, xmax, 1);
+                }
+            } catch (InterruptedException e) {
+                throw new DataReadingException("Interrupted", e);
+            } finally {
+                currentReads.decrementAndGet();
+            }
+        }
+    }
+
+    private static class StridedCountingGridDataSource extends CountingGridDataSource implements
+            StridedGridDataSource {
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int ystride, int xmin, int xmax, int xstride)
+                throws IOException, DataReadingException {
+            return read(ymin, ymax, ystride, xmin, xmax, xstride);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.util.SummaryStatistics;
+
+/**
+ * Test class for {@link DatasetStatistics}.
+ */
+public class DatasetStatisticsTest {
+    private static final int X_SIZE = 64;
+    private static final int Y_SIZE = 32;
+
+    private File workingDir;
+    private InMemoryGriddedDataset dataset;
+    /*
+     * Added to every value, to simulate the data being modified
+     */
+    private volatile float offset = 0f;
+    private volatile String fingerprint = "original";
+
+    @Before
+    public void setUp() throws Exception {
+        workingDir = File.createTempFile("edal-statistics-test", "");
+        workingDir.delete();
+        workingDir.mkdir();
+        DatasetFactory.setWorkingDirectory(workingDir);
+
+        HorizontalGrid grid = new RegularGridImpl(0, 0, X_SIZE, Y_SIZE,
+                DefaultGeographicCRS.WGS84, X_SIZE, Y_SIZE);
+        List<GridVariableMetadata> vars = new ArrayList<>();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Variable", "...", "none", null),
+                grid, null, null, true));
+        dataset = new InMemoryGriddedDataset("statisticsTest", vars,
+                new InMemoryGriddedDataset.Values() {
+                    @Override
+                    public Number getValue(String varId, int t, int z, int y, int x) {
+                        return y * X_SIZE + x + offset;
+                    }
+                }, DataReadingStrategy.SCANLINE, false) {
+            @Override
+            public String getDataFingerprint(DateTime time) {
+                return fingerprint;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        DatasetFactory.setWorkingDirectory(null);
+        delete(workingDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /*
+     * Statistics are computed in the background, so wait for them
+     */
+    private static SummaryStatistics waitForStatistics(DatasetStatistics statistics)
+            throws InterruptedException {
+        SummaryStatistics stats = statistics.getVariableStatistics("var");
+        for (int i = 0; i < 200 && stats == null; i++) {
+            Thread.sleep(50);
+            stats = statistics.getVariableStatistics("var");
+        }
+        assertNotNull(stats);
+        return stats;
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        DatasetStatistics statistics = new DatasetStatistics(dataset);
+        statistics.update(false);
+        SummaryStatistics stats = waitForStatistics(statistics);
+        assertEquals(X_SIZE * Y_SIZE, stats.getCount());
+        assertEquals(0f, stats.getMin(), 0f);
+        assertEquals(X_SIZE * Y_SIZE - 1, stats.getMax(), 0f);
+        assertEquals(stats.getCount(), statistics.getSliceStatistics("var", null, null)
+                .getCount());
+
+        /*
+         * The statistics are stored, so are available immediately to a new
+         * instance
+         */
+        assertNotNull(new DatasetStatistics(dataset).getVariableStatistics("var"));
+    }
+
+    @Test
+    public void testModifiedData() throws Exception {
+        DatasetStatistics statistics = new DatasetStatistics(dataset);
+        statistics.update(false);
+        waitForStatistics(statistics);
+
+        /*
+         * Once the underlying data has changed, the stored statistics should
+         * not be used, and should be recomputed by the next update
+         */
+        offset = 1000f;
+        fingerprint = "modified";
+        statistics = new DatasetStatistics(dataset);
+        assertNull(statistics.getSliceStatistics("var", null, null));
+        assertNull(statistics.getVariableStatistics("var"));
+
+        statistics.update(false);
+        SummaryStatistics stats = waitForStatistics(statistics);
+        assertEquals(X_SIZE * Y_SIZE, stats.getCount());
+        assertEquals(1000f, stats.getMin(), 0f);
+        assertEquals(X_SIZE * Y_SIZE - 1 + 1000f, stats.getMax(), 0f);
+    }
+}
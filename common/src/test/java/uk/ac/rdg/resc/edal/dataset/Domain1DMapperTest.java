@@ -228,6 +228,37 @@ public class Domain1DMapperTest {
         }
     }
 
+    /**
+     * Test that the primitive access methods of {@link DomainMapper} give the
+     * same mappings as {@link Domain1DMapper#iterator}.
+     */
+    @Test
+    public void testPrimitiveAccess() {
+        Iterator<DomainMapperEntry<Integer>> iterator = mapper.iterator();
+        int mapping = 0;
+        int lastJ = -1;
+        int scanlineEnd = 0;
+        while (iterator.hasNext()) {
+            DomainMapperEntry<Integer> entry = iterator.next();
+            int j = mapper.getSourceGridJIndex(mapping);
+            if (j != lastJ) {
+                assertEquals(scanlineEnd, mapping);
+                scanlineEnd = mapper.getScanlineEnd(mapping);
+                lastJ = j;
+            }
+            int end = mapper.getSourcePointEnd(mapping);
+            assertEquals(entry.getTargetIndices().size(), end - mapping);
+            for (int target : entry.getTargetIndices()) {
+                assertEquals(entry.getSourceGridIIndex(), mapper.getSourceGridIIndex(mapping));
+                assertEquals(entry.getSourceGridJIndex(), mapper.getSourceGridJIndex(mapping));
+                assertEquals(target, mapper.getTargetIndex(mapping));
+                mapping++;
+            }
+        }
+        assertEquals(mapper.getNumMappings(), mapping);
+        assertEquals(scanlineEnd, mapping);
+    }
+
     /**
      * Test {@link Domain1DMapper#isEmpty} method.
      */
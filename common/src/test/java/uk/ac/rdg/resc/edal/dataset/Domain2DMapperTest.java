@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.grid.GridCell2D;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.LookUpTableGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.GISUtils;
+import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
+import uk.ac.rdg.resc.edal.util.ValuesArray2D;
+
+/**
+ * Test class for {@link Domain2DMapper}. Checks that the optimised methods of
+ * mapping grids give the same results as transforming each point of the
+ * target grid.
+ */
+public class Domain2DMapperTest {
+    private HorizontalGrid sourceGrid;
+
+    @Before
+    public void setUp() {
+        sourceGrid = new RegularGridImpl(-180, -90, 180, 90, DefaultGeographicCRS.WGS84, 720, 360);
+    }
+
+    @Test
+    public void testMercator() throws Exception {
+        HorizontalGrid targetGrid = new RegularGridImpl(-2e7, -1e7, 1.5e7, 1.8e7,
+                GISUtils.getCrs("EPSG:3857"), 256, 256);
+        assertMapsEachPoint(targetGrid);
+    }
+
+    @Test
+    public void testPolarStereographic() throws Exception {
+        HorizontalGrid targetGrid = new RegularGridImpl(-4e6, -4e6, 8e6, 8e6,
+                GISUtils.getCrs("EPSG:32661"), 100, 100);
+        assertMapsEachPoint(targetGrid);
+    }
+
+    @Test
+    public void testParallelPolarStereographic() throws Exception {
+        /*
+         * This is large enough for the rows to be mapped in parallel
+         */
+        HorizontalGrid targetGrid = new RegularGridImpl(-4e6, -4e6, 8e6, 8e6,
+                GISUtils.getCrs("EPSG:32661"), 200, 200);
+        assertMapsEachPoint(targetGrid);
+    }
+
+    @Test
+    public void testParallelCurvilinear() throws Exception {
+        /*
+         * A skewed curvilinear grid around the north pole, mapped onto a polar
+         * stereographic grid large enough to be mapped in parallel
+         */
+        int ni = 180;
+        int nj = 100;
+        Array2D<Number> lons = new ValuesArray2D(nj, ni);
+        Array2D<Number> lats = new ValuesArray2D(nj, ni);
+        for (int j = 0; j < nj; j++) {
+            for (int i = 0; i < ni; i++) {
+                lons.set(-179.0 + 1.99 * i, j, i);
+                lats.set(40.0 + 0.45 * j + 0.02 * i, j, i);
+            }
+        }
+        sourceGrid = LookUpTableGrid.generate(lons, lats);
+        HorizontalGrid targetGrid = new RegularGridImpl(-4e6, -4e6, 8e6, 8e6,
+                GISUtils.getCrs("EPSG:32661"), 160, 160);
+        assertMapsEachPoint(targetGrid);
+    }
+
+    /*
+     * Checks the mapper against mapping each point of the target grid
+     * individually, in series
+     */
+    private void assertMapsEachPoint(HorizontalGrid targetGrid) {
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
+
+        Map<Integer, GridCoordinates2D> mapped = new HashMap<>();
+        for (int m = 0; m < mapper.getNumMappings(); m++) {
+            mapped.put(mapper.getTargetIndex(m),
+                    new GridCoordinates2D(mapper.getSourceGridIIndex(m),
+                            mapper.getSourceGridJIndex(m)));
+        }
+
+        Array<GridCell2D> cells = targetGrid.getDomainObjects();
+        int expectedMappings = 0;
+        for (int j = 0; j < targetGrid.getYSize(); j++) {
+            for (int i = 0; i < targetGrid.getXSize(); i++) {
+                HorizontalPosition centre = GISUtils.transformPosition(cells.get(j, i)
+                        .getCentre(), sourceGrid.getCoordinateReferenceSystem());
+                GridCoordinates2D expected = sourceGrid.findIndexOf(centre);
+                if (expected != null && expected.getX() >= 0 && expected.getY() >= 0) {
+                    expectedMappings++;
+                    assertEquals(expected, mapped.get(j * targetGrid.getXSize() + i));
+                }
+            }
+        }
+        assertEquals(expectedMappings, mapper.getNumMappings());
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.util.Random;
+
+import uk.ac.rdg.resc.edal.util.RArray;
+import uk.ac.rdg.resc.edal.util.RUByteArray;
+import uk.ac.rdg.resc.edal.util.RUIntArray;
+import uk.ac.rdg.resc.edal.util.RUShortArray;
+
+/**
+ * This class is not part of the test suite, but may be run to compare the
+ * speed of {@link DomainMapper#sortPairs(RArray, RArray, long)} with the
+ * quicksort previously used to sort the indices of a {@link DomainMapper}.
+ * 
+ * Pairs of random indices are sorted for target domains whose indices are
+ * stored as unsigned bytes (a 15x15 target), unsigned shorts (256x256) and
+ * unsigned ints (2048x2048), from a 0.05 degree global source grid.
+ * 
+ * Usage: DomainMapperSortBenchmark [iterations]
+ */
+public class DomainMapperSortBenchmark {
+    private static final long SOURCE_GRID_SIZE = 7200L * 3600;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        System.out.println("target indices\tsize\tquicksort (ms)\tsortPairs (ms)");
+        run("RUByteArray", 15 * 15, iterations);
+        run("RUShortArray", 256 * 256, iterations);
+        run("RUIntArray", 2048 * 2048, iterations);
+    }
+
+    private static void run(String name, int targetSize, int iterations) {
+        Random random = new Random(targetSize);
+        long[] sources = new long[targetSize];
+        long[] targets = new long[targetSize];
+        for (int i = 0; i < targetSize; i++) {
+            sources[i] = (long) (random.nextDouble() * SOURCE_GRID_SIZE);
+            targets[i] = i;
+        }
+
+        long quicksortTime = 0;
+        long sortPairsTime = 0;
+        /*
+         * The first iteration is a warm-up, and is not included in the timings
+         */
+        for (int it = 0; it <= iterations; it++) {
+            RArray sourceIndices = fill(new RUIntArray(targetSize), sources);
+            RArray targetIndices = fill(createTargetArray(targetSize), targets);
+            long start = System.nanoTime();
+            legacyQuicksort(sourceIndices, targetIndices, 0, targetSize - 1);
+            if (it > 0) {
+                quicksortTime += System.nanoTime() - start;
+            }
+
+            sourceIndices = fill(new RUIntArray(targetSize), sources);
+            targetIndices = fill(createTargetArray(targetSize), targets);
+            start = System.nanoTime();
+            DomainMapper.sortPairs(sourceIndices, targetIndices, targetSize);
+            if (it > 0) {
+                sortPairsTime += System.nanoTime() - start;
+            }
+        }
+        System.out.println(String.format("%s\t%d\t%.2f\t%.2f", name, targetSize, quicksortTime
+                / 1e6 / iterations, sortPairsTime / 1e6 / iterations));
+    }
+
+    private static RArray createTargetArray(int targetSize) {
+        if (targetSize - 1 <= RUByteArray.MAX_VALUE) {
+            return new RUByteArray(targetSize);
+        } else if (targetSize - 1 <= RUShortArray.MAX_VALUE) {
+            return new RUShortArray(targetSize);
+        } else {
+            return new RUIntArray(targetSize);
+        }
+    }
+
+    private static RArray fill(RArray array, long[] values) {
+        for (long value : values) {
+            array.append(value);
+        }
+        return array;
+    }
+
+    /*
+     * The quicksort previously used in DomainMapper.sortIndices(), which
+     * allocates a new pair for each comparison
+     */
+    private static void legacyQuicksort(RArray sources, RArray targets, int low, int high) {
+        int i = low;
+        int j = high;
+        long[] pivot = getPair(sources, targets, low + (high - low) / 2);
+        while (i <= j) {
+            while (comparePairs(getPair(sources, targets, i), pivot) < 0) {
+                i++;
+            }
+            while (comparePairs(getPair(sources, targets, j), pivot) > 0) {
+                j--;
+            }
+            if (i <= j) {
+                sources.swapElements(i, j);
+                targets.swapElements(i, j);
+                i++;
+                j--;
+            }
+        }
+        if (low < j) {
+            legacyQuicksort(sources, targets, low, j);
+        }
+        if (i < high) {
+            legacyQuicksort(sources, targets, i, high);
+        }
+    }
+
+    private static long[] getPair(RArray sources, RArray targets, int index) {
+        return new long[] { sources.getLong(index), targets.getLong(index) };
+    }
+
+    private static int comparePairs(long[] pair1, long[] pair2) {
+        if (pair1[0] != pair2[0]) {
+            return pair1[0] < pair2[0] ? -1 : 1;
+        }
+        if (pair1[1] != pair2[1]) {
+            return pair1[1] < pair2[1] ? -1 : 1;
+        }
+        return 0;
+    }
+}
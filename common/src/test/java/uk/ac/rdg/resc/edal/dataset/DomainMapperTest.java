@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.util.RArray;
+import uk.ac.rdg.resc.edal.util.RLongArray;
+import uk.ac.rdg.resc.edal.util.RUIntArray;
+import uk.ac.rdg.resc.edal.util.RUShortArray;
+
+/**
+ * Test class for {@link DomainMapper#sortPairs(RArray, RArray, long)}. Checks
+ * that each of the sorting methods it uses gives the same results as a simple
+ * reference sort.
+ */
+public class DomainMapperTest {
+    @Test
+    public void testSortSmall() {
+        /*
+         * Sorted in memory with Arrays.sort()
+         */
+        assertSortsCorrectly(new RUIntArray(16), new RUShortArray(16), 1000, 100000L, 65536);
+    }
+
+    @Test
+    public void testRadixSort() {
+        /*
+         * Many repeated source indices, as when zooming in
+         */
+        assertSortsCorrectly(new RUIntArray(1024), new RUShortArray(1024), 50000, 2000L, 65536);
+        /*
+         * Packed values with enough bits to need several passes
+         */
+        assertSortsCorrectly(new RUIntArray(1024), new RUIntArray(1024), 50000,
+                RUIntArray.MAX_VALUE, 1 << 20);
+    }
+
+    @Test
+    public void testSortOverflowingPacking() {
+        /*
+         * source index * target domain size overflows a long, so the pairs
+         * are sorted with a quicksort over two arrays
+         */
+        long targetDomainSize = Integer.MAX_VALUE;
+        assertSortsCorrectly(new RLongArray(1024), new RUIntArray(1024), 20000,
+                Long.MAX_VALUE / 1000, targetDomainSize);
+        assertSortsCorrectly(new RLongArray(1024), new RUIntArray(1024), 20000,
+                Long.MAX_VALUE / 2, 50);
+    }
+
+    @Test
+    public void testSortTrivial() {
+        assertSortsCorrectly(new RUIntArray(1), new RUShortArray(1), 0, 10L, 10);
+        assertSortsCorrectly(new RUIntArray(1), new RUShortArray(1), 1, 10L, 10);
+    }
+
+    /*
+     * Sorts random pairs of indices with DomainMapper.sortPairs() and checks
+     * the result against sorting them with a comparator
+     */
+    private static void assertSortsCorrectly(RArray sources, RArray targets, int numPairs,
+            long maxSourceIndex, long targetDomainSize) {
+        Random random = new Random(numPairs);
+        long[][] pairs = new long[numPairs][];
+        for (int i = 0; i < numPairs; i++) {
+            long source = (long) (random.nextDouble() * maxSourceIndex);
+            long target = (long) (random.nextDouble() * targetDomainSize);
+            /*
+             * Repeat some source indices, and some pairs exactly
+             */
+            if (i > 0 && random.nextInt(5) == 0) {
+                source = pairs[random.nextInt(i)][0];
+            } else if (i > 0 && random.nextInt(10) == 0) {
+                source = pairs[i - 1][0];
+                target = pairs[i - 1][1];
+            }
+            pairs[i] = new long[] { source, target };
+            sources.append(source);
+            targets.append(target);
+        }
+
+        DomainMapper.sortPairs(sources, targets, targetDomainSize);
+
+        Arrays.sort(pairs, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] pair1, long[] pair2) {
+                int comparison = Long.compare(pair1[0], pair2[0]);
+                return comparison != 0 ? comparison : Long.compare(pair1[1], pair2[1]);
+            }
+        });
+        assertEquals(numPairs, sources.size());
+        assertEquals(numPairs, targets.size());
+        for (int i = 0; i < numPairs; i++) {
+            assertEquals(pairs[i][0], sources.getLong(i));
+            assertEquals(pairs[i][1], targets.getLong(i));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.util.Array4D;
+
+/**
+ * Test class for {@link GridDataBlockCache}.
+ */
+public class GridDataBlockCacheTest {
+    private static final int X_SIZE = 600;
+    private static final int Y_SIZE = 300;
+    private static final int BLOCK = GridDataBlockCache.BLOCK_SIZE;
+
+    private InMemoryGriddedDataset dataset;
+    private GridDataSource cachedSource;
+
+    @Before
+    public void setUp() throws IOException {
+        GridDataBlockCache.setCacheSize(16);
+        dataset = createDataset("cacheTest", DataReadingStrategy.SCANLINE, false);
+        cachedSource = wrap(dataset);
+    }
+
+    @After
+    public void tearDown() {
+        GridDataBlockCache.setCacheSize(0);
+    }
+
+    private static InMemoryGriddedDataset createDataset(String id, DataReadingStrategy strategy,
+            final boolean remote) {
+        HorizontalGrid grid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, X_SIZE, Y_SIZE);
+        List<GridVariableMetadata> vars = new ArrayList<>();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Variable", "...", "none", null),
+                grid, null, null, true));
+        return new InMemoryGriddedDataset(id, vars, new InMemoryGriddedDataset.Values() {
+            @Override
+            public Number getValue(String varId, int t, int z, int y, int x) {
+                /*
+                 * Leave a missing value on the edge of a block
+                 */
+                if (x == BLOCK && y == BLOCK) {
+                    return null;
+                }
+                return value(y, x);
+            }
+        }, strategy, false) {
+            @Override
+            protected boolean isRemote() {
+                return remote;
+            }
+        };
+    }
+
+    private static float value(int y, int x) {
+        return y * 1000f + x;
+    }
+
+    private static GridDataSource wrap(InMemoryGriddedDataset dataset) throws IOException {
+        return GridDataBlockCache.wrap(dataset.openGridDataSource(), dataset,
+                GridDataBlockCache.nextDatasetSerial());
+    }
+
+    @Test
+    public void testBlocksAtEdges() throws Exception {
+        /*
+         * This covers four blocks, including the partial blocks at the
+         * right-hand and bottom edges of the grid
+         */
+        int ymin = BLOCK - 10;
+        int ymax = Y_SIZE - 1;
+        int xmin = 200;
+        int xmax = X_SIZE - 1;
+        Array4D<Number> data = cachedSource.read("var", 0, 0, 0, 0, ymin, ymax, xmin, xmax);
+        assertEquals(ymax - ymin + 1, data.getYSize());
+        assertEquals(xmax - xmin + 1, data.getXSize());
+        for (int y = ymin; y <= ymax; y++) {
+            for (int x = xmin; x <= xmax; x++) {
+                Number value = data.get(0, 0, y - ymin, x - xmin);
+                if (x == BLOCK && y == BLOCK) {
+                    assertNull(value);
+                } else {
+                    assertEquals(value(y, x), value.floatValue(), 0f);
+                }
+            }
+        }
+
+        /*
+         * Each read should have been of a single whole block, clipped to the
+         * grid
+         */
+        assertEquals(6, dataset.reads.size());
+        for (int[] read : dataset.reads) {
+            assertEquals(0, read[0] % BLOCK);
+            assertEquals(Math.min(read[0] + BLOCK, Y_SIZE) - 1, read[1]);
+            assertEquals(0, read[3] % BLOCK);
+            assertEquals(Math.min(read[3] + BLOCK, X_SIZE) - 1, read[4]);
+        }
+    }
+
+    @Test
+    public void testReuseAndInvalidate() throws Exception {
+        cachedSource.read("var", 0, 0, 0, 0, 10, 20, 10, 20);
+        assertEquals(1, dataset.reads.size());
+
+        /*
+         * A different region within the same block should come from the cache
+         */
+        long hits = GridDataBlockCache.getHits();
+        Array4D<Number> data = cachedSource.read("var", 0, 0, 0, 0, 30, 40, 50, 60);
+        assertEquals(1, dataset.reads.size());
+        assertEquals(hits + 1, GridDataBlockCache.getHits());
+        assertEquals(value(30, 50), data.get(0, 0, 0, 0).floatValue(), 0f);
+
+        /*
+         * Invalidating a different dataset should make no difference
+         */
+        GridDataBlockCache.invalidate("anotherDataset");
+        cachedSource.read("var", 0, 0, 0, 0, 10, 20, 10, 20);
+        assertEquals(1, dataset.reads.size());
+
+        GridDataBlockCache.invalidate("cacheTest");
+        cachedSource.read("var", 0, 0, 0, 0, 10, 20, 10, 20);
+        assertEquals(2, dataset.reads.size());
+    }
+
+    @Test
+    public void testStridedReadsPassThrough() throws Exception {
+        Array4D<Number> data = ((StridedGridDataSource) cachedSource).read("var", 0, 0, 0, 0,
+                0, 200, 20, 0, 500, 50);
+        assertEquals(1, dataset.reads.size());
+        assertArrayEquals(new int[] { 0, 200, 20, 0, 500, 50 }, dataset.reads.get(0));
+        assertEquals(11, data.getYSize());
+        assertEquals(11, data.getXSize());
+        assertEquals(value(100, 250), data.get(0, 0, 5, 5).floatValue(), 0f);
+    }
+
+    @Test
+    public void testRemoteNotCached() throws Exception {
+        InMemoryGriddedDataset remote = createDataset("remote", DataReadingStrategy.ADAPTIVE,
+                true);
+        GridDataSource source = remote.openGridDataSource();
+        assertSame(source, GridDataBlockCache.wrap(source, remote,
+                GridDataBlockCache.nextDatasetSerial()));
+
+        /*
+         * Local datasets are cached, whichever strategy they use (e.g.
+         * ADAPTIVE_REMOTE for compressed files)
+         */
+        InMemoryGriddedDataset compressed = createDataset("compressed",
+                DataReadingStrategy.ADAPTIVE_REMOTE, false);
+        source = compressed.openGridDataSource();
+        assertNotSame(source, GridDataBlockCache.wrap(source, compressed,
+                GridDataBlockCache.nextDatasetSerial()));
+    }
+}
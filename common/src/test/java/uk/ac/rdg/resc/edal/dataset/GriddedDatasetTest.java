@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+
+/**
+ * Test class for {@link GriddedDataset}. Checks that values which are
+ * returned, rather than plotted, keep the precision of the underlying data.
+ */
+public class GriddedDatasetTest {
+    private static final int X_SIZE = 36;
+    private static final int Y_SIZE = 18;
+
+    private HorizontalGrid grid;
+    private List<GridVariableMetadata> vars;
+
+    @Before
+    public void setUp() {
+        grid = new RegularGridImpl(-180, -90, 180, 90, DefaultGeographicCRS.WGS84, X_SIZE,
+                Y_SIZE);
+        vars = new ArrayList<>();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Variable", "...", "none", null),
+                grid, null, null, true));
+    }
+
+    private static double value(int y, int x) {
+        /*
+         * These cannot be represented exactly as floats
+         */
+        return 1000000.0 * y + x + 0.123456789;
+    }
+
+    private InMemoryGriddedDataset createDataset(DataReadingStrategy strategy) {
+        return new InMemoryGriddedDataset("griddedTest", vars, new InMemoryGriddedDataset.Values() {
+            @Override
+            public Number getValue(String varId, int t, int z, int y, int x) {
+                if (x == 0 && y == 0) {
+                    return null;
+                }
+                return value(y, x);
+            }
+        }, strategy, true);
+    }
+
+    @Test
+    public void testSinglePointPrecision() throws Exception {
+        for (DataReadingStrategy strategy : DataReadingStrategy.values()) {
+            InMemoryGriddedDataset dataset = createDataset(strategy);
+            for (int y = 0; y < Y_SIZE; y += 5) {
+                for (int x = 0; x < X_SIZE; x += 7) {
+                    HorizontalPosition position = new HorizontalPosition(-175 + 10 * x,
+                            -85 + 10 * y, DefaultGeographicCRS.WGS84);
+                    Number value = dataset.readSinglePoint("var", position, null, null);
+                    if (x == 0 && y == 0) {
+                        assertNull(value);
+                    } else {
+                        assertEquals(Double.valueOf(value(y, x)), value);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplePointPrecision() throws Exception {
+        /*
+         * A scattered set of points, including repeated points and the
+         * missing value
+         */
+        int[] xIndices = new int[] { 0, 35, 3, 3, 20, 17, 1 };
+        int[] yIndices = new int[] { 0, 17, 9, 9, 2, 17, 0 };
+        for (DataReadingStrategy strategy : DataReadingStrategy.values()) {
+            InMemoryGriddedDataset dataset = createDataset(strategy);
+            Domain2DMapper mapper = Domain2DMapper.forPoints(grid, xIndices, yIndices);
+            GridDataSource dataSource = dataset.openGridDataSource();
+            Array2D<Number> values = strategy.readPointData(dataSource, "var", 0, 0, mapper);
+            assertNull(values.get(0, 0));
+            for (int i = 1; i < xIndices.length; i++) {
+                assertEquals(Double.valueOf(value(yIndices[i], xIndices[i])), values.get(0, i));
+            }
+            /*
+             * Map data is still read as floats
+             */
+            Array2D<Number> mapValues = strategy.readMapData(dataSource, "var", 0, 0, mapper);
+            assertEquals((float) value(17, 35), mapValues.get(0, 1).floatValue(), 0f);
+        }
+    }
+
+    @Test
+    public void testMapPrecision() throws Exception {
+        /*
+         * Maps which are returned keep the precision of the data, whereas
+         * maps for plotting are held as floats
+         */
+        PlottingDomainParams params = new PlottingDomainParams(new RegularGridImpl(-180, -90,
+                180, 90, DefaultGeographicCRS.WGS84, X_SIZE, Y_SIZE), null, null, null, null,
+                null);
+        for (DataReadingStrategy strategy : DataReadingStrategy.values()) {
+            InMemoryGriddedDataset dataset = createDataset(strategy);
+            Array<Number> values = dataset.extractMapFeatures(null, params).get(0)
+                    .getValues("var");
+            Array<Number> plotValues = dataset.extractMapFeaturesForPlotting(null, params)
+                    .get(0).getValues("var");
+            assertNull(values.get(0, 0));
+            assertNull(plotValues.get(0, 0));
+            for (int y = 0; y < Y_SIZE; y++) {
+                for (int x = 0; x < X_SIZE; x++) {
+                    if (x > 0 || y > 0) {
+                        assertEquals(Double.valueOf(value(y, x)), values.get(y, x));
+                        assertEquals((float) value(y, x), plotValues.get(y, x).floatValue(), 0f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTransectPrecision() throws Exception {
+        /*
+         * Diagonal transects across a larger grid: one which samples every
+         * 3rd column and every 2nd row, and one which samples at a
+         * non-integer ratio
+         */
+        grid = new RegularGridImpl(-180, -90, 180, 90, DefaultGeographicCRS.WGS84, 432, 216);
+        vars.clear();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Variable", "...", "none", null),
+                grid, null, null, true));
+        int[] regularX = new int[100];
+        int[] regularY = new int[100];
+        int[] irregularX = new int[100];
+        int[] irregularY = new int[100];
+        for (int i = 0; i < 100; i++) {
+            regularX[i] = 3 * i + 1;
+            regularY[i] = 2 * i + 1;
+            irregularX[i] = (int) Math.round(4.3 * i) + 1;
+            irregularY[i] = (int) Math.round(2.15 * i) + 1;
+        }
+        for (DataReadingStrategy strategy : DataReadingStrategy.values()) {
+            for (int[][] transect : new int[][][] { { regularX, regularY },
+                    { irregularX, irregularY } }) {
+                int[] xIndices = transect[0];
+                int[] yIndices = transect[1];
+                InMemoryGriddedDataset dataset = createDataset(strategy);
+                Domain2DMapper mapper = Domain2DMapper.forPoints(grid, xIndices, yIndices);
+                Array2D<Number> values = strategy.readPointData(dataset.openGridDataSource(),
+                        "var", 0, 0, mapper);
+                for (int i = 0; i < xIndices.length; i++) {
+                    assertEquals(Double.valueOf(value(yIndices[i], xIndices[i])),
+                            values.get(0, i));
+                }
+                /*
+                 * Points should never be read with a stride
+                 */
+                for (int[] read : dataset.reads) {
+                    assertEquals(1, read[2]);
+                    assertEquals(1, read[5]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.DoubleArray4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * A {@link GriddedDataset} whose values are calculated from their grid
+ * indices, for testing. Every read made from it is recorded.
+ */
+public class InMemoryGriddedDataset extends GriddedDataset {
+    /**
+     * Calculates the value of a variable at a point of its grid
+     */
+    public interface Values {
+        public Number getValue(String varId, int t, int z, int y, int x);
+    }
+
+    /**
+     * A read made from this dataset: {ymin, ymax, ystride, xmin, xmax,
+     * xstride}
+     */
+    public final List<int[]> reads = Collections.synchronizedList(new ArrayList<int[]>());
+
+    private final Values values;
+    private final DataReadingStrategy strategy;
+    private final boolean doublePrecision;
+
+    /**
+     * @param id
+     *            The ID of the dataset
+     * @param vars
+     *            The variables in the dataset
+     * @param values
+     *            Calculates the values of the variables
+     * @param strategy
+     *            The {@link DataReadingStrategy} to use
+     * @param doublePrecision
+     *            Whether data is read as doubles rather than floats
+     */
+    public InMemoryGriddedDataset(String id, Collection<GridVariableMetadata> vars,
+            Values values, DataReadingStrategy strategy, boolean doublePrecision) {
+        super(id, vars);
+        this.values = values;
+        this.strategy = strategy;
+        this.doublePrecision = doublePrecision;
+    }
+
+    @Override
+    protected DataReadingStrategy getDataReadingStrategy() {
+        return strategy;
+    }
+
+    @Override
+    protected GridDataSource openGridDataSource() throws IOException {
+        return new StridedGridDataSource() {
+            @Override
+            public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin,
+                    int zmax, int ymin, int ymax, int xmin, int xmax) {
+                return read(variableId, tmin, tmax, zmin, zmax, ymin, ymax, 1, xmin, xmax, 1);
+            }
+
+            @Override
+            public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin,
+                    int zmax, int ymin, int ymax, int ystride, int xmin, int xmax, int xstride) {
+                reads.add(new int[] { ymin, ymax, ystride, xmin, xmax, xstride });
+                int tSize = tmax - tmin + 1;
+                int zSize = zmax - zmin + 1;
+                int ySize = (ymax - ymin) / ystride + 1;
+                int xSize = (xmax - xmin) / xstride + 1;
+                Array4D<Number> data = doublePrecision ? new DoubleArray4D(tSize, zSize, ySize,
+                        xSize) : new FloatArray4D(tSize, zSize, ySize, xSize);
+                for (int t = 0; t < tSize; t++) {
+                    for (int z = 0; z < zSize; z++) {
+                        for (int y = 0; y < ySize; y++) {
+                            for (int x = 0; x < xSize; x++) {
+                                Number value = values.getValue(variableId, tmin + t, zmin + z,
+                                        ymin + y * ystride, xmin + x * xstride);
+                                if (value != null) {
+                                    data.set(value, t, z, y, x);
+                                }
+                            }
+                        }
+                    }
+                }
+                return data;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.dataset.OverviewPyramid.Method;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+
+/**
+ * Test class for {@link OverviewPyramid}.
+ */
+public class OverviewPyramidTest {
+    private static final int X_SIZE = 512;
+    private static final int Y_SIZE = 256;
+    /*
+     * The spacing of the source grid, in degrees
+     */
+    private static final double SPACING = 0.1;
+
+    private File workingDir;
+    private HorizontalGrid sourceGrid;
+    private InMemoryGriddedDataset dataset;
+    private GridVariableMetadata metadata;
+    private String fingerprint = "original";
+
+    @Before
+    public void setUp() throws Exception {
+        workingDir = File.createTempFile("edal-overview-test", "");
+        workingDir.delete();
+        workingDir.mkdir();
+        DatasetFactory.setWorkingDirectory(workingDir);
+        OverviewPyramid.setDiskBudget(100);
+
+        sourceGrid = new RegularGridImpl(0, 0, X_SIZE * SPACING, Y_SIZE * SPACING,
+                DefaultGeographicCRS.WGS84, X_SIZE, Y_SIZE);
+        List<GridVariableMetadata> vars = new ArrayList<>();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Variable", "...", "none", null),
+                sourceGrid, null, null, true));
+        dataset = new InMemoryGriddedDataset("overviewTest", vars,
+                new InMemoryGriddedDataset.Values() {
+                    @Override
+                    public Number getValue(String varId, int t, int z, int y, int x) {
+                        return value(y, x);
+                    }
+                }, DataReadingStrategy.SCANLINE, false) {
+            @Override
+            public String getDataFingerprint(DateTime time) {
+                return fingerprint;
+            }
+        };
+        metadata = (GridVariableMetadata) dataset.getVariableMetadata("var");
+    }
+
+    @After
+    public void tearDown() {
+        DatasetFactory.setWorkingDirectory(null);
+        delete(workingDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static float value(int y, int x) {
+        return y * 1000f + x;
+    }
+
+    /*
+     * A target grid whose points are on every nth point of the source grid
+     */
+    private static HorizontalGrid getAlignedGrid(int factor) {
+        double offset = SPACING * (1 - factor) / 2.0;
+        return new RegularGridImpl(offset, offset, offset + X_SIZE * SPACING, offset + Y_SIZE
+                * SPACING, DefaultGeographicCRS.WGS84, X_SIZE / factor, Y_SIZE / factor);
+    }
+
+    private void waitForOverviews(OverviewPyramid pyramid) throws InterruptedException {
+        File sliceFile = pyramid.getSliceFile(metadata, 0, 0);
+        for (int i = 0; i < 200 && !sliceFile.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(sliceFile.exists());
+    }
+
+    @Test
+    public void testChooseLevel() {
+        HorizontalGrid target = new RegularGridImpl(0, 0, X_SIZE * SPACING, Y_SIZE * SPACING,
+                DefaultGeographicCRS.WGS84, X_SIZE / 8, Y_SIZE / 8);
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, target);
+        assertEquals(3, OverviewPyramid.chooseLevel(mapper, 4));
+        /*
+         * Limited by the number of levels
+         */
+        assertEquals(2, OverviewPyramid.chooseLevel(mapper, 2));
+
+        /*
+         * Every 5th or 6th point: the level must not be coarser than this
+         */
+        target = new RegularGridImpl(0, 0, X_SIZE * SPACING, Y_SIZE * SPACING,
+                DefaultGeographicCRS.WGS84, 100, 50);
+        assertEquals(2, OverviewPyramid.chooseLevel(Domain2DMapper.forGrid(sourceGrid, target),
+                4));
+
+        /*
+         * Full resolution
+         */
+        target = new RegularGridImpl(0, 0, X_SIZE * SPACING, Y_SIZE * SPACING,
+                DefaultGeographicCRS.WGS84, X_SIZE, Y_SIZE);
+        assertEquals(0, OverviewPyramid.chooseLevel(Domain2DMapper.forGrid(sourceGrid, target),
+                4));
+        target = new RegularGridImpl(1, 1, 2, 2, DefaultGeographicCRS.WGS84, 256, 256);
+        assertEquals(0, OverviewPyramid.chooseLevel(Domain2DMapper.forGrid(sourceGrid, target),
+                4));
+    }
+
+    @Test
+    public void testAveragedRoundTrip() throws Exception {
+        OverviewPyramid pyramid = new OverviewPyramid(dataset, 3, Method.AVERAGE);
+        pyramid.precompute();
+        waitForOverviews(pyramid);
+
+        HorizontalGrid target = getAlignedGrid(2);
+        int readsBefore = dataset.reads.size();
+        Array2D<Number> data = pyramid.readMapData(metadata, 0, 0, target,
+                Domain2DMapper.forGrid(sourceGrid, target));
+        assertNotNull(data);
+        assertEquals(readsBefore, dataset.reads.size());
+        for (int j = 0; j < target.getYSize(); j++) {
+            for (int i = 0; i < target.getXSize(); i++) {
+                /*
+                 * The mean of each 2x2 block
+                 */
+                float expected = (value(2 * j, 2 * i) + value(2 * j + 1, 2 * i + 1)) / 2f;
+                assertEquals(expected, data.get(j, i).floatValue(), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyUsedForPlotting() throws Exception {
+        OverviewPyramid pyramid = new OverviewPyramid(dataset, 3, Method.AVERAGE);
+        pyramid.precompute();
+        waitForOverviews(pyramid);
+        dataset.setOverviewPyramid(pyramid);
+
+        RegularGridImpl target = (RegularGridImpl) getAlignedGrid(2);
+        PlottingDomainParams params = new PlottingDomainParams(target, null, null, null, null,
+                null);
+        Array<Number> values = dataset.extractMapFeatures(null, params).get(0).getValues("var");
+        Array<Number> plotValues = dataset.extractMapFeaturesForPlotting(null, params).get(0)
+                .getValues("var");
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, target);
+        Array2D<Number> expected = DataReadingStrategy.SCANLINE.readMapData(
+                dataset.openGridDataSource(), "var", 0, 0, mapper);
+        for (int j = 0; j < target.getYSize(); j++) {
+            for (int i = 0; i < target.getXSize(); i++) {
+                /*
+                 * Returned values come from the source data, plotted values
+                 * from the averaged overviews
+                 */
+                assertEquals(expected.get(j, i).floatValue(), values.get(j, i).floatValue(), 0f);
+                float mean = (value(2 * j, 2 * i) + value(2 * j + 1, 2 * i + 1)) / 2f;
+                assertEquals(mean, plotValues.get(j, i).floatValue(), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testAveragedAcrossBands() throws Exception {
+        /*
+         * A grid which is so wide that each read covers fewer rows than a
+         * point of the coarsest levels
+         */
+        final int xSize = 65536;
+        final int ySize = 128;
+        sourceGrid = new RegularGridImpl(0, 0, xSize * SPACING, ySize * SPACING,
+                DefaultGeographicCRS.WGS84, xSize, ySize);
+        List<GridVariableMetadata> vars = new ArrayList<>();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Variable", "...", "none", null),
+                sourceGrid, null, null, true));
+        dataset = new InMemoryGriddedDataset("wideOverviewTest", vars,
+                new InMemoryGriddedDataset.Values() {
+                    @Override
+                    public Number getValue(String varId, int t, int z, int y, int x) {
+                        return value(y, x);
+                    }
+                }, DataReadingStrategy.SCANLINE, false);
+        metadata = (GridVariableMetadata) dataset.getVariableMetadata("var");
+
+        OverviewPyramid pyramid = new OverviewPyramid(dataset, 6, Method.AVERAGE);
+        pyramid.precompute();
+        waitForOverviews(pyramid);
+        for (int[] read : dataset.reads) {
+            assertTrue((read[1] - read[0] + 1) * (read[4] - read[3] + 1) <= 1024 * 1024);
+        }
+
+        for (int factor = 16; factor <= 64; factor *= 2) {
+            double offset = SPACING * (1 - factor) / 2.0;
+            HorizontalGrid target = new RegularGridImpl(offset, offset, offset + xSize
+                    * SPACING, offset + ySize * SPACING, DefaultGeographicCRS.WGS84, xSize
+                    / factor, ySize / factor);
+            Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, target);
+            Array2D<Number> data = pyramid.readMapData(metadata, 0, 0, target, mapper);
+            assertNotNull(data);
+            for (int j = 0; j < target.getYSize(); j++) {
+                for (int i = 0; i < target.getXSize(); i++) {
+                    /*
+                     * The mean of each factor x factor block
+                     */
+                    float expected = (float) ((factor * j + (factor - 1) / 2.0) * 1000
+                            + factor * i + (factor - 1) / 2.0);
+                    assertEquals(expected, data.get(j, i).floatValue(), 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearestMatchesFullResolution() throws Exception {
+        OverviewPyramid pyramid = new OverviewPyramid(dataset, 4, Method.DECIMATE);
+        pyramid.precompute();
+        waitForOverviews(pyramid);
+
+        for (int factor = 2; factor <= 16; factor *= 2) {
+            HorizontalGrid target = getAlignedGrid(factor);
+            Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, target);
+            assertEquals(Integer.numberOfTrailingZeros(factor), OverviewPyramid.chooseLevel(
+                    mapper, 4));
+
+            Array2D<Number> expected = DataReadingStrategy.SCANLINE.readMapData(
+                    dataset.openGridDataSource(), "var", 0, 0, mapper);
+            int readsBefore = dataset.reads.size();
+            Array2D<Number> data = pyramid.readMapData(metadata, 0, 0, target, mapper);
+            assertNotNull(data);
+            assertEquals(readsBefore, dataset.reads.size());
+            for (int j = 0; j < target.getYSize(); j++) {
+                for (int i = 0; i < target.getXSize(); i++) {
+                    assertEquals(expected.get(j, i), data.get(j, i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testModifiedDataNotUsed() throws Exception {
+        OverviewPyramid pyramid = new OverviewPyramid(dataset, 2, Method.DECIMATE);
+        pyramid.precompute();
+        waitForOverviews(pyramid);
+        File originalFile = pyramid.getSliceFile(metadata, 0, 0);
+
+        /*
+         * Once the underlying data has changed, the existing overviews should
+         * not be used
+         */
+        fingerprint = "modified";
+        File modifiedFile = pyramid.getSliceFile(metadata, 0, 0);
+        assertFalse(originalFile.equals(modifiedFile));
+        assertFalse(modifiedFile.exists());
+        HorizontalGrid target = getAlignedGrid(4);
+        assertNull(pyramid.readMapData(metadata, 0, 0, target,
+                Domain2DMapper.forGrid(sourceGrid, target)));
+
+        /*
+         * That request should have caused the overviews to be rebuilt
+         */
+        waitForOverviews(pyramid);
+        assertNotNull(pyramid.readMapData(metadata, 0, 0, target,
+                Domain2DMapper.forGrid(sourceGrid, target)));
+    }
+
+    @Test
+    public void testNoWorkingDirectory() throws Exception {
+        DatasetFactory.setWorkingDirectory(null);
+        OverviewPyramid pyramid = new OverviewPyramid(dataset, 2, Method.DECIMATE);
+        pyramid.precompute();
+        HorizontalGrid target = getAlignedGrid(4);
+        assertNull(pyramid.readMapData(metadata, 0, 0, target,
+                Domain2DMapper.forGrid(sourceGrid, target)));
+    }
+}
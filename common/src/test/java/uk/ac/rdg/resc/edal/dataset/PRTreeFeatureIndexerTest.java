@@ -31,8 +31,10 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TreeSet;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
@@ -138,6 +140,31 @@ public class PRTreeFeatureIndexerTest {
         assertEquals(expectedIDs, featureindexer.getAllFeatureIds());
     }
 
+    /**
+     * Test {@link PRTreeFeatureIndexer#getValueRange}.
+     */
+    @Test
+    public void testGetValueRange() {
+        assertNull(featureindexer.getValueRange("temperature"));
+
+        PRTreeFeatureIndexer indexer = new PRTreeFeatureIndexer();
+        ArrayList<FeatureIndexer.FeatureBounds> bounds = new ArrayList<>();
+        Map<String, Extent<Float>> valueRanges = new HashMap<>();
+        valueRanges.put("temperature", Extents.newExtent(2.0f, 5.0f));
+        bounds.add(new FeatureIndexer.FeatureBounds("f1", new HorizontalPosition(10.0, 20.0,
+                crs), verticalExtent, timeExtent, varIDs, valueRanges));
+        valueRanges = new HashMap<>();
+        valueRanges.put("temperature", Extents.newExtent(-1.0f, 3.0f));
+        valueRanges.put("allx_u", Extents.newExtent(0.5f, 0.5f));
+        bounds.add(new FeatureIndexer.FeatureBounds("f2", new HorizontalPosition(11.0, 21.0,
+                crs), verticalExtent, timeExtent, varIDs, valueRanges));
+        indexer.addFeatures(bounds);
+
+        assertEquals(Extents.newExtent(-1.0f, 5.0f), indexer.getValueRange("temperature"));
+        assertEquals(Extents.newExtent(0.5f, 0.5f), indexer.getValueRange("allx_u"));
+        assertNull(indexer.getValueRange("allx_v"));
+    }
+
     /**
      * Test {@link PRTreeFeatureIndexer#findFeatureIds}.
      */
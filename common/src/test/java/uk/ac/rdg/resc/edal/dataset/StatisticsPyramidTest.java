@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+
+/**
+ * Test class for {@link StatisticsPyramid}.
+ */
+public class StatisticsPyramidTest {
+    private static final int X_SIZE = 1000;
+    private static final int Y_SIZE = 500;
+    private StatisticsPyramid pyramid;
+
+    @Before
+    public void setUp() throws IOException {
+        StatisticsPyramid.Builder builder = new StatisticsPyramid.Builder(X_SIZE, Y_SIZE);
+        for (int y = 0; y < Y_SIZE; y++) {
+            for (int x = 0; x < X_SIZE; x++) {
+                builder.add(x, y, value(x, y));
+            }
+        }
+        builder.add(0, 0, Float.NaN);
+        /*
+         * Test the pyramid after serialisation, since only the finest level is
+         * written
+         */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            builder.build().write(out);
+        }
+        pyramid = StatisticsPyramid.read(new DataInputStream(new ByteArrayInputStream(bytes
+                .toByteArray())));
+    }
+
+    private static float value(int x, int y) {
+        return x + 1000f * y;
+    }
+
+    @Test
+    public void testWholeSlice() {
+        Extent<Float> range = pyramid.getRange(indices(0, X_SIZE), indices(0, Y_SIZE));
+        assertEquals(value(0, 0), range.getLow(), 0f);
+        assertEquals(value(X_SIZE - 1, Y_SIZE - 1), range.getHigh(), 0f);
+    }
+
+    @Test
+    public void testPartOfSlice() {
+        Extent<Float> range = pyramid.getRange(indices(100, 700), indices(50, 400));
+        /*
+         * The tiles may extend beyond the requested area, so the range should
+         * contain the true range
+         */
+        assertTrue(range.getLow() <= value(100, 50));
+        assertTrue(range.getHigh() >= value(699, 399));
+        assertTrue(range.getHigh() < value(X_SIZE - 1, Y_SIZE - 1));
+    }
+
+    @Test
+    public void testTooSmall() {
+        assertNull(pyramid.getRange(indices(10, 12), indices(10, 12)));
+        assertNull(pyramid.getRange(new BitSet(), indices(0, Y_SIZE)));
+    }
+
+    private static BitSet indices(int from, int to) {
+        BitSet indices = new BitSet();
+        indices.set(from, to);
+        return indices;
+    }
+}
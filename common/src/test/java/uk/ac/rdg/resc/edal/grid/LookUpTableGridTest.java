@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.grid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
+import uk.ac.rdg.resc.edal.util.ValuesArray2D;
+
+/**
+ * Test class for {@link LookUpTableGrid}. Checks that points are found in the
+ * correct cells, and that finding many points at once gives the same results
+ * as finding them one at a time.
+ */
+public class LookUpTableGridTest {
+    private static final int NI = 40;
+    private static final int NJ = 30;
+
+    private LookUpTableGrid grid;
+
+    @Before
+    public void setUp() {
+        /*
+         * A skewed grid
+         */
+        Array2D<Number> lons = new ValuesArray2D(NJ, NI);
+        Array2D<Number> lats = new ValuesArray2D(NJ, NI);
+        for (int j = 0; j < NJ; j++) {
+            for (int i = 0; i < NI; i++) {
+                lons.set(10.0 + 0.5 * i + 0.1 * j, j, i);
+                lats.set(20.0 + 0.5 * j + 0.1 * i, j, i);
+            }
+        }
+        grid = LookUpTableGrid.generate(lons, lats);
+    }
+
+    @Test
+    public void testFindIndexOf() {
+        for (int j = 0; j < NJ; j++) {
+            for (int i = 0; i < NI; i++) {
+                GridCoordinates2D coords = grid.findIndexOf(new HorizontalPosition(10.0 + 0.5 * i
+                        + 0.1 * j, 20.0 + 0.5 * j + 0.1 * i, DefaultGeographicCRS.WGS84));
+                assertNotNull(coords);
+                assertEquals(i, coords.getX());
+                assertEquals(j, coords.getY());
+            }
+        }
+        assertNull(grid.findIndexOf(new HorizontalPosition(0.0, 0.0, DefaultGeographicCRS.WGS84)));
+    }
+
+    @Test
+    public void testFindIndicesOf() {
+        int n = 0;
+        double[] x = new double[80 * 80];
+        double[] y = new double[80 * 80];
+        for (double lon = 8.0; lon < 35.0; lon += 0.34) {
+            for (double lat = 18.0; lat < 40.0; lat += 0.28) {
+                x[n] = lon;
+                y[n] = lat;
+                n++;
+            }
+        }
+        int[] outI = new int[x.length];
+        int[] outJ = new int[x.length];
+        grid.findIndicesOf(x, y, outI, outJ);
+        for (int k = 0; k < n; k++) {
+            GridCoordinates2D coords = grid.findIndexOf(new HorizontalPosition(x[k], y[k],
+                    DefaultGeographicCRS.WGS84));
+            if (coords == null) {
+                assertEquals(-1, outI[k]);
+                assertEquals(-1, outJ[k]);
+            } else {
+                assertEquals(coords.getX(), outI[k]);
+                assertEquals(coords.getY(), outJ[k]);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FloatArray2D} and {@link FloatArray4D}.
+ */
+public class FloatArray2DTest {
+
+    private FloatArray2D data;
+
+    private static final int XSIZE = 5;
+    private static final int YSIZE = 7;
+
+    @Before
+    public void setUp() {
+        data = new FloatArray2D(YSIZE, XSIZE);
+        for (int i = 0; i < YSIZE; i++) {
+            for (int j = 0; j < XSIZE; j++) {
+                data.setFloat(i, j, 10 * i + j);
+            }
+        }
+    }
+
+    @Test
+    public void testInitiallyMissing() {
+        FloatArray2D empty = new FloatArray2D(YSIZE, XSIZE);
+        for (Number value : empty) {
+            assertNull(value);
+        }
+        assertTrue(empty.isMissing(3, 2));
+        assertTrue(Float.isNaN(empty.getFloat(3, 2)));
+    }
+
+    @Test
+    public void testGetSet() {
+        assertEquals(23f, data.getFloat(2, 3), 1e-6);
+        assertEquals(23f, data.get(2, 3).floatValue(), 1e-6);
+
+        data.set(12.5, 2, 3);
+        assertEquals(12.5f, data.getFloat(2, 3), 1e-6);
+
+        data.set(null, 6, 4);
+        assertNull(data.get(6, 4));
+        assertTrue(data.isMissing(6, 4));
+
+        /*
+         * NaN is a value, not a missing value
+         */
+        data.setFloat(6, 4, Float.NaN);
+        assertFalse(data.isMissing(6, 4));
+        assertTrue(Float.isNaN(data.get(6, 4).floatValue()));
+
+        data.setMissing(1, 1);
+        assertNull(data.get(1, 1));
+    }
+
+    @Test
+    public void testIterator() {
+        Iterator<Number> iterator = data.iterator();
+        for (int i = 0; i < YSIZE; i++) {
+            for (int j = 0; j < XSIZE; j++) {
+                assertEquals(10 * i + j, iterator.next().floatValue(), 1e-6);
+            }
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testFlipY() {
+        FloatArray2D flipped = data.flipY();
+        for (int i = 0; i < YSIZE; i++) {
+            for (int j = 0; j < XSIZE; j++) {
+                assertEquals(data.getFloat(YSIZE - i - 1, j), flipped.getFloat(i, j), 1e-6);
+            }
+        }
+        /*
+         * Storage is shared
+         */
+        flipped.setMissing(0, 0);
+        assertTrue(data.isMissing(YSIZE - 1, 0));
+        assertEquals(data.getFloat(2, 2), flipped.flipY().getFloat(2, 2), 1e-6);
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        data.getFloat(0, XSIZE);
+    }
+
+    @Test
+    public void testFloatArray4D() {
+        FloatArray4D array = new FloatArray4D(2, 3, 4, 5);
+        array.setFloat(1, 2, 3, 4, 99f);
+        array.set(-1.5, 0, 1, 2, 3);
+        assertEquals(99f, array.getFloat(1, 2, 3, 4), 1e-6);
+        assertEquals(-1.5f, array.get(0, 1, 2, 3).floatValue(), 1e-6);
+        assertTrue(array.isMissing(0, 0, 0, 0));
+        assertNull(array.get(1, 2, 3, 3));
+        array.setMissing(1, 2, 3, 4);
+        assertTrue(Float.isNaN(array.getFloat(1, 2, 3, 4)));
+    }
+}
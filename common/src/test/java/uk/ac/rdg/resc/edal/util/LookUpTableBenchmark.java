@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+
+import uk.ac.rdg.resc.edal.geometry.BoundingBox;
+import uk.ac.rdg.resc.edal.util.CurvilinearCoords.Cell;
+
+/**
+ * This class is not part of the test suite, but may be run to compare the
+ * speed of generating a {@link LookUpTable} with the single-threaded Java2D
+ * painting which was previously used.
+ * 
+ * The grid is a synthetic 1442x1021 grid, the size of the global ORCA025 ocean
+ * model grid, which is distorted in the northern hemisphere in the same way
+ * as a tripolar grid. The proportion of points in each look-up table which
+ * actually lie within the cell they are mapped to is also reported.
+ * 
+ * Usage: LookUpTableBenchmark [iterations]
+ */
+public class LookUpTableBenchmark {
+    private static final int NI = 1442;
+    private static final int NJ = 1021;
+    /*
+     * Every SAMPLE_STRIDE-th point along each axis of the look-up tables is
+     * checked
+     */
+    private static final int SAMPLE_STRIDE = 3;
+
+    private static final ColorModel COLOR_MODEL = new DirectColorModel(16, 0x00000000,
+            0x0000ff00, 0x000000ff, 0x00000000);
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        CurvilinearCoords curvCoords = createGrid();
+        double resolution = Math.sqrt(curvCoords.getMeanCellArea()) / 3.0;
+
+        long legacyTime = 0;
+        long lutTime = 0;
+        short[][] legacy = null;
+        LookUpTable lut = null;
+        /*
+         * The first iteration is a warm-up, and is not included in the timings
+         */
+        for (int it = 0; it <= iterations; it++) {
+            long start = System.nanoTime();
+            legacy = legacyMakeLuts(curvCoords, resolution);
+            if (it > 0) {
+                legacyTime += System.nanoTime() - start;
+            }
+
+            start = System.nanoTime();
+            lut = new LookUpTable(curvCoords, resolution);
+            if (it > 0) {
+                lutTime += System.nanoTime() - start;
+            }
+        }
+
+        /*
+         * Check (a sample of) the points in each look-up table against the
+         * cells which they have been assigned to
+         */
+        int nLon = lut.getNumLonPoints();
+        int nLat = lut.getNumLatPoints();
+        AffineTransform transform = getTransform(curvCoords.getBoundingBox(), nLon, nLat);
+        long nPoints = 0;
+        long legacyCorrect = 0;
+        long lutCorrect = 0;
+        Point2D lonLat = new Point2D.Double();
+        for (int y = 0; y < nLat; y += SAMPLE_STRIDE) {
+            for (int x = 0; x < nLon; x += SAMPLE_STRIDE) {
+                try {
+                    transform.inverseTransform(new Point2D.Double(x, y), lonLat);
+                } catch (NoninvertibleTransformException e) {
+                    throw new IllegalStateException(e);
+                }
+                int legacyI = legacy[0][x + y * nLon] & 0xffff;
+                int legacyJ = legacy[1][x + y * nLon] & 0xffff;
+                if (legacyI != 65535
+                        && curvCoords.getCell(legacyI, legacyJ).contains(lonLat.getX(),
+                                lonLat.getY())) {
+                    legacyCorrect++;
+                }
+                int[] coords = lut.getGridCoordinates(lonLat.getX(), lonLat.getY());
+                if (coords != null
+                        && curvCoords.getCell(coords[0], coords[1]).contains(lonLat.getX(),
+                                lonLat.getY())) {
+                    lutCorrect++;
+                }
+                nPoints++;
+            }
+        }
+
+        System.out.println(String.format("Grid: %dx%d, look-up table: %dx%d, %d processors", NI,
+                NJ, nLon, nLat, Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format("Java2D: %d ms, LookUpTable: %d ms", legacyTime
+                / iterations / 1000000, lutTime / iterations / 1000000));
+        System.out.println(String.format(
+                "Points in the cell they are mapped to: Java2D %.3f%%, LookUpTable %.3f%%",
+                100.0 * legacyCorrect / nPoints, 100.0 * lutCorrect / nPoints));
+    }
+
+    private static CurvilinearCoords createGrid() {
+        Array2D<Number> lons = new ValuesArray2D(NJ, NI);
+        Array2D<Number> lats = new ValuesArray2D(NJ, NI);
+        for (int j = 0; j < NJ; j++) {
+            for (int i = 0; i < NI; i++) {
+                /*
+                 * As in ORCA grids, the first and last columns duplicate the
+                 * columns at the other edge of the grid
+                 */
+                double lon = -180.0 + 360.0 * (i - 0.5) / (NI - 2);
+                double lat = -78.0 + 168.0 * j / (NJ - 1);
+                double distortion = lat > 20.0 ? Math.pow((lat - 20.0) / 70.0, 2.0) : 0.0;
+                lon += 10.0 * distortion * Math.sin(Math.toRadians(2.0 * lon));
+                lat -= 5.0 * distortion * (1.0 + Math.cos(Math.toRadians(lon)));
+                lons.set(GISUtils.constrainLongitude180(lon), j, i);
+                lats.set(lat, j, i);
+            }
+        }
+        return new CurvilinearCoords(lons, lats);
+    }
+
+    private static AffineTransform getTransform(BoundingBox bbox, int nLon, int nLat) {
+        AffineTransform transform = new AffineTransform();
+        transform.scale((nLon - 1) / (bbox.getMaxX() - bbox.getMinX()), (nLat - 1)
+                / (bbox.getMaxY() - bbox.getMinY()));
+        transform.translate(-bbox.getMinX(), -bbox.getMinY());
+        return transform;
+    }
+
+    /**
+     * Paints the look-up tables using Java2D, as {@link LookUpTable} used to.
+     * The only difference is that the look-up tables are shifted by half a
+     * point, so that (as in {@link LookUpTable}) each point represents the
+     * cell which contains its centre.
+     */
+    private static short[][] legacyMakeLuts(CurvilinearCoords curvCoords, double resolution) {
+        BoundingBox bbox = curvCoords.getBoundingBox();
+        int nLon = (int) Math.ceil((bbox.getMaxX() - bbox.getMinX()) / resolution);
+        int nLat = (int) Math.ceil((bbox.getMaxY() - bbox.getMinY()) / resolution);
+        AffineTransform transform = AffineTransform.getTranslateInstance(0.5, 0.5);
+        transform.concatenate(getTransform(bbox, nLon, nLat));
+
+        BufferedImage iIm = createBufferedImage(nLon, nLat);
+        BufferedImage jIm = createBufferedImage(nLon, nLat);
+        Graphics2D ig2d = iIm.createGraphics();
+        Graphics2D jg2d = jIm.createGraphics();
+        ig2d.setTransform(transform);
+        jg2d.setTransform(transform);
+        for (Cell cell : curvCoords.getCells()) {
+            Path2D path = cell.getBoundaryPath();
+            ig2d.setPaint(new Color(cell.getI()));
+            jg2d.setPaint(new Color(cell.getJ()));
+            ig2d.fill(path);
+            jg2d.fill(path);
+            double shiftLon = cell.getCentre().getLongitude() > 0.0 ? -360.0 : 360.0;
+            path.transform(AffineTransform.getTranslateInstance(shiftLon, 0.0));
+            ig2d.fill(path);
+            jg2d.fill(path);
+        }
+        return new short[][] { ((DataBufferUShort) iIm.getRaster().getDataBuffer()).getData(),
+                ((DataBufferUShort) jIm.getRaster().getDataBuffer()).getData() };
+    }
+
+    private static BufferedImage createBufferedImage(int width, int height) {
+        WritableRaster raster = COLOR_MODEL.createCompatibleWritableRaster(width, height);
+        BufferedImage im = new BufferedImage(COLOR_MODEL, raster, true, null);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                im.setRGB(x, y, 65535);
+            }
+        }
+        return im;
+    }
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.AffineTransform;
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.geometry.BoundingBox;
+
+/**
+ * Test class for {@link LookUpTable}. Checks that look-up tables are generated
+ * correctly, and are read back correctly after being written to disk.
+ */
+public class LookUpTableTest {
+    private static final int NI = 40;
+    private static final int NJ = 30;
+    /** The size of the header of a look-up table file */
+    private static final int FILE_HEADER_SIZE = 4 * 4 + 6 * 8;
+
+    private CurvilinearCoords curvCoords;
+
+    @Before
+    public void setUp() {
+        /*
+         * A skewed grid
+         */
+        Array2D<Number> lons = new ValuesArray2D(NJ, NI);
+        Array2D<Number> lats = new ValuesArray2D(NJ, NI);
+        for (int j = 0; j < NJ; j++) {
+            for (int i = 0; i < NI; i++) {
+                lons.set(10.0 + 0.5 * i + 0.1 * j, j, i);
+                lats.set(20.0 + 0.5 * j + 0.1 * i, j, i);
+            }
+        }
+        curvCoords = new CurvilinearCoords(lons, lats);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        LookUpTable lut = new LookUpTable(curvCoords, 0.1);
+        File file = File.createTempFile("edal-lut-test", ".lut");
+        file.deleteOnExit();
+        lut.write(file);
+
+        LookUpTable read = LookUpTable.read(file);
+        assertEquals(lut, read);
+        assertEquals(lut.getNumLonPoints(), read.getNumLonPoints());
+        assertEquals(lut.getNumLatPoints(), read.getNumLatPoints());
+        assertEquals(0, read.getHeapSize());
+
+        for (double lon = 8.0; lon < 35.0; lon += 0.37) {
+            for (double lat = 18.0; lat < 40.0; lat += 0.29) {
+                int[] expected = lut.getGridCoordinates(lon, lat);
+                int[] actual = read.getGridCoordinates(lon, lat);
+                if (expected == null) {
+                    assertNull(actual);
+                } else {
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFingerprint() {
+        Array2D<Number> lons = new ValuesArray2D(NJ, NI);
+        Array2D<Number> lats = new ValuesArray2D(NJ, NI);
+        for (int j = 0; j < NJ; j++) {
+            for (int i = 0; i < NI; i++) {
+                lons.set(10.0 + 0.5 * i + 0.1 * j, j, i);
+                lats.set(20.0 + 0.5 * j + 0.1 * i, j, i);
+            }
+        }
+        assertEquals(curvCoords.getFingerprint(), new CurvilinearCoords(lons, lats)
+                .getFingerprint());
+        lats.set(0.0, 0, 0);
+        assertFalse(curvCoords.getFingerprint().equals(
+                new CurvilinearCoords(lons, lats).getFingerprint()));
+    }
+
+    @Test
+    public void testWideIndices() throws Exception {
+        /*
+         * Wide indices are only used for very large grids, so force them here
+         * and check that they give the same results as shorts
+         */
+        LookUpTable lut = new LookUpTable(curvCoords, 0.1, false);
+        LookUpTable wideLut = new LookUpTable(curvCoords, 0.1, true);
+        assertEquals(lut.getNumLonPoints(), wideLut.getNumLonPoints());
+        assertEquals(lut.getNumLatPoints(), wideLut.getNumLatPoints());
+        assertEquals(2 * lut.getHeapSize(), wideLut.getHeapSize());
+        assertSameIndices(lut, wideLut);
+
+        File file = File.createTempFile("edal-lut-test", ".lut");
+        file.deleteOnExit();
+        wideLut.write(file);
+        assertEquals(FILE_HEADER_SIZE + 8L * lut.getNumLonPoints() * lut.getNumLatPoints(),
+                file.length());
+        LookUpTable read = LookUpTable.read(file);
+        assertEquals(wideLut, read);
+        assertSameIndices(lut, read);
+    }
+
+    @Test
+    public void testAntiMeridian() {
+        /*
+         * A skewed grid crossing the anti-meridian, tall enough that the LUT
+         * is split into several bands
+         */
+        int ni = 40;
+        int nj = 100;
+        Array2D<Number> lons = new ValuesArray2D(nj, ni);
+        Array2D<Number> lats = new ValuesArray2D(nj, ni);
+        for (int j = 0; j < nj; j++) {
+            for (int i = 0; i < ni; i++) {
+                double lon = 170.0 + 0.5 * i + 0.05 * j;
+                lons.set(lon > 180.0 ? lon - 360.0 : lon, j, i);
+                lats.set(-30.0 + 0.5 * j + 0.05 * i, j, i);
+            }
+        }
+        CurvilinearCoords antiMeridianCoords = new CurvilinearCoords(lons, lats);
+        LookUpTable lut = new LookUpTable(antiMeridianCoords, 0.2);
+        assertTrue(lut.getNumLatPoints() > 128);
+        assertBruteForceIndices(antiMeridianCoords, lut);
+
+        /*
+         * Points either side of the anti-meridian should both be found
+         */
+        for (double lat = -20.0; lat < 10.0; lat += 1.0) {
+            assertNotNull(lut.getGridCoordinates(179.9, lat));
+            assertNotNull(lut.getGridCoordinates(-179.9, lat));
+        }
+    }
+
+    @Test
+    public void testBruteForce() {
+        assertBruteForceIndices(curvCoords, new LookUpTable(curvCoords, 0.1));
+
+        /*
+         * A grid which folds back on itself (as in a tripolar grid), so that
+         * the cells overlap and the order in which they are painted matters
+         */
+        Array2D<Number> lons = new ValuesArray2D(NJ, NI);
+        Array2D<Number> lats = new ValuesArray2D(NJ, NI);
+        for (int j = 0; j < NJ; j++) {
+            for (int i = 0; i < NI; i++) {
+                lons.set(10.0 + 0.5 * (i < 25 ? i : 50 - i) + 0.1 * j, j, i);
+                lats.set(20.0 + 0.5 * j + 0.03 * i, j, i);
+            }
+        }
+        CurvilinearCoords foldedCoords = new CurvilinearCoords(lons, lats);
+        assertBruteForceIndices(foldedCoords, new LookUpTable(foldedCoords, 0.1));
+    }
+
+    private static void assertSameIndices(LookUpTable expected, LookUpTable actual) {
+        int size = expected.getNumLonPoints() * expected.getNumLatPoints();
+        for (int lutIndex = 0; lutIndex < size; lutIndex++) {
+            assertEquals(expected.getIIndex(lutIndex), actual.getIIndex(lutIndex));
+            assertEquals(expected.getJIndex(lutIndex), actual.getJIndex(lutIndex));
+        }
+    }
+
+    /**
+     * Checks the indices in the given LUT against a brute-force scan, which
+     * paints every cell (and its copy shifted by 360 degrees) in order, on a
+     * single thread. Each LUT point takes the indices of the last cell whose
+     * boundary contains it, using the non-zero winding rule.
+     */
+    private static void assertBruteForceIndices(CurvilinearCoords coords, LookUpTable lut) {
+        int nLon = lut.getNumLonPoints();
+        int nLat = lut.getNumLatPoints();
+        BoundingBox bbox = coords.getBoundingBox();
+        AffineTransform transform = new AffineTransform();
+        transform.scale((nLon - 1) / (bbox.getMaxX() - bbox.getMinX()),
+                (nLat - 1) / (bbox.getMaxY() - bbox.getMinY()));
+        transform.translate(-bbox.getMinX(), -bbox.getMinY());
+
+        int[] iIndices = new int[nLon * nLat];
+        int[] jIndices = new int[nLon * nLat];
+        Arrays.fill(iIndices, -1);
+        Arrays.fill(jIndices, -1);
+        double[] lonLats = new double[8];
+        double[] points = new double[8];
+        for (int j = 0; j < coords.getNj(); j++) {
+            for (int i = 0; i < coords.getNi(); i++) {
+                coords.getCorners(i, j, lonLats);
+                double shiftLon = coords.getMidpointLongitude(i, j) > 0.0 ? -360.0 : 360.0;
+                for (int copy = 0; copy < 2; copy++) {
+                    transform.transform(lonLats, 0, points, 0, 4);
+                    /*
+                     * The winding number is zero outside the bounding box of
+                     * the cell, so only check the points inside it
+                     */
+                    double minX = Math.min(Math.min(points[0], points[2]),
+                            Math.min(points[4], points[6]));
+                    double maxX = Math.max(Math.max(points[0], points[2]),
+                            Math.max(points[4], points[6]));
+                    double minY = Math.min(Math.min(points[1], points[3]),
+                            Math.min(points[5], points[7]));
+                    double maxY = Math.max(Math.max(points[1], points[3]),
+                            Math.max(points[5], points[7]));
+                    int maxXIndex = (int) Math.min(nLon - 1, Math.ceil(maxX));
+                    int maxYIndex = (int) Math.min(nLat - 1, Math.ceil(maxY));
+                    for (int y = (int) Math.max(0, Math.floor(minY)); y <= maxYIndex; y++) {
+                        for (int x = (int) Math.max(0, Math.floor(minX)); x <= maxXIndex; x++) {
+                            if (winding(points, x, y) != 0) {
+                                iIndices[x + y * nLon] = i;
+                                jIndices[x + y * nLon] = j;
+                            }
+                        }
+                    }
+                    for (int k = 0; k < 8; k += 2) {
+                        lonLats[k] += shiftLon;
+                    }
+                }
+            }
+        }
+
+        int nPainted = 0;
+        for (int lutIndex = 0; lutIndex < nLon * nLat; lutIndex++) {
+            assertEquals(iIndices[lutIndex], lut.getIIndex(lutIndex));
+            assertEquals(jIndices[lutIndex], lut.getJIndex(lutIndex));
+            if (iIndices[lutIndex] >= 0) {
+                nPainted++;
+            }
+        }
+        assertTrue(nPainted > 0);
+    }
+
+    /**
+     * @return The winding number of the given polygon around the point (x,y).
+     *         Each edge includes its lower end but not its upper end, and
+     *         points on a left-hand edge are inside the polygon.
+     */
+    private static int winding(double[] points, int x, int y) {
+        int winding = 0;
+        for (int k = 0; k < 4; k++) {
+            int next = (k + 1) % 4;
+            double x0 = points[2 * k];
+            double y0 = points[2 * k + 1];
+            double x1 = points[2 * next];
+            double y1 = points[2 * next + 1];
+            if (y0 <= y && y < y1) {
+                if (x0 + (y - y0) * (x1 - x0) / (y1 - y0) <= x) {
+                    winding++;
+                }
+            } else if (y1 <= y && y < y0) {
+                if (x0 + (y - y0) * (x1 - x0) / (y1 - y0) <= x) {
+                    winding--;
+                }
+            }
+        }
+        return winding;
+    }
+}
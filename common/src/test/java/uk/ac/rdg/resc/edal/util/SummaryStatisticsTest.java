@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+
+/**
+ * Test class for {@link SummaryStatistics}.
+ */
+public class SummaryStatisticsTest {
+    private static final int SIZE = 10000;
+    /*
+     * The maximum error of an estimated percentile, as a fraction of the
+     * number of values
+     */
+    private static final double RANK_TOLERANCE = 0.01;
+    private SummaryStatistics stats;
+
+    @Before
+    public void setUp() {
+        stats = new SummaryStatistics();
+        for (int i = 0; i < SIZE; i++) {
+            stats.add(i);
+        }
+        stats.add(Float.NaN);
+    }
+
+    @Test
+    public void testSummary() {
+        assertEquals(SIZE, stats.getCount());
+        assertEquals(0f, stats.getMin(), 0f);
+        assertEquals(SIZE - 1, stats.getMax(), 0f);
+        assertEquals((SIZE - 1) / 2.0, stats.getMean(), 1e-6);
+    }
+
+    @Test
+    public void testPercentiles() {
+        /*
+         * The values are 0 to SIZE - 1, so their ranks are the same as the
+         * values
+         */
+        double tolerance = RANK_TOLERANCE * SIZE;
+        Extent<Float> range = stats.getPercentileRange(2, 98);
+        assertEquals(0.02 * SIZE, range.getLow(), tolerance);
+        assertEquals(0.98 * SIZE, range.getHigh(), tolerance);
+        assertEquals(0f, stats.getPercentile(0), 0f);
+        assertEquals(SIZE - 1, stats.getPercentile(100), 0f);
+    }
+
+    @Test
+    public void testMerge() {
+        SummaryStatistics lower = new SummaryStatistics();
+        SummaryStatistics upper = new SummaryStatistics();
+        for (int i = 0; i < SIZE; i++) {
+            if (i < SIZE / 2) {
+                lower.add(i);
+            } else {
+                upper.add(i);
+            }
+        }
+        SummaryStatistics merged = new SummaryStatistics();
+        merged.merge(lower);
+        merged.merge(upper);
+        assertEquals(stats.getCount(), merged.getCount());
+        assertEquals(stats.getMin(), merged.getMin(), 0f);
+        assertEquals(stats.getMax(), merged.getMax(), 0f);
+        assertEquals(stats.getMean(), merged.getMean(), 1e-6);
+        for (int percentile = 1; percentile < 100; percentile++) {
+            assertEquals(percentile * SIZE / 100.0, merged.getPercentile(percentile),
+                    RANK_TOLERANCE * SIZE);
+        }
+    }
+
+    @Test
+    public void testOutliers() {
+        /*
+         * A single huge value should not affect the percentiles of the rest
+         */
+        SummaryStatistics outliers = new SummaryStatistics();
+        for (int i = 0; i < SIZE; i++) {
+            outliers.add(i / (float) SIZE);
+        }
+        outliers.add(1e6f);
+        outliers.add(-1e6f);
+        assertEquals(0.02, outliers.getPercentile(2), RANK_TOLERANCE);
+        assertEquals(0.5, outliers.getPercentile(50), RANK_TOLERANCE);
+        assertEquals(0.98, outliers.getPercentile(98), RANK_TOLERANCE);
+        assertEquals(-1e6f, outliers.getPercentile(0), 0f);
+        assertEquals(1e6f, outliers.getPercentile(100), 0f);
+    }
+
+    @Test
+    public void testHeavyTailed() {
+        /*
+         * Pareto-distributed values, with a few of them negated, compared
+         * against the exact percentiles. Compare ranks rather than values,
+         * since the values in the tail are far apart.
+         */
+        Random random = new Random(42);
+        int n = 100000;
+        float[] values = new float[n];
+        SummaryStatistics heavy = new SummaryStatistics();
+        for (int i = 0; i < n; i++) {
+            values[i] = (float) Math.pow(1.0 - random.nextDouble(), -1.0 / 0.8);
+            if (i % 10 == 0) {
+                values[i] = -values[i];
+            }
+            heavy.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] { 0.1, 1, 2, 5, 10, 25, 50, 75, 90, 95, 98, 99,
+                99.9 }) {
+            float estimate = heavy.getPercentile(percentile);
+            int rank = Arrays.binarySearch(values, estimate);
+            assertTrue(rank >= 0);
+            assertEquals(percentile / 100.0, rank / (double) n, RANK_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testExactForFewValues() {
+        SummaryStatistics few = new SummaryStatistics();
+        for (int i = 100; i > 0; i--) {
+            few.add(i);
+        }
+        assertEquals(2f, few.getPercentile(2), 0f);
+        assertEquals(50f, few.getPercentile(50), 0f);
+        assertEquals(98f, few.getPercentile(98), 0f);
+    }
+
+    @Test
+    public void testEmpty() {
+        SummaryStatistics empty = new SummaryStatistics();
+        assertEquals(0, empty.getCount());
+        assertTrue(Float.isNaN(empty.getMin()));
+        assertTrue(Float.isNaN(empty.getPercentile(50)));
+    }
+
+    @Test
+    public void testSerialisation() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            stats.write(out);
+        }
+        SummaryStatistics read = SummaryStatistics.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(stats.getCount(), read.getCount());
+        assertEquals(stats.getMin(), read.getMin(), 0f);
+        assertEquals(stats.getMax(), read.getMax(), 0f);
+        assertEquals(stats.getMean(), read.getMean(), 1e-6);
+        assertEquals(stats.getPercentile(98), read.getPercentile(98), 0f);
+    }
+}
@@ -156,6 +156,19 @@ public abstract class ColourScheme {
      */
     public abstract Color getColor(Number value);
 
+    /**
+     * Returns the colour associated with the given primitive value.
+     * Subclasses should override this if they can calculate the colour
+     * without boxing the value.
+     * 
+     * @param value
+     *            The value to get a colour for
+     * @return The {@link Color} according to this {@link ColourScheme}
+     */
+    public Color getColor(float value) {
+        return getColor(Float.valueOf(value));
+    }
+
     /**
      * @return The minimum value of this colour scale
      */
@@ -47,6 +47,7 @@ import uk.ac.rdg.resc.edal.grid.GridCell2D;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.util.Array;
 import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 
 /**
@@ -118,6 +119,12 @@ public abstract class GriddedImageLayer extends ImageLayer {
              * Since BufferedImages have the y-axis increasing downwards, wrap
              * the returned values in an Array2D with a flipped y-axis
              */
+            if (values instanceof FloatArray2D) {
+                /*
+                 * Keep primitive access to the values available to the layers
+                 */
+                return ((FloatArray2D) values).flipY();
+            }
             return new Array2D<Number>(values.getYSize(), values.getXSize()) {
                 @Override
                 public void set(Number value, int... coords) {
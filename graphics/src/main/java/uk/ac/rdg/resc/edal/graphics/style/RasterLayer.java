@@ -34,6 +34,7 @@ import java.util.Set;
 
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
 import uk.ac.rdg.resc.edal.util.Extents;
 
 public class RasterLayer extends GriddedImageLayer {
@@ -76,8 +77,26 @@ public class RasterLayer extends GriddedImageLayer {
          * below
          */
         int index = 0;
-        for (Number value : values) {
-            pixels[index++] = colourScheme.getColor(value).getRGB();
+        if (values instanceof FloatArray2D) {
+            /*
+             * Avoid boxing every value when they are stored as primitives
+             */
+            FloatArray2D floatValues = (FloatArray2D) values;
+            int missingColour = colourScheme.getColor((Number) null).getRGB();
+            for (int j = 0; j < floatValues.getYSize(); j++) {
+                for (int i = 0; i < floatValues.getXSize(); i++) {
+                    if (floatValues.isMissing(j, i)) {
+                        pixels[index++] = missingColour;
+                    } else {
+                        pixels[index++] = colourScheme.getColor(floatValues.getFloat(j, i))
+                                .getRGB();
+                    }
+                }
+            }
+        } else {
+            for (Number value : values) {
+                pixels[index++] = colourScheme.getColor(value).getRGB();
+            }
         }
         image.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
     }
@@ -77,12 +77,30 @@ public class ScaleRange {
         if(input == null || Float.isNaN(input.floatValue())) {
             return null;
         }
+        return scaleZeroToOne(input.floatValue());
+    }
+
+    /**
+     * Scales an input number to the range 0-1, without creating any objects.
+     * Will return a number outside this range if necessary, but the result can
+     * ONLY be interpreted as "out-of-range" (i.e. the amount by which it is
+     * out-of-range should not be used)
+     * 
+     * @param input
+     *            The input number
+     * @return A number from 0-1 if in range, a number outside 0-1 if
+     *         out-of-range, and NaN if NaN
+     */
+    public float scaleZeroToOne(float input) {
+        if(Float.isNaN(input)) {
+            return Float.NaN;
+        }
         
         if(logarithmic) {
             if(scaleMin <= 0.0 || scaleMax <= 0.0) {
                 throw new IllegalArgumentException("Cannot log-scale zero/negative numbers");
             }
-            if(input.floatValue() <= 0.0f) {
+            if(input <= 0.0f) {
                 /*
                  * Below min scale, but logarithmic so this would cause an
                  * error. Just need to return a number which is outside the 0-1
@@ -90,9 +108,9 @@ public class ScaleRange {
                  */
                 return -1f;
             }
-            return (float) ((Math.log(input.doubleValue()) - Math.log(scaleMin)) / (Math.log(scaleMax) - Math.log(scaleMin)));
+            return (float) ((Math.log(input) - Math.log(scaleMin)) / (Math.log(scaleMax) - Math.log(scaleMin)));
         } else {
-            return ((input.floatValue() - scaleMin) / (scaleMax - scaleMin));
+            return ((input - scaleMin) / (scaleMax - scaleMin));
         }
     }
 }
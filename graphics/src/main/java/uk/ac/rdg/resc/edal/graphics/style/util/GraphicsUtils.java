@@ -33,27 +33,22 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.xml.bind.annotation.adapters.XmlAdapter;
 
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.SampledValueRangeEstimator;
+import uk.ac.rdg.resc.edal.dataset.ValueRangeEstimator;
 import uk.ac.rdg.resc.edal.domain.Extent;
-import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.exceptions.EdalParseException;
 import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
-import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
 import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
-import uk.ac.rdg.resc.edal.util.Array;
-import uk.ac.rdg.resc.edal.util.CollectionUtils;
 import uk.ac.rdg.resc.edal.util.Extents;
-import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 
 /**
  * Class containing static utility methods for dealing with graphics
@@ -63,6 +58,7 @@ import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 public class GraphicsUtils {
     private static final Logger log = LoggerFactory.getLogger(GraphicsUtils.class);
     private static Map<String, Color> namedColors = new HashMap<>();
+    private static ValueRangeEstimator valueRangeEstimator = new SampledValueRangeEstimator();
 
     static {
         try {
@@ -158,10 +154,28 @@ public class GraphicsUtils {
     }
 
     /**
-     * Estimate the range of values in this layer by reading a sample of data
-     * from the default time and elevation.
+     * Sets the {@link ValueRangeEstimator} used by
+     * {@link #estimateValueRange(Dataset, String)}
      * 
-     * If the given variable is found, a default range of 0-100 is returned
+     * @param estimator
+     *            The {@link ValueRangeEstimator} to use. Defaults to a
+     *            {@link SampledValueRangeEstimator}
+     */
+    public static void setValueRangeEstimator(ValueRangeEstimator estimator) {
+        if (estimator == null) {
+            throw new NullPointerException("Value range estimator cannot be null");
+        }
+        valueRangeEstimator = estimator;
+    }
+
+    /**
+     * Estimate the range of values in this layer, using the
+     * {@link ValueRangeEstimator} set with
+     * {@link #setValueRangeEstimator(ValueRangeEstimator)}. The estimated range
+     * is widened slightly, so that it covers values just outside the sample.
+     * 
+     * If the variable is not found, or its range cannot be estimated, a
+     * default range of 0-100 is returned
      * 
      * @param dataset
      *            The dataset containing the variable to estimate
@@ -181,63 +195,19 @@ public class GraphicsUtils {
         }
         if (!variableMetadata.isScalar()) {
             return Extents.newExtent(0f, 100f);
-            /*
-             * We have a non-scalar variable. We will attempt to use the first
-             * child member to estimate the value range. This may not work in
-             * which case we ignore it - worst case scenario is that we end up
-             * with a bad scale range set - administrators can just override it.
-             */
-//            try {
-//                variableMetadata = variableMetadata.getChildren().iterator().next();
-//                varId = variableMetadata.getId();
-//            } catch (Exception e) {
-//                /*
-//                 * Ignore this error and just generate a (probably) inaccurate
-//                 * range
-//                 */
-//            }
         }
 
-        Double zPos = null;
-        Extent<Double> zExtent = null;
-        /*
-         * TODO SLOW! This will be problematic if we are using
-         * AbstractContinuousDomainDatasets, because we will end up extracting
-         * every single feature. On the plus side, the value range returned will
-         * be absolutely accurate...
-         */
-        if (variableMetadata.getVerticalDomain() != null) {
-            zPos = variableMetadata.getVerticalDomain().getExtent().getLow();
-            zExtent = variableMetadata.getVerticalDomain().getExtent();
-        }
-        DateTime time = null;
-        Extent<DateTime> tExtent = null;
-        if (variableMetadata.getTemporalDomain() != null) {
-            time = variableMetadata.getTemporalDomain().getExtent().getHigh();
-            tExtent = variableMetadata.getTemporalDomain().getExtent();
-        }
-        PlottingDomainParams params = new PlottingDomainParams(100, 100, variableMetadata
-                .getHorizontalDomain().getBoundingBox(), zExtent, tExtent, null, zPos, time);
         float min = Float.MAX_VALUE;
         float max = -Float.MAX_VALUE;
+        Extent<Float> estimate = null;
         try {
-            Collection<? extends DiscreteFeature<?, ?>> mapFeatures = dataset.extractMapFeatures(
-                    CollectionUtils.setOf(varId), params);
-            for (DiscreteFeature<?, ?> feature : mapFeatures) {
-                Array<Number> values = feature.getValues(varId);
-                if (values != null) {
-                    for (Number value : values) {
-                        if (value != null && !Double.isNaN(value.doubleValue())) {
-                            min = (float) Math.min(value.doubleValue(), min);
-                            max = (float) Math.max(value.doubleValue(), max);
-                        }
-                    }
-                }
-            }
-        } catch (DataReadingException | VariableNotFoundException e) {
-            log.error(
-                    "Problem reading data whilst estimating scale range.  A default value will be used.",
-                    e);
+            estimate = valueRangeEstimator.estimateValueRange(dataset, varId);
+        } catch (RuntimeException e) {
+            log.error("Problem estimating scale range.  A default value will be used.", e);
+        }
+        if (estimate != null && estimate.getLow() != null && estimate.getHigh() != null) {
+            min = estimate.getLow();
+            max = estimate.getHigh();
         }
 
         if (max == -Float.MAX_VALUE || min == Float.MAX_VALUE) {
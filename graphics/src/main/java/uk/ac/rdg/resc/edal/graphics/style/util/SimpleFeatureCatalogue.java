@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
@@ -86,8 +87,19 @@ public class SimpleFeatureCatalogue<D extends Dataset> implements FeatureCatalog
         if (varCache.containsKey(params)) {
             return varCache.get(params);
         } else {
-            List<? extends DiscreteFeature<?, ?>> extractedFeatures = dataset.extractMapFeatures(
-                    CollectionUtils.setOf(varId), params);
+            /*
+             * These features are only used for plotting, so gridded datasets
+             * can read them in the cheaper way which is only suitable for
+             * plotting
+             */
+            List<? extends DiscreteFeature<?, ?>> extractedFeatures;
+            if (dataset instanceof GriddedDataset) {
+                extractedFeatures = ((GriddedDataset) dataset).extractMapFeaturesForPlotting(
+                        CollectionUtils.setOf(varId), params);
+            } else {
+                extractedFeatures = dataset.extractMapFeatures(CollectionUtils.setOf(varId),
+                        params);
+            }
             if (cache) {
                 varCache.put(params, extractedFeatures);
             }
@@ -53,8 +53,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CacheInfo;
+import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.VariableConfig;
+import uk.ac.rdg.resc.edal.dataset.GridDataBlockCache;
 import uk.ac.rdg.resc.edal.graphics.style.util.ColourPalette;
 import uk.ac.rdg.resc.edal.ncwms.config.NcwmsContact;
 import uk.ac.rdg.resc.edal.ncwms.config.NcwmsDynamicService;
@@ -148,6 +150,8 @@ public class NcwmsAdminServlet extends HttpServlet {
         context.put("version", NcwmsApplicationServlet.getVersion());
         context.put("catalogue", catalogue);
         context.put("config", catalogue.getConfig());
+        context.put("loadScheduler", CatalogueConfig.getLoadScheduler());
+        context.put("GridDataBlockCache", GridDataBlockCache.class);
         context.put("TimeUtils", TimeUtils.class);
         try {
             template.merge(context, response.getWriter());
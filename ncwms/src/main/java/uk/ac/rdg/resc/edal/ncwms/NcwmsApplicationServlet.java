@@ -51,8 +51,13 @@ import org.apache.velocity.runtime.RuntimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig;
+import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetLoadScheduler;
+import uk.ac.rdg.resc.edal.dataset.DataReadingStrategy;
 import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
 import uk.ac.rdg.resc.edal.dataset.cdm.CdmGridDatasetFactory;
+import uk.ac.rdg.resc.edal.dataset.cdm.NetcdfDatasetPool;
 import uk.ac.rdg.resc.edal.graphics.formats.ImageFormat;
 import uk.ac.rdg.resc.edal.graphics.style.util.ColourPalette;
 import uk.ac.rdg.resc.edal.graphics.style.util.SldTemplateStyleCatalogue;
@@ -153,6 +158,62 @@ public class NcwmsApplicationServlet extends HttpServlet {
                     }
                 }
             }
+
+            /*
+             * Configure the pool of open NetCDF datasets
+             */
+            try {
+                NetcdfDatasetPool.setLimits(Integer.parseInt(appProperties.getProperty(
+                        "maxOpenFiles", String.valueOf(NetcdfDatasetPool.DEFAULT_MAX_FILES))),
+                        Integer.parseInt(appProperties.getProperty("maxOpenAggregations",
+                                String.valueOf(NetcdfDatasetPool.DEFAULT_MAX_AGGREGATIONS))));
+                NetcdfDatasetPool.setIdleTimeout(Integer.parseInt(appProperties.getProperty(
+                        "datasetIdleMinutes",
+                        String.valueOf(NetcdfDatasetPool.DEFAULT_IDLE_MINUTES))));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid setting for the NetCDF dataset pool", e);
+            }
+            CdmGridDatasetFactory.setConcurrentReads(Boolean.parseBoolean(appProperties
+                    .getProperty("concurrentReads", "true")));
+
+            /*
+             * Configure how map data is read
+             */
+            try {
+                DataReadingStrategy.setScanlineGapThreshold(Integer.parseInt(appProperties
+                        .getProperty("scanlineGapThreshold", String
+                                .valueOf(DataReadingStrategy.DEFAULT_SCANLINE_GAP_THRESHOLD))));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid setting for scanlineGapThreshold", e);
+            }
+            try {
+                DataReadingStrategy.setMaxConcurrentReads(Integer.parseInt(appProperties
+                        .getProperty("maxConcurrentReads", String
+                                .valueOf(DataReadingStrategy.DEFAULT_MAX_CONCURRENT_READS))));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid setting for maxConcurrentReads", e);
+            }
+            try {
+                GriddedDataset.setMaxHyperslabSize(Long.parseLong(appProperties.getProperty(
+                        "maxHyperslabSize",
+                        String.valueOf(GriddedDataset.DEFAULT_MAX_HYPERSLAB_SIZE))));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid setting for maxHyperslabSize", e);
+            }
+
+            /*
+             * Configure how datasets are loaded
+             */
+            DatasetLoadScheduler loadScheduler = CatalogueConfig.getLoadScheduler();
+            try {
+                loadScheduler.setParallelism(Integer.parseInt(appProperties.getProperty(
+                        "datasetLoadThreads",
+                        String.valueOf(DatasetLoadScheduler.DEFAULT_PARALLELISM))));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid setting for datasetLoadThreads", e);
+            }
+            loadScheduler.setLazy(Boolean.parseBoolean(appProperties.getProperty(
+                    "lazyDatasetLoading", "false")));
         }
 
         /*
@@ -85,6 +85,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.DatasetStatistics;
 import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
 import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.domain.HorizontalDomain;
@@ -133,6 +134,7 @@ import uk.ac.rdg.resc.edal.util.Extents;
 import uk.ac.rdg.resc.edal.util.GISUtils;
 import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+import uk.ac.rdg.resc.edal.util.SummaryStatistics;
 import uk.ac.rdg.resc.edal.util.TimeUtils;
 import uk.ac.rdg.resc.edal.wms.exceptions.CurrentUpdateSequence;
 import uk.ac.rdg.resc.edal.wms.exceptions.EdalUnsupportedOperationException;
@@ -1529,19 +1531,189 @@ public class WmsServlet extends HttpServlet {
         }
 
         /*
-         * Now read the required features
+         * Optionally, find a percentile range (e.g. PERCENTILES=2,98) rather
+         * than the full range of values. This ignores outliers.
          */
+        double[] percentiles = null;
+        String percentilesStr = params.getString("percentiles");
+        if (percentilesStr != null) {
+            String[] percentileStrs = percentilesStr.split(",");
+            try {
+                percentiles = new double[] { Double.parseDouble(percentileStrs[0]),
+                        Double.parseDouble(percentileStrs[1]) };
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new MetadataException(
+                        "PERCENTILES must be given as two comma-separated numbers");
+            }
+            if (percentileStrs.length != 2 || percentiles[0] < 0 || percentiles[1] > 100
+                    || percentiles[0] > percentiles[1]) {
+                throw new MetadataException(
+                        "PERCENTILES must be two increasing values between 0 and 100");
+            }
+        }
+
+        PlottingDomainParams plottingParams = getMapParams.getPlottingDomainParameters();
+        double min;
+        double max;
+        /*
+         * If there are precomputed tiles, the range of values in the viewport
+         * can be found without reading any data
+         */
+        Extent<Float> tileRange = null;
+        if (percentiles == null) {
+            tileRange = getPrecomputedRange(layerName, plottingParams, catalogue);
+        }
+        if (tileRange != null) {
+            min = tileRange.getLow();
+            max = tileRange.getHigh();
+        } else {
+            /*
+             * Use precomputed statistics if they are available. Otherwise read
+             * the required features.
+             */
+            SummaryStatistics stats = getPrecomputedStatistics(layerName, plottingParams,
+                    catalogue);
+            if (stats == null) {
+                stats = readStatistics(layerName, plottingParams, catalogue);
+            }
+
+            if (stats.getCount() == 0) {
+                throw new MetadataException("No data in this area - cannot calculate min/max");
+            }
+
+            if (percentiles != null) {
+                Extent<Float> range = stats.getPercentileRange(percentiles[0], percentiles[1]);
+                min = range.getLow();
+                max = range.getHigh();
+            } else {
+                min = stats.getMin();
+                max = stats.getMax();
+            }
+        }
+
+        /*
+         * No variation in scale.
+         */
+        if (min == max) {
+            if (min == 0.0) {
+                min = -0.5;
+                max = 0.5;
+            } else {
+                min *= 0.95;
+                max *= 1.05;
+                if(min > max) {
+                    double t = min;
+                    min = max;
+                    max = t;
+                }
+            }
+        }
+
+        /*
+         * Limit output to 4s.f
+         */
+        minmax.put("min", GraphicsUtils.roundToSignificantFigures(min, 4));
+        minmax.put("max", GraphicsUtils.roundToSignificantFigures(max, 4));
+
+        return minmax.toString();
+    }
+
+    /**
+     * Gets the precomputed statistics of the map of a layer covered by a
+     * GetMap request. These are only used if the request covers the entire
+     * horizontal domain of the layer.
+     * 
+     * @return The {@link SummaryStatistics} of the layer, or <code>null</code>
+     *         if they are not available.
+     */
+    private SummaryStatistics getPrecomputedStatistics(String layerName,
+            PlottingDomainParams plottingParams, WmsCatalogue catalogue) {
+        BoundingBox bbox = plottingParams.getBbox();
+        if (bbox == null || !GISUtils.isWgs84LonLat(bbox.getCoordinateReferenceSystem())) {
+            return null;
+        }
+        try {
+            Dataset dataset = WmsUtils.getDatasetFromLayerName(layerName, catalogue);
+            DatasetStatistics statistics = getStatistics(dataset);
+            if (statistics == null) {
+                return null;
+            }
+            String variableId = catalogue.getLayerNameMapper().getVariableIdFromLayerName(
+                    layerName);
+            GeographicBoundingBox layerBbox = dataset.getVariableMetadata(variableId)
+                    .getHorizontalDomain().getGeographicBoundingBox();
+            if (bbox.getMinX() > layerBbox.getWestBoundLongitude()
+                    || bbox.getMaxX() < layerBbox.getEastBoundLongitude()
+                    || bbox.getMinY() > layerBbox.getSouthBoundLatitude()
+                    || bbox.getMaxY() < layerBbox.getNorthBoundLatitude()) {
+                /*
+                 * Only part of the layer is visible
+                 */
+                return null;
+            }
+            return statistics.getSliceStatistics(variableId, plottingParams.getTargetT(),
+                    plottingParams.getTargetZ());
+        } catch (EdalException e) {
+            /*
+             * Fall back to reading the data
+             */
+            return null;
+        }
+    }
+
+    /**
+     * Finds the range of values of a layer within the bounding box of a GetMap
+     * request from the precomputed tiles of its statistics.
+     * 
+     * @return The range of values, or <code>null</code> if it cannot be found
+     *         from precomputed statistics.
+     */
+    private Extent<Float> getPrecomputedRange(String layerName,
+            PlottingDomainParams plottingParams, WmsCatalogue catalogue) {
+        BoundingBox bbox = plottingParams.getBbox();
+        if (bbox == null) {
+            return null;
+        }
+        try {
+            DatasetStatistics statistics = getStatistics(WmsUtils.getDatasetFromLayerName(
+                    layerName, catalogue));
+            if (statistics == null) {
+                return null;
+            }
+            String variableId = catalogue.getLayerNameMapper().getVariableIdFromLayerName(
+                    layerName);
+            return statistics.getValueRange(variableId, plottingParams.getTargetT(),
+                    plottingParams.getTargetZ(), bbox);
+        } catch (EdalException e) {
+            /*
+             * Fall back to reading the data
+             */
+            return null;
+        }
+    }
+
+    private static DatasetStatistics getStatistics(Dataset dataset) {
+        if (dataset instanceof GriddedDataset) {
+            return ((GriddedDataset) dataset).getStatistics();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the features of a layer covered by a GetMap request, and
+     * calculates the statistics of their values
+     */
+    private SummaryStatistics readStatistics(String layerName,
+            PlottingDomainParams plottingParams, WmsCatalogue catalogue) throws MetadataException {
         FeaturesAndMemberName featuresAndMember;
         try {
-            featuresAndMember = catalogue.getFeaturesForLayer(layerName,
-                    getMapParams.getPlottingDomainParameters());
+            featuresAndMember = catalogue.getFeaturesForLayer(layerName, plottingParams);
         } catch (EdalException e) {
             log.error("Bad layer name", e);
             throw new MetadataException("Problem reading data", e);
         }
 
-        double min = Double.MAX_VALUE;
-        double max = -Double.MAX_VALUE;
+        SummaryStatistics stats = new SummaryStatistics();
         Collection<? extends DiscreteFeature<?, ?>> features = featuresAndMember.getFeatures();
         for (DiscreteFeature<?, ?> f : features) {
             if (f instanceof MapFeature) {
@@ -1556,24 +1728,14 @@ public class WmsServlet extends HttpServlet {
                 while (iterator.hasNext()) {
                     Number value = iterator.next();
                     if (value != null) {
-                        if (value.doubleValue() > max) {
-                            max = value.doubleValue();
-                        }
-                        if (value.doubleValue() < min) {
-                            min = value.doubleValue();
-                        }
+                        stats.add(value.floatValue());
                     }
                 }
             } else if (f instanceof PointFeature) {
                 PointFeature pointFeature = (PointFeature) f;
                 Number value = pointFeature.getValues(featuresAndMember.getMember()).get(0);
                 if (value != null) {
-                    if (value.doubleValue() > max) {
-                        max = value.doubleValue();
-                    }
-                    if (value.doubleValue() < min) {
-                        min = value.doubleValue();
-                    }
+                    stats.add(value.floatValue());
                 }
             } else {
                 /*
@@ -1581,36 +1743,7 @@ public class WmsServlet extends HttpServlet {
                  */
             }
         }
-
-        if (min == Double.MAX_VALUE || max == -Double.MAX_VALUE) {
-            throw new MetadataException("No data in this area - cannot calculate min/max");
-        }
-
-        /*
-         * No variation in scale.
-         */
-        if (min == max) {
-            if (min == 0.0) {
-                min = -0.5;
-                max = 0.5;
-            } else {
-                min *= 0.95;
-                max *= 1.05;
-                if(min > max) {
-                    double t = min;
-                    min = max;
-                    max = t;
-                }
-            }
-        }
-
-        /*
-         * Limit output to 4s.f
-         */
-        minmax.put("min", GraphicsUtils.roundToSignificantFigures(min, 4));
-        minmax.put("max", GraphicsUtils.roundToSignificantFigures(max, 4));
-
-        return minmax.toString();
+        return stats;
     }
 
     protected String showAnimationTimesteps(RequestParams params, WmsCatalogue catalogue)
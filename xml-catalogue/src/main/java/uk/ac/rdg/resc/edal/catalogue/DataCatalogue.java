@@ -58,6 +58,9 @@ import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.VariableConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig.DatasetStorage;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.GridDataBlockCache;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
+import uk.ac.rdg.resc.edal.dataset.OverviewPyramid;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
 import uk.ac.rdg.resc.edal.graphics.exceptions.EdalLayerNotFoundException;
@@ -152,6 +155,14 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
      *            <code>null</code>
      */
     public void setCache(CacheInfo cacheConfig) {
+        /*
+         * The cache of decoded gridded data is configured independently of
+         * the feature cache
+         */
+        GridDataBlockCache.setCacheSize(cacheConfig.isEnabled() ? cacheConfig
+                .getDataBlockCacheSizeMB() : 0);
+        OverviewPyramid.setDiskBudget(cacheConfig.getOverviewStoreSizeMB());
+
         int cacheSizeMB = cacheConfig.getInMemorySizeMB();
         long lifetimeSeconds = (long) (cacheConfig.getElementLifetimeMinutes() * 60);
         if (featureCache != null
@@ -285,7 +296,8 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
         /*
          * This catalogue stores all possible datasets, but this method must
          * only return those which are available (i.e. not disabled and ready to
-         * go)
+         * go). In lazy mode, datasets which have not yet been requested are
+         * not loaded, so they are not included.
          */
         List<Dataset> allDatasets = new ArrayList<Dataset>();
         for (Dataset dataset : datasets.values()) {
@@ -299,6 +311,11 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
 
     @Override
     public Dataset getDatasetFromId(String datasetId) {
+        /*
+         * This prioritises the loading of the dataset if it is waiting to be
+         * (re)loaded, and loads it if it is lazily loaded
+         */
+        config.datasetRequested(datasetId);
         if (datasets.containsKey(datasetId)) {
             return datasets.get(datasetId);
         } else {
@@ -336,17 +353,31 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
                 mapFeatures = (Collection<? extends DiscreteFeature<?, ?>>) element
                         .getObjectValue();
             } else {
-                Dataset dataset = getDatasetFromLayerName(layerName);
-                mapFeatures = dataset.extractMapFeatures(CollectionUtils.setOf(variable), params);
+                mapFeatures = extractFeaturesForPlotting(getDatasetFromLayerName(layerName),
+                        variable, params);
                 featureCache.put(new Element(key, mapFeatures));
             }
         } else {
-            Dataset dataset = getDatasetFromLayerName(layerName);
-            mapFeatures = dataset.extractMapFeatures(CollectionUtils.setOf(variable), params);
+            mapFeatures = extractFeaturesForPlotting(getDatasetFromLayerName(layerName),
+                    variable, params);
         }
         return new FeaturesAndMemberName(mapFeatures, variable);
     }
 
+    /*
+     * Features returned from getFeaturesForLayer are only used for plotting,
+     * so gridded datasets can read them in the cheaper way which is only
+     * suitable for plotting
+     */
+    private static Collection<? extends DiscreteFeature<?, ?>> extractFeaturesForPlotting(
+            Dataset dataset, String variable, PlottingDomainParams params) throws EdalException {
+        if (dataset instanceof GriddedDataset) {
+            return ((GriddedDataset) dataset).extractMapFeaturesForPlotting(
+                    CollectionUtils.setOf(variable), params);
+        }
+        return dataset.extractMapFeatures(CollectionUtils.setOf(variable), params);
+    }
+
     private Dataset getDatasetFromLayerName(String layerName) {
         return getDatasetFromId(layerNameMapper.getDatasetIdFromLayerName(layerName));
     }
@@ -51,6 +51,10 @@ public class CacheInfo {
     private int inMemorySizeMB = 256;
     @XmlElement(name = "elementLifetimeMinutes")
     private float elementLifetimeMinutes = 0;
+    @XmlElement(name = "dataBlockCacheSizeMB")
+    private int dataBlockCacheSizeMB = 64;
+    @XmlElement(name = "overviewStoreSizeMB")
+    private int overviewStoreSizeMB = 1024;
 
     public CacheInfo() {
     }
@@ -84,4 +88,30 @@ public class CacheInfo {
     public float getElementLifetimeMinutes() {
         return elementLifetimeMinutes;
     }
+
+    /**
+     * @return The size of the cache of decoded gridded data, in megabytes.
+     *         This is separate to the cache of features, but is only used when
+     *         caching is enabled.
+     */
+    public int getDataBlockCacheSizeMB() {
+        return dataBlockCacheSizeMB;
+    }
+
+    public void setDataBlockCacheSizeMB(int dataBlockCacheSizeMB) {
+        this.dataBlockCacheSizeMB = dataBlockCacheSizeMB;
+    }
+
+    /**
+     * @return The maximum disk space used by the overviews of all datasets, in
+     *         megabytes. Unlike the in-memory caches, this is used whether or
+     *         not caching is enabled.
+     */
+    public int getOverviewStoreSizeMB() {
+        return overviewStoreSizeMB;
+    }
+
+    public void setOverviewStoreSizeMB(int overviewStoreSizeMB) {
+        this.overviewStoreSizeMB = overviewStoreSizeMB;
+    }
 }
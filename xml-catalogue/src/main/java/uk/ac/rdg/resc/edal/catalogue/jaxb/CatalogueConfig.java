@@ -38,13 +38,8 @@ import java.io.Reader;
 import java.io.Writer;
 import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -88,12 +83,7 @@ public class CatalogueConfig {
     private File configBackup;
 
     /** The scheduler that will handle the background (re)loading of datasets */
-    private static ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
-    /**
-     * Contains handles to background threads that can be used to cancel
-     * reloading of datasets. Maps dataset IDs to Future objects
-     */
-    private static Map<String, ScheduledFuture<?>> futures = new HashMap<String, ScheduledFuture<?>>();
+    private static final DatasetLoadScheduler loadScheduler = new DatasetLoadScheduler();
 
     /*
      * Used for JAX-B
@@ -127,9 +117,8 @@ public class CatalogueConfig {
         /*
          * Loop through all DatasetConfigs and load Datasets from each.
          * 
-         * Do this in a manner which means that they are "reloaded" every second
-         * (and checked as to whether they need to actually have anything done
-         * to them)
+         * The scheduler loads each one when it is due (or, in lazy mode, when
+         * it is first requested), and reloads it whenever it needs refreshing
          * 
          * Also during the load, return EnhancedVariableMetadata (these are just
          * the VariableConfigs...)
@@ -139,28 +128,36 @@ public class CatalogueConfig {
         }
     }
 
-    private void scheduleReload(final DatasetConfig dataset) {
+    private void scheduleReload(DatasetConfig dataset) {
         if (datasetStorage == null) {
             throw new IllegalStateException(
                     "You need to set something to handle loaded datasets before loading them.");
         }
-        Runnable reloader = new Runnable() {
-            @Override
-            public void run() {
-                /*
-                 * This will check to see if the metadata need reloading, then
-                 * go ahead if so.
-                 */
-                dataset.refresh(datasetStorage);
-            }
-        };
-        /*
-         * Run the task immediately, and then redo it every 1s
-         */
-        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(reloader, 0, 1,
-                TimeUnit.SECONDS);
-        /* We need to keep a handle to the Future object so we can cancel it */
-        futures.put(dataset.getId(), future);
+        loadScheduler.schedule(dataset, datasetStorage);
+    }
+
+    /**
+     * @return The {@link DatasetLoadScheduler} which loads the datasets of all
+     *         {@link CatalogueConfig}s. This can be configured before datasets
+     *         are loaded.
+     */
+    public static DatasetLoadScheduler getLoadScheduler() {
+        return loadScheduler;
+    }
+
+    /**
+     * Should be called whenever a dataset is needed to handle a request, so
+     * that the loading of requested datasets can be prioritised. In lazy
+     * mode, this loads the dataset if it has not yet been loaded.
+     * 
+     * @param datasetId
+     *            The ID of the requested dataset
+     */
+    public void datasetRequested(String datasetId) {
+        DatasetConfig dataset = datasets.get(datasetId);
+        if (dataset != null) {
+            loadScheduler.datasetRequested(dataset);
+        }
     }
 
     public CacheInfo getCacheSettings() {
@@ -196,17 +193,14 @@ public class CatalogueConfig {
 
     public synchronized void removeDataset(DatasetConfig dataset) {
         datasets.remove(dataset.getId());
-        futures.get(dataset.getId()).cancel(true);
-        futures.remove(dataset.getId());
+        loadScheduler.remove(dataset);
     }
 
     public synchronized void changeDatasetId(DatasetConfig dataset, String newId) {
         datasets.remove(dataset.getId());
-        ScheduledFuture<?> removedScheduler = futures.remove(dataset.getId());
         dataset.setId(newId);
 
         datasets.put(newId, dataset);
-        futures.put(dataset.getId(), removedScheduler);
     }
 
     public synchronized void save() throws IOException {
@@ -238,7 +232,7 @@ public class CatalogueConfig {
     }
 
     public static void shutdown() {
-        scheduler.shutdownNow();
+        loadScheduler.shutdown();
     }
 
     @Override
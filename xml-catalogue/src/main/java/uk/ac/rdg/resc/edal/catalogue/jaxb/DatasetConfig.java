@@ -52,6 +52,10 @@ import org.slf4j.LoggerFactory;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig.DatasetStorage;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
 import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
+import uk.ac.rdg.resc.edal.dataset.DatasetStatistics;
+import uk.ac.rdg.resc.edal.dataset.GridDataBlockCache;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
+import uk.ac.rdg.resc.edal.dataset.OverviewPyramid;
 import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.graphics.style.util.ColourPalette;
@@ -120,6 +124,31 @@ public class DatasetConfig {
     @XmlAttribute(name = "updateInterval")
     private int updateInterval = -1;
 
+    /*
+     * The number of reduced-resolution overview levels to generate. 0 means
+     * "no overviews"
+     */
+    @XmlAttribute(name = "overviewLevels")
+    private int overviewLevels = 0;
+
+    /* How to generate overviews - "average" or "decimate" */
+    @XmlAttribute(name = "overviewMethod")
+    private String overviewMethod = "average";
+
+    /*
+     * Set true to generate all overviews when the dataset is loaded, rather
+     * than when they are first needed
+     */
+    @XmlAttribute(name = "precomputeOverviews")
+    private boolean precomputeOverviews = false;
+
+    /*
+     * Set true to compute statistics of every slice of every variable in the
+     * background, so that value ranges can be found without reading data
+     */
+    @XmlAttribute(name = "computeStatistics")
+    private boolean computeStatistics = false;
+
     @XmlAttribute(name = "metadataUrl")
     private String metadataUrl = null;
 
@@ -174,6 +203,37 @@ public class DatasetConfig {
      */
     @XmlTransient
     private DateTime lastFailedUpdateTime = null;
+    /* The time taken by the last (re)load of the dataset, in milliseconds */
+    @XmlTransient
+    private long lastLoadTimeMillis = -1;
+    /* The statistics of the most recently loaded Dataset, if computed */
+    @XmlTransient
+    private DatasetStatistics statistics = null;
+    /*
+     * Set when a refresh is forced, so that all statistics are recomputed
+     * rather than just those of new slices
+     */
+    @XmlTransient
+    private volatile boolean recomputeStatistics = false;
+    /*
+     * The time (in milliseconds since the epoch) at which this dataset was
+     * last needed to handle a request, or 0 if it never has been
+     */
+    @XmlTransient
+    private volatile long lastRequestTime = 0;
+    /*
+     * The scheduler which loads this dataset, and needs to be told when the
+     * time it is next due to be refreshed changes
+     */
+    @XmlTransient
+    private DatasetLoadScheduler loadScheduler = null;
+    /*
+     * Held whilst a new Dataset is created and made available, so that a
+     * dataset which has been re-read in the background is never replaced by an
+     * older one
+     */
+    @XmlTransient
+    private final Object updateLock = new Object();
 
     public DatasetConfig() {
     }
@@ -189,11 +249,14 @@ public class DatasetConfig {
      *            The {@link DatasetStorage} object to send {@link Dataset}s and
      *            {@link EnhancedVariableMetadata} back to once a refresh is
      *            completed
+     * @return <code>true</code> if the dataset needed refreshing (whether or
+     *         not this was successful)
      */
-    public void refresh(DatasetStorage datasetStorage) {
+    public boolean refresh(DatasetStorage datasetStorage) {
         if (!needsRefresh()) {
-            return;
+            return false;
         }
+        long start = System.currentTimeMillis();
         loadingProgress = new ArrayList<String>();
         /*
          * Include the id of the dataset in the thread for debugging purposes
@@ -234,10 +297,13 @@ public class DatasetConfig {
             err = e;
             e.printStackTrace();
         }
+        lastLoadTimeMillis = System.currentTimeMillis() - start;
+        return true;
     }
 
-    public void createDataset(DatasetStorage datasetStorage) throws InstantiationException,
-            IllegalAccessException, ClassNotFoundException, IOException, EdalException {
+    public void createDataset(final DatasetStorage datasetStorage)
+            throws InstantiationException, IllegalAccessException, ClassNotFoundException,
+            IOException, EdalException {
         loadingProgress.add("Starting loading");
 
         /*
@@ -251,9 +317,53 @@ public class DatasetConfig {
          * TODO In the old version, we dealt with OPeNDAP credentials here...
          */
 
-        Dataset dataset = factory.createDataset(id, location);
+        /*
+         * The factory may give us a dataset from stored metadata straight
+         * away, and re-read it in the background if it has changed
+         */
+        synchronized (updateLock) {
+            Dataset dataset = factory.createDataset(id, location,
+                    new DatasetFactory.DatasetUpdateListener() {
+                        @Override
+                        public void datasetUpdated(Dataset dataset) {
+                            synchronized (updateLock) {
+                                if (disabled) {
+                                    return;
+                                }
+                                loadingProgress.add("Dataset re-read in the background");
+                                datasetCreated(dataset, datasetStorage);
+                                lastSuccessfulUpdateTime = new DateTime();
+                            }
+                        }
+                    });
+
+            loadingProgress.add("Dataset created");
+            datasetCreated(dataset, datasetStorage);
+        }
+    }
 
-        loadingProgress.add("Dataset created");
+    /*
+     * Makes a newly-created Dataset available, adding default configuration
+     * for any new variables
+     */
+    private void datasetCreated(Dataset dataset, DatasetStorage datasetStorage) {
+        OverviewPyramid overviews = null;
+        if (overviewLevels > 0 && dataset instanceof GriddedDataset) {
+            overviews = new OverviewPyramid((GriddedDataset) dataset, overviewLevels,
+                    getOverviewMethod());
+            ((GriddedDataset) dataset).setOverviewPyramid(overviews);
+        }
+        if (statistics != null) {
+            /*
+             * Stop computing statistics for the previous version of the dataset
+             */
+            statistics.cancel();
+            statistics = null;
+        }
+        if (computeStatistics && dataset instanceof GriddedDataset) {
+            statistics = new DatasetStatistics((GriddedDataset) dataset);
+            ((GriddedDataset) dataset).setStatistics(statistics);
+        }
         /*
          * Loop through existing variables and check that they are still there,
          * removing them if not
@@ -291,14 +401,39 @@ public class DatasetConfig {
         loadingProgress.add("Making this dataset available through the WMS catalogue");
         datasetStorage.datasetLoaded(dataset, variables.values());
 
+        /*
+         * Any data cached for a previous version of this dataset is now stale
+         */
+        GridDataBlockCache.invalidate(id);
+
+        if (overviews != null && precomputeOverviews) {
+            loadingProgress.add("Scheduling generation of overviews");
+            overviews.precompute();
+        }
+
+        if (statistics != null) {
+            loadingProgress.add("Scheduling computation of statistics");
+            statistics.update(recomputeStatistics);
+            recomputeStatistics = false;
+        }
+
         loadingProgress.add("Finished loading dataset metadata");
     }
 
     private boolean needsRefresh() {
+        return getMillisUntilRefresh() == 0;
+    }
+
+    /**
+     * @return The time until this dataset next needs refreshing, in
+     *         milliseconds. 0 if it needs refreshing now, or -1 if it does not
+     *         currently need refreshing at all.
+     */
+    long getMillisUntilRefresh() {
         if (disabled || state == DatasetState.LOADING || state == DatasetState.UPDATING) {
-            return false;
+            return -1;
         } else if (state == DatasetState.NEEDS_REFRESH) {
-            return true;
+            return 0;
         } else if (state == DatasetState.ERROR) {
             /*
              * We implement an exponential backoff for reloading datasets that
@@ -308,18 +443,20 @@ public class DatasetConfig {
             /* The maximum interval between refreshes is 10 minutes */
             delaySeconds = Math.min(delaySeconds, 10 * 60);
             /* lastFailedUpdateTime should never be null: this is defensive */
-            boolean needsRefresh = lastFailedUpdateTime == null ? true : new DateTime()
-                    .isAfter(lastFailedUpdateTime.plusSeconds((int) delaySeconds));
-            return needsRefresh;
+            if (lastFailedUpdateTime == null) {
+                return 0;
+            }
+            return Math.max(0, lastFailedUpdateTime.plusSeconds((int) delaySeconds).getMillis()
+                    - System.currentTimeMillis());
         } else if (this.updateInterval < 0) {
             /* We never update this dataset */
-            return false;
+            return -1;
         } else {
             /*
-             * State = READY. Check the age of the metadata Return true if we
-             * are after the next scheduled update
+             * State = READY. Return the time until the next scheduled update
              */
-            return new DateTime().isAfter(lastSuccessfulUpdateTime.plusMinutes(updateInterval));
+            return Math.max(0, lastSuccessfulUpdateTime.plusMinutes(updateInterval).getMillis()
+                    - System.currentTimeMillis());
         }
     }
 
@@ -329,6 +466,31 @@ public class DatasetConfig {
     public void forceRefresh() {
         this.err = null;
         this.state = DatasetState.NEEDS_REFRESH;
+        this.recomputeStatistics = true;
+        refreshTimeChanged();
+    }
+
+    /*
+     * Tells the scheduler (if any) that the time at which this dataset next
+     * needs refreshing may have changed
+     */
+    private void refreshTimeChanged() {
+        DatasetLoadScheduler scheduler = loadScheduler;
+        if (scheduler != null) {
+            scheduler.reschedule(this);
+        }
+    }
+
+    void setLoadScheduler(DatasetLoadScheduler loadScheduler) {
+        this.loadScheduler = loadScheduler;
+    }
+
+    long getLastRequestTime() {
+        return lastRequestTime;
+    }
+
+    void setLastRequestTime(long lastRequestTime) {
+        this.lastRequestTime = lastRequestTime;
     }
 
     /*
@@ -385,6 +547,44 @@ public class DatasetConfig {
         return updateInterval;
     }
 
+    /**
+     * @return The number of reduced-resolution overview levels generated for
+     *         this dataset. 0 means that overviews are not used.
+     */
+    public int getOverviewLevels() {
+        return overviewLevels;
+    }
+
+    /**
+     * @return The {@link OverviewPyramid.Method} used to generate overviews
+     */
+    public OverviewPyramid.Method getOverviewMethod() {
+        try {
+            return OverviewPyramid.Method.valueOf(overviewMethod.toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            log.warn("Invalid overview method \"" + overviewMethod + "\" for dataset " + id
+                    + " - using average");
+            return OverviewPyramid.Method.AVERAGE;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if all overviews should be generated when the
+     *         dataset is loaded, <code>false</code> if they should be generated
+     *         as they are needed
+     */
+    public boolean isPrecomputeOverviews() {
+        return precomputeOverviews;
+    }
+
+    /**
+     * @return <code>true</code> if statistics of the values of each variable
+     *         are computed in the background when the dataset is loaded
+     */
+    public boolean isComputeStatistics() {
+        return computeStatistics;
+    }
+
     /**
      * @return The class used to convert the location given in
      *         {@link DatasetConfig#getLocation()} to a {@link Dataset}
@@ -556,10 +756,28 @@ public class DatasetConfig {
 
     public void setDisabled(boolean disabled) {
         this.disabled = disabled;
+        refreshTimeChanged();
     }
 
     public void setUpdateInterval(int updateInterval) {
         this.updateInterval = updateInterval;
+        refreshTimeChanged();
+    }
+
+    public void setOverviewLevels(int overviewLevels) {
+        this.overviewLevels = overviewLevels;
+    }
+
+    public void setOverviewMethod(String overviewMethod) {
+        this.overviewMethod = overviewMethod;
+    }
+
+    public void setPrecomputeOverviews(boolean precomputeOverviews) {
+        this.precomputeOverviews = precomputeOverviews;
+    }
+
+    public void setComputeStatistics(boolean computeStatistics) {
+        this.computeStatistics = computeStatistics;
     }
 
     public void setMetadataUrl(String metadataUrl) {
@@ -576,6 +794,7 @@ public class DatasetConfig {
 
     public void setState(DatasetState state) {
         this.state = state;
+        refreshTimeChanged();
     }
 
     public void setErr(Exception err) {
@@ -593,6 +812,14 @@ public class DatasetConfig {
     public DateTime getLastUpdateTime() {
         return lastSuccessfulUpdateTime;
     }
+
+    /**
+     * @return The time taken by the last (re)load of this dataset in
+     *         milliseconds, or -1 if it has not been loaded
+     */
+    public long getLastLoadTimeMillis() {
+        return lastLoadTimeMillis;
+    }
     
     public void setLastSuccessfulUpdateTime(DateTime lastSuccessfulUpdateTime) {
         this.lastSuccessfulUpdateTime = lastSuccessfulUpdateTime;
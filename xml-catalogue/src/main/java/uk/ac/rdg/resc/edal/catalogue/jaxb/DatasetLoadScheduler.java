@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.catalogue.jaxb;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig.DatasetStorage;
+
+/**
+ * Schedules the (re)loading of the datasets in a {@link CatalogueConfig}.
+ * 
+ * Datasets are loaded by a configurable number of threads. Rather than
+ * polling every dataset, each dataset is queued when it is next due to be
+ * refreshed. Datasets which have been requested are loaded first, followed by
+ * datasets which have never been loaded, followed by refreshes of datasets
+ * which are already available. Within each of these, the most recently
+ * requested datasets are loaded first.
+ * 
+ * In lazy mode, datasets are not loaded at startup. Instead, a dataset is
+ * loaded the first time it is requested by ID, and the request waits for it to
+ * load. Until then it is not available to anything which lists all of the
+ * datasets in a catalogue, so lazy mode is only suitable for clients which
+ * already know the IDs of the datasets they want.
+ */
+public class DatasetLoadScheduler {
+    private static final Logger log = LoggerFactory.getLogger(DatasetLoadScheduler.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /* The default maximum time that a request waits for a lazily-loaded dataset */
+    private static final long DEFAULT_LAZY_LOAD_TIMEOUT_MILLIS = 60 * 1000L;
+
+    /*
+     * Load priorities, highest first
+     */
+    private static final int REQUESTED = 0;
+    private static final int FIRST_LOAD = 1;
+    private static final int REFRESH = 2;
+
+    private final ThreadPoolExecutor loaders;
+    private final ScheduledExecutorService timer;
+
+    /* The datasets which are being managed, with the storage they load into */
+    private final Map<DatasetConfig, DatasetStorage> datasets = new IdentityHashMap<>();
+    /* The pending load of each dataset, whether it is waiting, queued or running */
+    private final Map<DatasetConfig, LoadTask> tasks = new IdentityHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile boolean lazy = false;
+    private volatile long lazyLoadTimeoutMillis = DEFAULT_LAZY_LOAD_TIMEOUT_MILLIS;
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong totalLoadMillis = new AtomicLong();
+    private final AtomicLong maxLoadMillis = new AtomicLong();
+
+    public DatasetLoadScheduler() {
+        loaders = new ThreadPoolExecutor(DEFAULT_PARALLELISM, DEFAULT_PARALLELISM, 60L,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "dataset-loader-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        loaders.allowCoreThreadTimeOut(true);
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "dataset-load-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the number of datasets which can be loaded at once
+     * 
+     * @param parallelism
+     *            The number of threads to load datasets with. Defaults to
+     *            {@link DatasetLoadScheduler#DEFAULT_PARALLELISM}
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("At least one loading thread is required");
+        }
+        /*
+         * The core pool size may not exceed the maximum pool size at any time
+         */
+        if (parallelism > loaders.getMaximumPoolSize()) {
+            loaders.setMaximumPoolSize(parallelism);
+            loaders.setCorePoolSize(parallelism);
+        } else {
+            loaders.setCorePoolSize(parallelism);
+            loaders.setMaximumPoolSize(parallelism);
+        }
+    }
+
+    public int getParallelism() {
+        return loaders.getCorePoolSize();
+    }
+
+    /**
+     * Sets whether datasets are loaded lazily. This only affects datasets
+     * which are scheduled after it is set.
+     * 
+     * @param lazy
+     *            If <code>true</code>, datasets are not loaded until they are
+     *            first requested, and are not listed until then. Defaults to
+     *            <code>false</code>
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets the maximum time that a request waits for a lazily-loaded dataset.
+     * The dataset continues loading after this.
+     * 
+     * @param timeoutMillis
+     *            The timeout in milliseconds. Defaults to one minute.
+     */
+    void setLazyLoadTimeout(long timeoutMillis) {
+        lazyLoadTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Starts managing the loading of a dataset. Unless this scheduler is lazy,
+     * the dataset will be loaded as soon as possible.
+     * 
+     * @param dataset
+     *            The {@link DatasetConfig} to load
+     * @param datasetStorage
+     *            The {@link DatasetStorage} to send the loaded dataset to
+     */
+    public synchronized void schedule(DatasetConfig dataset, DatasetStorage datasetStorage) {
+        datasets.put(dataset, datasetStorage);
+        dataset.setLoadScheduler(this);
+        if (lazy && dataset.getLastUpdateTime() == null) {
+            return;
+        }
+        reschedule(dataset);
+    }
+
+    /**
+     * Stops managing the loading of a dataset, cancelling any pending load
+     * 
+     * @param dataset
+     *            The {@link DatasetConfig} to stop loading
+     */
+    public synchronized void remove(DatasetConfig dataset) {
+        datasets.remove(dataset);
+        dataset.setLoadScheduler(null);
+        LoadTask task = tasks.remove(dataset);
+        if (task != null) {
+            if (task.timer != null) {
+                task.timer.cancel(false);
+            }
+            loaders.remove(task);
+        }
+    }
+
+    /**
+     * Called when the time at which a dataset needs refreshing may have
+     * changed. Schedules its next refresh, unless it is already queued or
+     * being loaded.
+     */
+    synchronized void reschedule(DatasetConfig dataset) {
+        DatasetStorage datasetStorage = datasets.get(dataset);
+        if (datasetStorage == null) {
+            return;
+        }
+        LoadTask task = tasks.get(dataset);
+        if (task != null) {
+            if (task.timer == null) {
+                /*
+                 * It is queued or being loaded, and will be rescheduled once
+                 * the load is complete
+                 */
+                return;
+            }
+            task.timer.cancel(false);
+            tasks.remove(dataset);
+        }
+
+        long delay = dataset.getMillisUntilRefresh();
+        if (delay < 0) {
+            return;
+        }
+        final LoadTask newTask = new LoadTask(dataset, datasetStorage,
+                dataset.getLastUpdateTime() == null ? FIRST_LOAD : REFRESH);
+        tasks.put(dataset, newTask);
+        if (delay == 0) {
+            enqueue(newTask);
+        } else {
+            newTask.timer = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (DatasetLoadScheduler.this) {
+                        if (tasks.get(newTask.dataset) == newTask && newTask.timer != null) {
+                            newTask.timer = null;
+                            enqueue(newTask);
+                        }
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Must be called whilst synchronized on this scheduler
+     */
+    private void enqueue(LoadTask task) {
+        task.requestTime = task.dataset.getLastRequestTime();
+        task.queued = true;
+        loaders.execute(task);
+    }
+
+    /**
+     * Should be called whenever a dataset is needed to handle a request. If
+     * the dataset is waiting to be loaded, it is moved to the front of the
+     * queue. If it is to be loaded lazily and has not yet been loaded, it is
+     * loaded and this method waits for the load to complete.
+     * 
+     * @param dataset
+     *            The requested {@link DatasetConfig}
+     */
+    public void datasetRequested(DatasetConfig dataset) {
+        dataset.setLastRequestTime(System.currentTimeMillis());
+        LoadTask task;
+        boolean wait;
+        synchronized (this) {
+            DatasetStorage datasetStorage = datasets.get(dataset);
+            if (datasetStorage == null) {
+                return;
+            }
+            task = tasks.get(dataset);
+            if (task == null) {
+                if (dataset.getLastUpdateTime() != null || dataset.isDisabled()
+                        || dataset.getState() != DatasetConfig.DatasetState.NEEDS_REFRESH) {
+                    return;
+                }
+                /*
+                 * A lazily-loaded dataset which has not been loaded yet
+                 */
+                task = new LoadTask(dataset, datasetStorage, REQUESTED);
+                tasks.put(dataset, task);
+                enqueue(task);
+            } else if (task.queued && task.priority != REQUESTED) {
+                /*
+                 * Re-queue the task so that it is ordered by its new priority
+                 */
+                if (loaders.remove(task)) {
+                    task.priority = REQUESTED;
+                    enqueue(task);
+                }
+            }
+            wait = lazy && dataset.getLastUpdateTime() == null && task.timer == null;
+        }
+
+        if (wait) {
+            try {
+                if (!task.finished.await(lazyLoadTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    log.warn("Timed out waiting for dataset " + dataset.getId() + " to load");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops loading datasets. Loads which are in progress are interrupted, and
+     * no datasets will be scheduled again.
+     */
+    public synchronized void shutdown() {
+        for (DatasetConfig dataset : datasets.keySet()) {
+            dataset.setLoadScheduler(null);
+        }
+        datasets.clear();
+        tasks.clear();
+        timer.shutdownNow();
+        loaders.shutdownNow();
+    }
+
+    /**
+     * @return The number of datasets which are waiting to be loaded
+     */
+    public int getQueueDepth() {
+        return loaders.getQueue().size();
+    }
+
+    /**
+     * @return The number of datasets which are currently being loaded
+     */
+    public int getActiveLoads() {
+        return loaders.getActiveCount();
+    }
+
+    /**
+     * @return The number of times a dataset has been (re)loaded
+     */
+    public long getCompletedLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return The mean time taken to (re)load a dataset, in milliseconds
+     */
+    public long getMeanLoadTimeMillis() {
+        long n = loads.get();
+        return n == 0 ? 0 : totalLoadMillis.get() / n;
+    }
+
+    /**
+     * @return The longest time taken to (re)load a dataset, in milliseconds
+     */
+    public long getMaxLoadTimeMillis() {
+        return maxLoadMillis.get();
+    }
+
+    private void recordLoad(long millis) {
+        loads.incrementAndGet();
+        totalLoadMillis.addAndGet(millis);
+        long max;
+        while (millis > (max = maxLoadMillis.get())) {
+            if (maxLoadMillis.compareAndSet(max, millis)) {
+                break;
+            }
+        }
+    }
+
+    private final class LoadTask implements Runnable, Comparable<LoadTask> {
+        private final DatasetConfig dataset;
+        private final DatasetStorage datasetStorage;
+        private final long order = sequence.incrementAndGet();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        /*
+         * These are guarded by the scheduler. priority and requestTime are
+         * only changed whilst the task is not in the queue.
+         */
+        private int priority;
+        private long requestTime;
+        private boolean queued = false;
+        private ScheduledFuture<?> timer = null;
+
+        private LoadTask(DatasetConfig dataset, DatasetStorage datasetStorage, int priority) {
+            this.dataset = dataset;
+            this.datasetStorage = datasetStorage;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            synchronized (DatasetLoadScheduler.this) {
+                queued = false;
+            }
+            try {
+                long start = System.currentTimeMillis();
+                if (dataset.refresh(datasetStorage)) {
+                    recordLoad(System.currentTimeMillis() - start);
+                }
+            } catch (RuntimeException e) {
+                log.error("Problem loading dataset " + dataset.getId(), e);
+            } finally {
+                finished.countDown();
+                synchronized (DatasetLoadScheduler.this) {
+                    if (tasks.get(dataset) == this) {
+                        tasks.remove(dataset);
+                    }
+                    reschedule(dataset);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            if (requestTime != other.requestTime) {
+                return requestTime > other.requestTime ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.catalogue.jaxb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig.DatasetStorage;
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+
+/**
+ * Test class for {@link DatasetLoadScheduler}. The datasets record when they
+ * are loaded rather than actually reading any data.
+ */
+public class DatasetLoadSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private DatasetLoadScheduler scheduler;
+    private DatasetStorage storage;
+    /* The IDs of the datasets, in the order in which their loads started */
+    private List<String> loadOrder;
+
+    @Before
+    public void setUp() {
+        scheduler = new DatasetLoadScheduler();
+        storage = new DatasetStorage() {
+            @Override
+            public void datasetLoaded(Dataset dataset, Collection<VariableConfig> variables) {
+            }
+        };
+        loadOrder = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testPriorityOrder() throws InterruptedException {
+        /*
+         * Occupy the only loading thread, so that the other datasets queue up
+         * behind it
+         */
+        scheduler.setParallelism(1);
+        TestDataset blocker = new TestDataset("blocker");
+        blocker.gate = new CountDownLatch(1);
+        scheduler.schedule(blocker, storage);
+        assertTrue(blocker.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        TestDataset refresh = new TestDataset("refresh");
+        refresh.lastUpdateTime = new DateTime();
+        TestDataset requestedRefresh = new TestDataset("requestedRefresh");
+        requestedRefresh.lastUpdateTime = new DateTime();
+        TestDataset firstLoad = new TestDataset("firstLoad");
+        TestDataset recentFirstLoad = new TestDataset("recentFirstLoad");
+        recentFirstLoad.setLastRequestTime(1000L);
+        TestDataset requestedFirstLoad = new TestDataset("requestedFirstLoad");
+        for (TestDataset dataset : Arrays.asList(refresh, requestedRefresh, firstLoad,
+                recentFirstLoad, requestedFirstLoad)) {
+            scheduler.schedule(dataset, storage);
+        }
+        assertEquals(5, scheduler.getQueueDepth());
+
+        /*
+         * Requested datasets jump the queue, most recently requested first
+         */
+        scheduler.datasetRequested(requestedRefresh);
+        Thread.sleep(20);
+        scheduler.datasetRequested(requestedFirstLoad);
+        assertEquals(5, scheduler.getQueueDepth());
+
+        blocker.gate.countDown();
+        waitForLoads(6);
+        assertEquals(Arrays.asList("blocker", "requestedFirstLoad", "requestedRefresh",
+                "recentFirstLoad", "firstLoad", "refresh"), loadOrder);
+    }
+
+    @Test
+    public void testRescheduleAfterLoad() throws InterruptedException {
+        /*
+         * This dataset needs refreshing again shortly after each load
+         */
+        TestDataset dataset = new TestDataset("dataset");
+        dataset.refreshInterval = 20;
+        dataset.finished = new CountDownLatch(3);
+        scheduler.schedule(dataset, storage);
+        assertTrue(dataset.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        /*
+         * Once it is removed it should not be loaded again
+         */
+        scheduler.remove(dataset);
+        Thread.sleep(100);
+        int nLoads = loadOrder.size();
+        assertTrue(nLoads >= 3);
+        Thread.sleep(200);
+        assertEquals(nLoads, loadOrder.size());
+
+        /*
+         * Changing the refresh time reschedules it, but only whilst it is
+         * being managed
+         */
+        dataset.forceRefresh();
+        Thread.sleep(100);
+        assertEquals(nLoads, loadOrder.size());
+    }
+
+    @Test
+    public void testForceRefresh() throws InterruptedException {
+        TestDataset dataset = new TestDataset("dataset");
+        dataset.finished = new CountDownLatch(1);
+        scheduler.schedule(dataset, storage);
+        assertTrue(dataset.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        /*
+         * The dataset does not need refreshing again until it is forced to
+         */
+        Thread.sleep(100);
+        assertEquals(1, loadOrder.size());
+        dataset.finished = new CountDownLatch(1);
+        dataset.forceRefresh();
+        assertTrue(dataset.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("dataset", "dataset"), loadOrder);
+    }
+
+    @Test
+    public void testRemove() throws InterruptedException {
+        scheduler.setParallelism(1);
+        TestDataset blocker = new TestDataset("blocker");
+        blocker.gate = new CountDownLatch(1);
+        scheduler.schedule(blocker, storage);
+        assertTrue(blocker.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        /*
+         * Remove one dataset whilst it is queued, and one whilst it is
+         * waiting for its next refresh
+         */
+        TestDataset queued = new TestDataset("queued");
+        scheduler.schedule(queued, storage);
+        TestDataset waiting = new TestDataset("waiting");
+        waiting.lastUpdateTime = new DateTime();
+        waiting.refreshTime = System.currentTimeMillis() + 50;
+        scheduler.schedule(waiting, storage);
+        assertEquals(1, scheduler.getQueueDepth());
+        scheduler.remove(queued);
+        scheduler.remove(waiting);
+        assertEquals(0, scheduler.getQueueDepth());
+
+        blocker.gate.countDown();
+        assertTrue(blocker.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(Arrays.asList("blocker"), loadOrder);
+
+        /*
+         * Requests for datasets which are no longer managed are ignored
+         */
+        scheduler.datasetRequested(queued);
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("blocker"), loadOrder);
+    }
+
+    @Test
+    public void testLazy() throws InterruptedException {
+        scheduler.setLazy(true);
+        TestDataset dataset = new TestDataset("dataset");
+        scheduler.schedule(dataset, storage);
+        Thread.sleep(100);
+        assertTrue(loadOrder.isEmpty());
+        assertEquals(0, scheduler.getQueueDepth());
+
+        /*
+         * The first request waits for the dataset to load
+         */
+        dataset.delayMillis = 100;
+        scheduler.datasetRequested(dataset);
+        assertEquals(0, dataset.finished.getCount());
+        assertEquals(Arrays.asList("dataset"), loadOrder);
+
+        /*
+         * Subsequent requests do not load it again
+         */
+        scheduler.datasetRequested(dataset);
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("dataset"), loadOrder);
+    }
+
+    @Test
+    public void testLazyTimeout() throws InterruptedException {
+        scheduler.setLazy(true);
+        scheduler.setLazyLoadTimeout(100);
+        TestDataset dataset = new TestDataset("dataset");
+        dataset.gate = new CountDownLatch(1);
+        scheduler.schedule(dataset, storage);
+
+        /*
+         * The request gives up waiting, but the dataset carries on loading
+         */
+        long start = System.currentTimeMillis();
+        scheduler.datasetRequested(dataset);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 100);
+        assertTrue(elapsed < TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertEquals(1, dataset.finished.getCount());
+        assertTrue(dataset.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        dataset.gate.countDown();
+        assertTrue(dataset.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("dataset"), loadOrder);
+    }
+
+    /**
+     * Waits for the scheduler to record the given number of completed loads
+     */
+    private void waitForLoads(long nLoads) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (scheduler.getCompletedLoads() < nLoads && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(nLoads, scheduler.getCompletedLoads());
+    }
+
+    /**
+     * A {@link DatasetConfig} which needs refreshing when it is created, and
+     * records each load. Loads can be delayed or held until a gate is opened.
+     */
+    private class TestDataset extends DatasetConfig {
+        private volatile DateTime lastUpdateTime = null;
+        /* The time at which a refresh is needed, or -1 for never */
+        private volatile long refreshTime = 0;
+        /* The time until a refresh is needed after each load, or -1 for never */
+        private volatile long refreshInterval = -1;
+        private volatile long delayMillis = 0;
+        private volatile CountDownLatch gate = null;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile CountDownLatch finished = new CountDownLatch(1);
+
+        public TestDataset(String id) {
+            setId(id);
+        }
+
+        @Override
+        public boolean refresh(DatasetStorage datasetStorage) {
+            if (getMillisUntilRefresh() != 0) {
+                return false;
+            }
+            loadOrder.add(getId());
+            started.countDown();
+            try {
+                if (gate != null) {
+                    gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lastUpdateTime = new DateTime();
+            refreshTime = refreshInterval < 0 ? -1 : System.currentTimeMillis() + refreshInterval;
+            finished.countDown();
+            return true;
+        }
+
+        @Override
+        long getMillisUntilRefresh() {
+            return refreshTime < 0 ? -1 : Math.max(0, refreshTime - System.currentTimeMillis());
+        }
+
+        @Override
+        public void forceRefresh() {
+            refreshTime = 0;
+            super.forceRefresh();
+        }
+
+        @Override
+        public DateTime getLastUpdateTime() {
+            return lastUpdateTime;
+        }
+    }
+}